@@ -0,0 +1,267 @@
+package dcamj2.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event types. This class is compiled in its own source set
+ * against the jdk.jfr API, and is only loaded reflectively by
+ * {@link DcamEvents} once that API is known to be available.
+ *
+ * @author royer
+ */
+final class FlightRecorderEvents implements DcamEventFactory
+{
+  // Wait and transfer info events are emitted for every frame, whether they
+  // are enabled is cached and refreshed when a recording starts or stops so
+  // that they are not allocated when nobody records them:
+  private static final EventType cWaitEventType =
+                                                EventType.getEventType(WaitEvent.class);
+  private static final EventType cTransferInfoEventType =
+                                                        EventType.getEventType(TransferInfoEvent.class);
+  private static volatile boolean sWaitEnabled;
+  private static volatile boolean sTransferInfoEnabled;
+
+  static
+  {
+    refreshEnabled();
+    FlightRecorder.addListener(new FlightRecorderListener()
+    {
+      @Override
+      public void recordingStateChanged(final Recording pRecording)
+      {
+        refreshEnabled();
+      }
+    });
+  }
+
+  FlightRecorderEvents()
+  {
+  }
+
+  private static void refreshEnabled()
+  {
+    sWaitEnabled = cWaitEventType.isEnabled();
+    sTransferInfoEnabled = cTransferInfoEventType.isEnabled();
+  }
+
+  @Override
+  public boolean isWaitEnabled()
+  {
+    return sWaitEnabled;
+  }
+
+  @Override
+  public boolean isTransferInfoEnabled()
+  {
+    return sTransferInfoEnabled;
+  }
+
+  @Override
+  public DcamEvent open(final long pDeviceId)
+  {
+    final OpenEvent lEvent = new OpenEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Override
+  public DcamEvent transaction(final long pDeviceId,
+                               final int pNumberOfWrites)
+  {
+    final TransactionEvent lEvent = new TransactionEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.writes = pNumberOfWrites;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Override
+  public DcamEvent buffer(final long pDeviceId,
+                          final String pOperation,
+                          final long pNumberOfBuffers)
+  {
+    final BufferEvent lEvent = new BufferEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.operation = pOperation;
+    lEvent.buffers = pNumberOfBuffers;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Override
+  public DcamEvent capture(final long pDeviceId,
+                           final String pOperation,
+                           final long pMode)
+  {
+    final CaptureEvent lEvent = new CaptureEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.operation = pOperation;
+    lEvent.mode = pMode;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Override
+  public DcamEvent waitStart(final long pDeviceId,
+                             final long pEventMask,
+                             final long pTimeOut)
+  {
+    final WaitEvent lEvent = new WaitEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.eventMask = pEventMask;
+    lEvent.timeout = pTimeOut;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Override
+  public DcamEvent transferInfo(final long pDeviceId)
+  {
+    final TransferInfoEvent lEvent = new TransferInfoEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Override
+  public DcamEvent stack(final long pDeviceId, final long pDepth)
+  {
+    final StackEvent lEvent = new StackEvent();
+    lEvent.deviceId = pDeviceId;
+    lEvent.depth = pDepth;
+    lEvent.begin();
+    return lEvent;
+  }
+
+  @Category("DcamJ")
+  @StackTrace(false)
+  abstract static class DcamFlightRecorderEvent extends Event
+                                                implements DcamEvent
+  {
+    @Label("Device")
+    long deviceId;
+
+    @Label("Success")
+    boolean success;
+
+    void setResult(final long pResult)
+    {
+    }
+
+    @Override
+    public void commit(final boolean pSuccess)
+    {
+      success = pSuccess;
+      commit();
+    }
+
+    @Override
+    public void commit(final boolean pSuccess, final long pResult)
+    {
+      setResult(pResult);
+      commit(pSuccess);
+    }
+  }
+
+  @Name("dcamj2.Open")
+  @Label("Device Open")
+  @Description("Opens a device and waits for it to become ready")
+  static class OpenEvent extends DcamFlightRecorderEvent
+  {
+  }
+
+  @Name("dcamj2.PropertyTransaction")
+  @Label("Property Transaction")
+  static class TransactionEvent extends DcamFlightRecorderEvent
+  {
+    @Label("Writes")
+    int writes;
+
+    @Label("Failed Writes")
+    long failedWrites;
+
+    @Override
+    void setResult(final long pResult)
+    {
+      failedWrites = pResult;
+    }
+  }
+
+  @Name("dcamj2.Buffer")
+  @Label("Buffer Attach/Release")
+  static class BufferEvent extends DcamFlightRecorderEvent
+  {
+    @Label("Operation")
+    String operation;
+
+    @Label("Buffers")
+    long buffers;
+  }
+
+  @Name("dcamj2.Capture")
+  @Label("Capture Start/Stop")
+  static class CaptureEvent extends DcamFlightRecorderEvent
+  {
+    @Label("Operation")
+    String operation;
+
+    @Label("Start Mode")
+    long mode;
+  }
+
+  @Name("dcamj2.Wait")
+  @Label("Wait")
+  static class WaitEvent extends DcamFlightRecorderEvent
+  {
+    @Label("Event Mask")
+    long eventMask;
+
+    @Label("Timeout")
+    @Timespan(Timespan.MILLISECONDS)
+    long timeout;
+
+    @Label("Event Happened")
+    long eventHappened;
+
+    @Override
+    void setResult(final long pResult)
+    {
+      eventHappened = pResult;
+    }
+  }
+
+  @Name("dcamj2.TransferInfo")
+  @Label("Transfer Info")
+  static class TransferInfoEvent extends DcamFlightRecorderEvent
+  {
+    @Label("Frame Count")
+    long frameCount;
+
+    @Override
+    void setResult(final long pResult)
+    {
+      frameCount = pResult;
+    }
+  }
+
+  @Name("dcamj2.Stack")
+  @Label("Stack")
+  @Description("From the setup of a stack to its completion")
+  static class StackEvent extends DcamFlightRecorderEvent
+  {
+    @Label("Depth")
+    long depth;
+  }
+
+}
@@ -0,0 +1,69 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of the per-frame driver calls across backends. Each
+ * backend runs in its own fork since the backend is chosen once per JVM. Only
+ * the simulator runs by default: the 'bridj' and 'raw' backends need a camera
+ * and the Hamamatsu driver, and are selected explicitly:
+ *
+ * gradle jmh -Pjmh.args="DcamBackendBenchmark -p backend=bridj,raw"
+ *
+ * Without hardware, the only comparison of the raw and BridJ bindings is that
+ * of {@link DcamErrorDecodeBenchmark}, which covers return code decoding
+ * only.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamBackendBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "simulator" })
+  public String backend;
+
+  @Override
+  protected String getBackend()
+  {
+    return backend;
+  }
+
+  @Benchmark
+  public long transferInfo()
+  {
+    return mDcamDevice.getTransferInfo().nFrameCount();
+  }
+
+  @Benchmark
+  public long status()
+  {
+    return mDcamDevice.getStatusValue();
+  }
+
+  @Benchmark
+  public double getProperty()
+  {
+    return mDcamDevice.getProperties()
+                      .getDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME.value);
+  }
+
+}
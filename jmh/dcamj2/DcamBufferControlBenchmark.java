@@ -0,0 +1,78 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamj2.imgseq.DcamImageSequence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Java side of buffer attachment: building the plane pointer
+ * array handed to the driver, and the full attach (release and attach
+ * through the simulator) when alternating between two image sequences.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamBufferControlBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "10", "100", "1000" })
+  public int depth;
+
+  private DcamBufferControl mBufferControl;
+  private DcamImageSequence mSequenceA, mSequenceB;
+  private boolean mToggle;
+
+  @Override
+  protected void afterOpen()
+  {
+    mBufferControl = mDcamDevice.getBufferControl();
+
+    mSequenceA = new DcamImageSequence(mDcamDevice, 2, 64, 64, depth);
+    mSequenceB = new DcamImageSequence(mDcamDevice, 2, 64, 64, depth);
+    mDcamDevice.setCenteredROI(mSequenceA.getWidth(),
+                               mSequenceA.getHeight());
+  }
+
+  @Override
+  protected void beforeClose()
+  {
+    mBufferControl.releaseBuffers();
+    mSequenceA.free();
+    mSequenceB.free();
+  }
+
+  private DcamImageSequence next()
+  {
+    mToggle = !mToggle;
+    return mToggle ? mSequenceA : mSequenceB;
+  }
+
+  @Benchmark
+  public boolean prepare()
+  {
+    return mBufferControl.prepareExternalBuffers(next());
+  }
+
+  @Benchmark
+  public boolean attach()
+  {
+    return mBufferControl.attachExternalBuffers(next());
+  }
+
+}
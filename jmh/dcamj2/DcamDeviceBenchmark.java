@@ -0,0 +1,77 @@
+package dcamj2;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base of the benchmarks that run against an opened device. For each trial,
+ * the library is initialized with the backend returned by
+ * {@link #getBackend()} (the simulator by default) and device 0 is opened;
+ * the device is closed and the library uninitialized afterwards. JMH does not
+ * order the set up and tear down methods of a class and its superclass, so
+ * subclasses set up and tear down their own state in {@link #afterOpen()} and
+ * {@link #beforeClose()} rather than in annotated methods.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+public abstract class DcamDeviceBenchmark
+{
+  protected DcamDevice mDcamDevice;
+
+  /**
+   * Returns the name of the backend to benchmark against
+   *
+   * @return backend name, see {@link DcamLibrary#cBackendProperty}
+   */
+  protected String getBackend()
+  {
+    return "simulator";
+  }
+
+  /**
+   * Called before the library is initialized, for example to enable
+   * statistics
+   */
+  protected void beforeInitialize()
+  {
+  }
+
+  /**
+   * Called once the device is opened
+   */
+  protected void afterOpen()
+  {
+  }
+
+  /**
+   * Called before the device is closed
+   */
+  protected void beforeClose()
+  {
+  }
+
+  @Setup(Level.Trial)
+  public void openDevice()
+  {
+    System.setProperty(DcamLibrary.cBackendProperty, getBackend());
+    beforeInitialize();
+    if (!DcamLibrary.initialize())
+      throw new IllegalStateException("Could not initialize backend: "
+                                      + getBackend());
+    mDcamDevice = new DcamDevice(0, true);
+    afterOpen();
+  }
+
+  @TearDown(Level.Trial)
+  public void closeDevice()
+  {
+    beforeClose();
+    mDcamDevice.close();
+    DcamLibrary.uninitialize();
+  }
+
+}
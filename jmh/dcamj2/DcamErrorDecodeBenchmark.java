@@ -0,0 +1,51 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamj2.backend.DcamErrors;
+
+import org.bridj.FlagSet;
+import org.bridj.IntValuedEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares how the BridJ bindings and the raw backend turn a driver return
+ * code into a DCAMERR. Needs no camera.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamErrorDecodeBenchmark
+{
+  @Param(
+  { "1", "-2147483386" }) // success, timeout
+  public int code;
+
+  @Benchmark
+  public IntValuedEnum<DCAMERR> bridj()
+  {
+    return FlagSet.fromValue(code, DCAMERR.class);
+  }
+
+  @Benchmark
+  public IntValuedEnum<DCAMERR> raw()
+  {
+    return DcamErrors.fromCode(code);
+  }
+
+}
@@ -0,0 +1,68 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamj2.imgseq.DcamAllocationPolicy;
+import dcamj2.imgseq.DcamImageSequence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the allocation (and release) of image sequences, fragmented (one
+ * buffer per plane) versus contiguous (one buffer split in planes), across
+ * plane sizes and depths, with the default allocation policy and with 2 MB
+ * aligned, pre-touched allocations. The simulator is only used for the ROI
+ * snapping done by the image sequence constructor.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamImageSequenceAllocationBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "512", "2048" })
+  public int size;
+
+  @Param(
+  { "10", "100" })
+  public int depth;
+
+  @Param(
+  { "true", "false" })
+  public boolean fragmented;
+
+  @Param(
+  { "PAGE_ALIGNED", "HUGE_PAGES_PRETOUCHED" })
+  public DcamAllocationPolicy policy;
+
+  @Benchmark
+  public long allocate()
+  {
+    final DcamImageSequence lSequence =
+                                      new DcamImageSequence(mDcamDevice,
+                                                            2,
+                                                            size,
+                                                            size,
+                                                            depth,
+                                                            fragmented,
+                                                            policy);
+    final long lSizeInBytes = lSequence.getSizeInBytes();
+    lSequence.free();
+    return lSizeInBytes;
+  }
+
+}
@@ -0,0 +1,101 @@
+package dcamj2;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import coremem.offheap.OffHeapMemory;
+import dcamj2.imgseq.DcamImageSequence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the image sequence operations done after an acquisition:
+ * consolidation into a single buffer, with all planes or with every other
+ * plane masked out, and single plane views.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamImageSequenceBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "512", "2048" })
+  public int size;
+
+  @Param(
+  { "10", "100" })
+  public int depth;
+
+  @Param(
+  { "true", "false" })
+  public boolean fragmented;
+
+  private DcamImageSequence mSequence;
+  private OffHeapMemory mDestination;
+  private ArrayList<Boolean> mAllPlanes, mEveryOtherPlane;
+  private int mPlaneIndex;
+
+  @Override
+  protected void afterOpen()
+  {
+    mSequence = new DcamImageSequence(mDcamDevice,
+                                      2,
+                                      size,
+                                      size,
+                                      depth,
+                                      fragmented);
+    mDestination =
+                 OffHeapMemory.allocateAlignedBytes("DcamImageSequenceBenchmark",
+                                                    mSequence.getSizeInBytes(),
+                                                    4096);
+
+    mAllPlanes = new ArrayList<>();
+    mEveryOtherPlane = new ArrayList<>();
+    for (int i = 0; i < depth; i++)
+    {
+      mAllPlanes.add(true);
+      mEveryOtherPlane.add(i % 2 == 0);
+    }
+  }
+
+  @Override
+  protected void beforeClose()
+  {
+    mSequence.free();
+    mDestination.free();
+  }
+
+  @Benchmark
+  public void consolidate()
+  {
+    mSequence.consolidateTo(mAllPlanes, mDestination);
+  }
+
+  @Benchmark
+  public void consolidateMasked()
+  {
+    mSequence.consolidateTo(mEveryOtherPlane, mDestination);
+  }
+
+  @Benchmark
+  public DcamImageSequence singlePlane()
+  {
+    mPlaneIndex = (mPlaneIndex + 1) % depth;
+    return mSequence.getSinglePlaneImageSequence(mPlaneIndex);
+  }
+
+}
@@ -0,0 +1,88 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Java side of property access (lookups, structure set up,
+ * caching, local snapping and transactions) against the simulator, so that
+ * the driver cost is out of the picture.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamPropertyBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "false", "true" })
+  public boolean caching;
+
+  private DcamProperties mProperties;
+  private boolean mToggle;
+
+  @Override
+  protected void afterOpen()
+  {
+    mProperties = mDcamDevice.getProperties();
+    mProperties.setCachingEnabled(caching);
+  }
+
+  private double nextExposure()
+  {
+    mToggle = !mToggle;
+    return mToggle ? 0.01 : 0.02;
+  }
+
+  @Benchmark
+  public double get()
+  {
+    return mProperties.getDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME);
+  }
+
+  @Benchmark
+  public boolean set()
+  {
+    return mProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME,
+                                              nextExposure());
+  }
+
+  @Benchmark
+  public double setAndGet()
+  {
+    return mDcamDevice.setAndGetExposure(nextExposure());
+  }
+
+  @Benchmark
+  public double predict()
+  {
+    return mDcamDevice.predictExposure(nextExposure());
+  }
+
+  @Benchmark
+  public DcamPropertyTransactionResult transaction()
+  {
+    return mProperties.transaction()
+                      .set(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME,
+                           nextExposure())
+                      .set(DCAMIDPROP.DCAM_IDPROP_BINNING, 1)
+                      .apply();
+  }
+
+}
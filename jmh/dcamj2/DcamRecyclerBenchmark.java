@@ -0,0 +1,103 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import coremem.recycling.BasicRecycler;
+import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.imgseq.DcamImageSequenceFactory;
+import dcamj2.imgseq.DcamImageSequencePool;
+import dcamj2.imgseq.DcamImageSequenceRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a recycler round trip (request, release) of image sequences
+ * created by {@link DcamImageSequenceFactory}. A round trip that does not
+ * find a compatible sequence to reuse pays for a full allocation. The same is
+ * measured for {@link DcamImageSequencePool}, with an exact request and with
+ * requests alternating between two depths served from the same slab.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamRecyclerBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "true", "false" })
+  public boolean fragmented;
+
+  private BasicRecycler<DcamImageSequence, DcamImageSequenceRequest> mRecycler;
+  private DcamImageSequenceRequest mRequest, mShallowRequest;
+  private DcamImageSequencePool mPool;
+  private boolean mToggle;
+
+  @Override
+  protected void afterOpen()
+  {
+    mRecycler = new BasicRecycler<>(new DcamImageSequenceFactory(), 4);
+    mRequest = DcamImageSequenceRequest.build(mDcamDevice,
+                                              2,
+                                              512,
+                                              512,
+                                              32,
+                                              fragmented);
+    mShallowRequest = DcamImageSequenceRequest.build(mDcamDevice,
+                                                     2,
+                                                     512,
+                                                     512,
+                                                     16,
+                                                     fragmented);
+    mPool = new DcamImageSequencePool(1L << 30);
+  }
+
+  @Override
+  protected void beforeClose()
+  {
+    mPool.free();
+  }
+
+  @Benchmark
+  public long roundTrip()
+  {
+    final DcamImageSequence lSequence = mRecycler.getOrFail(mRequest);
+    final long lDepth = lSequence.getDepth();
+    lSequence.release();
+    return lDepth;
+  }
+
+  @Benchmark
+  public long poolRoundTrip()
+  {
+    final DcamImageSequence lSequence = mPool.getOrFail(mRequest);
+    final long lDepth = lSequence.getDepth();
+    lSequence.release();
+    return lDepth;
+  }
+
+  @Benchmark
+  public long poolResize()
+  {
+    mToggle = !mToggle;
+    final DcamImageSequence lSequence =
+                                      mPool.getOrFail(mToggle ? mRequest
+                                                              : mShallowRequest);
+    final long lDepth = lSequence.getDepth();
+    lSequence.release();
+    return lDepth;
+  }
+
+}
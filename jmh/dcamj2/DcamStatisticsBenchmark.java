@@ -0,0 +1,54 @@
+package dcamj2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of driver call statistics on a cheap call (status) of
+ * the simulator backend.
+ *
+ * @author royer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DcamStatisticsBenchmark extends DcamDeviceBenchmark
+{
+  @Param(
+  { "false", "true" })
+  public boolean statistics;
+
+  @Override
+  protected void beforeInitialize()
+  {
+    if (statistics)
+      DcamLibrary.enableStatistics();
+  }
+
+  @Override
+  protected void beforeClose()
+  {
+    if (statistics)
+      System.out.println(DcamLibrary.getStatistics().getSnapshots());
+  }
+
+  @Benchmark
+  public long status()
+  {
+    return mDcamDevice.getStatusValue();
+  }
+
+}
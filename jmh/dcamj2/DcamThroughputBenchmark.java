@@ -0,0 +1,417 @@
+package dcamj2;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.sim.DcamSimulatorBackend;
+
+/**
+ * Sustained throughput benchmark. Drives {@link DcamSequenceAcquisition} and
+ * {@link DcamStreamingAcquisition} against the simulator for a fixed
+ * duration per configuration, over a matrix of ROI sizes, depths and memory
+ * layouts, and writes a JSON summary: frames/s, GB/s, per-stack setup
+ * latency, dropped frames, GC activity and allocation rate.
+ *
+ * gradle throughput -Pthroughput.args="--duration=120 --output=report.json"
+ *
+ * Options (defaults in parentheses): --duration seconds per configuration
+ * (60), --sizes (512,2048), --depths (10,100), --layouts
+ * (fragmented,contiguous), --modes (sequence,streaming), --exposure seconds
+ * (0.001), --readout full frame readout time in seconds (0.001), --pattern
+ * write full synthetic frames (true), --output file (standard output only).
+ *
+ * @author royer
+ */
+public class DcamThroughputBenchmark
+{
+  private final HashMap<String, String> mOptions = new HashMap<>();
+
+  private DcamThroughputBenchmark(String[] pArguments)
+  {
+    for (String lArgument : pArguments)
+    {
+      if (!lArgument.startsWith("--") || !lArgument.contains("="))
+        throw new IllegalArgumentException("Expected --name=value, got: "
+                                           + lArgument);
+      final int lEquals = lArgument.indexOf('=');
+      mOptions.put(lArgument.substring(2, lEquals),
+                   lArgument.substring(lEquals + 1));
+    }
+  }
+
+  private String option(String pName, String pDefault)
+  {
+    return mOptions.getOrDefault(pName, pDefault);
+  }
+
+  private List<String> listOption(String pName, String pDefault)
+  {
+    return Arrays.asList(option(pName, pDefault).split(","));
+  }
+
+  /**
+   * Runs the benchmark
+   *
+   * @param pArguments
+   *          options, see class documentation
+   * @throws IOException
+   *           if the report cannot be written
+   */
+  public static void main(String[] pArguments) throws IOException
+  {
+    final DcamThroughputBenchmark lBenchmark =
+                                             new DcamThroughputBenchmark(pArguments);
+    final String lReport = lBenchmark.run();
+    System.out.println(lReport);
+
+    final String lOutput = lBenchmark.option("output", null);
+    if (lOutput != null)
+      try (Writer lWriter = new FileWriter(lOutput))
+      {
+        lWriter.write(lReport);
+      }
+
+    // The sequence acquisition executor thread is not a daemon:
+    System.exit(0);
+  }
+
+  private String run()
+  {
+    final double lDuration =
+                           Double.parseDouble(option("duration", "60"));
+    final double lExposure =
+                           Double.parseDouble(option("exposure", "0.001"));
+
+    final DcamSimulatorBackend lSimulator = new DcamSimulatorBackend(1);
+    lSimulator.setFullFrameReadoutTime(Double.parseDouble(option("readout",
+                                                                 "0.001")));
+    lSimulator.setWritePattern(Boolean.parseBoolean(option("pattern",
+                                                           "true")));
+    DcamLibrary.setBackend(lSimulator);
+    if (!DcamLibrary.initialize())
+      throw new IllegalStateException("Could not initialize simulator");
+    final DcamDevice lDcamDevice = new DcamDevice(0, true);
+    final DcamSequenceAcquisition lSequenceAcquisition =
+                                                       new DcamSequenceAcquisition(lDcamDevice);
+
+    final StringBuilder lJson = new StringBuilder();
+    lJson.append("{\n");
+    field(lJson, 1, "java", System.getProperty("java.version"), true);
+    field(lJson, 1, "vm", System.getProperty("java.vm.name"), true);
+    field(lJson, 1, "processors",
+          Runtime.getRuntime().availableProcessors(),
+          true);
+    field(lJson, 1, "timestamp", System.currentTimeMillis(), true);
+    field(lJson, 1, "durationPerRunSeconds", lDuration, true);
+    field(lJson, 1, "exposureSeconds", lExposure, true);
+    lJson.append("  \"results\": [\n");
+
+    boolean lFirst = true;
+    for (String lMode : listOption("modes", "sequence,streaming"))
+      for (String lSize : listOption("sizes", "512,2048"))
+        for (String lDepth : listOption("depths", "10,100"))
+          for (String lLayout : listOption("layouts",
+                                           "fragmented,contiguous"))
+          {
+            final DcamImageSequence lSequence =
+                                              new DcamImageSequence(lDcamDevice,
+                                                                    2,
+                                                                    Long.parseLong(lSize),
+                                                                    Long.parseLong(lSize),
+                                                                    Long.parseLong(lDepth),
+                                                                    lLayout.equals("fragmented"));
+            System.err.format("DcamThroughputBenchmark: %s %sx%sx%s %s for %.0f s\n",
+                              lMode,
+                              lSize,
+                              lSize,
+                              lDepth,
+                              lLayout,
+                              lDuration);
+
+            final Run lRun = new Run(lMode, lLayout, lSequence);
+            if (lMode.equals("sequence"))
+              runSequence(lSequenceAcquisition,
+                          lSequence,
+                          lExposure,
+                          lDuration,
+                          lRun);
+            else if (lMode.equals("streaming"))
+              runStreaming(lDcamDevice,
+                           lSequence,
+                           lExposure,
+                           lDuration,
+                           lRun);
+            else
+              throw new IllegalArgumentException("Unknown mode: " + lMode);
+            lSequence.free();
+
+            if (!lFirst)
+              lJson.append(",\n");
+            lFirst = false;
+            lRun.appendTo(lJson);
+          }
+
+    lJson.append("\n  ]\n}");
+
+    lSequenceAcquisition.close();
+    lDcamDevice.close();
+    DcamLibrary.uninitialize();
+    return lJson.toString();
+  }
+
+  private void runSequence(DcamSequenceAcquisition pAcquisition,
+                           DcamImageSequence pSequence,
+                           double pExposure,
+                           double pDuration,
+                           Run pRun)
+  {
+    // One warm-up stack, so that ROI change and first attach are not counted:
+    pAcquisition.acquireSequence(pExposure, pSequence);
+
+    pRun.begin();
+    final long lEnd = pRun.mStartNanos + (long) (pDuration * 1e9);
+    while (System.nanoTime() < lEnd)
+    {
+      final long lCallNanos = System.nanoTime();
+      final CompletableFuture<DcamImageSequence> lFuture =
+                                                         pAcquisition.acquireSequenceFuture(pExposure,
+                                                                                            pSequence);
+      pRun.mSetupLatencies.add(System.nanoTime() - lCallNanos);
+      try
+      {
+        lFuture.get();
+        pRun.mFrames += pSequence.getDepth();
+        pRun.mStacks++;
+      }
+      catch (Throwable e)
+      {
+        pRun.mFailures++;
+      }
+    }
+    pRun.end();
+  }
+
+  private void runStreaming(DcamDevice pDcamDevice,
+                            DcamImageSequence pRing,
+                            double pExposure,
+                            double pDuration,
+                            Run pRun)
+  {
+    final AtomicLong lChecksum = new AtomicLong();
+    try (DcamStreamingAcquisition lAcquisition =
+                                               new DcamStreamingAcquisition(pDcamDevice))
+    {
+      // A consumer that touches every frame, as a real one would:
+      lAcquisition.addListener((a, f, t, i, r) -> lChecksum.addAndGet(r.getMemoryForPlane(i)
+                                                                       .getBridJPointer(Short.class)
+                                                                       .getShort()));
+
+      pRun.begin();
+      final long lCallNanos = System.nanoTime();
+      if (!lAcquisition.start(pExposure, pRing))
+      {
+        pRun.mFailures++;
+        pRun.end();
+        return;
+      }
+      pRun.mSetupLatencies.add(System.nanoTime() - lCallNanos);
+
+      sleep(pDuration);
+
+      pRun.mFrames = lAcquisition.getReceivedFrameCount();
+      pRun.mDroppedFrames = lAcquisition.getDroppedFrameCount();
+      pRun.mStacks = 1;
+      if (!lAcquisition.stop())
+        pRun.mFailures++;
+      pRun.end();
+    }
+  }
+
+  private static void sleep(double pSeconds)
+  {
+    try
+    {
+      TimeUnit.NANOSECONDS.sleep((long) (pSeconds * 1e9));
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void field(StringBuilder pJson,
+                            int pIndent,
+                            String pName,
+                            Object pValue,
+                            boolean pComma)
+  {
+    for (int i = 0; i < pIndent; i++)
+      pJson.append("  ");
+    pJson.append('"').append(pName).append("\": ");
+    if (pValue instanceof String)
+      pJson.append('"').append(pValue).append('"');
+    else if (pValue instanceof Double)
+      pJson.append(String.format(Locale.ROOT, "%.6g", pValue));
+    else
+      pJson.append(pValue);
+    if (pComma)
+      pJson.append(',');
+    pJson.append('\n');
+  }
+
+  /**
+   * Measurements of one configuration
+   */
+  private static class Run
+  {
+    // null if the JVM cannot measure allocations:
+    private static final com.sun.management.ThreadMXBean cThreadMXBean =
+                                                                      threadMXBean();
+
+    final String mMode, mLayout;
+    final long mWidth, mHeight, mDepth, mBytesPerFrame;
+    final ArrayList<Long> mSetupLatencies = new ArrayList<>();
+    long mStartNanos, mEndNanos;
+    long mFrames, mStacks, mFailures, mDroppedFrames;
+    long mGcCount, mGcTimeMillis, mAllocatedBytes;
+
+    Run(String pMode, String pLayout, DcamImageSequence pSequence)
+    {
+      mMode = pMode;
+      mLayout = pLayout;
+      mWidth = pSequence.getWidth();
+      mHeight = pSequence.getHeight();
+      mDepth = pSequence.getDepth();
+      mBytesPerFrame = pSequence.getBytesPerPixel() * mWidth * mHeight;
+    }
+
+    void begin()
+    {
+      mGcCount = -gcCount();
+      mGcTimeMillis = -gcTimeMillis();
+      mAllocatedBytes = -allocatedBytes();
+      mStartNanos = System.nanoTime();
+    }
+
+    void end()
+    {
+      mEndNanos = System.nanoTime();
+      mGcCount += gcCount();
+      mGcTimeMillis += gcTimeMillis();
+      mAllocatedBytes += allocatedBytes();
+    }
+
+    void appendTo(StringBuilder pJson)
+    {
+      final double lSeconds = (mEndNanos - mStartNanos) * 1e-9;
+      final long[] lLatencies = new long[mSetupLatencies.size()];
+      for (int i = 0; i < lLatencies.length; i++)
+        lLatencies[i] = mSetupLatencies.get(i);
+      Arrays.sort(lLatencies);
+
+      pJson.append("    {\n");
+      field(pJson, 3, "mode", mMode, true);
+      field(pJson, 3, "layout", mLayout, true);
+      field(pJson, 3, "width", mWidth, true);
+      field(pJson, 3, "height", mHeight, true);
+      field(pJson, 3, "depth", mDepth, true);
+      field(pJson, 3, "seconds", lSeconds, true);
+      field(pJson, 3, "frames", mFrames, true);
+      field(pJson, 3, "stacks", mStacks, true);
+      field(pJson, 3, "failures", mFailures, true);
+      field(pJson, 3, "droppedFrames", mDroppedFrames, true);
+      field(pJson, 3, "framesPerSecond", mFrames / lSeconds, true);
+      field(pJson,
+            3,
+            "gigabytesPerSecond",
+            mFrames * mBytesPerFrame / lSeconds * 1e-9,
+            true);
+      field(pJson,
+            3,
+            "setupLatencyMillisMin",
+            percentile(lLatencies, 0) * 1e-6,
+            true);
+      field(pJson,
+            3,
+            "setupLatencyMillisMedian",
+            percentile(lLatencies, 0.5) * 1e-6,
+            true);
+      field(pJson,
+            3,
+            "setupLatencyMillisP99",
+            percentile(lLatencies, 0.99) * 1e-6,
+            true);
+      field(pJson,
+            3,
+            "setupLatencyMillisMax",
+            percentile(lLatencies, 1) * 1e-6,
+            true);
+      field(pJson, 3, "gcCount", mGcCount, true);
+      field(pJson, 3, "gcTimeMillis", mGcTimeMillis, true);
+      field(pJson,
+            3,
+            "allocatedBytesPerSecond",
+            cThreadMXBean == null ? -1.0
+                                  : mAllocatedBytes / lSeconds,
+            false);
+      pJson.append("    }");
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean()
+    {
+      final ThreadMXBean lThreadMXBean =
+                                       ManagementFactory.getThreadMXBean();
+      return lThreadMXBean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) lThreadMXBean
+                                                                      : null;
+    }
+
+    private static double percentile(long[] pSorted, double pQuantile)
+    {
+      if (pSorted.length == 0)
+        return Double.NaN;
+      return pSorted[(int) Math.round(pQuantile * (pSorted.length - 1))];
+    }
+
+    private static long gcCount()
+    {
+      long lCount = 0;
+      for (GarbageCollectorMXBean lBean : ManagementFactory.getGarbageCollectorMXBeans())
+        lCount += Math.max(0, lBean.getCollectionCount());
+      return lCount;
+    }
+
+    private static long gcTimeMillis()
+    {
+      long lTime = 0;
+      for (GarbageCollectorMXBean lBean : ManagementFactory.getGarbageCollectorMXBeans())
+        lTime += Math.max(0, lBean.getCollectionTime());
+      return lTime;
+    }
+
+    // Bytes allocated by the live threads, threads that die during a run are
+    // not accounted for:
+    private static long allocatedBytes()
+    {
+      if (cThreadMXBean == null)
+        return 0;
+      long lBytes = 0;
+      for (long lAllocated : cThreadMXBean.getThreadAllocatedBytes(cThreadMXBean.getAllThreadIds()))
+        lBytes += Math.max(0, lAllocated);
+      return lBytes;
+    }
+  }
+
+}
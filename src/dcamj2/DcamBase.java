@@ -1,9 +1,12 @@
 package dcamj2;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.function.Supplier;
 
 import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamj2.backend.DcamFunction;
 
 import org.bridj.IntValuedEnum;
 
@@ -15,8 +18,9 @@ import org.bridj.IntValuedEnum;
 public class DcamBase
 {
 
-  private final ConcurrentLinkedQueue<IntValuedEnum<DCAMERR>> mErrorList =
-                                                                         new ConcurrentLinkedQueue<IntValuedEnum<DCAMERR>>();
+  private volatile DcamErrorJournal mErrorJournal;
+
+  private volatile IntValuedEnum<DCAMERR> mLastError;
 
   /**
    * Debug flag
@@ -30,10 +34,19 @@ public class DcamBase
 
   protected final void addError(final IntValuedEnum<DCAMERR> pError)
   {
+    addError(null, pError);
+  }
+
+  protected final void addError(final DcamFunction pFunction,
+                                final IntValuedEnum<DCAMERR> pError)
+  {
+    mLastError = pError;
+
     if (mDebug)
     {
-      mErrorList.add(pError);
-      System.out.println(pError);
+      getErrorJournal().record(pFunction, getJournalDeviceId(), pError);
+      if (!DcamLibrary.hasSucceeded(pError))
+        System.out.println(pError);
     }
 
     if (mShowErrors && !DcamLibrary.hasSucceeded(pError))
@@ -44,19 +57,73 @@ public class DcamBase
 
   protected final boolean addErrorToListAndCheckHasSucceeded(final IntValuedEnum<DCAMERR> lError)
   {
-    addError(lError);
+    return addErrorToListAndCheckHasSucceeded(null, lError);
+  }
+
+  protected final boolean addErrorToListAndCheckHasSucceeded(final DcamFunction pFunction,
+                                                             final IntValuedEnum<DCAMERR> lError)
+  {
+    addError(pFunction, lError);
     final boolean lSuccess = DcamLibrary.hasSucceeded(lError);
     return lSuccess;
   }
 
   /**
-   * Returns list of errors that occurred.
+   * Returns the device id recorded with the errors of this object.
+   * 
+   * @return device id, -1 if not bound to a device
+   */
+  long getJournalDeviceId()
+  {
+    return -1;
+  }
+
+  /**
+   * Returns the error journal of this object. Errors are only journaled when
+   * the debug flag is set.
+   * 
+   * @return error journal
+   */
+  public final DcamErrorJournal getErrorJournal()
+  {
+    DcamErrorJournal lErrorJournal = mErrorJournal;
+    if (lErrorJournal == null)
+    {
+      synchronized (this)
+      {
+        lErrorJournal = mErrorJournal;
+        if (lErrorJournal == null)
+          mErrorJournal = lErrorJournal = new DcamErrorJournal();
+      }
+    }
+    return lErrorJournal;
+  }
+
+  /**
+   * Returns the return code of the last Dcam API call made through this
+   * object.
+   * 
+   * @return last return code, null if no call was made yet
+   */
+  public final IntValuedEnum<DCAMERR> getLastError()
+  {
+    return mLastError;
+  }
+
+  /**
+   * Returns the most recent errors that occurred, oldest first. Successes are
+   * only counted, see {@link #getErrorJournal()}.
    * 
    * @return error list
    */
   public final Collection<IntValuedEnum<DCAMERR>> getErrorList()
   {
-    return mErrorList;
+    final List<DcamErrorRecord> lRecords = getErrorJournal().getRecords();
+    final ArrayList<IntValuedEnum<DCAMERR>> lErrorList =
+                                                       new ArrayList<>(lRecords.size());
+    for (final DcamErrorRecord lRecord : lRecords)
+      lErrorList.add(lRecord.getError());
+    return lErrorList;
   }
 
   /**
@@ -64,7 +131,7 @@ public class DcamBase
    */
   public final void displayErrorList()
   {
-    System.out.println(mErrorList);
+    System.out.println(getErrorJournal());
   }
 
   /**
@@ -72,27 +139,29 @@ public class DcamBase
    */
   public final void clearErrorList()
   {
-    mErrorList.clear();
+    getErrorJournal().clear();
   }
 
   /**
-   * Checks the error list and makes sure that the error list does not contain -
-   * well errors ... :-) != error list empty, since one type of error is success
-   *
+   * Checks that no error was journaled since the last clear.
    * 
    * @return true: all successes
    */
   public final boolean haveAllSucceeded()
   {
-    for (final IntValuedEnum<DCAMERR> lEntry : mErrorList)
-    {
-      final boolean lHasSucceeded = DcamLibrary.hasSucceeded(lEntry);
-      if (!lHasSucceeded)
-      {
-        return false;
-      }
-    }
-    return true;
+    return getErrorJournal().getErrorCount() == 0;
+  }
+
+  /**
+   * Returns true if debug output is enabled. Callers that need to build a
+   * message (string concatenation, driver calls) should check this first so
+   * that nothing is computed when debug output is disabled.
+   * 
+   * @return true if debug output is enabled
+   */
+  public final boolean isDebug()
+  {
+    return mDebug;
   }
 
   /**
@@ -107,6 +176,18 @@ public class DcamBase
       System.out.println(pString);
   }
 
+  /**
+   * Debug println, the message is only built if debug output is enabled.
+   * 
+   * @param pMessageSupplier
+   *          message supplier
+   */
+  public void println(Supplier<String> pMessageSupplier)
+  {
+    if (mDebug)
+      System.out.println(pMessageSupplier.get());
+  }
+
   /**
    * Debug format
    * 
@@ -121,4 +202,95 @@ public class DcamBase
       System.out.format(format, args);
   }
 
+  // The overloads below avoid the varargs array and the boxing of their
+  // arguments when debug output is disabled:
+
+  /**
+   * Debug format without arguments
+   * 
+   * @param format
+   *          format string
+   */
+  public void format(String format)
+  {
+    if (mDebug)
+      System.out.format(format);
+  }
+
+  /**
+   * Debug format with one long argument
+   * 
+   * @param format
+   *          format string
+   * @param arg
+   *          argument
+   */
+  public void format(String format, long arg)
+  {
+    if (mDebug)
+      System.out.format(format, arg);
+  }
+
+  /**
+   * Debug format with two long arguments
+   * 
+   * @param format
+   *          format string
+   * @param arg1
+   *          first argument
+   * @param arg2
+   *          second argument
+   */
+  public void format(String format, long arg1, long arg2)
+  {
+    if (mDebug)
+      System.out.format(format, arg1, arg2);
+  }
+
+  /**
+   * Debug format with one double argument
+   * 
+   * @param format
+   *          format string
+   * @param arg
+   *          argument
+   */
+  public void format(String format, double arg)
+  {
+    if (mDebug)
+      System.out.format(format, arg);
+  }
+
+  /**
+   * Debug format with a boolean and a long argument
+   * 
+   * @param format
+   *          format string
+   * @param arg1
+   *          first argument
+   * @param arg2
+   *          second argument
+   */
+  public void format(String format, boolean arg1, long arg2)
+  {
+    if (mDebug)
+      System.out.format(format, arg1, arg2);
+  }
+
+  /**
+   * Debug format with two boolean arguments
+   * 
+   * @param format
+   *          format string
+   * @param arg1
+   *          first argument
+   * @param arg2
+   *          second argument
+   */
+  public void format(String format, boolean arg1, boolean arg2)
+  {
+    if (mDebug)
+      System.out.format(format, arg1, arg2);
+  }
+
 }
@@ -2,12 +2,16 @@ package dcamj2;
 
 import static org.bridj.Pointer.pointerTo;
 
+import java.util.Arrays;
+
 import dcamapi.DCAMBUF_ATTACH;
 import dcamapi.DCAM_FRAME;
-import dcamapi.DcamapiLibrary;
 import dcamapi.DcamapiLibrary.DCAMERR;
 import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamj2.backend.DcamFunction;
 import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.jfr.DcamEvent;
+import dcamj2.jfr.DcamEvents;
 
 import org.bridj.BridJ;
 import org.bridj.IntValuedEnum;
@@ -26,6 +30,14 @@ public class DcamBufferControl extends DcamBase
   private DcamImageSequence mAttachedDcamFrame;
   private DCAMBUF_ATTACH mDCAMBUF_ATTACH;
   private Pointer<Pointer<?>> mPointerToPointerArray;
+  private DcamImageSequence mPreparedDcamFrame;
+  private Pointer<Pointer<?>> mPreparedPointerToPointerArray;
+
+  // Attachment cache: plane addresses of the attached and prepared sequences,
+  // and whether the driver currently holds an attachment:
+  private long[] mAttachedPlaneAddresses = new long[0];
+  private long[] mPreparedPlaneAddresses = new long[0];
+  private volatile boolean mBuffersAttached = false;
   private Pointer<DCAM_FRAME> mInternalDcamFramePointer;
 
   /**
@@ -39,6 +51,12 @@ public class DcamBufferControl extends DcamBase
     mDcamDevice = pDcamDevice;
   }
 
+  @Override
+  long getJournalDeviceId()
+  {
+    return mDcamDevice.getDeviceID();
+  }
+
   /**
    * Allocates internal buffers
    * 
@@ -54,10 +72,11 @@ public class DcamBufferControl extends DcamBase
     }
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcambufAlloc(mDcamDevice.getHDCAMPointer(),
-                                                                    pNumberOfBuffers);
+                                        DcamLibrary.getBackend().dcambufAlloc(mDcamDevice.getHDCAMPointer(),
+                                                                              pNumberOfBuffers);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.BUF_ALLOC,
+                                                              lError);
     return lSuccess;
   }
 
@@ -72,10 +91,11 @@ public class DcamBufferControl extends DcamBase
       mInternalDcamFramePointer = Pointer.allocate(DCAM_FRAME.class);
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcambufLockframe(mDcamDevice.getHDCAMPointer(),
-                                                                        mInternalDcamFramePointer);
+                                        DcamLibrary.getBackend().dcambufLockframe(mDcamDevice.getHDCAMPointer(),
+                                                                                  mInternalDcamFramePointer);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.BUF_LOCKFRAME,
+                                                              lError);
     if (!lSuccess)
     {
       return null;
@@ -95,10 +115,11 @@ public class DcamBufferControl extends DcamBase
       mInternalDcamFramePointer = Pointer.allocate(DCAM_FRAME.class);
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcambufCopyframe(mDcamDevice.getHDCAMPointer(),
-                                                                        mInternalDcamFramePointer);
+                                        DcamLibrary.getBackend().dcambufCopyframe(mDcamDevice.getHDCAMPointer(),
+                                                                                  mInternalDcamFramePointer);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.BUF_COPYFRAME,
+                                                              lError);
     if (!lSuccess)
     {
       return null;
@@ -115,35 +136,197 @@ public class DcamBufferControl extends DcamBase
    */
   public final boolean attachExternalBuffers(DcamImageSequence pImageSequence)
   {
-    // if (mAttachedDcamFrame == pImageSequence)
-    // return true;
+    if (isAttached(pImageSequence))
+      return true;
 
-    mAttachedDcamFrame = pImageSequence;
+    return prepareExternalBuffers(pImageSequence)
+           && attachPreparedBuffers();
+  }
 
+  /**
+   * Prepares the given image sequence for attachment without touching the
+   * buffers currently attached to the device. This can be called while an
+   * acquisition is running so that the next attachment only requires the
+   * driver calls.
+   * 
+   * @param pImageSequence
+   *          image sequence to prepare
+   * @return true: success, false otherwise.
+   */
+  public final boolean prepareExternalBuffers(DcamImageSequence pImageSequence)
+  {
     final long lNumberOfBuffers = pImageSequence.getDepth();
+    if (lNumberOfBuffers < 1)
+      return false;
 
-    if (mPointerToPointerArray == null
-        || mPointerToPointerArray.getValidElements() != lNumberOfBuffers)
+    if (mPreparedPlaneAddresses.length != lNumberOfBuffers)
+      mPreparedPlaneAddresses = new long[(int) lNumberOfBuffers];
+
+    if (mPreparedPointerToPointerArray == null
+        || mPreparedPointerToPointerArray.getValidElements() != lNumberOfBuffers)
     {
-      if (mPointerToPointerArray != null)
-        mPointerToPointerArray.release();
+      if (mPreparedPointerToPointerArray != null)
+        mPreparedPointerToPointerArray.release();
 
-      mPointerToPointerArray =
-                             Pointer.allocatePointers((int) lNumberOfBuffers);
+      mPreparedPointerToPointerArray =
+                                     Pointer.allocatePointers((int) lNumberOfBuffers);
     }
 
     for (int i = 0; i < lNumberOfBuffers; i++)
     {
       Pointer<Byte> lPointerToIndividualBuffer =
                                                pImageSequence.getPointerForPlane(i);
-      mPointerToPointerArray.set(i, lPointerToIndividualBuffer);
+      mPreparedPointerToPointerArray.set(i, lPointerToIndividualBuffer);
+      mPreparedPlaneAddresses[i] = lPointerToIndividualBuffer.getPeer();
     }
 
+    mPreparedDcamFrame = pImageSequence;
+    return true;
+  }
+
+  /**
+   * Returns the image sequence that has been prepared for attachment, or null
+   * if there is none.
+   * 
+   * @return prepared image sequence
+   */
+  public final DcamImageSequence getPreparedImageSequence()
+  {
+    return mPreparedDcamFrame;
+  }
+
+  /**
+   * Attaches the buffers previously prepared with
+   * {@link #prepareExternalBuffers(DcamImageSequence)}.
+   * 
+   * @return true: success, false otherwise.
+   */
+  public final boolean attachPreparedBuffers()
+  {
+    if (mPreparedDcamFrame == null)
+      return false;
+
+    // The driver already holds exactly these buffers, nothing to do:
+    if (mBuffersAttached && mPreparedDcamFrame == mAttachedDcamFrame
+        && Arrays.equals(mPreparedPlaneAddresses,
+                         mAttachedPlaneAddresses))
+    {
+      mPreparedDcamFrame = null;
+      return true;
+    }
+
+    // swap the prepared and attached pointer arrays:
+    final Pointer<Pointer<?>> lPointerToPointerArray =
+                                                     mPointerToPointerArray;
+    mPointerToPointerArray = mPreparedPointerToPointerArray;
+    mPreparedPointerToPointerArray = lPointerToPointerArray;
+
+    final long[] lPlaneAddresses = mAttachedPlaneAddresses;
+    mAttachedPlaneAddresses = mPreparedPlaneAddresses;
+    mPreparedPlaneAddresses = lPlaneAddresses;
+
+    mAttachedDcamFrame = mPreparedDcamFrame;
+    mPreparedDcamFrame = null;
+
+    final long lNumberOfBuffers = mAttachedDcamFrame.getDepth();
+
     final boolean lSuccess = releaseBuffers()
                              && attachBuffersInternal(lNumberOfBuffers);
+    mBuffersAttached = lSuccess;
     return lSuccess;
   }
 
+  /**
+   * Returns true if the given image sequence is currently attached to the
+   * driver with exactly the same plane buffers, in which case attaching it
+   * again is a no-op.
+   * 
+   * @param pImageSequence
+   *          image sequence
+   * @return true if attached
+   */
+  public final boolean isAttached(DcamImageSequence pImageSequence)
+  {
+    if (!mBuffersAttached || pImageSequence != mAttachedDcamFrame
+        || pImageSequence.isFree()
+        || pImageSequence.getDepth() != mAttachedPlaneAddresses.length)
+      return false;
+
+    for (int i = 0; i < mAttachedPlaneAddresses.length; i++)
+      if (pImageSequence.getMemoryForPlane(i)
+                        .getAddress() != mAttachedPlaneAddresses[i])
+        return false;
+
+    return true;
+  }
+
+  /**
+   * Makes sure that the driver does not hold on to the buffers of the given
+   * image sequence, so that its memory can be freed: if the sequence is
+   * attached, the acquisition is stopped if needed and the buffers are
+   * released. A prepared sequence is forgotten.
+   * 
+   * @param pImageSequence
+   *          image sequence about to be freed
+   * @return true: the driver does not hold the buffers anymore, false
+   *         otherwise
+   */
+  public final boolean releaseBuffers(DcamImageSequence pImageSequence)
+  {
+    if (mPreparedDcamFrame == pImageSequence)
+      mPreparedDcamFrame = null;
+
+    if (!mBuffersAttached || mAttachedDcamFrame != pImageSequence)
+      return true;
+
+    return releaseBuffersAndStop();
+  }
+
+  /**
+   * Makes sure that the driver does not hold on to any buffer within the given
+   * memory region, so that it can be freed. This covers image sequences that
+   * have been re-sliced out of the same memory.
+   * 
+   * @param pAddress
+   *          address of the memory region
+   * @param pSizeInBytes
+   *          size of the memory region in bytes
+   * @return true: the driver does not hold buffers within the region anymore,
+   *         false otherwise
+   */
+  public final boolean releaseBuffersWithin(final long pAddress,
+                                            final long pSizeInBytes)
+  {
+    if (mPreparedDcamFrame != null
+        && isWithin(mPreparedPlaneAddresses, pAddress, pSizeInBytes))
+      mPreparedDcamFrame = null;
+
+    if (!mBuffersAttached
+        || !isWithin(mAttachedPlaneAddresses, pAddress, pSizeInBytes))
+      return true;
+
+    return releaseBuffersAndStop();
+  }
+
+  private static boolean isWithin(final long[] pPlaneAddresses,
+                                  final long pAddress,
+                                  final long pSizeInBytes)
+  {
+    for (final long lPlaneAddress : pPlaneAddresses)
+      if (lPlaneAddress >= pAddress
+          && lPlaneAddress < pAddress + pSizeInBytes)
+        return true;
+    return false;
+  }
+
+  private boolean releaseBuffersAndStop()
+  {
+    // the driver refuses to release buffers during an acquisition:
+    if (mDcamDevice.isBusy())
+      mDcamDevice.stop();
+    return releaseBuffers();
+  }
+
   private boolean attachBuffersInternal(final long lNumberOfBuffers)
   {
     if (mDCAMBUF_ATTACH == null)
@@ -154,12 +337,18 @@ public class DcamBufferControl extends DcamBase
     mDCAMBUF_ATTACH.buffercount(lNumberOfBuffers);
     mDCAMBUF_ATTACH.buffer(mPointerToPointerArray);
 
+    final DcamEvent lEvent =
+                           DcamEvents.bufferAttach(mDcamDevice.getDeviceID(),
+                                                   lNumberOfBuffers);
+
     @SuppressWarnings("deprecation")
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcambufAttach(mDcamDevice.getHDCAMPointer(),
-                                                                     pointerTo(mDCAMBUF_ATTACH));
+                                        DcamLibrary.getBackend().dcambufAttach(mDcamDevice.getHDCAMPointer(),
+                                                                               pointerTo(mDCAMBUF_ATTACH));
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.BUF_ATTACH,
+                                                              lError);
+    lEvent.commit(lSuccess);
     return lSuccess;
   }
 
@@ -212,11 +401,16 @@ public class DcamBufferControl extends DcamBase
    */
   public final boolean releaseBuffers()
   {
+    mBuffersAttached = false;
+    final DcamEvent lEvent =
+                           DcamEvents.bufferRelease(mDcamDevice.getDeviceID());
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcambufRelease(mDcamDevice.getHDCAMPointer(),
-                                                                      0);
+                                        DcamLibrary.getBackend().dcambufRelease(mDcamDevice.getHDCAMPointer(),
+                                                                                0);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.BUF_RELEASE,
+                                                              lError);
+    lEvent.commit(lSuccess);
 
     return lSuccess;
   }
@@ -4,10 +4,11 @@ import static org.bridj.Pointer.allocateBytes;
 import static org.bridj.Pointer.pointerTo;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.TimeUnit;
+
 import dcamapi.DCAMCAP_TRANSFERINFO;
 import dcamapi.DCAMDEV_OPEN;
 import dcamapi.DCAMDEV_STRING;
-import dcamapi.DcamapiLibrary;
 import dcamapi.DcamapiLibrary.DCAMCAP_START;
 import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
 import dcamapi.DcamapiLibrary.DCAMERR;
@@ -15,6 +16,10 @@ import dcamapi.DcamapiLibrary.DCAMIDPROP;
 import dcamapi.DcamapiLibrary.DCAMPROPMODEVALUE;
 import dcamapi.DcamapiLibrary.DCAM_IDSTR;
 import dcamapi.HDCAM_struct;
+import dcamj2.backend.BridJDcamBackend;
+import dcamj2.backend.DcamFunction;
+import dcamj2.jfr.DcamEvent;
+import dcamj2.jfr.DcamEvents;
 
 import org.bridj.BridJ;
 import org.bridj.IntValuedEnum;
@@ -27,8 +32,23 @@ import org.bridj.Pointer;
  */
 public class DcamDevice extends DcamBase implements AutoCloseable
 {
+  private static final long cDefaultSensorSize = 2048;
+  private static final long cDefaultSubarrayStep = 4;
+  private static final long cReadyTimeoutInMilliseconds = 10000;
+  private static final long cReadyInitialBackoffInNanoseconds =
+                                                              TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long cReadyMaximalBackoffInNanoseconds =
+                                                              TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final DCAMCAP_STATUS[] cStatusValues =
+                                                      DCAMCAP_STATUS.values();
+
   private long mDeviceID;
   private long mDevicePeer;
+  private volatile Pointer<HDCAM_struct> mHDCAMPointer;
+
+  private final ThreadLocal<DcamNativeScratch> mScratch =
+                                                        ThreadLocal.withInitial(DcamNativeScratch::new);
 
   DcamProperties mDcamProperties;
   DcamWait mDcamWait;
@@ -73,53 +93,110 @@ public class DcamDevice extends DcamBase implements AutoCloseable
     return mDeviceID;
   }
 
+  @Override
+  long getJournalDeviceId()
+  {
+    return mDeviceID;
+  }
+
   /**
-   * Opens camera device
+   * Opens camera device and waits for it to become ready
    * 
-   * @return true: success
+   * @return true: success, false: could not be opened or did not become ready
+   *         in time (last error is then DCAMERR_TIMEOUT)
    */
   public final boolean open()
   {
+    final DcamEvent lEvent = DcamEvents.open(getDeviceID());
     final DCAMDEV_OPEN lDCAMDEV_OPEN = new DCAMDEV_OPEN();
     final long size = BridJ.sizeOf(DCAMDEV_OPEN.class);
-    assertTrue(size == 16);
+    // the layout check only matters for the native driver, the simulator
+    // reads the structure back through BridJ on any platform:
+    if (DcamLibrary.getBackend() instanceof BridJDcamBackend)
+      assertTrue(size == 16);
     lDCAMDEV_OPEN.size(size);
 
     lDCAMDEV_OPEN.index(getDeviceID());
     @SuppressWarnings("deprecation")
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamdevOpen(pointerTo(lDCAMDEV_OPEN));
+                                        DcamLibrary.getBackend().dcamdevOpen(pointerTo(lDCAMDEV_OPEN));
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.DEV_OPEN,
+                                                              lError);
 
     if (lSuccess)
     {
       mDevicePeer = lDCAMDEV_OPEN.hdcam().getPeer();
+      mHDCAMPointer = null;
     }
 
-    for (int i = 0; i < 100; i++)
+    // A device that opens but never becomes idle is closed again and
+    // reported as timed out:
+    final boolean lReady = lSuccess
+                           && waitForReady(cReadyTimeoutInMilliseconds);
+    if (lSuccess && !lReady)
     {
+      close();
+      addError(DcamFunction.DEV_OPEN, DCAMERR.DCAMERR_TIMEOUT);
+    }
+
+    if (lReady)
+    {
+      setInputTriggerToExternalFastEdge();
+      setOutputTriggerToExposure();
+      setDefectCorectionMode(true);
+    }
 
-      if (isReady() || isUnstable())
-        break;
+    lEvent.commit(lReady);
+    return lReady;
+  }
+
+  /**
+   * Waits for this device to become idle: stable (opened, no buffer), ready
+   * (buffer attached) or unstable. The status is polled
+   * with an exponential backoff starting at a millisecond, so that a device
+   * that is ready right away is not held back by a fixed sleep.
+   * 
+   * @param pTimeoutInMilliseconds
+   *          timeout in milliseconds
+   * @return true: device stable, ready or unstable, false: timed out,
+   *         interrupted, or status not readable
+   */
+  public boolean waitForReady(final long pTimeoutInMilliseconds)
+  {
+    final long lDeadline = System.nanoTime()
+                           + TimeUnit.MILLISECONDS.toNanos(pTimeoutInMilliseconds);
+    long lBackoffInNanoseconds = cReadyInitialBackoffInNanoseconds;
+    while (true)
+    {
+      final long lStatusValue = getStatusValue();
+      if (hasStatus(lStatusValue, DCAMCAP_STATUS.DCAMCAP_STATUS_STABLE)
+          || hasStatus(lStatusValue, DCAMCAP_STATUS.DCAMCAP_STATUS_READY)
+          || hasStatus(lStatusValue,
+                       DCAMCAP_STATUS.DCAMCAP_STATUS_UNSTABLE))
+        return true;
+
+      final long lRemaining = lDeadline - System.nanoTime();
+      if (lRemaining <= 0)
+        return false;
+
+      if (isDebug())
+        format("%d: waiting %d us for camera to be ready\n",
+               getDeviceID(),
+               lBackoffInNanoseconds / 1000);
       try
       {
-        System.out.println("Waiting for camera to be ready!");
-        System.out.println("Status:" + getStatus());
-        Thread.sleep(100);
+        TimeUnit.NANOSECONDS.sleep(Math.min(lBackoffInNanoseconds,
+                                            lRemaining));
       }
       catch (InterruptedException e)
       {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        Thread.currentThread().interrupt();
+        return false;
       }
+      lBackoffInNanoseconds = Math.min(2 * lBackoffInNanoseconds,
+                                       cReadyMaximalBackoffInNanoseconds);
     }
-
-    setInputTriggerToExternalFastEdge();
-    setOutputTriggerToExposure();
-    setDefectCorectionMode(true);
-
-    return lSuccess;
   }
 
   /**
@@ -129,8 +206,7 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public boolean isBusy()
   {
-    return (DCAMCAP_STATUS.DCAMCAP_STATUS_BUSY.value
-            & getStatus().value()) == DCAMCAP_STATUS.DCAMCAP_STATUS_BUSY.value;
+    return hasStatus(getStatusValue(), DCAMCAP_STATUS.DCAMCAP_STATUS_BUSY);
   }
 
   /**
@@ -140,8 +216,7 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public boolean isReady()
   {
-    return (DCAMCAP_STATUS.DCAMCAP_STATUS_READY.value
-            & getStatus().value()) == DCAMCAP_STATUS.DCAMCAP_STATUS_READY.value;
+    return hasStatus(getStatusValue(), DCAMCAP_STATUS.DCAMCAP_STATUS_READY);
   }
 
   /**
@@ -151,8 +226,7 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public boolean isError()
   {
-    return (DCAMCAP_STATUS.DCAMCAP_STATUS_ERROR.value
-            & getStatus().value()) == DCAMCAP_STATUS.DCAMCAP_STATUS_ERROR.value;
+    return hasStatus(getStatusValue(), DCAMCAP_STATUS.DCAMCAP_STATUS_ERROR);
   }
 
   /**
@@ -162,8 +236,7 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public boolean isStable()
   {
-    return (DCAMCAP_STATUS.DCAMCAP_STATUS_STABLE.value
-            & getStatus().value()) == DCAMCAP_STATUS.DCAMCAP_STATUS_STABLE.value;
+    return hasStatus(getStatusValue(), DCAMCAP_STATUS.DCAMCAP_STATUS_STABLE);
   }
 
   /**
@@ -173,8 +246,15 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public boolean isUnstable()
   {
-    return (DCAMCAP_STATUS.DCAMCAP_STATUS_UNSTABLE.value
-            & getStatus().value()) == DCAMCAP_STATUS.DCAMCAP_STATUS_UNSTABLE.value;
+    return hasStatus(getStatusValue(), DCAMCAP_STATUS.DCAMCAP_STATUS_UNSTABLE);
+  }
+
+  // The capture status is a single value, not a set of flags, and -1 means
+  // that it could not be read:
+  private static boolean hasStatus(final long pStatusValue,
+                                   final DCAMCAP_STATUS pStatus)
+  {
+    return pStatusValue != -1 && pStatusValue == pStatus.value;
   }
 
   /**
@@ -220,97 +300,241 @@ public class DcamDevice extends DcamBase implements AutoCloseable
   }
 
   /**
-   * Sets centered ROI
+   * Predicts the exposure the camera will snap to for a requested exposure,
+   * without touching the device.
+   * 
+   * @param pExposure
+   *          requested exposure in seconds
+   * @return predicted effective exposure in seconds
+   */
+  public double predictExposure(final double pExposure)
+  {
+    return getProperties().predictEffectiveValue(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME,
+                                                 pExposure);
+  }
+
+  /**
+   * Predicts the ROI width that {@link #setROI(long, long, long, long)} and
+   * {@link #setCenteredROI(long, long)} will use for a requested width,
+   * without touching the device.
+   * 
+   * @param pWidth
+   *          requested width
+   * @return predicted width
+   */
+  public long predictWidth(final long pWidth)
+  {
+    return snapToPropertyRange(getProperties().getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE),
+                               pWidth);
+  }
+
+  /**
+   * Predicts the ROI height that {@link #setROI(long, long, long, long)} and
+   * {@link #setCenteredROI(long, long)} will use for a requested height,
+   * without touching the device.
+   * 
+   * @param pHeight
+   *          requested height
+   * @return predicted height
+   */
+  public long predictHeight(final long pHeight)
+  {
+    return snapToPropertyRange(getProperties().getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE),
+                               pHeight);
+  }
+
+  /**
+   * Sets centered ROI. The sensor size is taken from the subarray property
+   * attributes, width and height are snapped to the subarray size steps.
    * 
    * @param pCenteredWidth
    *          centered width
    * @param pCenteredHeight
    *          centered height
-   * @return true
+   * @return true: success, false otherwise
    */
   public boolean setCenteredROI(final long pCenteredWidth,
                                 final long pCenteredHeight)
   {
-    format(getDeviceID() + "Status before sleep in setCenteredROI "
-           + getStatus());
+    final DcamProperty lHSize =
+                              getProperties().getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE);
+    final DcamProperty lVSize =
+                              getProperties().getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE);
 
-    final long lWidth = adjustWidthHeight(pCenteredWidth, 4);
-    final long lHeight = adjustWidthHeight(pCenteredHeight, 4);
+    final long lWidth = snapToPropertyRange(lHSize, pCenteredWidth);
+    final long lHeight = snapToPropertyRange(lVSize, pCenteredHeight);
 
-    if (getWidth() != lWidth || getHeight() != lHeight)
-    {
-      close();
-      sleep(100);
-      open();
-      sleep(100);
-    }
+    final long hpos = (getSensorWidth() - lWidth) / 2;
+    final long vpos = (getSensorHeight() - lHeight) / 2;
 
-    final long hpos = adjustWidthHeight(1024 - lWidth / 2, 4);
-    final long vpos = adjustWidthHeight(1024 - lHeight / 2, 4);
+    final boolean lSuccess = setROI(hpos, vpos, lWidth, lHeight);
 
-    boolean lSuccessHsize =
-                          getProperties().setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE,
-                                                                 lWidth);
+    if (isDebug())
+      format(getDeviceID()
+             + "DcamJ: ROI: parameters: cwidth=%d, cheight=%d, width=%d, height=%d --> success=%s  \n",
+             pCenteredWidth,
+             pCenteredHeight,
+             lWidth,
+             lHeight,
+             lSuccess ? "true" : "false");/**/
+
+    return lSuccess;
+  }
 
+  /**
+   * Sets an arbitrary (not necessarily centered) ROI without reopening the
+   * device: capture is stopped if needed, attached buffers are released and
+   * only the subarray properties are rewritten. Positions and sizes are
+   * snapped to the steps and clamped to the limits given by the
+   * DCAM_IDPROP_SUBARRAY* property attributes.
+   * 
+   * @param pX
+   *          horizontal position of the ROI
+   * @param pY
+   *          vertical position of the ROI
+   * @param pWidth
+   *          width of the ROI
+   * @param pHeight
+   *          height of the ROI
+   * @return true: success, false otherwise
+   */
+  public boolean setROI(final long pX,
+                        final long pY,
+                        final long pWidth,
+                        final long pHeight)
+  {
+    final DcamProperties lProperties = getProperties();
+    final DcamProperty lHPos =
+                             lProperties.getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS);
+    final DcamProperty lVPos =
+                             lProperties.getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS);
+    final DcamProperty lHSize =
+                              lProperties.getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE);
+    final DcamProperty lVSize =
+                              lProperties.getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE);
+
+    final long lSensorWidth = getSensorWidth();
+    final long lSensorHeight = getSensorHeight();
+
+    final long lWidth = snapToPropertyRange(lHSize, pWidth);
+    final long lHeight = snapToPropertyRange(lVSize, pHeight);
+    final long hpos = Math.min(snapToPropertyStep(lHPos,
+                                                  Math.max(0, pX)),
+                               lSensorWidth - lWidth);
+    final long vpos = Math.min(snapToPropertyStep(lVPos,
+                                                  Math.max(0, pY)),
+                               lSensorHeight - lHeight);
+
+    if (isBusy())
+      stop();
+
+    if (mBufferControl != null)
+      mBufferControl.releaseBuffers();
+
+    // The subarray mode is switched off while the subarray is rewritten, and
+    // positions are zeroed first so that no intermediate position + size
+    // combination exceeds the sensor:
+    boolean lSuccessMode =
+                         lProperties.setModePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE,
+                                                          DCAMPROPMODEVALUE.DCAMPROP_MODE__OFF);
+    if (!lSuccessMode)
+      format("%d: could not switch off subarray mode\n", getDeviceID());
+
+    lProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS,
+                                       0);
+    lProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS,
+                                       0);
+
+    boolean lSuccessHsize =
+                          lProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE,
+                                                             lWidth);
     if (!lSuccessHsize)
-      format(getDeviceID() + "could not set hsize\n");
+      format("%d: could not set hsize\n", getDeviceID());
 
     boolean lSuccessVsize =
-                          getProperties().setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE,
-                                                                 lHeight);
-
+                          lProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE,
+                                                             lHeight);
     if (!lSuccessVsize)
-      format(getDeviceID() + "could not set vsize\n");
+      format("%d: could not set vsize\n", getDeviceID());
 
     boolean lSuccessHpos =
-                         getProperties().setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS,
-                                                                hpos);
+                         lProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS,
+                                                            hpos);
     if (!lSuccessHpos)
-      format(getDeviceID() + "could not set hpos\n");
+      format("%d: could not set hpos\n", getDeviceID());
 
     boolean lSuccessVpos =
-                         getProperties().setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS,
-                                                                vpos);
-
+                         lProperties.setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS,
+                                                            vpos);
     if (!lSuccessVpos)
-      format(getDeviceID() + "could not set vpos\n");
+      format("%d: could not set vpos\n", getDeviceID());
 
     boolean lSuccessSubArray =
-                             getProperties().setDoublePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE,
-                                                                    2);
-
+                             lProperties.setModePropertyValue(DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE,
+                                                              DCAMPROPMODEVALUE.DCAMPROP_MODE__ON);
     if (!lSuccessSubArray)
-      format(getDeviceID() + "could not set subarray mode");
+      format("%d: could not set subarray mode\n", getDeviceID());
 
     boolean lSuccess = lSuccessHsize && lSuccessVsize
                        && lSuccessHpos
                        && lSuccessVpos
                        && lSuccessSubArray;
 
-    format(getDeviceID()
-           + "DcamJ: ROI: parameters: cwidth=%d, cheight=%d, hpos=%d, vpos=%d, width=%d, height=%d --> success=%s  \n",
-           pCenteredWidth,
-           pCenteredHeight,
-           hpos,
-           vpos,
-           lWidth,
-           lHeight,
-           lSuccess ? "true" : "false");/**/
+    if (isDebug())
+      format(getDeviceID()
+             + "DcamJ: ROI: parameters: x=%d, y=%d, width=%d, height=%d, hpos=%d, vpos=%d, width=%d, height=%d --> success=%s  \n",
+             pX,
+             pY,
+             pWidth,
+             pHeight,
+             hpos,
+             vpos,
+             lWidth,
+             lHeight,
+             lSuccess ? "true" : "false");/**/
 
     return lSuccess;
   }
 
-  private void sleep(int lSteepTime)
+  /**
+   * Returns the sensor width, i.e. the largest possible subarray width
+   * 
+   * @return sensor width
+   */
+  public long getSensorWidth()
   {
-    try
-    {
-      Thread.sleep(lSteepTime);
-    }
-    catch (InterruptedException e)
-    {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
+    final DcamProperty lHSize =
+                              getProperties().getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE);
+    return lHSize == null ? cDefaultSensorSize : (long) lHSize.valuemax;
+  }
+
+  /**
+   * Returns the sensor height, i.e. the largest possible subarray height
+   * 
+   * @return sensor height
+   */
+  public long getSensorHeight()
+  {
+    final DcamProperty lVSize =
+                              getProperties().getProperty(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE);
+    return lVSize == null ? cDefaultSensorSize : (long) lVSize.valuemax;
+  }
+
+  private long snapToPropertyRange(DcamProperty pProperty, long pValue)
+  {
+    final long lValue = snapToPropertyStep(pProperty, pValue);
+    if (pProperty == null)
+      return lValue;
+    return Math.max((long) pProperty.valuemin,
+                    Math.min((long) pProperty.valuemax, lValue));
+  }
+
+  private long snapToPropertyStep(DcamProperty pProperty, long pValue)
+  {
+    final long lStep = pProperty == null
+                       || pProperty.valuestep < 1 ? cDefaultSubarrayStep
+                                                  : (long) pProperty.valuestep;
+    return adjustWidthHeight(pValue, lStep);
   }
 
   /**
@@ -533,7 +757,24 @@ public class DcamDevice extends DcamBase implements AutoCloseable
   @SuppressWarnings("deprecation")
   final Pointer<HDCAM_struct> getHDCAMPointer()
   {
-    return Pointer.pointerToAddress(mDevicePeer, HDCAM_struct.class);
+    Pointer<HDCAM_struct> lHDCAMPointer = mHDCAMPointer;
+    if (lHDCAMPointer == null || lHDCAMPointer.getPeer() != mDevicePeer)
+    {
+      lHDCAMPointer = Pointer.pointerToAddress(mDevicePeer,
+                                               HDCAM_struct.class);
+      mHDCAMPointer = lHDCAMPointer;
+    }
+    return lHDCAMPointer;
+  }
+
+  /**
+   * Returns the native scratch buffers of the calling thread for this device
+   * 
+   * @return native scratch buffers
+   */
+  final DcamNativeScratch getScratch()
+  {
+    return mScratch.get();
   }
 
   final String getDeviceString(final DCAM_IDSTR pDCAM_IDSTR)
@@ -548,11 +789,12 @@ public class DcamDevice extends DcamBase implements AutoCloseable
 
     @SuppressWarnings("deprecation")
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamdevGetstring(getHDCAMPointer(),
-                                                                        pointerTo(lDCAMDEV_STRING));
+                                        DcamLibrary.getBackend().dcamdevGetstring(getHDCAMPointer(),
+                                                                                  pointerTo(lDCAMDEV_STRING));
 
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.DEV_GETSTRING,
+                                                              lError);
     if (lSuccess)
     {
       final String lString = new String(lPointerToString.getBytes());
@@ -635,11 +877,16 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public final boolean startContinuous()
   {
+    final DcamEvent lEvent =
+                           DcamEvents.captureStart(mDeviceID,
+                                                   DCAMCAP_START.DCAMCAP_START_SEQUENCE.value);
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamcapStart(getHDCAMPointer(),
-                                                                    DCAMCAP_START.DCAMCAP_START_SEQUENCE.value);
+                                        DcamLibrary.getBackend().dcamcapStart(getHDCAMPointer(),
+                                                                              DCAMCAP_START.DCAMCAP_START_SEQUENCE.value);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.CAP_START,
+                                                              lError);
+    lEvent.commit(lSuccess);
     return lSuccess;
   }
 
@@ -650,11 +897,16 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public final boolean startSequence()
   {
+    final DcamEvent lEvent =
+                           DcamEvents.captureStart(mDeviceID,
+                                                   DCAMCAP_START.DCAMCAP_START_SNAP.value);
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamcapStart(getHDCAMPointer(),
-                                                                    DCAMCAP_START.DCAMCAP_START_SNAP.value);
+                                        DcamLibrary.getBackend().dcamcapStart(getHDCAMPointer(),
+                                                                              DCAMCAP_START.DCAMCAP_START_SNAP.value);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.CAP_START,
+                                                              lError);
+    lEvent.commit(lSuccess);
     return lSuccess;
   }
 
@@ -668,10 +920,11 @@ public class DcamDevice extends DcamBase implements AutoCloseable
     // DCAMERR DCAMAPI dcamcap_firetrigger ( HDCAM h, long iKind
     // DCAM_DEFAULT_ARG );
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamcapFiretrigger(getHDCAMPointer(),
-                                                                          0);
+                                        DcamLibrary.getBackend().dcamcapFiretrigger(getHDCAMPointer(),
+                                                                                    0);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.CAP_FIRETRIGGER,
+                                                              lError);
     return lSuccess;
   }
 
@@ -682,10 +935,13 @@ public class DcamDevice extends DcamBase implements AutoCloseable
    */
   public final boolean stop()
   {
+    final DcamEvent lEvent = DcamEvents.captureStop(mDeviceID);
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamcapStop(getHDCAMPointer());
+                                        DcamLibrary.getBackend().dcamcapStop(getHDCAMPointer());
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.CAP_STOP,
+                                                              lError);
+    lEvent.commit(lSuccess);
     return lSuccess;
   }
 
@@ -710,10 +966,12 @@ public class DcamDevice extends DcamBase implements AutoCloseable
     }
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamdevClose(getHDCAMPointer());
-    addErrorToListAndCheckHasSucceeded(lError);
+                                        DcamLibrary.getBackend().dcamdevClose(getHDCAMPointer());
+    addErrorToListAndCheckHasSucceeded(DcamFunction.DEV_CLOSE,
+                                       lError);
 
     mDevicePeer = -1;
+    mHDCAMPointer = null;
 
   }
 
@@ -765,60 +1023,80 @@ public class DcamDevice extends DcamBase implements AutoCloseable
   public final boolean showPanel()
   {
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamdevShowpanel(getHDCAMPointer(),
-                                                                        1);
+                                        DcamLibrary.getBackend().dcamdevShowpanel(getHDCAMPointer(),
+                                                                                  1);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.DEV_SHOWPANEL,
+                                                              lError);
     return lSuccess;
   }
 
   /**
    * Returns this device status
    * 
-   * @return camera device status
+   * @return camera device status, null if the status could not be read
    */
   public final IntValuedEnum<DCAMCAP_STATUS> getStatus()
   {
-    @SuppressWarnings(
-    { "unchecked", "rawtypes" })
+    final long lStatusValue = getStatusValue();
+    for (DCAMCAP_STATUS lStatus : cStatusValues)
+      if (lStatus.value == lStatusValue)
+        return lStatus;
+    return null;
+  }
+
+  /**
+   * Returns this device status as a raw value. This does not allocate and is
+   * meant for polling loops.
+   * 
+   * @return camera device status value, -1 if the status could not be read
+   */
+  public final long getStatusValue()
+  {
     final Pointer<IntValuedEnum<DCAMCAP_STATUS>> lPointerToStatus =
-                                                                  (Pointer) Pointer.allocateCLong();
+                                                                  getScratch().mPointerToStatus;
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamcapStatus(getHDCAMPointer(),
-                                                                     lPointerToStatus);
+                                        DcamLibrary.getBackend().dcamcapStatus(getHDCAMPointer(),
+                                                                               lPointerToStatus);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.CAP_STATUS,
+                                                              lError);
     if (lSuccess)
-    {
-      final IntValuedEnum<DCAMCAP_STATUS> lStatus =
-                                                  DCAMCAP_STATUS.fromValue((int) lPointerToStatus.getCLong());
-      lPointerToStatus.release();
-      return lStatus;
-    }
-    return null;
+      return lPointerToStatus.getCLong();
+    return -1;
   }
 
+  /**
+   * Returns the transfer info. The returned object is a per-thread scratch
+   * structure that is reused and overwritten by the next call from the same
+   * thread, callers must read the values they need right away.
+   * 
+   * @return transfer info, null if it could not be read
+   */
   final DCAMCAP_TRANSFERINFO getTransferInfo()
   {
     // DCAMERR DCAMAPI dcamcap_transferinfo ( HDCAM h, DCAMCAP_TRANSFERINFO*
     // param );
 
+    final DcamEvent lEvent = DcamEvents.transferInfo(mDeviceID);
+    final DcamNativeScratch lScratch = getScratch();
     final DCAMCAP_TRANSFERINFO lDCAMCAP_TRANSFERINFO =
-                                                     new DCAMCAP_TRANSFERINFO();
-    lDCAMCAP_TRANSFERINFO.size(BridJ.sizeOf(DCAMCAP_TRANSFERINFO.class));
+                                                     lScratch.mTransferInfo;
 
-    @SuppressWarnings("deprecation")
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamcapTransferinfo(getHDCAMPointer(),
-                                                                           pointerTo(lDCAMCAP_TRANSFERINFO));
+                                        DcamLibrary.getBackend().dcamcapTransferinfo(getHDCAMPointer(),
+                                                                                     lScratch.mPointerToTransferInfo);
 
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.CAP_TRANSFERINFO,
+                                                              lError);
     if (lSuccess)
     {
+      lEvent.commit(true, lDCAMCAP_TRANSFERINFO.nFrameCount());
       return lDCAMCAP_TRANSFERINFO;
     }
+    lEvent.commit(false);
     return null;
   }
 
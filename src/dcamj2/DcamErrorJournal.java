@@ -0,0 +1,215 @@
+package dcamj2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamj2.backend.DcamErrors;
+import dcamj2.backend.DcamFunction;
+
+import org.bridj.IntValuedEnum;
+
+/**
+ * Dcam error journal. Keeps the most recent errors in a fixed-capacity ring,
+ * and counts successes and errors per return code. Successes are only
+ * counted, so the journal has a constant memory footprint whatever the number
+ * of calls. Recording is lock-free: writers claim a slot with a sequence
+ * number and publish it with a stamp, readers skip slots that are being
+ * overwritten.
+ *
+ * @author royer
+ */
+public class DcamErrorJournal
+{
+  /**
+   * Default capacity
+   */
+  public static final int cDefaultCapacity = 256;
+
+  // Per slot: stamp (sequence + 1, 0 while written), code, function, device,
+  // time and thread:
+  private static final int cSlotLength = 6;
+
+  private final int mMask;
+  private final AtomicLongArray mSlots;
+  private final AtomicLong mSequence = new AtomicLong();
+
+  private final LongAdder mSuccesses = new LongAdder();
+  private final LongAdder mErrors = new LongAdder();
+  private final ConcurrentHashMap<Integer, LongAdder> mErrorCounts =
+                                                                  new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a journal with the default capacity
+   */
+  public DcamErrorJournal()
+  {
+    this(cDefaultCapacity);
+  }
+
+  /**
+   * Instantiates a journal
+   *
+   * @param pCapacity
+   *          number of errors kept, rounded up to a power of two
+   */
+  public DcamErrorJournal(final int pCapacity)
+  {
+    final int lCapacity =
+                        Integer.highestOneBit(Math.max(1, pCapacity - 1))
+                          << 1;
+    mMask = lCapacity - 1;
+    mSlots = new AtomicLongArray(lCapacity * cSlotLength);
+  }
+
+  /**
+   * Returns the capacity of this journal
+   *
+   * @return capacity
+   */
+  public int getCapacity()
+  {
+    return mMask + 1;
+  }
+
+  /**
+   * Records the return code of a driver call
+   *
+   * @param pFunction
+   *          function called, can be null
+   * @param pDeviceId
+   *          device id, -1 if unknown
+   * @param pError
+   *          return code
+   */
+  public void record(final DcamFunction pFunction,
+                     final long pDeviceId,
+                     final IntValuedEnum<DCAMERR> pError)
+  {
+    if (DcamLibrary.hasSucceeded(pError))
+    {
+      mSuccesses.increment();
+      return;
+    }
+
+    final int lCode = (int) pError.value();
+    mErrors.increment();
+    mErrorCounts.computeIfAbsent(lCode, k -> new LongAdder()).increment();
+
+    final long lSequence = mSequence.getAndIncrement();
+    final int lBase = (int) (lSequence & mMask) * cSlotLength;
+    mSlots.set(lBase, 0);
+    mSlots.set(lBase + 1, lCode);
+    mSlots.set(lBase + 2, pFunction == null ? -1 : pFunction.ordinal());
+    mSlots.set(lBase + 3, pDeviceId);
+    mSlots.set(lBase + 4, System.nanoTime());
+    mSlots.set(lBase + 5, Thread.currentThread().getId());
+    mSlots.set(lBase, lSequence + 1);
+  }
+
+  /**
+   * Returns the errors still in the journal, oldest first
+   *
+   * @return error records
+   */
+  public List<DcamErrorRecord> getRecords()
+  {
+    final long lEnd = mSequence.get();
+    final long lStart = Math.max(0, lEnd - getCapacity());
+    final ArrayList<DcamErrorRecord> lRecords =
+                                              new ArrayList<>((int) (lEnd
+                                                                     - lStart));
+    for (long lSequence = lStart; lSequence < lEnd; lSequence++)
+    {
+      final int lBase = (int) (lSequence & mMask) * cSlotLength;
+      if (mSlots.get(lBase) != lSequence + 1)
+        continue;
+
+      final int lCode = (int) mSlots.get(lBase + 1);
+      final int lFunction = (int) mSlots.get(lBase + 2);
+      final long lDeviceId = mSlots.get(lBase + 3);
+      final long lNanoTime = mSlots.get(lBase + 4);
+      final long lThreadId = mSlots.get(lBase + 5);
+
+      // the slot may have been overwritten while we were reading it:
+      if (mSlots.get(lBase) != lSequence + 1)
+        continue;
+
+      lRecords.add(new DcamErrorRecord(lCode,
+                                       lFunction < 0 ? null
+                                                     : DcamFunction.fromOrdinal(lFunction),
+                                       lDeviceId,
+                                       lNanoTime,
+                                       lThreadId));
+    }
+    return lRecords;
+  }
+
+  /**
+   * Returns the number of successful calls recorded
+   *
+   * @return number of successes
+   */
+  public long getSuccessCount()
+  {
+    return mSuccesses.sum();
+  }
+
+  /**
+   * Returns the number of failed calls recorded, including those no longer
+   * in the journal
+   *
+   * @return number of errors
+   */
+  public long getErrorCount()
+  {
+    return mErrors.sum();
+  }
+
+  /**
+   * Returns the number of failed calls per return code
+   *
+   * @return counts per error
+   */
+  public Map<IntValuedEnum<DCAMERR>, Long> getErrorCounts()
+  {
+    final LinkedHashMap<IntValuedEnum<DCAMERR>, Long> lCounts =
+                                                              new LinkedHashMap<>();
+    for (final Map.Entry<Integer, LongAdder> lEntry : mErrorCounts.entrySet())
+      lCounts.put(DcamErrors.fromCode(lEntry.getKey()),
+                  lEntry.getValue().sum());
+    return lCounts;
+  }
+
+  /**
+   * Clears the journal and its counters. Calls recorded concurrently may or
+   * may not be cleared.
+   */
+  public void clear()
+  {
+    final long lEnd = mSequence.get();
+    for (int i = 0; i < mSlots.length(); i += cSlotLength)
+      mSlots.set(i, 0);
+    mSequence.compareAndSet(lEnd, 0);
+    mSuccesses.reset();
+    mErrors.reset();
+    mErrorCounts.clear();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("DcamErrorJournal [successes=%d, errors=%d, counts=%s, recent=%s]",
+                         getSuccessCount(),
+                         getErrorCount(),
+                         getErrorCounts(),
+                         getRecords());
+  }
+
+}
@@ -0,0 +1,97 @@
+package dcamj2;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamj2.backend.DcamErrors;
+import dcamj2.backend.DcamFunction;
+
+import org.bridj.IntValuedEnum;
+
+/**
+ * Dcam error record, as kept by {@link DcamErrorJournal}
+ *
+ * @author royer
+ */
+public class DcamErrorRecord
+{
+  private final int mCode;
+  private final DcamFunction mFunction;
+  private final long mDeviceId;
+  private final long mNanoTime;
+  private final long mThreadId;
+
+  DcamErrorRecord(final int pCode,
+                  final DcamFunction pFunction,
+                  final long pDeviceId,
+                  final long pNanoTime,
+                  final long pThreadId)
+  {
+    mCode = pCode;
+    mFunction = pFunction;
+    mDeviceId = pDeviceId;
+    mNanoTime = pNanoTime;
+    mThreadId = pThreadId;
+  }
+
+  /**
+   * Returns the error
+   *
+   * @return error
+   */
+  public IntValuedEnum<DCAMERR> getError()
+  {
+    return DcamErrors.fromCode(mCode);
+  }
+
+  /**
+   * Returns the function that failed
+   *
+   * @return function, null if unknown
+   */
+  public DcamFunction getFunction()
+  {
+    return mFunction;
+  }
+
+  /**
+   * Returns the device id (index)
+   *
+   * @return device id, -1 if unknown
+   */
+  public long getDeviceId()
+  {
+    return mDeviceId;
+  }
+
+  /**
+   * Returns the time of the error, as given by System.nanoTime()
+   *
+   * @return time in nanoseconds
+   */
+  public long getNanoTime()
+  {
+    return mNanoTime;
+  }
+
+  /**
+   * Returns the id of the thread that got the error
+   *
+   * @return thread id
+   */
+  public long getThreadId()
+  {
+    return mThreadId;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%s in %s [device=%d, thread=%d, t=%d ns]",
+                         getError(),
+                         mFunction == null ? "?"
+                                           : mFunction.getNativeName(),
+                         mDeviceId,
+                         mThreadId,
+                         mNanoTime);
+  }
+
+}
@@ -1,5 +1,9 @@
 package dcamj2;
 
+import dcamapi.DcamapiLibrary.DCAMERR;
+
+import org.bridj.IntValuedEnum;
+
 /**
  * Runtime exception thrown when problems occurs with DcamJ
  *
@@ -10,6 +14,8 @@ public class DcamException extends RuntimeException
 
   private static final long serialVersionUID = 1L;
 
+  private final IntValuedEnum<DCAMERR> mError;
+
   /**
    * Instantiates a Dcam exception given an error message
    * 
@@ -19,8 +25,22 @@ public class DcamException extends RuntimeException
    */
   public DcamException(String pMessage)
   {
-    super(pMessage);
+    this(pMessage, (IntValuedEnum<DCAMERR>) null);
+  }
 
+  /**
+   * Instantiates a Dcam exception given an error message and the Dcam error
+   * code that caused it
+   * 
+   * @param pMessage
+   *          error message
+   * @param pError
+   *          Dcam error code, can be null
+   */
+  public DcamException(String pMessage, IntValuedEnum<DCAMERR> pError)
+  {
+    super(pError == null ? pMessage : pMessage + " (" + pError + ")");
+    mError = pError;
   }
 
   /**
@@ -34,7 +54,18 @@ public class DcamException extends RuntimeException
   public DcamException(String pMessage, Throwable pCause)
   {
     super(pMessage, pCause);
+    mError = null;
+  }
 
+  /**
+   * Returns the Dcam error code that caused this exception, or null if this
+   * exception was not caused by a Dcam API call.
+   * 
+   * @return Dcam error code or null
+   */
+  public IntValuedEnum<DCAMERR> getError()
+  {
+    return mError;
   }
 
 }
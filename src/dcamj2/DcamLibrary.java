@@ -2,10 +2,27 @@ package dcamj2;
 
 import static org.bridj.Pointer.pointerTo;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import dcamapi.DCAMAPI_INIT;
-import dcamapi.DcamapiLibrary;
 import dcamapi.DcamapiLibrary.DCAMERR;
 
+import dcamj2.backend.BridJDcamBackend;
+import dcamj2.backend.DcamBackend;
+import dcamj2.backend.RawBridJDcamBackend;
+import dcamj2.sim.DcamSimulatorBackend;
+import dcamj2.stats.StatisticsDcamBackend;
+import dcamj2.trace.ReplayDcamBackend;
+import dcamj2.trace.TracingDcamBackend;
+
 import org.bridj.BridJ;
 import org.bridj.IntValuedEnum;
 
@@ -23,8 +40,196 @@ public class DcamLibrary
     super();
   }
 
+  /**
+   * System property used to choose the backend: 'bridj' (default, Hamamatsu
+   * driver), 'raw' (Hamamatsu driver through primitive-only bindings for the
+   * per-frame calls), 'simulator', or 'replay' (replays the trace given by
+   * {@link #cReplayTraceProperty}).
+   */
+  public static final String cBackendProperty = "dcamj.backend";
+
+  /**
+   * System property giving the number of simulated cameras when the
+   * 'simulator' backend is chosen.
+   */
+  public static final String cSimulatedCamerasProperty =
+                                                       "dcamj.simulator.cameras";
+
+  /**
+   * System property giving a file to which all driver calls are traced,
+   * whatever the backend.
+   */
+  public static final String cRecordTraceProperty = "dcamj.trace.record";
+
+  /**
+   * System property giving the trace file replayed by the 'replay' backend.
+   */
+  public static final String cReplayTraceProperty = "dcamj.trace.replay";
+
+  /**
+   * System property that, when 'true', enables driver call statistics (see
+   * {@link #enableStatistics()}).
+   */
+  public static final String cStatisticsProperty = "dcamj.statistics";
+
+  /**
+   * System property that, when 'false', disables the flight recorder events
+   * (see {@link dcamj2.jfr.DcamEvents}).
+   */
+  public static final String cFlightRecorderProperty = "dcamj.jfr";
+
+  /**
+   * System property giving the maximal number of bytes allocated for image
+   * sequences over all devices (see {@link dcamj2.imgseq.DcamMemoryGovernor}),
+   * unlimited by default.
+   */
+  public static final String cMemoryCeilingProperty = "dcamj.memory.ceiling";
+
+  /**
+   * System property giving how long, in milliseconds, image sequence
+   * allocations wait for memory when the ceiling is reached, before failing.
+   */
+  public static final String cMemoryTimeOutProperty = "dcamj.memory.timeout";
+
   private static boolean sInitialized = false;
   private static long sNumberOfDevices = -1;
+  private static volatile DcamBackend sBackend;
+
+  /**
+   * Returns the backend through which all driver calls are made. Unless set
+   * with {@link #setBackend(DcamBackend)}, the backend is chosen from the
+   * 'dcamj.backend' system property.
+   * 
+   * @return backend
+   */
+  public static final DcamBackend getBackend()
+  {
+    DcamBackend lBackend = sBackend;
+    if (lBackend == null)
+    {
+      synchronized (DcamLibrary.class)
+      {
+        if (sBackend == null)
+        {
+          lBackend = createBackend(System.getProperty(cBackendProperty,
+                                                      "bridj"));
+          final String lTraceFile =
+                                  System.getProperty(cRecordTraceProperty);
+          if (lTraceFile != null)
+            lBackend = createTracingBackend(lBackend, lTraceFile);
+          if (Boolean.getBoolean(cStatisticsProperty))
+          {
+            final StatisticsDcamBackend lStatisticsBackend =
+                                                           new StatisticsDcamBackend(lBackend);
+            lStatisticsBackend.registerMXBean();
+            lBackend = lStatisticsBackend;
+          }
+          sBackend = lBackend;
+        }
+        lBackend = sBackend;
+      }
+    }
+    return lBackend;
+  }
+
+  /**
+   * Sets the backend through which all driver calls are made. Must be called
+   * before the library is initialized.
+   * 
+   * @param pBackend
+   *          backend
+   */
+  public static final void setBackend(final DcamBackend pBackend)
+  {
+    if (isInitialized())
+      throw new DcamException("Backend must be set before the library is initialized");
+    sBackend = pBackend;
+  }
+
+  /**
+   * Enables per-device, per-function call statistics (counts, errors and
+   * latency histograms) for all driver calls, and publishes them through JMX.
+   * Must be called before the library is initialized.
+   * 
+   * @return statistics
+   */
+  public static final StatisticsDcamBackend enableStatistics()
+  {
+    synchronized (DcamLibrary.class)
+    {
+      final DcamBackend lBackend = getBackend();
+      if (lBackend instanceof StatisticsDcamBackend)
+        return (StatisticsDcamBackend) lBackend;
+      if (isInitialized())
+        throw new DcamException("Statistics must be enabled before the library is initialized");
+
+      final StatisticsDcamBackend lStatisticsBackend =
+                                                     new StatisticsDcamBackend(lBackend);
+      lStatisticsBackend.registerMXBean();
+      sBackend = lStatisticsBackend;
+      return lStatisticsBackend;
+    }
+  }
+
+  /**
+   * Returns the driver call statistics, if enabled
+   * 
+   * @return statistics, null if not enabled
+   */
+  public static final StatisticsDcamBackend getStatistics()
+  {
+    final DcamBackend lBackend = getBackend();
+    return lBackend instanceof StatisticsDcamBackend ? (StatisticsDcamBackend) lBackend
+                                                     : null;
+  }
+
+  private static DcamBackend createBackend(final String pName)
+  {
+    switch (pName.trim().toLowerCase())
+    {
+    case "bridj":
+      return new BridJDcamBackend();
+    case "raw":
+      return new RawBridJDcamBackend();
+    case "sim":
+    case "simulator":
+      return new DcamSimulatorBackend(Integer.getInteger(cSimulatedCamerasProperty,
+                                                         1));
+    case "replay":
+      final String lTraceFile = System.getProperty(cReplayTraceProperty);
+      if (lTraceFile == null)
+        throw new DcamException("No trace to replay, set "
+                                + cReplayTraceProperty);
+      try
+      {
+        return new ReplayDcamBackend(new File(lTraceFile));
+      }
+      catch (IOException e)
+      {
+        throw new DcamException("Could not read trace: " + lTraceFile, e);
+      }
+    default:
+      throw new DcamException("Unknown backend: " + pName);
+    }
+  }
+
+  private static DcamBackend createTracingBackend(final DcamBackend pBackend,
+                                                  final String pTraceFile)
+  {
+    try
+    {
+      final TracingDcamBackend lTracingBackend =
+                                               new TracingDcamBackend(pBackend,
+                                                                      new FileOutputStream(pTraceFile));
+      Runtime.getRuntime()
+             .addShutdownHook(new Thread(lTracingBackend::flush));
+      return lTracingBackend;
+    }
+    catch (IOException e)
+    {
+      throw new DcamException("Could not create trace: " + pTraceFile, e);
+    }
+  }
 
   /**
    * Initializes the library
@@ -40,7 +245,7 @@ public class DcamLibrary
     lDCAMAPI_INIT.size(BridJ.sizeOf(DCAMAPI_INIT.class));
     @SuppressWarnings("deprecation")
     final IntValuedEnum<DCAMERR> dcamapiInit =
-                                             DcamapiLibrary.dcamapiInit(pointerTo(lDCAMAPI_INIT));
+                                             getBackend().dcamapiInit(pointerTo(lDCAMAPI_INIT));
 
     final boolean lSuccess = hasSucceeded(dcamapiInit);
 
@@ -111,6 +316,69 @@ public class DcamLibrary
     return lDcamDevice;
   }
 
+  /**
+   * Opens all connected devices concurrently, one thread per device. Each
+   * device is opened and waits for readiness independently, so the total
+   * start up time is that of the slowest device rather than the sum over all
+   * devices.
+   * 
+   * @return one future per device index, completed with the opened device or
+   *         exceptionally with a {@link DcamException}
+   */
+  public static final List<CompletableFuture<DcamDevice>> openAllAsync()
+  {
+    final int lNumberOfDevices = Math.max(1, getNumberOfDevices());
+    final ExecutorService lExecutor =
+                                    Executors.newFixedThreadPool(lNumberOfDevices,
+                                                                 r -> {
+                                                                   Thread lThread =
+                                                                                  new Thread(r,
+                                                                                             "DcamOpen");
+                                                                   lThread.setDaemon(true);
+                                                                   return lThread;
+                                                                 });
+    try
+    {
+      return openAllAsync(lExecutor);
+    }
+    finally
+    {
+      // already submitted tasks still run to completion:
+      lExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Opens all connected devices concurrently on the given executor.
+   * 
+   * @param pExecutor
+   *          executor on which devices are opened
+   * @return one future per device index, completed with the opened device or
+   *         exceptionally with a {@link DcamException}
+   */
+  public static final List<CompletableFuture<DcamDevice>> openAllAsync(final Executor pExecutor)
+  {
+    if (!isInitialized())
+      throw new DcamException("Library must be first initialized");
+
+    final int lNumberOfDevices = getNumberOfDevices();
+    final ArrayList<CompletableFuture<DcamDevice>> lFutureList =
+                                                               new ArrayList<>(lNumberOfDevices);
+    for (int i = 0; i < lNumberOfDevices; i++)
+    {
+      final long lDeviceId = i;
+      lFutureList.add(CompletableFuture.supplyAsync(() -> {
+        final DcamDevice lDcamDevice = new DcamDevice(lDeviceId);
+        if (!lDcamDevice.open())
+          throw new DcamException("Could not open device " + lDeviceId
+                                  + ": "
+                                  + lDcamDevice.getLastError());
+        return lDcamDevice;
+      }, pExecutor));
+    }
+    return lFutureList;
+  }
+
   /**
    * Uninitialized library
    * 
@@ -122,8 +390,10 @@ public class DcamLibrary
       return false;
 
     final IntValuedEnum<DCAMERR> lDcamapiUninit =
-                                                DcamapiLibrary.dcamapiUninit();
+                                                getBackend().dcamapiUninit();
     final boolean lSuccess = hasSucceeded(lDcamapiUninit);
+    if (lSuccess)
+      sInitialized = false;
     return lSuccess;
   }
 
@@ -0,0 +1,40 @@
+package dcamj2;
+
+import static org.bridj.Pointer.pointerTo;
+
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+
+import org.bridj.BridJ;
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Reusable native scratch buffers for property, status and transfer-info
+ * reads. Instances are confined to a single thread (see
+ * {@link DcamDevice#getScratch()}), so that these reads allocate nothing on
+ * the Java or native heap once the scratch buffers exist.
+ *
+ * @author royer
+ */
+final class DcamNativeScratch
+{
+  final Pointer<Double> mPointerToDouble = Pointer.allocateDouble();
+
+  @SuppressWarnings(
+  { "unchecked", "rawtypes" })
+  final Pointer<IntValuedEnum<DCAMCAP_STATUS>> mPointerToStatus =
+                                                                (Pointer) Pointer.allocateCLong();
+
+  final DCAMCAP_TRANSFERINFO mTransferInfo = new DCAMCAP_TRANSFERINFO();
+
+  @SuppressWarnings("deprecation")
+  final Pointer<DCAMCAP_TRANSFERINFO> mPointerToTransferInfo =
+                                                             pointerTo(mTransferInfo);
+
+  DcamNativeScratch()
+  {
+    mTransferInfo.size(BridJ.sizeOf(DCAMCAP_TRANSFERINFO.class));
+  }
+
+}
@@ -0,0 +1,35 @@
+package dcamj2;
+
+import dcamj2.imgseq.DcamImageSequence;
+
+/**
+ * Dcam plane listener, notified of each plane of a sequence as soon as the
+ * driver has written it, while the rest of the sequence is still being
+ * acquired. An exception thrown by a listener does not fail the sequence and
+ * does not keep the other listeners from being notified: it is counted, see
+ * {@link DcamSequenceAcquisition#getListenerErrorCount()}.
+ *
+ * @author royer
+ */
+public interface DcamPlaneListener
+{
+
+  /**
+   * Called once per plane, in plane order. The plane data can be accessed
+   * through {@link DcamImageSequence#getMemoryForPlane(int)}.
+   *
+   * @param pSequenceAcquisition
+   *          sequence acquisition acquiring the sequence
+   * @param pImageSequence
+   *          image sequence being acquired
+   * @param pPlaneIndex
+   *          index of the plane that is ready
+   * @param pArrivalTimeStampInNanoseconds
+   *          time stamp at which the plane was received
+   */
+  void planeReady(DcamSequenceAcquisition pSequenceAcquisition,
+                  DcamImageSequence pImageSequence,
+                  long pPlaneIndex,
+                  long pArrivalTimeStampInNanoseconds);
+
+}
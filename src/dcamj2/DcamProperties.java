@@ -1,9 +1,12 @@
 package dcamj2;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import dcamapi.DCAM_PROPERTYATTR;
 import dcamapi.DcamapiLibrary;
@@ -12,6 +15,7 @@ import dcamapi.DcamapiLibrary.DCAMIDPROP;
 import dcamapi.DcamapiLibrary.DCAMPROPATTRIBUTE;
 import dcamapi.DcamapiLibrary.DCAMPROPMODEVALUE;
 import dcamapi.DcamapiLibrary.DCAMPROPUNIT;
+import dcamj2.backend.DcamFunction;
 
 import org.bridj.BridJ;
 import org.bridj.FlagSet;
@@ -31,6 +35,138 @@ public class DcamProperties extends DcamBase
   private final HashMap<String, DcamProperty> mPropertyMap =
                                                            new HashMap<String, DcamProperty>();
 
+  // Sorted property ids and corresponding properties, for allocation-free
+  // lookups by id:
+  private long[] mPropertyIds = new long[0];
+  private DcamProperty[] mPropertiesById = new DcamProperty[0];
+
+  // Writing a property invalidates the cached values of the properties that
+  // depend on it, and only those: geometry and binning feed into the image
+  // and buffer sizes and into the timing, readout and trigger settings into
+  // the timing, and the exposure into the timing only. Written property ids,
+  // sorted, and for each the sorted ids of the properties it invalidates:
+  private static final long[] cWrittenPropertyIds;
+  private static final long[][] cInvalidatedPropertyIds;
+  // All properties invalidated by some write, sorted. Read-only properties
+  // among them are derived from settings and can be cached:
+  private static final long[] cDerivedPropertyIds;
+  static
+  {
+    final DCAMIDPROP[] lGeometryProperties =
+    { DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS,
+      DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE,
+      DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS,
+      DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE,
+      DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE,
+      DCAMIDPROP.DCAM_IDPROP_BINNING,
+      DCAMIDPROP.DCAM_IDPROP_BINNING_INDEPENDENT,
+      DCAMIDPROP.DCAM_IDPROP_BINNING_HORZ,
+      DCAMIDPROP.DCAM_IDPROP_BINNING_VERT,
+      DCAMIDPROP.DCAM_IDPROP_DIGITALBINNING_METHOD,
+      DCAMIDPROP.DCAM_IDPROP_DIGITALBINNING_HORZ };
+
+    final DCAMIDPROP[] lSizeProperties =
+    { DCAMIDPROP.DCAM_IDPROP_IMAGE_WIDTH,
+      DCAMIDPROP.DCAM_IDPROP_IMAGE_HEIGHT,
+      DCAMIDPROP.DCAM_IDPROP_IMAGE_ROWBYTES,
+      DCAMIDPROP.DCAM_IDPROP_IMAGE_FRAMEBYTES,
+      DCAMIDPROP.DCAM_IDPROP_IMAGE_TOPOFFSETBYTES,
+      DCAMIDPROP.DCAM_IDPROP_IMAGE_PIXELTYPE,
+      DCAMIDPROP.DCAM_IDPROP_BUFFER_ROWBYTES,
+      DCAMIDPROP.DCAM_IDPROP_BUFFER_FRAMEBYTES,
+      DCAMIDPROP.DCAM_IDPROP_BUFFER_TOPOFFSETBYTES,
+      DCAMIDPROP.DCAM_IDPROP_BUFFER_PIXELTYPE };
+
+    final DCAMIDPROP[] lReadoutProperties =
+    { DCAMIDPROP.DCAM_IDPROP_READOUTSPEED,
+      DCAMIDPROP.DCAM_IDPROP_READOUT_DIRECTION,
+      DCAMIDPROP.DCAM_IDPROP_SENSORMODE,
+      DCAMIDPROP.DCAM_IDPROP_TRIGGERSOURCE,
+      DCAMIDPROP.DCAM_IDPROP_TRIGGERACTIVE,
+      DCAMIDPROP.DCAM_IDPROP_TRIGGER_MODE };
+
+    final DCAMIDPROP[] lExposureProperties =
+    { DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME };
+
+    final DCAMIDPROP[] lTimingProperties =
+    { DCAMIDPROP.DCAM_IDPROP_TIMING_READOUTTIME,
+      DCAMIDPROP.DCAM_IDPROP_TIMING_CYCLICTRIGGERPERIOD,
+      DCAMIDPROP.DCAM_IDPROP_TIMING_MINTRIGGERBLANKING,
+      DCAMIDPROP.DCAM_IDPROP_TIMING_MINTRIGGERINTERVAL,
+      DCAMIDPROP.DCAM_IDPROP_TIMING_EXPOSURE,
+      DCAMIDPROP.DCAM_IDPROP_TIMING_GLOBALEXPOSUREDELAY,
+      DCAMIDPROP.DCAM_IDPROP_INTERNALFRAMERATE,
+      DCAMIDPROP.DCAM_IDPROP_INTERNAL_FRAMEINTERVAL,
+      DCAMIDPROP.DCAM_IDPROP_INTERNALLINERATE,
+      DCAMIDPROP.DCAM_IDPROP_INTERNALLINESPEED };
+
+    final TreeMap<Long, TreeSet<Long>> lDependencies = new TreeMap<>();
+    // geometry settings constrain each other, e.g. positions are clamped
+    // when sizes change:
+    addDependencies(lDependencies,
+                    lGeometryProperties,
+                    lGeometryProperties,
+                    lSizeProperties,
+                    lTimingProperties);
+    addDependencies(lDependencies,
+                    lReadoutProperties,
+                    lReadoutProperties,
+                    lTimingProperties);
+    addDependencies(lDependencies, lExposureProperties, lTimingProperties);
+    // the internal line and frame timing can in turn adjust the exposure:
+    addDependencies(lDependencies,
+                    lTimingProperties,
+                    lTimingProperties,
+                    lExposureProperties);
+
+    cWrittenPropertyIds = new long[lDependencies.size()];
+    cInvalidatedPropertyIds = new long[lDependencies.size()][];
+    final TreeSet<Long> lDerivedPropertyIds = new TreeSet<>();
+    int i = 0;
+    for (Entry<Long, TreeSet<Long>> lEntry : lDependencies.entrySet())
+    {
+      cWrittenPropertyIds[i] = lEntry.getKey();
+      cInvalidatedPropertyIds[i] = toArray(lEntry.getValue());
+      lDerivedPropertyIds.addAll(lEntry.getValue());
+      i++;
+    }
+    cDerivedPropertyIds = toArray(lDerivedPropertyIds);
+  }
+
+  private static void addDependencies(final TreeMap<Long, TreeSet<Long>> pDependencies,
+                                      final DCAMIDPROP[] pWrittenProperties,
+                                      final DCAMIDPROP[]... pInvalidatedProperties)
+  {
+    for (final DCAMIDPROP lWrittenProperty : pWrittenProperties)
+    {
+      TreeSet<Long> lInvalidated =
+                                 pDependencies.get(lWrittenProperty.value);
+      if (lInvalidated == null)
+      {
+        lInvalidated = new TreeSet<>();
+        pDependencies.put(lWrittenProperty.value, lInvalidated);
+      }
+      for (final DCAMIDPROP[] lGroup : pInvalidatedProperties)
+        for (final DCAMIDPROP lInvalidatedProperty : lGroup)
+          lInvalidated.add(lInvalidatedProperty.value);
+    }
+  }
+
+  private static long[] toArray(final Collection<Long> pIds)
+  {
+    final long[] lArray = new long[pIds.size()];
+    int i = 0;
+    for (final Long lId : pIds)
+      lArray[i++] = lId;
+    return lArray;
+  }
+
+  // Upper bound on the number of values enumerated for a discrete property:
+  private static final int cMaxSnapTableLength = 4096;
+
+  private volatile boolean mCachingEnabled = false;
+  private volatile long mCacheEpoch;
+
   /**
    * Dcam properties
    * 
@@ -43,6 +179,12 @@ public class DcamProperties extends DcamBase
     updatePropertyList();
   }
 
+  @Override
+  long getJournalDeviceId()
+  {
+    return mDcamDevice.getDeviceID();
+  }
+
   /**
    * Lists all properties on standard out
    */
@@ -72,9 +214,9 @@ public class DcamProperties extends DcamBase
     final Pointer<IntValuedEnum<DcamapiLibrary.DCAMIDPROP>> lPointerToPropertyId =
                                                                                  (Pointer) Pointer.allocateCLong();
 
-    while (DcamLibrary.hasSucceeded(DcamapiLibrary.dcampropGetnextid(mDcamDevice.getHDCAMPointer(),
-                                                                     lPointerToPropertyId,
-                                                                     DcamapiLibrary.DCAMPROPOPTION.DCAMPROP_OPTION_SUPPORT.value)))
+    while (DcamLibrary.hasSucceeded(DcamLibrary.getBackend().dcampropGetnextid(mDcamDevice.getHDCAMPointer(),
+                                                                               lPointerToPropertyId,
+                                                                               DcamapiLibrary.DCAMPROPOPTION.DCAMPROP_OPTION_SUPPORT.value)))
     {
 
       final DcamProperty lDcamProperty = new DcamProperty();
@@ -84,12 +226,13 @@ public class DcamProperties extends DcamBase
       {
         final Pointer<Byte> lNameBytes = Pointer.allocateBytes(64);
         final IntValuedEnum<DCAMERR> lError =
-                                            DcamapiLibrary.dcampropGetname(mDcamDevice.getHDCAMPointer(),
-                                                                           lPointerToPropertyId.getCLong(),
-                                                                           lNameBytes,
-                                                                           64L);
+                                            DcamLibrary.getBackend().dcampropGetname(mDcamDevice.getHDCAMPointer(),
+                                                                                     lPointerToPropertyId.getCLong(),
+                                                                                     lNameBytes,
+                                                                                     64L);
         final boolean lSuccessGetName =
-                                      addErrorToListAndCheckHasSucceeded(lError);
+                                      addErrorToListAndCheckHasSucceeded(DcamFunction.PROP_GETNAME,
+                                                                         lError);
         lSuccess &= lSuccessGetName;
         if (!lSuccessGetName)
         {
@@ -107,8 +250,8 @@ public class DcamProperties extends DcamBase
 
         @SuppressWarnings("unused")
         final IntValuedEnum<DcamapiLibrary.DCAMERR> lError =
-                                                           DcamapiLibrary.dcampropGetattr(mDcamDevice.getHDCAMPointer(),
-                                                                                          Pointer.getPointer(lDCAM_PROPERTYATTR));
+                                                           DcamLibrary.getBackend().dcampropGetattr(mDcamDevice.getHDCAMPointer(),
+                                                                                                    Pointer.getPointer(lDCAM_PROPERTYATTR));
         final boolean lSuccessGetAttribute = true; // always works...
         lSuccess &= lSuccessGetAttribute;
 
@@ -137,15 +280,18 @@ public class DcamProperties extends DcamBase
           lDcamProperty.writable =
                                  lFlagSetForAttribute.has(DCAMPROPATTRIBUTE.DCAMPROP_ATTR_WRITABLE);
 
-          if (lFlagSetForAttribute.has(DCAMPROPATTRIBUTE.DCAMPROP_TYPE_LONG))
+          // The type is a value within the type mask, not a set of flags:
+          final long lType = lDCAM_PROPERTYATTR.attribute().value()
+                             & DCAMPROPATTRIBUTE.DCAMPROP_TYPE_MASK.value;
+          if (lType == DCAMPROPATTRIBUTE.DCAMPROP_TYPE_LONG.value)
           {
             lDcamProperty.mode = "long";
           }
-          else if (lFlagSetForAttribute.has(DCAMPROPATTRIBUTE.DCAMPROP_TYPE_REAL))
+          else if (lType == DCAMPROPATTRIBUTE.DCAMPROP_TYPE_REAL.value)
           {
             lDcamProperty.mode = "real";
           }
-          else if (lFlagSetForAttribute.has(DCAMPROPATTRIBUTE.DCAMPROP_TYPE_MODE))
+          else if (lType == DCAMPROPATTRIBUTE.DCAMPROP_TYPE_MODE.value)
           {
             lDcamProperty.mode = "mode";
           }
@@ -178,9 +324,39 @@ public class DcamProperties extends DcamBase
 
     }
 
+    updatePropertyIdIndex();
+
     return lSuccess;
   }
 
+  private void updatePropertyIdIndex()
+  {
+    final DcamProperty[] lProperties =
+                                     mPropertyMap.values()
+                                                 .toArray(new DcamProperty[0]);
+    Arrays.sort(lProperties, (a, b) -> Long.compare(a.id, b.id));
+
+    final long[] lPropertyIds = new long[lProperties.length];
+    for (int i = 0; i < lProperties.length; i++)
+    {
+      final DcamProperty lProperty = lProperties[i];
+      lPropertyIds[i] = lProperty.id;
+
+      // Volatile properties change on their own, so do read-only properties
+      // that are not derived from settings (temperatures, status...):
+      final boolean lVolatile = lProperty.attribute != null
+                                && lProperty.attribute.has(DCAMPROPATTRIBUTE.DCAMPROP_ATTR_VOLATILE);
+      final boolean lDerived =
+                             Arrays.binarySearch(cDerivedPropertyIds,
+                                                 lProperty.id) >= 0;
+      lProperty.cacheable = !lVolatile && (lProperty.writable || lDerived);
+      lProperty.cachedvaluevalid = false;
+    }
+
+    mPropertiesById = lProperties;
+    mPropertyIds = lPropertyIds;
+  }
+
   /**
    * Returns property list
    * 
@@ -203,6 +379,33 @@ public class DcamProperties extends DcamBase
     return mPropertyMap.get(pPropertyName);
   }
 
+  /**
+   * Returns property for a given property id
+   * 
+   * @param pPropertyId
+   *          property id
+   * @return property, or null if the device does not support this property
+   */
+  public final DcamProperty getProperty(final long pPropertyId)
+  {
+    final int lIndex = Arrays.binarySearch(mPropertyIds, pPropertyId);
+    if (lIndex < 0)
+      return null;
+    return mPropertiesById[lIndex];
+  }
+
+  /**
+   * Returns property for a given property id
+   * 
+   * @param pDCAMIDPROP
+   *          property id
+   * @return property, or null if the device does not support this property
+   */
+  public final DcamProperty getProperty(final DCAMIDPROP pDCAMIDPROP)
+  {
+    return getProperty(pDCAMIDPROP.value);
+  }
+
   /**
    * Returns a property's default value
    * 
@@ -299,6 +502,42 @@ public class DcamProperties extends DcamBase
     return getProperty(pPropertyName).mode == "long";
   }
 
+  /**
+   * Enables or disables the property value cache. When enabled, values are
+   * remembered after each successful read or write and served from memory
+   * until the property, or one it depends on, is written again. Values are
+   * re-read from the driver only after {@link #refresh()} or after an error.
+   * Volatile properties and read-only status properties are never cached.
+   * 
+   * @param pCachingEnabled
+   *          true to enable caching, false to disable
+   */
+  public final void setCachingEnabled(final boolean pCachingEnabled)
+  {
+    mCachingEnabled = pCachingEnabled;
+    refresh();
+  }
+
+  /**
+   * Returns true if the property value cache is enabled
+   * 
+   * @return true if caching is enabled
+   */
+  public final boolean isCachingEnabled()
+  {
+    return mCachingEnabled;
+  }
+
+  /**
+   * Invalidates all cached property values, the next reads go to the driver.
+   */
+  public final void refresh()
+  {
+    mCacheEpoch++;
+    for (final DcamProperty lProperty : mPropertiesById)
+      lProperty.cachedvaluevalid = false;
+  }
+
   /**
    * Returns property name
    * 
@@ -308,25 +547,7 @@ public class DcamProperties extends DcamBase
    */
   public final double getDoublePropertyValue(final String pPropertyName)
   {
-    final DcamProperty lProperty = getProperty(pPropertyName);
-
-    final Pointer<Double> lPointerToDouble = Pointer.allocateDouble();
-
-    final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcampropGetvalue(mDcamDevice.getHDCAMPointer(),
-                                                                        lProperty.id,
-                                                                        lPointerToDouble);
-    final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
-
-    if (!lSuccess)
-    {
-      return Double.NaN;
-    }
-
-    final double lValue = lPointerToDouble.getDouble();
-
-    return lValue;
+    return getDoublePropertyValue(getProperty(pPropertyName).id);
   }
 
   /**
@@ -341,89 +562,337 @@ public class DcamProperties extends DcamBase
   public final boolean setDoublePropertyValue(final String pPropertyName,
                                               final double pValue)
   {
-    final DcamProperty lProperty = getProperty(pPropertyName);
+    return setDoublePropertyValue(getProperty(pPropertyName).id,
+                                  pValue);
+  }
 
-    final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcampropSetvalue(mDcamDevice.getHDCAMPointer(),
-                                                                        lProperty.id,
-                                                                        pValue);
-    final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+  double getDoublePropertyValue(final DCAMIDPROP pDCAMIDPROP)
+  {
+    return getDoublePropertyValue(pDCAMIDPROP.value);
+  }
 
-    return lSuccess;
+  boolean setDoublePropertyValue(final DCAMIDPROP pDCAMIDPROP,
+                                 final double pValue)
+  {
+    return setDoublePropertyValue(pDCAMIDPROP.value, pValue);
   }
 
-  double getDoublePropertyValue(final DCAMIDPROP pDCAMIDPROP)
+  final boolean setModePropertyValue(final DCAMIDPROP pDCAMIDPROP,
+                                     final DCAMPROPMODEVALUE pDCAMPROPMODEVALUE)
   {
-    final Pointer<Double> lPointerToDouble = Pointer.allocateDouble();
+    return setDoublePropertyValue(pDCAMIDPROP.value,
+                                  pDCAMPROPMODEVALUE.value);
+  }
+
+  double setAndGetDoublePropertyValue(final DCAMIDPROP pDCAMIDPROP,
+                                      final double pValue)
+  {
+    final Pointer<Double> lPointerToDouble =
+                                           mDcamDevice.getScratch().mPointerToDouble;
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcampropGetvalue(mDcamDevice.getHDCAMPointer(),
-                                                                        pDCAMIDPROP.value,
-                                                                        lPointerToDouble);
-    final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                                        setAndGetPropertyValue(pDCAMIDPROP.value,
+                                                               pValue,
+                                                               lPointerToDouble);
+    if (!DcamLibrary.hasSucceeded(lError))
+      return Double.NaN;
 
-    if (!lSuccess)
-    {
+    return lPointerToDouble.getDouble();
+  }
+
+  /**
+   * Predicts the value a property will actually take if set to the given
+   * value, without touching the device. Discrete properties (modes, and
+   * properties without a regular step) are snapped to the nearest value of a
+   * table enumerated once with dcampropQueryvalue, other properties are
+   * snapped to their step and clamped to their range. Ranges are those read
+   * by {@link #updatePropertyList()}.
+   * 
+   * @param pDCAMIDPROP
+   *          property id
+   * @param pValue
+   *          requested value
+   * @return predicted effective value, or NaN if the property is not
+   *         supported
+   */
+  public final double predictEffectiveValue(final DCAMIDPROP pDCAMIDPROP,
+                                            final double pValue)
+  {
+    return predictEffectiveValue(getProperty(pDCAMIDPROP.value), pValue);
+  }
+
+  /**
+   * Predicts the value a property will actually take if set to the given
+   * value, without touching the device.
+   * 
+   * @param pPropertyName
+   *          property name
+   * @param pValue
+   *          requested value
+   * @return predicted effective value, or NaN if the property is not
+   *         supported
+   */
+  public final double predictEffectiveValue(final String pPropertyName,
+                                            final double pValue)
+  {
+    return predictEffectiveValue(getProperty(pPropertyName), pValue);
+  }
+
+  /**
+   * Returns the valid values of a discrete property, or an empty array for
+   * properties that take any value within their range and step.
+   * 
+   * @param pDCAMIDPROP
+   *          property id
+   * @return copy of the valid values, sorted
+   */
+  public final double[] getDiscreteValues(final DCAMIDPROP pDCAMIDPROP)
+  {
+    final DcamProperty lProperty = getProperty(pDCAMIDPROP.value);
+    if (lProperty == null)
+      return new double[0];
+    return getSnapTable(lProperty).clone();
+  }
+
+  private double predictEffectiveValue(final DcamProperty pProperty,
+                                       final double pValue)
+  {
+    if (pProperty == null || Double.isNaN(pValue))
       return Double.NaN;
-    }
 
-    final double lValue = lPointerToDouble.getDouble();
+    final double[] lSnapTable = getSnapTable(pProperty);
+    if (lSnapTable.length > 0)
+      return snapToTable(lSnapTable, pValue);
+
+    double lValue = pValue;
+    if (pProperty.valuestep > 0)
+      lValue = pProperty.valuemin
+               + Math.round((lValue - pProperty.valuemin)
+                            / pProperty.valuestep)
+                 * pProperty.valuestep;
+    else if ("long".equals(pProperty.mode))
+      lValue = Math.round(lValue);
+
+    return Math.max(pProperty.valuemin,
+                    Math.min(pProperty.valuemax, lValue));
+  }
 
-    return lValue;
+  private static double snapToTable(final double[] pSnapTable,
+                                    final double pValue)
+  {
+    final int lIndex = Arrays.binarySearch(pSnapTable, pValue);
+    if (lIndex >= 0)
+      return pSnapTable[lIndex];
+
+    final int lInsertionPoint = -lIndex - 1;
+    if (lInsertionPoint == 0)
+      return pSnapTable[0];
+    if (lInsertionPoint == pSnapTable.length)
+      return pSnapTable[pSnapTable.length - 1];
+
+    final double lBelow = pSnapTable[lInsertionPoint - 1];
+    final double lAbove = pSnapTable[lInsertionPoint];
+    return pValue - lBelow <= lAbove - pValue ? lBelow : lAbove;
   }
 
-  boolean setDoublePropertyValue(final DCAMIDPROP pDCAMIDPROP,
-                                 final double pValue)
+  private double[] getSnapTable(final DcamProperty pProperty)
   {
+    double[] lSnapTable = pProperty.snaptable;
+    if (lSnapTable == null)
+    {
+      lSnapTable = buildSnapTable(pProperty);
+      pProperty.snaptable = lSnapTable;
+    }
+    return lSnapTable;
+  }
 
-    final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcampropSetvalue(mDcamDevice.getHDCAMPointer(),
-                                                                        pDCAMIDPROP.value,
-                                                                        pValue);
-    final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+  private double[] buildSnapTable(final DcamProperty pProperty)
+  {
+    // Only modes, and integer properties without a regular step, need to be
+    // enumerated:
+    final boolean lDiscrete = "mode".equals(pProperty.mode)
+                              || ("long".equals(pProperty.mode)
+                                  && pProperty.valuestep <= 0);
+    if (!lDiscrete)
+      return new double[0];
+
+    final Pointer<Double> lPointerToDouble =
+                                           mDcamDevice.getScratch().mPointerToDouble;
+    double[] lValues = new double[16];
+    int lLength = 0;
+
+    // valuemin itself is valid, the driver then gives us each next value:
+    double lValue = pProperty.valuemin;
+    lValues[lLength++] = lValue;
+    while (lLength < cMaxSnapTableLength)
+    {
+      lPointerToDouble.set(lValue);
+      final IntValuedEnum<DCAMERR> lError =
+                                          DcamLibrary.getBackend().dcampropQueryvalue(mDcamDevice.getHDCAMPointer(),
+                                                                                      pProperty.id,
+                                                                                      lPointerToDouble,
+                                                                                      DcamapiLibrary.DCAMPROPOPTION.DCAMPROP_OPTION_NEXT.value);
+      // The driver reports the end of the list as an error, so we do not
+      // record it:
+      if (!DcamLibrary.hasSucceeded(lError))
+        break;
+
+      final double lNextValue = lPointerToDouble.getDouble();
+      if (lNextValue <= lValue)
+        break;
+
+      if (lLength == lValues.length)
+        lValues = Arrays.copyOf(lValues, 2 * lLength);
+      lValues[lLength++] = lNextValue;
+      lValue = lNextValue;
+    }
 
-    return lSuccess;
+    return Arrays.copyOf(lValues, lLength);
   }
 
-  final boolean setModePropertyValue(final DCAMIDPROP pDCAMIDPROP,
-                                     final DCAMPROPMODEVALUE pDCAMPROPMODEVALUE)
+  /**
+   * Returns a new property transaction for this device. Writes collected in
+   * the transaction are applied together, in the order required by the
+   * driver, by {@link DcamPropertyTransaction#apply()}.
+   * 
+   * @return new property transaction
+   */
+  public final DcamPropertyTransaction transaction()
+  {
+    return new DcamPropertyTransaction(this);
+  }
+
+  /**
+   * Sets a property value and reads back the value actually applied by the
+   * driver into the given pointer. Keeps the value cache coherent.
+   * 
+   * @param pPropertyId
+   *          property id
+   * @param pValue
+   *          requested value
+   * @param pEffectiveValue
+   *          pointer receiving the effective value
+   * @return driver error code
+   */
+  IntValuedEnum<DCAMERR> setAndGetPropertyValue(final long pPropertyId,
+                                                final double pValue,
+                                                final Pointer<Double> pEffectiveValue)
   {
+    pEffectiveValue.set(pValue);
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcampropSetvalue(mDcamDevice.getHDCAMPointer(),
-                                                                        pDCAMIDPROP.value,
-                                                                        pDCAMPROPMODEVALUE.value);
+                                        DcamLibrary.getBackend().dcampropSetgetvalue(mDcamDevice.getHDCAMPointer(),
+                                                                                     pPropertyId,
+                                                                                     pEffectiveValue,
+                                                                                     0);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.PROP_SETGETVALUE,
+                                                              lError);
 
-    return lSuccess;
+    if (!lSuccess)
+    {
+      // the driver rejected the write, only this value is in doubt:
+      final DcamProperty lProperty = getProperty(pPropertyId);
+      mCacheEpoch++;
+      if (lProperty != null)
+        lProperty.cachedvaluevalid = false;
+    }
+    else if (mCachingEnabled)
+      storeWrittenValue(getProperty(pPropertyId),
+                        pEffectiveValue.getDouble());
+
+    return lError;
   }
 
-  double setAndGetDoublePropertyValue(final DCAMIDPROP pDCAMIDPROP,
-                                      final double pValue)
+  double getDoublePropertyValue(final long pPropertyId)
   {
-    final Pointer<Double> lPointerToDouble = Pointer.allocateDouble();
-    lPointerToDouble.set(pValue);
+    final DcamProperty lProperty = getProperty(pPropertyId);
+    final boolean lCaching = mCachingEnabled && lProperty != null
+                             && lProperty.cacheable;
+
+    if (lCaching && lProperty.cachedvaluevalid)
+      return lProperty.cachedvalue;
+
+    final long lCacheEpoch = mCacheEpoch;
+
+    final Pointer<Double> lPointerToDouble =
+                                           mDcamDevice.getScratch().mPointerToDouble;
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcampropSetgetvalue(mDcamDevice.getHDCAMPointer(),
-                                                                           pDCAMIDPROP.value,
-                                                                           lPointerToDouble,
-                                                                           0);
+                                        DcamLibrary.getBackend().dcampropGetvalue(mDcamDevice.getHDCAMPointer(),
+                                                                                  pPropertyId,
+                                                                                  lPointerToDouble);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.PROP_GETVALUE,
+                                                              lError);
 
     if (!lSuccess)
     {
+      if (lProperty != null)
+        lProperty.cachedvaluevalid = false;
       return Double.NaN;
     }
 
     final double lValue = lPointerToDouble.getDouble();
 
+    // Only cache if nothing was invalidated while we were reading:
+    if (lCaching && lCacheEpoch == mCacheEpoch)
+    {
+      lProperty.cachedvalue = lValue;
+      lProperty.cachedvaluevalid = true;
+    }
+
     return lValue;
   }
 
+  private boolean setDoublePropertyValue(final long pPropertyId,
+                                         final double pValue)
+  {
+    final DcamProperty lProperty = getProperty(pPropertyId);
+
+    if (!mCachingEnabled || lProperty == null)
+    {
+      final IntValuedEnum<DCAMERR> lError =
+                                          DcamLibrary.getBackend().dcampropSetvalue(mDcamDevice.getHDCAMPointer(),
+                                                                                    pPropertyId,
+                                                                                    pValue);
+      return addErrorToListAndCheckHasSucceeded(DcamFunction.PROP_SETVALUE,
+                                                lError);
+    }
+
+    // With caching we use set-and-get so that we remember the value the
+    // driver actually applied and not the one we asked for:
+    final IntValuedEnum<DCAMERR> lError =
+                                        setAndGetPropertyValue(pPropertyId,
+                                                               pValue,
+                                                               mDcamDevice.getScratch().mPointerToDouble);
+    return DcamLibrary.hasSucceeded(lError);
+  }
+
+  private void storeWrittenValue(final DcamProperty pProperty,
+                                 final double pValue)
+  {
+    if (pProperty == null)
+      return;
+
+    final int lIndex = Arrays.binarySearch(cWrittenPropertyIds,
+                                           pProperty.id);
+    if (lIndex >= 0)
+    {
+      mCacheEpoch++;
+      for (final long lInvalidatedPropertyId : cInvalidatedPropertyIds[lIndex])
+      {
+        final DcamProperty lProperty = getProperty(lInvalidatedPropertyId);
+        if (lProperty != null)
+          lProperty.cachedvaluevalid = false;
+      }
+    }
+
+    if (pProperty.cacheable)
+    {
+      pProperty.cachedvalue = pValue;
+      pProperty.cachedvaluevalid = true;
+    }
+  }
+
 }
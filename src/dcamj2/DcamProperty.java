@@ -31,6 +31,15 @@ public class DcamProperty
   public double valuestep;
   public double valuedefault;
 
+  // Sorted table of valid values for discrete properties, built on demand by
+  // DcamProperties (an empty table means the property is continuous):
+  volatile double[] snaptable;
+
+  // Last known value, maintained by DcamProperties when caching is enabled:
+  boolean cacheable;
+  volatile double cachedvalue;
+  volatile boolean cachedvaluevalid;
+
   @Override
   public String toString()
   {
@@ -0,0 +1,315 @@
+package dcamj2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.DcamapiLibrary.DCAMPROPMODEVALUE;
+import dcamj2.jfr.DcamEvent;
+import dcamj2.jfr.DcamEvents;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam property transaction. Collects property writes and applies them in one
+ * go, in the order required by the driver: readout and binning settings
+ * first, then the subarray (rewritten with the subarray mode switched off),
+ * then triggers and other settings, and finally exposure and frame timing
+ * whose limits depend on everything else. All writes go through set-and-get
+ * so that the effective (snapped) values are known afterwards.
+ *
+ * @author royer
+ */
+public class DcamPropertyTransaction
+{
+  private static final long cSubarrayModeId =
+                                            DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE.value;
+  private static final long cSubarrayHPosId =
+                                            DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS.value;
+  private static final long cSubarrayVPosId =
+                                            DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS.value;
+  private static final long cSubarrayHSizeId =
+                                             DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE.value;
+  private static final long cSubarrayVSizeId =
+                                             DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE.value;
+
+  // Written before everything else, they change the sensor geometry and
+  // readout timing:
+  private static final long[] cFirstPropertyIds =
+  { DCAMIDPROP.DCAM_IDPROP_SENSORMODE.value,
+    DCAMIDPROP.DCAM_IDPROP_READOUTSPEED.value,
+    DCAMIDPROP.DCAM_IDPROP_READOUT_DIRECTION.value,
+    DCAMIDPROP.DCAM_IDPROP_IMAGE_PIXELTYPE.value,
+    DCAMIDPROP.DCAM_IDPROP_BUFFER_PIXELTYPE.value,
+    DCAMIDPROP.DCAM_IDPROP_BINNING_INDEPENDENT.value,
+    DCAMIDPROP.DCAM_IDPROP_BINNING.value,
+    DCAMIDPROP.DCAM_IDPROP_BINNING_HORZ.value,
+    DCAMIDPROP.DCAM_IDPROP_BINNING_VERT.value };
+
+  // Written after everything else, their limits depend on the rest:
+  private static final long[] cLastPropertyIds =
+  { DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME.value,
+    DCAMIDPROP.DCAM_IDPROP_INTERNALFRAMERATE.value,
+    DCAMIDPROP.DCAM_IDPROP_INTERNAL_FRAMEINTERVAL.value,
+    DCAMIDPROP.DCAM_IDPROP_INTERNALLINESPEED.value,
+    DCAMIDPROP.DCAM_IDPROP_INTERNALLINERATE.value };
+
+  private final DcamProperties mDcamProperties;
+
+  private final LinkedHashMap<Long, Double> mRequestedValues =
+                                                             new LinkedHashMap<>();
+
+  DcamPropertyTransaction(DcamProperties pDcamProperties)
+  {
+    mDcamProperties = pDcamProperties;
+  }
+
+  /**
+   * Adds a property write to this transaction. Setting the same property
+   * twice keeps the last value.
+   *
+   * @param pDCAMIDPROP
+   *          property id
+   * @param pValue
+   *          value
+   * @return this transaction
+   */
+  public DcamPropertyTransaction set(final DCAMIDPROP pDCAMIDPROP,
+                                     final double pValue)
+  {
+    return set(pDCAMIDPROP.value, pValue);
+  }
+
+  /**
+   * Adds a mode property write to this transaction.
+   *
+   * @param pDCAMIDPROP
+   *          property id
+   * @param pDCAMPROPMODEVALUE
+   *          mode value
+   * @return this transaction
+   */
+  public DcamPropertyTransaction set(final DCAMIDPROP pDCAMIDPROP,
+                                     final DCAMPROPMODEVALUE pDCAMPROPMODEVALUE)
+  {
+    return set(pDCAMIDPROP.value, pDCAMPROPMODEVALUE.value);
+  }
+
+  /**
+   * Adds a property write to this transaction.
+   *
+   * @param pPropertyName
+   *          property name
+   * @param pValue
+   *          value
+   * @return this transaction
+   */
+  public DcamPropertyTransaction set(final String pPropertyName,
+                                     final double pValue)
+  {
+    final DcamProperty lProperty =
+                                 mDcamProperties.getProperty(pPropertyName);
+    if (lProperty == null)
+      throw new IllegalArgumentException("Unknown property: "
+                                         + pPropertyName);
+    return set(lProperty.id, pValue);
+  }
+
+  /**
+   * Adds a property write to this transaction.
+   *
+   * @param pPropertyId
+   *          property id
+   * @param pValue
+   *          value
+   * @return this transaction
+   */
+  public DcamPropertyTransaction set(final long pPropertyId,
+                                     final double pValue)
+  {
+    mRequestedValues.remove(pPropertyId);
+    mRequestedValues.put(pPropertyId, pValue);
+    return this;
+  }
+
+  /**
+   * Applies all collected writes. Writes whose value already matches the
+   * current value are skipped. A failing write does not prevent the following
+   * ones from being attempted, all errors are collected in the result.
+   *
+   * @return result holding effective values and per-property errors
+   */
+  public DcamPropertyTransactionResult apply()
+  {
+    final DcamEvent lEvent =
+                           DcamEvents.transaction(mDcamProperties.getJournalDeviceId(),
+                                                  mRequestedValues.size());
+    final DcamPropertyTransactionResult lResult =
+                                                new DcamPropertyTransactionResult();
+
+    final ArrayList<Long> lFirst = new ArrayList<>();
+    final ArrayList<Long> lMiddle = new ArrayList<>();
+    final ArrayList<Long> lLast = new ArrayList<>();
+    boolean lSubarrayChanged = false;
+    boolean lSubarraySizeChanged = false;
+
+    for (final Entry<Long, Double> lEntry : mRequestedValues.entrySet())
+    {
+      final long lPropertyId = lEntry.getKey();
+      final double lRequestedValue = lEntry.getValue();
+
+      final double lCurrentValue =
+                                 mDcamProperties.getDoublePropertyValue(lPropertyId);
+      if (lCurrentValue == lRequestedValue)
+      {
+        lResult.addSkipped(lPropertyId, lCurrentValue);
+        continue;
+      }
+
+      if (isSubarrayProperty(lPropertyId))
+      {
+        lSubarrayChanged = true;
+        lSubarraySizeChanged |= lPropertyId == cSubarrayHSizeId
+                                || lPropertyId == cSubarrayVSizeId;
+      }
+      else if (contains(cFirstPropertyIds, lPropertyId))
+        lFirst.add(lPropertyId);
+      else if (contains(cLastPropertyIds, lPropertyId))
+        lLast.add(lPropertyId);
+      else
+        lMiddle.add(lPropertyId);
+    }
+
+    // Binning and readout settings are ordered as listed in cFirstPropertyIds:
+    lFirst.sort((a, b) -> Integer.compare(indexOf(cFirstPropertyIds, a),
+                                          indexOf(cFirstPropertyIds, b)));
+
+    final Pointer<Double> lEffectiveValue =
+                                          Pointer.allocateDouble();
+    try
+    {
+      for (final long lPropertyId : lFirst)
+        write(lPropertyId,
+              mRequestedValues.get(lPropertyId),
+              lEffectiveValue,
+              lResult);
+
+      if (lSubarrayChanged)
+        applySubarray(lSubarraySizeChanged, lEffectiveValue, lResult);
+
+      for (final long lPropertyId : lMiddle)
+        write(lPropertyId,
+              mRequestedValues.get(lPropertyId),
+              lEffectiveValue,
+              lResult);
+
+      for (final long lPropertyId : lLast)
+        write(lPropertyId,
+              mRequestedValues.get(lPropertyId),
+              lEffectiveValue,
+              lResult);
+    }
+    finally
+    {
+      lEffectiveValue.release();
+    }
+
+    lEvent.commit(lResult.isSuccess(), lResult.getErrors().size());
+    return lResult;
+  }
+
+  private void applySubarray(final boolean pSizeChanged,
+                             final Pointer<Double> pEffectiveValue,
+                             final DcamPropertyTransactionResult pResult)
+  {
+    final double lCurrentHPos =
+                              mDcamProperties.getDoublePropertyValue(cSubarrayHPosId);
+    final double lCurrentVPos =
+                              mDcamProperties.getDoublePropertyValue(cSubarrayVPosId);
+
+    // The whole subarray is rewritten as soon as one of its properties
+    // changes, the driver only accepts changes with subarray mode off:
+    write(cSubarrayModeId,
+          DCAMPROPMODEVALUE.DCAMPROP_MODE__OFF.value,
+          pEffectiveValue,
+          pResult);
+
+    // Zero positions first so that no intermediate position + size
+    // combination exceeds the sensor:
+    if (pSizeChanged)
+    {
+      write(cSubarrayHPosId, 0, pEffectiveValue, pResult);
+      write(cSubarrayVPosId, 0, pEffectiveValue, pResult);
+    }
+
+    for (final long lPropertyId : new long[]
+    { cSubarrayHSizeId, cSubarrayVSizeId, cSubarrayHPosId, cSubarrayVPosId })
+    {
+      final Double lRequested = mRequestedValues.get(lPropertyId);
+      if (lRequested != null)
+        write(lPropertyId, lRequested, pEffectiveValue, pResult);
+      else if (pSizeChanged && lPropertyId == cSubarrayHPosId)
+        write(lPropertyId, lCurrentHPos, pEffectiveValue, pResult);
+      else if (pSizeChanged && lPropertyId == cSubarrayVPosId)
+        write(lPropertyId, lCurrentVPos, pEffectiveValue, pResult);
+    }
+
+    final Double lRequestedMode = mRequestedValues.get(cSubarrayModeId);
+    write(cSubarrayModeId,
+          lRequestedMode != null ? lRequestedMode
+                                 : DCAMPROPMODEVALUE.DCAMPROP_MODE__ON.value,
+          pEffectiveValue,
+          pResult);
+  }
+
+  private void write(final long pPropertyId,
+                     final double pValue,
+                     final Pointer<Double> pEffectiveValue,
+                     final DcamPropertyTransactionResult pResult)
+  {
+    final IntValuedEnum<DCAMERR> lError =
+                                        mDcamProperties.setAndGetPropertyValue(pPropertyId,
+                                                                               pValue,
+                                                                               pEffectiveValue);
+    if (DcamLibrary.hasSucceeded(lError))
+      pResult.addApplied(pPropertyId, pEffectiveValue.getDouble());
+    else
+      pResult.addError(pPropertyId, lError);
+
+    // e.g. subarray mode and positions when the subarray is rewritten:
+    if (!mRequestedValues.containsKey(pPropertyId))
+      pResult.addImplicit(pPropertyId);
+  }
+
+  private static boolean isSubarrayProperty(final long pPropertyId)
+  {
+    return pPropertyId == cSubarrayModeId || pPropertyId == cSubarrayHPosId
+           || pPropertyId == cSubarrayVPosId
+           || pPropertyId == cSubarrayHSizeId
+           || pPropertyId == cSubarrayVSizeId;
+  }
+
+  private static boolean contains(final long[] pArray, final long pValue)
+  {
+    return indexOf(pArray, pValue) >= 0;
+  }
+
+  private static int indexOf(final long[] pArray, final long pValue)
+  {
+    for (int i = 0; i < pArray.length; i++)
+      if (pArray[i] == pValue)
+        return i;
+    return -1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("DcamPropertyTransaction [requested=%s]",
+                         mRequestedValues);
+  }
+
+}
@@ -0,0 +1,188 @@
+package dcamj2;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+
+import org.bridj.IntValuedEnum;
+
+/**
+ * Dcam property transaction result. Holds the effective value of every
+ * property touched by a transaction, and the driver error of every write that
+ * failed. Properties the transaction had to write without being asked to, such
+ * as the subarray mode and positions when the subarray is rewritten, are
+ * reported as implicit. A property written several times keeps the error of
+ * any failed write.
+ *
+ * @author royer
+ */
+public class DcamPropertyTransactionResult
+{
+  private final LinkedHashMap<Long, Double> mEffectiveValues =
+                                                             new LinkedHashMap<>();
+  private final LinkedHashMap<Long, IntValuedEnum<DCAMERR>> mErrors =
+                                                                    new LinkedHashMap<>();
+  private final HashSet<Long> mSkipped = new HashSet<>();
+  private final HashSet<Long> mImplicit = new HashSet<>();
+
+  DcamPropertyTransactionResult()
+  {
+    super();
+  }
+
+  void addApplied(final long pPropertyId, final double pEffectiveValue)
+  {
+    mEffectiveValues.put(pPropertyId, pEffectiveValue);
+    mSkipped.remove(pPropertyId);
+  }
+
+  void addImplicit(final long pPropertyId)
+  {
+    mImplicit.add(pPropertyId);
+  }
+
+  void addSkipped(final long pPropertyId, final double pCurrentValue)
+  {
+    mEffectiveValues.put(pPropertyId, pCurrentValue);
+    mSkipped.add(pPropertyId);
+  }
+
+  void addError(final long pPropertyId,
+                final IntValuedEnum<DCAMERR> pError)
+  {
+    mEffectiveValues.remove(pPropertyId);
+    mErrors.put(pPropertyId, pError);
+    mSkipped.remove(pPropertyId);
+  }
+
+  /**
+   * Returns true if all writes succeeded (or were skipped)
+   *
+   * @return true if no write failed
+   */
+  public boolean isSuccess()
+  {
+    return mErrors.isEmpty();
+  }
+
+  /**
+   * Returns the effective value of a property after the transaction
+   *
+   * @param pDCAMIDPROP
+   *          property id
+   * @return effective value, or NaN if the property was not written or its
+   *         last write failed
+   */
+  public double getEffectiveValue(final DCAMIDPROP pDCAMIDPROP)
+  {
+    return getEffectiveValue(pDCAMIDPROP.value);
+  }
+
+  /**
+   * Returns the effective value of a property after the transaction
+   *
+   * @param pPropertyId
+   *          property id
+   * @return effective value, or NaN if the property was not written or its
+   *         last write failed
+   */
+  public double getEffectiveValue(final long pPropertyId)
+  {
+    final Double lValue = mEffectiveValues.get(pPropertyId);
+    return lValue == null ? Double.NaN : lValue;
+  }
+
+  /**
+   * Returns the driver error for a property write, or null if it succeeded
+   *
+   * @param pDCAMIDPROP
+   *          property id
+   * @return error or null
+   */
+  public IntValuedEnum<DCAMERR> getError(final DCAMIDPROP pDCAMIDPROP)
+  {
+    return mErrors.get(pDCAMIDPROP.value);
+  }
+
+  /**
+   * Returns true if the write of the given property was skipped because the
+   * property already had the requested value
+   *
+   * @param pDCAMIDPROP
+   *          property id
+   * @return true if skipped
+   */
+  public boolean wasSkipped(final DCAMIDPROP pDCAMIDPROP)
+  {
+    return mSkipped.contains(pDCAMIDPROP.value);
+  }
+
+  /**
+   * Returns true if the given property was written by the transaction without
+   * having been requested
+   *
+   * @param pDCAMIDPROP
+   *          property id
+   * @return true if implicit
+   */
+  public boolean wasImplicit(final DCAMIDPROP pDCAMIDPROP)
+  {
+    return mImplicit.contains(pDCAMIDPROP.value);
+  }
+
+  /**
+   * Returns the effective values of all touched properties, by property id
+   *
+   * @return effective values
+   */
+  public Map<Long, Double> getEffectiveValues()
+  {
+    return Collections.unmodifiableMap(mEffectiveValues);
+  }
+
+  /**
+   * Returns the errors of all failed writes, by property id
+   *
+   * @return errors
+   */
+  public Map<Long, IntValuedEnum<DCAMERR>> getErrors()
+  {
+    return Collections.unmodifiableMap(mErrors);
+  }
+
+  /**
+   * Returns the ids of the properties whose write was skipped
+   *
+   * @return skipped property ids
+   */
+  public Set<Long> getSkipped()
+  {
+    return Collections.unmodifiableSet(mSkipped);
+  }
+
+  /**
+   * Returns the ids of the properties written without having been requested
+   *
+   * @return implicit property ids
+   */
+  public Set<Long> getImplicit()
+  {
+    return Collections.unmodifiableSet(mImplicit);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("DcamPropertyTransactionResult [effective=%s, errors=%s, skipped=%s, implicit=%s]",
+                         mEffectiveValues,
+                         mErrors,
+                         mSkipped,
+                         mImplicit);
+  }
+
+}
@@ -1,25 +1,35 @@
 package dcamj2;
 
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DcamapiLibrary.DCAMERR;
 import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.jfr.DcamEvent;
+import dcamj2.jfr.DcamEvents;
 import dcamj2.utils.StopWatch;
 
 /**
- * Dcam sequence acquisition
+ * Dcam sequence acquisition. Close it once done to stop its acquisition
+ * threads, see {@link #close()}.
  *
  * @author royer
  */
 public class DcamSequenceAcquisition extends DcamBase
+                                     implements AutoCloseable
 {
 
+  private static final long cPlaneWaitSliceInMilliseconds = 100;
+
   DcamDevice mDcamDevice;
 
   ExecutorService mSingleThreadExecutor = new ThreadPoolExecutor(1,
@@ -28,7 +38,26 @@ public class DcamSequenceAcquisition extends DcamBase
                                                                  TimeUnit.MILLISECONDS,
                                                                  new LinkedBlockingQueue<Runnable>(1));
 
-  private final ReentrantLock mLock = new ReentrantLock();
+  // The permit is taken by the thread that configures and starts an
+  // acquisition and handed over to the thread that waits for its completion,
+  // which is why this cannot be a ReentrantLock:
+  private final Semaphore mAcquisitionPermit = new Semaphore(1);
+
+  // Wakes up and ends the pipeline thread once closed:
+  private static final PendingSequence cEndOfPipeline =
+                                                      new PendingSequence(0,
+                                                                          null,
+                                                                          null);
+
+  private final LinkedBlockingQueue<PendingSequence> mPipelineQueue =
+                                                                   new LinkedBlockingQueue<>();
+  private ExecutorService mPipelineExecutor;
+  private volatile boolean mClosed;
+
+  private final CopyOnWriteArrayList<DcamPlaneListener> mPlaneListenerList =
+                                                                           new CopyOnWriteArrayList<>();
+  private volatile long mListenerErrorCount;
+  private volatile RuntimeException mLastListenerError;
 
   /**
    * Instantiates a Dcam sequence acquisition given a Dcam device
@@ -104,189 +133,654 @@ public class DcamSequenceAcquisition extends DcamBase
                                               Double pTimeOutInSeconds,
                                               DcamImageSequence pImageSequence)
   {
+    return acquireSequenceFuture(pExposureInSeconds,
+                                 pTimeOutInSeconds,
+                                 pImageSequence).handle((s, e) -> {
+                                   if (e != null)
+                                     println(() -> "WARNING: "
+                                                   + e.getMessage());
+                                   return e == null;
+                                 });
+  }
+
+  /**
+   * Acquires a sequence of images. The returned future is never null, it
+   * completes with the acquired image sequence or exceptionally with a
+   * {@link DcamException} carrying the Dcam error code that caused the
+   * failure.
+   * 
+   * @param pExposureInSeconds
+   *          exposure
+   * @param pImageSequence
+   *          image sequence to use
+   * @return future image sequence
+   */
+  public CompletableFuture<DcamImageSequence> acquireSequenceFuture(double pExposureInSeconds,
+                                                                    DcamImageSequence pImageSequence)
+  {
+    return acquireSequenceFuture(pExposureInSeconds,
+                                 null,
+                                 pImageSequence);
+  }
+
+  /**
+   * Acquires a sequence of images. The returned future is never null, it
+   * completes with the acquired image sequence or exceptionally with a
+   * {@link DcamException} carrying the Dcam error code that caused the
+   * failure.
+   * 
+   * @param pExposureInSeconds
+   *          exposure
+   * @param pTimeOutInSeconds
+   *          timeout in seconds, if null then the timeout is computed
+   *          automatically. This value cannot be lower than the default value
+   *          that is automatically computed.
+   * @param pImageSequence
+   *          image sequence to use
+   * @return future image sequence
+   */
+  public CompletableFuture<DcamImageSequence> acquireSequenceFuture(double pExposureInSeconds,
+                                                                    Double pTimeOutInSeconds,
+                                                                    DcamImageSequence pImageSequence)
+  {
+    final CompletableFuture<DcamImageSequence> lFuture =
+                                                       new CompletableFuture<>();
+    boolean lPermitHandedOver = false;
     try
     {
-      if (!mLock.tryLock(5, TimeUnit.SECONDS))
+      if (!mAcquisitionPermit.tryAcquire(5, TimeUnit.SECONDS))
+        throw new DcamException("Acquisition already in progress",
+                                DCAMERR.DCAMERR_BUSY);
+
+      final DcamEvent lStackEvent =
+                                    DcamEvents.stack(mDcamDevice.getDeviceID(),
+                                                     pImageSequence.getDepth());
+      try
       {
-        println("WARNING: already locked!");
-        return null;
+        startSequence(pExposureInSeconds, pImageSequence);
+
+        mSingleThreadExecutor.execute(() -> {
+          try
+          {
+            lFuture.complete(asyncSection(pExposureInSeconds,
+                                          pTimeOutInSeconds,
+                                          pImageSequence));
+            lStackEvent.commit(true);
+          }
+          catch (Throwable e)
+          {
+            lStackEvent.commit(false);
+            lFuture.completeExceptionally(e);
+          }
+          finally
+          {
+            mAcquisitionPermit.release();
+          }
+        });
+        lPermitHandedOver = true;
       }
-
-      println("Status at start=" + mDcamDevice.getStatus());
-
-      /*if (mDcamDevice.isBusy())
-        mDcamDevice.stop();/**/
-
-      if (pImageSequence.getDepth() == 0)
+      catch (RejectedExecutionException e)
       {
-        println("WARNING: acquiring empty stack");
-        return null;
+        mDcamDevice.stop();
+        throw new DcamException("Could not schedule acquisition", e);
       }
-
-      println("setting ROI");
-      if (mDcamDevice.getWidth() != pImageSequence.getWidth()
-                                    * mDcamDevice.getBinning()
-          || mDcamDevice.getHeight() != pImageSequence.getHeight()
-                                        * mDcamDevice.getBinning())
-        mDcamDevice.setCenteredROI(pImageSequence.getWidth()
-                                   * mDcamDevice.getBinning(),
-                                   pImageSequence.getHeight() * mDcamDevice.getBinning());
-
-      if (mDcamDevice.getWidth() != pImageSequence.getWidth()
-                                    * mDcamDevice.getBinning()
-          || mDcamDevice.getHeight() != pImageSequence.getHeight()
-                                        * mDcamDevice.getBinning())
+      finally
       {
-        println("WARNING: Can't set ROI!");
-        return null;
+        if (!lPermitHandedOver)
+        {
+          lStackEvent.commit(false);
+          mAcquisitionPermit.release();
+        }
       }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      lFuture.completeExceptionally(new DcamException("Interrupted while waiting for acquisition",
+                                                      e));
+    }
+    catch (Throwable e)
+    {
+      lFuture.completeExceptionally(e);
+    }
+    return lFuture;
+  }
 
-      format("set exposure %g seconds \n", pExposureInSeconds);
-      mDcamDevice.setExposure(pExposureInSeconds);
-      mDcamDevice.setDefectCorectionMode(true);
+  private void startSequence(double pExposureInSeconds,
+                             DcamImageSequence pImageSequence)
+  {
+    if (isDebug())
+      println("Status at start=" + mDcamDevice.getStatus());
 
-      println("Status before attach buffers="
-              + mDcamDevice.getStatus());
-      println("attach buffers");
-      mDcamDevice.getBufferControl()
-                 .attachExternalBuffers(pImageSequence);
+    /*if (mDcamDevice.isBusy())
+      mDcamDevice.stop();/**/
 
-      println("Status before start sequence="
-              + mDcamDevice.getStatus());
+    if (pImageSequence.getDepth() == 0)
+      throw new DcamException("Cannot acquire empty stack",
+                              DCAMERR.DCAMERR_INVALIDPARAM);
 
-      println("start sequence... ");
-      mDcamDevice.startSequence();
+    println("setting ROI");
+    ensureROI(pImageSequence);
 
-      Callable<Boolean> lCallable =
-                                  () -> asyncSection(pExposureInSeconds,
-                                                     pTimeOutInSeconds,
-                                                     pImageSequence);
+    format("set exposure %g seconds \n", pExposureInSeconds);
+    mDcamDevice.setExposure(pExposureInSeconds);
+    mDcamDevice.setDefectCorectionMode(true);
 
-      return mSingleThreadExecutor.submit(lCallable);
-    }
-    catch (InterruptedException e)
-    {
+    if (isDebug())
+      println("Status before attach buffers=" + mDcamDevice.getStatus());
+    println("attach buffers");
+    if (!mDcamDevice.getBufferControl()
+                    .attachExternalBuffers(pImageSequence))
+      throw new DcamException("Could not attach buffers",
+                              mDcamDevice.getBufferControl()
+                                         .getLastError());
+
+    if (isDebug())
+      println("Status before start sequence=" + mDcamDevice.getStatus());
+
+    println("start sequence... ");
+    if (!mDcamDevice.startSequence())
+      throw new DcamException("Could not start sequence",
+                              mDcamDevice.getLastError());
+  }
 
+  private DcamImageSequence asyncSection(double pExposureInSeconds,
+                                         Double pTimeOutInSeconds,
+                                         DcamImageSequence pImageSequence)
+  {
+    try
+    {
+      waitForSequence(pExposureInSeconds,
+                      pTimeOutInSeconds,
+                      pImageSequence);
     }
     finally
     {
-      if (mLock.isHeldByCurrentThread())
-        mLock.unlock();
-
+      format("Stopping acquisition \n");
+      mDcamDevice.stop();
     }
-    return null;
+
+    // Buffers stay attached so that acquiring into the same image sequence
+    // again does not require a release/attach round trip to the driver.
+
+    return pImageSequence;
   }
 
-  private boolean asyncSection(double pExposureInSeconds,
+  private void waitForSequence(double pExposureInSeconds,
                                Double pTimeOutInSeconds,
                                DcamImageSequence pImageSequence)
   {
-    try
+    // tiemout default value is at least one sec and 2x more than the
+    // actual estimated acquisition time
+    int lWaitTimeoutInMilliseconds = (int) (3000 + 1000
+                                                   * pImageSequence.getDepth()
+                                                   * pExposureInSeconds
+                                                   * 2);
+    if (pTimeOutInSeconds != null
+        && pTimeOutInSeconds * 1000 > lWaitTimeoutInMilliseconds)
     {
-      if (!mLock.tryLock(5, TimeUnit.SECONDS))
-        return false;
-
-      // tiemout default value is at least one sec and 2x more than the
-      // actual estimated acquisition time
-      int lWaitTimeoutInMilliseconds = (int) (3000 + 1000
-                                                     * pImageSequence.getDepth()
-                                                     * pExposureInSeconds
-                                                     * 2);
-      if (pTimeOutInSeconds != null
-          && pTimeOutInSeconds * 1000 > lWaitTimeoutInMilliseconds)
-      {
-        lWaitTimeoutInMilliseconds = 1000
-                                     * pTimeOutInSeconds.intValue();
-      }
+      lWaitTimeoutInMilliseconds = 1000 * pTimeOutInSeconds.intValue();
+    }
 
-      // int lCurrentPriority = Thread.currentThread().getPriority();
-      // Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+    // int lCurrentPriority = Thread.currentThread().getPriority();
+    // Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
 
+    if (isDebug())
       println("Status before waiting=" + mDcamDevice.getStatus());
-      println("!!Waiting... ");
-      boolean lWaitSuccess =
-                           mDcamDevice.getDcamWait()
-                                      .waitForEventStopped(lWaitTimeoutInMilliseconds);
-      final long lAcquisitionTimeStampInNanoseconds =
-                                                    StopWatch.absoluteTimeInNanoseconds();
-      println("    ...done!");
-
+    println("!!Waiting... ");
+    boolean lWaitSuccess =
+                         mPlaneListenerList.isEmpty() ? mDcamDevice.getDcamWait()
+                                                                   .waitForEventStopped(lWaitTimeoutInMilliseconds)
+                                                      : waitForPlanes(lWaitTimeoutInMilliseconds,
+                                                                      pImageSequence);
+    final long lAcquisitionTimeStampInNanoseconds =
+                                                  StopWatch.absoluteTimeInNanoseconds();
+    println("    ...done!");
+
+    if (isDebug())
       println("Status after waiting=" + mDcamDevice.getStatus());
-      // Thread.currentThread().setPriority(lCurrentPriority);
+    // Thread.currentThread().setPriority(lCurrentPriority);
 
-      DCAMCAP_TRANSFERINFO lTransferinfo =
-                                         mDcamDevice.getTransferInfo();
+    DCAMCAP_TRANSFERINFO lTransferinfo = mDcamDevice.getTransferInfo();
+    if (lTransferinfo == null)
+      throw new DcamException("Could not retrieve transfer info",
+                              mDcamDevice.getLastError());
 
-      long lFrameCount = lTransferinfo.nFrameCount();
+    long lFrameCount = lTransferinfo.nFrameCount();
 
-      format("Success: %s with n=%d \n", lWaitSuccess, lFrameCount);
+    format("Success: %s with n=%d \n", lWaitSuccess, lFrameCount);
 
-      if (!lWaitSuccess)
-      {
-        System.err.println("DCAMJ2: TIMEOUT!");
+    if (!lWaitSuccess)
+    {
+      System.err.println("DCAMJ2: TIMEOUT!");
 
-        if (lFrameCount != pImageSequence.getDepth())
-          System.err.format("DCAMJ2: WRONG NUMBER OF FRAMES: %d instead of %d \n",
-                            lFrameCount,
-                            pImageSequence.getDepth());
+      if (lFrameCount != pImageSequence.getDepth())
+        System.err.format("DCAMJ2: WRONG NUMBER OF FRAMES: %d instead of %d \n",
+                          lFrameCount,
+                          pImageSequence.getDepth());
 
-        return false;
-      }
+      throw new DcamException("Timeout while waiting for sequence",
+                              mDcamDevice.getDcamWait().getLastError());
+    }
 
-      final long lReceivedFrameIndexInBufferList =
-                                                 lTransferinfo.nNewestFrameIndex();
+    final long lReceivedFrameIndexInBufferList =
+                                               lTransferinfo.nNewestFrameIndex();
 
-      format("DcamJ(Runnable): Wrote %d frames into external buffers (local frame index=%d) \n",
-             lFrameCount,
-             lReceivedFrameIndexInBufferList);/**/
+    format("DcamJ(Runnable): Wrote %d frames into external buffers (local frame index=%d) \n",
+           lFrameCount,
+           lReceivedFrameIndexInBufferList);/**/
 
-      if (lFrameCount != pImageSequence.getDepth())
-      {
-        format("Wrong number of images acquired! should be %d but is %d \n",
-               pImageSequence.getDepth(),
-               lFrameCount);
+    if (lFrameCount != pImageSequence.getDepth())
+    {
+      format("Wrong number of images acquired! should be %d but is %d \n",
+             pImageSequence.getDepth(),
+             lFrameCount);
+
+      System.err.format("Wrong number of images acquired! should be %d but is %d \n",
+                        pImageSequence.getDepth(),
+                        lFrameCount);
+
+      throw new DcamException(String.format("Wrong number of images acquired: %d instead of %d",
+                                            lFrameCount,
+                                            pImageSequence.getDepth()),
+                              DCAMERR.DCAMERR_LOSTFRAME);
+    }
 
-        System.err.format("Wrong number of images acquired! should be %d but is %d \n",
-                          pImageSequence.getDepth(),
-                          lFrameCount);
+    final boolean lReceivedStopEvent = mDcamDevice.getDcamWait()
+                                                  .isLastEventStopped();
+    final boolean lReceivedFrameReadyEvent =
+                                           mDcamDevice.getDcamWait()
+                                                      .isLastEventReady();
+
+    format("stop event: %s, ready event: %s \n",
+           lReceivedStopEvent,
+           lReceivedFrameReadyEvent);
 
+    pImageSequence.setTimeStampInNs(lAcquisitionTimeStampInNanoseconds);
+  }
+
+  private boolean waitForPlanes(int pWaitTimeoutInMilliseconds,
+                                DcamImageSequence pImageSequence)
+  {
+    final DcamWait lDcamWait = mDcamDevice.getDcamWait();
+    final long lDepth = pImageSequence.getDepth();
+    final long lDeadlineInNanoseconds =
+                                      StopWatch.absoluteTimeInNanoseconds()
+                                        + TimeUnit.MILLISECONDS.toNanos(pWaitTimeoutInMilliseconds);
+    long lNumberOfPublishedPlanes = 0;
+
+    while (lNumberOfPublishedPlanes < lDepth)
+    {
+      final long lRemainingInMilliseconds =
+                                          TimeUnit.NANOSECONDS.toMillis(lDeadlineInNanoseconds
+                                                                        - StopWatch.absoluteTimeInNanoseconds());
+      if (lRemainingInMilliseconds <= 0)
         return false;
+
+      // Events can coalesce, so we wait in bounded slices and rely on the
+      // transfer info frame count to find out how many planes are ready:
+      final boolean lWaitSuccess =
+                                 lDcamWait.waitForEventReadyOrStopped(Math.min(lRemainingInMilliseconds,
+                                                                               cPlaneWaitSliceInMilliseconds));
+      final long lArrivalTimeStampInNanoseconds =
+                                                StopWatch.absoluteTimeInNanoseconds();
+
+      final DCAMCAP_TRANSFERINFO lTransferinfo =
+                                               mDcamDevice.getTransferInfo();
+      if (lTransferinfo == null)
+        continue;
+
+      final long lFrameCount = Math.min(lTransferinfo.nFrameCount(),
+                                        lDepth);
+      for (long lPlane =
+                       lNumberOfPublishedPlanes; lPlane < lFrameCount; lPlane++)
+        for (DcamPlaneListener lListener : mPlaneListenerList)
+          notifyListener(lListener,
+                         pImageSequence,
+                         lPlane,
+                         lArrivalTimeStampInNanoseconds);
+      lNumberOfPublishedPlanes = Math.max(lNumberOfPublishedPlanes,
+                                          lFrameCount);
+
+      if (lWaitSuccess && lDcamWait.isLastEventStopped())
+        break;
+    }
+
+    return true;
+  }
+
+  private void notifyListener(DcamPlaneListener pListener,
+                              DcamImageSequence pImageSequence,
+                              long pPlaneIndex,
+                              long pArrivalTimeStampInNanoseconds)
+  {
+    try
+    {
+      pListener.planeReady(this,
+                           pImageSequence,
+                           pPlaneIndex,
+                           pArrivalTimeStampInNanoseconds);
+    }
+    catch (RuntimeException e)
+    {
+      // A failing listener must not fail the stack nor starve the other
+      // listeners, the first failure is printed and all are counted:
+      mLastListenerError = e;
+      if (mListenerErrorCount++ == 0)
+      {
+        System.err.println("DCAMJ2: plane listener failed: " + e);
+        e.printStackTrace();
       }
+    }
+  }
 
-      final boolean lReceivedStopEvent =
-                                       mDcamDevice.getDcamWait()
-                                                  .isLastEventStopped();
-      final boolean lReceivedFrameReadyEvent =
-                                             mDcamDevice.getDcamWait()
-                                                        .isLastEventReady();
+  /**
+   * Returns the number of times a plane listener threw an exception. The
+   * sequence being acquired is not affected when a listener fails.
+   *
+   * @return number of listener errors
+   */
+  public long getListenerErrorCount()
+  {
+    return mListenerErrorCount;
+  }
 
-      format("stop event: %s, ready event: %s \n",
-             lReceivedStopEvent,
-             lReceivedFrameReadyEvent);
+  /**
+   * Returns the last exception thrown by a plane listener, or null
+   *
+   * @return last listener error
+   */
+  public RuntimeException getLastListenerError()
+  {
+    return mLastListenerError;
+  }
 
-      DcamImageSequence lDcamFrame = mDcamDevice.getBufferControl()
-                                                .getStackDcamFrame();
+  /**
+   * Adds a plane listener. When at least one plane listener is registered,
+   * sequences are waited for plane by plane and each plane is published as
+   * soon as the driver has written it.
+   * 
+   * @param pPlaneListener
+   *          plane listener
+   */
+  public void addPlaneListener(DcamPlaneListener pPlaneListener)
+  {
+    mPlaneListenerList.add(pPlaneListener);
+  }
 
-      lDcamFrame.setTimeStampInNs(lAcquisitionTimeStampInNanoseconds);
+  /**
+   * Removes a plane listener
+   * 
+   * @param pPlaneListener
+   *          plane listener
+   */
+  public void removePlaneListener(DcamPlaneListener pPlaneListener)
+  {
+    mPlaneListenerList.remove(pPlaneListener);
+  }
 
-      format("Stopping acquisition \n");
-      mDcamDevice.stop();
+  private void ensureROI(DcamImageSequence pImageSequence)
+  {
+    final long lBinning = mDcamDevice.getBinning();
+    final long lWidth = pImageSequence.getWidth() * lBinning;
+    final long lHeight = pImageSequence.getHeight() * lBinning;
+
+    if (mDcamDevice.getWidth() != lWidth
+        || mDcamDevice.getHeight() != lHeight)
+      mDcamDevice.setCenteredROI(lWidth, lHeight);
+
+    if (mDcamDevice.getWidth() != lWidth
+        || mDcamDevice.getHeight() != lHeight)
+      throw new DcamException(String.format("Can't set ROI to %dx%d",
+                                            lWidth,
+                                            lHeight),
+                              DCAMERR.DCAMERR_INVALIDSUBARRAY);
+  }
 
-      format("Releasing buffers \n");
-      mDcamDevice.getBufferControl().releaseBuffers();
+  /**
+   * Enqueues an image sequence for pipelined acquisition. Enqueued sequences
+   * are acquired back-to-back by a dedicated thread: while a stack is being
+   * exposed, the buffers of the next enqueued stack are validated and
+   * prepared so that only the driver attach and start calls remain between
+   * stacks. Stacks in the queue may have different ROIs, in which case the ROI
+   * is changed before the stack is acquired and no preparation can take place.
+   * 
+   * @param pExposureInSeconds
+   *          exposure
+   * @param pImageSequence
+   *          image sequence to use
+   * @return future image sequence, completes exceptionally with a
+   *         {@link DcamException} on failure
+   */
+  public CompletableFuture<DcamImageSequence> enqueueSequence(double pExposureInSeconds,
+                                                              DcamImageSequence pImageSequence)
+  {
+    return enqueueSequence(pExposureInSeconds, null, pImageSequence);
+  }
 
-      return true;
-    }
-    catch (InterruptedException e)
+  /**
+   * Enqueues an image sequence for pipelined acquisition. See
+   * {@link #enqueueSequence(double, DcamImageSequence)}.
+   * 
+   * @param pExposureInSeconds
+   *          exposure
+   * @param pTimeOutInSeconds
+   *          timeout in seconds, if null then the timeout is computed
+   *          automatically.
+   * @param pImageSequence
+   *          image sequence to use
+   * @return future image sequence, completes exceptionally with a
+   *         {@link DcamException} on failure
+   */
+  public CompletableFuture<DcamImageSequence> enqueueSequence(double pExposureInSeconds,
+                                                              Double pTimeOutInSeconds,
+                                                              DcamImageSequence pImageSequence)
+  {
+    final PendingSequence lPendingSequence =
+                                           new PendingSequence(pExposureInSeconds,
+                                                               pTimeOutInSeconds,
+                                                               pImageSequence);
+    synchronized (mPipelineQueue)
     {
+      if (mClosed)
+      {
+        lPendingSequence.mFuture.completeExceptionally(new DcamException("Sequence acquisition is closed"));
+        return lPendingSequence.mFuture;
+      }
+      if (mPipelineExecutor == null)
+      {
+        mPipelineExecutor = Executors.newSingleThreadExecutor(r -> {
+          Thread lThread = new Thread(r, "DcamPipelinedAcquisition");
+          lThread.setDaemon(true);
+          return lThread;
+        });
+        mPipelineExecutor.submit(this::pipelineLoop);
+      }
+      mPipelineQueue.add(lPendingSequence);
+    }
+    return lPendingSequence.mFuture;
+  }
+
+  /**
+   * Returns the number of sequences waiting in the pipeline queue (excluding
+   * the one currently acquired)
+   * 
+   * @return number of pending sequences
+   */
+  public int getNumberOfPendingSequences()
+  {
+    return mPipelineQueue.size();
+  }
 
+  private void pipelineLoop()
+  {
+    PendingSequence lNext = null;
+    boolean lNextPrepared = false;
+    try
+    {
+      while (!mClosed && !Thread.currentThread().isInterrupted())
+      {
+        final PendingSequence lCurrent;
+        final boolean lCurrentPrepared;
+        try
+        {
+          lCurrent = lNext != null ? lNext : mPipelineQueue.take();
+          lCurrentPrepared = lNextPrepared;
+          lNext = null;
+          lNextPrepared = false;
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        if (lCurrent == cEndOfPipeline)
+          return;
+
+        try
+        {
+          mAcquisitionPermit.acquire();
+        }
+        catch (InterruptedException e)
+        {
+          lCurrent.mFuture.completeExceptionally(new DcamException("Interrupted while waiting for acquisition",
+                                                                   e));
+          return;
+        }
+
+        final DcamEvent lStackEvent =
+                                      DcamEvents.stack(mDcamDevice.getDeviceID(),
+                                                       lCurrent.mImageSequence.getDepth());
+        try
+        {
+          final DcamImageSequence lImageSequence =
+                                                 lCurrent.mImageSequence;
+          if (lImageSequence.getDepth() == 0)
+            throw new DcamException("Cannot acquire empty stack",
+                                    DCAMERR.DCAMERR_INVALIDPARAM);
+
+          // Another acquisition may have run since the stack was prepared,
+          // replacing the prepared buffers or changing the ROI:
+          if (!lCurrentPrepared
+              || mDcamDevice.getBufferControl()
+                            .getPreparedImageSequence() != lImageSequence
+              || !hasROIOf(lImageSequence))
+          {
+            ensureROI(lImageSequence);
+            mDcamDevice.getBufferControl()
+                       .prepareExternalBuffers(lImageSequence);
+          }
+
+          mDcamDevice.setExposure(lCurrent.mExposureInSeconds);
+          mDcamDevice.setDefectCorectionMode(true);
+
+          if (!mDcamDevice.getBufferControl().attachPreparedBuffers())
+            throw new DcamException("Could not attach buffers",
+                                    mDcamDevice.getBufferControl()
+                                               .getLastError());
+
+          if (!mDcamDevice.startSequence())
+            throw new DcamException("Could not start sequence",
+                                    mDcamDevice.getLastError());
+
+          // While the current stack is exposing, validate and prepare the
+          // next:
+          lNext = mPipelineQueue.poll();
+          if (lNext != null && lNext != cEndOfPipeline)
+            lNextPrepared = preparePendingSequence(lNext);
+
+          try
+          {
+            waitForSequence(lCurrent.mExposureInSeconds,
+                            lCurrent.mTimeOutInSeconds,
+                            lImageSequence);
+          }
+          finally
+          {
+            mDcamDevice.stop();
+          }
+
+          lStackEvent.commit(true);
+          lCurrent.mFuture.complete(lImageSequence);
+        }
+        catch (Throwable e)
+        {
+          lStackEvent.commit(false);
+          lCurrent.mFuture.completeExceptionally(e);
+        }
+        finally
+        {
+          mAcquisitionPermit.release();
+        }
+      }
     }
     finally
     {
-      if (mLock.isHeldByCurrentThread())
-        mLock.unlock();
+      // Taken from the queue but not started when the acquisition was closed:
+      if (lNext != null && lNext != cEndOfPipeline)
+        lNext.mFuture.cancel(false);
+    }
+  }
+
+  private boolean preparePendingSequence(PendingSequence pPendingSequence)
+  {
+    final DcamImageSequence lImageSequence =
+                                           pPendingSequence.mImageSequence;
+
+    // Only stacks that do not require an ROI change can be prepared ahead:
+    if (lImageSequence.getDepth() == 0 || !hasROIOf(lImageSequence))
+      return false;
+
+    return mDcamDevice.getBufferControl()
+                      .prepareExternalBuffers(lImageSequence);
+  }
+
+  private boolean hasROIOf(DcamImageSequence pImageSequence)
+  {
+    final long lBinning = mDcamDevice.getBinning();
+    return pImageSequence.getWidth() * lBinning == mDcamDevice.getWidth()
+           && pImageSequence.getHeight()
+              * lBinning == mDcamDevice.getHeight();
+  }
+
+  private static class PendingSequence
+  {
+    final double mExposureInSeconds;
+    final Double mTimeOutInSeconds;
+    final DcamImageSequence mImageSequence;
+    final CompletableFuture<DcamImageSequence> mFuture =
+                                                      new CompletableFuture<>();
+
+    PendingSequence(double pExposureInSeconds,
+                    Double pTimeOutInSeconds,
+                    DcamImageSequence pImageSequence)
+    {
+      mExposureInSeconds = pExposureInSeconds;
+      mTimeOutInSeconds = pTimeOutInSeconds;
+      mImageSequence = pImageSequence;
+    }
+  }
+
+  /**
+   * Closes this acquisition: sequences still waiting in the pipeline queue are
+   * cancelled, and the acquisition threads are shut down once the sequence
+   * being acquired, if any, completes. Sequences enqueued afterwards fail.
+   */
+  @Override
+  public void close()
+  {
+    synchronized (mPipelineQueue)
+    {
+      mClosed = true;
+      PendingSequence lPendingSequence;
+      while ((lPendingSequence = mPipelineQueue.poll()) != null)
+        lPendingSequence.mFuture.cancel(false);
+      if (mPipelineExecutor != null)
+      {
+        mPipelineQueue.add(cEndOfPipeline);
+        mPipelineExecutor.shutdown();
+      }
     }
-    return false;
+    mSingleThreadExecutor.shutdown();
   }
 
   /**
@@ -307,23 +801,10 @@ public class DcamSequenceAcquisition extends DcamBase
     if (lCurrentWidth != pRequestedWidth
         || lCurrentHeight != pRequestedHeight)
     {
+      format("DcamJ: changing ROI of device %d \n",
+             mDcamDevice.getDeviceID());
 
-      if (mDebug)
-        format("DcamJ: reopening device %d begin \n",
-               mDcamDevice.getDeviceID());
-
-      if (mDcamDevice.mBufferControl != null)
-        mDcamDevice.mBufferControl.releaseBuffers();
-      if (mDcamDevice != null)
-        mDcamDevice.close();
-
-      mDcamDevice =
-                  DcamLibrary.getDeviceForId(mDcamDevice.getDeviceID());
       mDcamDevice.setCenteredROI(pRequestedWidth, pRequestedHeight);
-
-      if (mDebug)
-        format("DcamJ: reopening device %d end \n",
-               mDcamDevice.getDeviceID());
     }
   }
 
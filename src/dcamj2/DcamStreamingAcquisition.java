@@ -0,0 +1,367 @@
+package dcamj2;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.utils.StopWatch;
+
+/**
+ * Dcam streaming acquisition. Runs the device in continuous (sequence) mode
+ * over a ring of attached image sequence planes and hands every new frame to
+ * the registered listeners. A listener that throws does not end streaming, its
+ * failures are counted and the last one is kept, see
+ * {@link #getListenerErrorCount()}.
+ *
+ * @author royer
+ */
+public class DcamStreamingAcquisition extends DcamBase
+                                      implements AutoCloseable
+{
+  private static final int cDefaultWaitTimeoutInMilliseconds = 100;
+
+  private final DcamDevice mDcamDevice;
+
+  private final CopyOnWriteArrayList<DcamStreamingListener> mListenerList =
+                                                                          new CopyOnWriteArrayList<>();
+
+  private final ExecutorService mStreamingExecutor =
+                                                   Executors.newSingleThreadExecutor(r -> {
+                                                     Thread lThread =
+                                                                    new Thread(r,
+                                                                               "DcamStreamingAcquisition");
+                                                     lThread.setDaemon(true);
+                                                     return lThread;
+                                                   });
+
+  private volatile boolean mStopSignal = false;
+  private volatile Future<?> mStreamingFuture;
+  private volatile DcamImageSequence mRingSequence;
+
+  private volatile int mWaitTimeoutInMilliseconds =
+                                                  cDefaultWaitTimeoutInMilliseconds;
+  private volatile long mReceivedFrameCount;
+  private volatile long mDroppedFrameCount;
+  private volatile long mListenerErrorCount;
+  private volatile RuntimeException mLastListenerError;
+
+  /**
+   * Instantiates a Dcam streaming acquisition given a Dcam device
+   *
+   * @param pDcamDevice
+   *          dcam device
+   */
+  public DcamStreamingAcquisition(DcamDevice pDcamDevice)
+  {
+    super();
+    mDcamDevice = pDcamDevice;
+  }
+
+  /**
+   * Adds a streaming listener
+   *
+   * @param pListener
+   *          listener
+   */
+  public void addListener(DcamStreamingListener pListener)
+  {
+    mListenerList.add(pListener);
+  }
+
+  /**
+   * Removes a streaming listener
+   *
+   * @param pListener
+   *          listener
+   */
+  public void removeListener(DcamStreamingListener pListener)
+  {
+    mListenerList.remove(pListener);
+  }
+
+  /**
+   * Sets the timeout used for each individual wait on the driver. This bounds
+   * the time it takes for the streaming loop to notice a stop request.
+   *
+   * @param pWaitTimeoutInMilliseconds
+   *          wait timeout in milliseconds
+   */
+  public void setWaitTimeout(int pWaitTimeoutInMilliseconds)
+  {
+    mWaitTimeoutInMilliseconds = pWaitTimeoutInMilliseconds;
+  }
+
+  /**
+   * Starts streaming into the given ring sequence. Each plane of the ring
+   * sequence is attached as one driver buffer, the driver cycles through them
+   * continuously until {@link #stop()} is called.
+   *
+   * @param pExposureInSeconds
+   *          exposure in seconds
+   * @param pRingSequence
+   *          ring sequence, its depth is the number of ring buffers
+   * @return true: success, false otherwise
+   */
+  public boolean start(double pExposureInSeconds,
+                       DcamImageSequence pRingSequence)
+  {
+    if (isStreaming())
+    {
+      println("WARNING: already streaming!");
+      return false;
+    }
+
+    if (pRingSequence.getDepth() == 0)
+    {
+      println("WARNING: streaming into empty ring");
+      return false;
+    }
+
+    final long lBinning = mDcamDevice.getBinning();
+    final long lWidth = pRingSequence.getWidth() * lBinning;
+    final long lHeight = pRingSequence.getHeight() * lBinning;
+    if (mDcamDevice.getWidth() != lWidth
+        || mDcamDevice.getHeight() != lHeight)
+      mDcamDevice.setCenteredROI(lWidth, lHeight);
+
+    if (mDcamDevice.getWidth() != lWidth
+        || mDcamDevice.getHeight() != lHeight)
+    {
+      println("WARNING: Can't set ROI!");
+      return false;
+    }
+
+    mDcamDevice.setExposure(pExposureInSeconds);
+
+    if (!mDcamDevice.getBufferControl()
+                    .attachExternalBuffers(pRingSequence))
+    {
+      println("WARNING: could not attach ring buffers!");
+      return false;
+    }
+
+    mRingSequence = pRingSequence;
+    mReceivedFrameCount = 0;
+    mDroppedFrameCount = 0;
+    mListenerErrorCount = 0;
+    mLastListenerError = null;
+    mStopSignal = false;
+
+    if (!mDcamDevice.startContinuous())
+    {
+      println("WARNING: could not start continuous acquisition!");
+      mDcamDevice.getBufferControl().releaseBuffers();
+      mRingSequence = null;
+      return false;
+    }
+
+    mStreamingFuture =
+                     mStreamingExecutor.submit(() -> streamingLoop(pRingSequence));
+    return true;
+  }
+
+  private void streamingLoop(DcamImageSequence pRingSequence)
+  {
+    final DcamWait lDcamWait = mDcamDevice.getDcamWait();
+    final long lRingDepth = pRingSequence.getDepth();
+    long lLastFrameCount = 0;
+
+    while (!mStopSignal)
+    {
+      final boolean lWaitSuccess =
+                                 lDcamWait.waitForEventReadyOrStopped(mWaitTimeoutInMilliseconds);
+      final long lArrivalTimeStampInNanoseconds =
+                                                StopWatch.absoluteTimeInNanoseconds();
+
+      // timeouts and aborts are expected, we just check the stop signal again:
+      if (!lWaitSuccess)
+        continue;
+
+      final DCAMCAP_TRANSFERINFO lTransferinfo =
+                                               mDcamDevice.getTransferInfo();
+      if (lTransferinfo == null)
+        continue;
+
+      final long lFrameCount = lTransferinfo.nFrameCount();
+      final long lNewestFrameIndex = lTransferinfo.nNewestFrameIndex();
+
+      long lFirstNewFrame = lLastFrameCount;
+      if (lFrameCount - lFirstNewFrame > lRingDepth)
+      {
+        // The driver has already overwritten the oldest frames in the ring:
+        final long lDropped = lFrameCount - lFirstNewFrame - lRingDepth;
+        mDroppedFrameCount += lDropped;
+        lFirstNewFrame = lFrameCount - lRingDepth;
+        format("DcamJ(Streaming): dropped %d frames \n", lDropped);
+      }
+
+      for (long lFrame = lFirstNewFrame; lFrame < lFrameCount; lFrame++)
+      {
+        final int lIndexInRing =
+                               (int) Math.floorMod(lNewestFrameIndex
+                                                   - (lFrameCount - 1
+                                                      - lFrame),
+                                                   lRingDepth);
+        for (DcamStreamingListener lListener : mListenerList)
+          notifyListener(lListener,
+                         lFrame,
+                         lArrivalTimeStampInNanoseconds,
+                         lIndexInRing,
+                         pRingSequence);
+      }
+
+      if (lFrameCount > lLastFrameCount)
+      {
+        mReceivedFrameCount += lFrameCount - lFirstNewFrame;
+        lLastFrameCount = lFrameCount;
+      }
+
+      if (lDcamWait.isLastEventStopped())
+      {
+        println("DcamJ(Streaming): capture stopped by driver");
+        break;
+      }
+    }
+  }
+
+  private void notifyListener(DcamStreamingListener pListener,
+                              long pFrameIndex,
+                              long pArrivalTimeStampInNanoseconds,
+                              int pIndexInRing,
+                              DcamImageSequence pRingSequence)
+  {
+    try
+    {
+      pListener.frameArrived(this,
+                             pFrameIndex,
+                             pArrivalTimeStampInNanoseconds,
+                             pIndexInRing,
+                             pRingSequence);
+    }
+    catch (RuntimeException e)
+    {
+      // A failing listener must not end streaming for the other listeners,
+      // the first failure is printed and all are counted:
+      mLastListenerError = e;
+      if (mListenerErrorCount++ == 0)
+      {
+        System.err.println("DCAMJ2: streaming listener failed: " + e);
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Stops streaming, waits for the streaming thread to finish and releases the
+   * ring buffers.
+   *
+   * @return true: success, false otherwise
+   */
+  public boolean stop()
+  {
+    final Future<?> lStreamingFuture = mStreamingFuture;
+    if (lStreamingFuture == null)
+      return false;
+
+    mStopSignal = true;
+    mDcamDevice.getDcamWait().abort();
+
+    boolean lSuccess = true;
+    try
+    {
+      lStreamingFuture.get(10L * mWaitTimeoutInMilliseconds
+                           + 1000,
+                           TimeUnit.MILLISECONDS);
+    }
+    catch (Throwable e)
+    {
+      System.err.println("DCAMJ2: streaming thread did not terminate properly: "
+                         + e);
+      lSuccess = false;
+    }
+
+    lSuccess &= mDcamDevice.stop();
+    lSuccess &= mDcamDevice.getBufferControl().releaseBuffers();
+
+    mStreamingFuture = null;
+    mRingSequence = null;
+    return lSuccess;
+  }
+
+  /**
+   * Returns true if streaming
+   *
+   * @return true if streaming
+   */
+  public boolean isStreaming()
+  {
+    final Future<?> lStreamingFuture = mStreamingFuture;
+    return lStreamingFuture != null && !lStreamingFuture.isDone();
+  }
+
+  /**
+   * Returns the ring sequence currently streamed into, or null
+   *
+   * @return ring sequence
+   */
+  public DcamImageSequence getRingSequence()
+  {
+    return mRingSequence;
+  }
+
+  /**
+   * Returns the number of frames handed to listeners since streaming started
+   *
+   * @return number of received frames
+   */
+  public long getReceivedFrameCount()
+  {
+    return mReceivedFrameCount;
+  }
+
+  /**
+   * Returns the number of frames overwritten by the driver before they could
+   * be handed to the listeners
+   *
+   * @return number of dropped frames
+   */
+  public long getDroppedFrameCount()
+  {
+    return mDroppedFrameCount;
+  }
+
+  /**
+   * Returns the number of times a listener threw an exception since streaming
+   * started. Streaming goes on when a listener fails.
+   *
+   * @return number of listener errors
+   */
+  public long getListenerErrorCount()
+  {
+    return mListenerErrorCount;
+  }
+
+  /**
+   * Returns the last exception thrown by a listener since streaming started,
+   * or null
+   *
+   * @return last listener error
+   */
+  public RuntimeException getLastListenerError()
+  {
+    return mLastListenerError;
+  }
+
+  @Override
+  public void close()
+  {
+    if (mStreamingFuture != null)
+      stop();
+    mStreamingExecutor.shutdown();
+  }
+
+}
@@ -0,0 +1,36 @@
+package dcamj2;
+
+import dcamj2.imgseq.DcamImageSequence;
+
+/**
+ * Dcam streaming listener, receives frames as they are written by the driver
+ * into the ring of attached buffers.
+ *
+ * @author royer
+ */
+public interface DcamStreamingListener
+{
+
+  /**
+   * Called for every new frame written by the driver. The frame data lives in
+   * the ring sequence at the given plane index and will be overwritten once
+   * the driver wraps around the ring, so this method must return quickly.
+   *
+   * @param pStreamingAcquisition
+   *          streaming acquisition that received the frame
+   * @param pAbsoluteFrameIndex
+   *          index of the frame since the start of streaming
+   * @param pArrivalTimeStampInNanoseconds
+   *          time stamp at which the frame was received
+   * @param pFrameIndexInRing
+   *          plane index of the frame within the ring sequence
+   * @param pRingSequence
+   *          ring image sequence attached to the device
+   */
+  void frameArrived(DcamStreamingAcquisition pStreamingAcquisition,
+                    long pAbsoluteFrameIndex,
+                    long pArrivalTimeStampInNanoseconds,
+                    int pFrameIndexInRing,
+                    DcamImageSequence pRingSequence);
+
+}
@@ -4,10 +4,12 @@ import static org.bridj.Pointer.pointerTo;
 
 import dcamapi.DCAMWAIT_OPEN;
 import dcamapi.DCAMWAIT_START;
-import dcamapi.DcamapiLibrary;
 import dcamapi.DcamapiLibrary.DCAMERR;
 import dcamapi.DcamapiLibrary.DCAMWAIT_EVENT;
 import dcamapi.HDCAMWAIT_struct;
+import dcamj2.backend.DcamFunction;
+import dcamj2.jfr.DcamEvent;
+import dcamj2.jfr.DcamEvents;
 
 import org.bridj.BridJ;
 import org.bridj.IntValuedEnum;
@@ -40,6 +42,12 @@ public class DcamWait extends DcamBase implements AutoCloseable
     open();
   }
 
+  @Override
+  long getJournalDeviceId()
+  {
+    return mDcamDevice.getDeviceID();
+  }
+
   @SuppressWarnings("deprecation")
   private void open()
   {
@@ -47,10 +55,11 @@ public class DcamWait extends DcamBase implements AutoCloseable
     lDCAMWAIT_OPEN.size(BridJ.sizeOf(DCAMWAIT_OPEN.class));
     lDCAMWAIT_OPEN.hdcam(mDcamDevice.getHDCAMPointer());
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamwaitOpen(pointerTo(lDCAMWAIT_OPEN));
+                                        DcamLibrary.getBackend().dcamwaitOpen(pointerTo(lDCAMWAIT_OPEN));
 
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.WAIT_OPEN,
+                                                              lError);
 
     if (lSuccess)
     {
@@ -121,11 +130,19 @@ public class DcamWait extends DcamBase implements AutoCloseable
     mDCAMWAIT_START.eventmask(pDCAMWAIT_EVENT.value);
     mDCAMWAIT_START.timeout(pTimeOut);
 
+    final DcamEvent lEvent =
+                           DcamEvents.waitStart(mDcamDevice.getDeviceID(),
+                                                pDCAMWAIT_EVENT.value,
+                                                pTimeOut);
+
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamwaitStart(mHwaitPointer,
-                                                                     mPointerToDCAMWAIT_START);
+                                        DcamLibrary.getBackend().dcamwaitStart(mHwaitPointer,
+                                                                               mPointerToDCAMWAIT_START);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.WAIT_START,
+                                                              lError);
+    lEvent.commit(lSuccess,
+                  lSuccess ? mDCAMWAIT_START.eventhappened() : 0);
     return lSuccess;
   }
 
@@ -182,9 +199,10 @@ public class DcamWait extends DcamBase implements AutoCloseable
     }
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamwaitAbort(mHwaitPointer);
+                                        DcamLibrary.getBackend().dcamwaitAbort(mHwaitPointer);
     final boolean lSuccess =
-                           addErrorToListAndCheckHasSucceeded(lError);
+                           addErrorToListAndCheckHasSucceeded(DcamFunction.WAIT_ABORT,
+                                                              lError);
     return lSuccess;
   }
 
@@ -197,8 +215,9 @@ public class DcamWait extends DcamBase implements AutoCloseable
     }
 
     final IntValuedEnum<DCAMERR> lError =
-                                        DcamapiLibrary.dcamwaitClose(mHwaitPointer);
-    addErrorToListAndCheckHasSucceeded(lError);
+                                        DcamLibrary.getBackend().dcamwaitClose(mHwaitPointer);
+    addErrorToListAndCheckHasSucceeded(DcamFunction.WAIT_CLOSE,
+                                       lError);
     return;
   }
 
@@ -0,0 +1,227 @@
+package dcamj2.backend;
+
+import dcamapi.DCAMAPI_INIT;
+import dcamapi.DCAMBUF_ATTACH;
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMDEV_OPEN;
+import dcamapi.DCAMDEV_STRING;
+import dcamapi.DCAMWAIT_OPEN;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DCAM_PROPERTYATTR;
+import dcamapi.DcamapiLibrary;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend that calls the Hamamatsu DCAM-API driver through the BridJ
+ * bindings in {@link DcamapiLibrary}.
+ *
+ * @author royer
+ */
+public class BridJDcamBackend implements DcamBackend
+{
+
+  @Override
+  public String getName()
+  {
+    return "bridj";
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiInit(final Pointer<DCAMAPI_INIT> param)
+  {
+    return DcamapiLibrary.dcamapiInit(param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiUninit()
+  {
+    return DcamapiLibrary.dcamapiUninit();
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevOpen(final Pointer<DCAMDEV_OPEN> param)
+  {
+    return DcamapiLibrary.dcamdevOpen(param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevClose(final Pointer<HDCAM_struct> h)
+  {
+    return DcamapiLibrary.dcamdevClose(h);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevShowpanel(final Pointer<HDCAM_struct> h,
+                                                 final long iKind)
+  {
+    return DcamapiLibrary.dcamdevShowpanel(h, iKind);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevGetstring(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAMDEV_STRING> param)
+  {
+    return DcamapiLibrary.dcamdevGetstring(h, param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetattr(final Pointer<HDCAM_struct> h,
+                                                final Pointer<DCAM_PROPERTYATTR> param)
+  {
+    return DcamapiLibrary.dcampropGetattr(h, param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final Pointer<Double> pValue)
+  {
+    return DcamapiLibrary.dcampropGetvalue(h, iProp, pValue);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final double fValue)
+  {
+    return DcamapiLibrary.dcampropSetvalue(h, iProp, fValue);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetgetvalue(final Pointer<HDCAM_struct> h,
+                                                    final long iProp,
+                                                    final Pointer<Double> pValue,
+                                                    final long option)
+  {
+    return DcamapiLibrary.dcampropSetgetvalue(h, iProp, pValue, option);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropQueryvalue(final Pointer<HDCAM_struct> h,
+                                                   final long iProp,
+                                                   final Pointer<Double> pValue,
+                                                   final long option)
+  {
+    return DcamapiLibrary.dcampropQueryvalue(h, iProp, pValue, option);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetnextid(final Pointer<HDCAM_struct> h,
+                                                  final Pointer<IntValuedEnum<DCAMIDPROP>> pProp,
+                                                  final long option)
+  {
+    return DcamapiLibrary.dcampropGetnextid(h, pProp, option);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetname(final Pointer<HDCAM_struct> h,
+                                                final long iProp,
+                                                final Pointer<Byte> text,
+                                                final long textbytes)
+  {
+    return DcamapiLibrary.dcampropGetname(h, iProp, text, textbytes);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAlloc(final Pointer<HDCAM_struct> h,
+                                             final long framecount)
+  {
+    return DcamapiLibrary.dcambufAlloc(h, framecount);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAttach(final Pointer<HDCAM_struct> h,
+                                              final Pointer<DCAMBUF_ATTACH> param)
+  {
+    return DcamapiLibrary.dcambufAttach(h, param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufRelease(final Pointer<HDCAM_struct> h,
+                                               final long iKind)
+  {
+    return DcamapiLibrary.dcambufRelease(h, iKind);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufLockframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    return DcamapiLibrary.dcambufLockframe(h, pFrame);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufCopyframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    return DcamapiLibrary.dcambufCopyframe(h, pFrame);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStart(final Pointer<HDCAM_struct> h,
+                                             final long mode)
+  {
+    return DcamapiLibrary.dcamcapStart(h, mode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStop(final Pointer<HDCAM_struct> h)
+  {
+    return DcamapiLibrary.dcamcapStop(h);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStatus(final Pointer<HDCAM_struct> h,
+                                              final Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus)
+  {
+    return DcamapiLibrary.dcamcapStatus(h, pStatus);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapTransferinfo(final Pointer<HDCAM_struct> h,
+                                                    final Pointer<DCAMCAP_TRANSFERINFO> param)
+  {
+    return DcamapiLibrary.dcamcapTransferinfo(h, param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapFiretrigger(final Pointer<HDCAM_struct> h,
+                                                   final long iKind)
+  {
+    return DcamapiLibrary.dcamcapFiretrigger(h, iKind);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitOpen(final Pointer<DCAMWAIT_OPEN> param)
+  {
+    return DcamapiLibrary.dcamwaitOpen(param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitClose(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    return DcamapiLibrary.dcamwaitClose(hWait);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitStart(final Pointer<HDCAMWAIT_struct> hWait,
+                                              final Pointer<DCAMWAIT_START> param)
+  {
+    return DcamapiLibrary.dcamwaitStart(hWait, param);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitAbort(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    return DcamapiLibrary.dcamwaitAbort(hWait);
+  }
+
+}
@@ -0,0 +1,134 @@
+package dcamj2.backend;
+
+import dcamapi.DCAMAPI_INIT;
+import dcamapi.DCAMBUF_ATTACH;
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMDEV_OPEN;
+import dcamapi.DCAMDEV_STRING;
+import dcamapi.DCAMWAIT_OPEN;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DCAM_PROPERTYATTR;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend. Covers the subset of the DCAM-API used by dcamj2, with the
+ * same signatures as the corresponding {@link dcamapi.DcamapiLibrary} static
+ * methods, so that the driver can be swapped for another implementation (for
+ * example a simulator) without touching the rest of the library.
+ *
+ * @author royer
+ */
+@SuppressWarnings("javadoc")
+public interface DcamBackend
+{
+
+  /**
+   * Returns a short name for this backend
+   *
+   * @return backend name
+   */
+  String getName();
+
+  // Initialization:
+
+  IntValuedEnum<DCAMERR> dcamapiInit(Pointer<DCAMAPI_INIT> param);
+
+  IntValuedEnum<DCAMERR> dcamapiUninit();
+
+  // Device:
+
+  IntValuedEnum<DCAMERR> dcamdevOpen(Pointer<DCAMDEV_OPEN> param);
+
+  IntValuedEnum<DCAMERR> dcamdevClose(Pointer<HDCAM_struct> h);
+
+  IntValuedEnum<DCAMERR> dcamdevShowpanel(Pointer<HDCAM_struct> h,
+                                          long iKind);
+
+  IntValuedEnum<DCAMERR> dcamdevGetstring(Pointer<HDCAM_struct> h,
+                                          Pointer<DCAMDEV_STRING> param);
+
+  // Properties:
+
+  IntValuedEnum<DCAMERR> dcampropGetattr(Pointer<HDCAM_struct> h,
+                                         Pointer<DCAM_PROPERTYATTR> param);
+
+  IntValuedEnum<DCAMERR> dcampropGetvalue(Pointer<HDCAM_struct> h,
+                                          long iProp,
+                                          Pointer<Double> pValue);
+
+  IntValuedEnum<DCAMERR> dcampropSetvalue(Pointer<HDCAM_struct> h,
+                                          long iProp,
+                                          double fValue);
+
+  IntValuedEnum<DCAMERR> dcampropSetgetvalue(Pointer<HDCAM_struct> h,
+                                             long iProp,
+                                             Pointer<Double> pValue,
+                                             long option);
+
+  IntValuedEnum<DCAMERR> dcampropQueryvalue(Pointer<HDCAM_struct> h,
+                                            long iProp,
+                                            Pointer<Double> pValue,
+                                            long option);
+
+  IntValuedEnum<DCAMERR> dcampropGetnextid(Pointer<HDCAM_struct> h,
+                                           Pointer<IntValuedEnum<DCAMIDPROP>> pProp,
+                                           long option);
+
+  IntValuedEnum<DCAMERR> dcampropGetname(Pointer<HDCAM_struct> h,
+                                         long iProp,
+                                         Pointer<Byte> text,
+                                         long textbytes);
+
+  // Buffers:
+
+  IntValuedEnum<DCAMERR> dcambufAlloc(Pointer<HDCAM_struct> h,
+                                      long framecount);
+
+  IntValuedEnum<DCAMERR> dcambufAttach(Pointer<HDCAM_struct> h,
+                                       Pointer<DCAMBUF_ATTACH> param);
+
+  IntValuedEnum<DCAMERR> dcambufRelease(Pointer<HDCAM_struct> h,
+                                        long iKind);
+
+  IntValuedEnum<DCAMERR> dcambufLockframe(Pointer<HDCAM_struct> h,
+                                          Pointer<DCAM_FRAME> pFrame);
+
+  IntValuedEnum<DCAMERR> dcambufCopyframe(Pointer<HDCAM_struct> h,
+                                          Pointer<DCAM_FRAME> pFrame);
+
+  // Capture:
+
+  IntValuedEnum<DCAMERR> dcamcapStart(Pointer<HDCAM_struct> h,
+                                      long mode);
+
+  IntValuedEnum<DCAMERR> dcamcapStop(Pointer<HDCAM_struct> h);
+
+  IntValuedEnum<DCAMERR> dcamcapStatus(Pointer<HDCAM_struct> h,
+                                       Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus);
+
+  IntValuedEnum<DCAMERR> dcamcapTransferinfo(Pointer<HDCAM_struct> h,
+                                             Pointer<DCAMCAP_TRANSFERINFO> param);
+
+  IntValuedEnum<DCAMERR> dcamcapFiretrigger(Pointer<HDCAM_struct> h,
+                                            long iKind);
+
+  // Wait:
+
+  IntValuedEnum<DCAMERR> dcamwaitOpen(Pointer<DCAMWAIT_OPEN> param);
+
+  IntValuedEnum<DCAMERR> dcamwaitClose(Pointer<HDCAMWAIT_struct> hWait);
+
+  IntValuedEnum<DCAMERR> dcamwaitStart(Pointer<HDCAMWAIT_struct> hWait,
+                                       Pointer<DCAMWAIT_START> param);
+
+  IntValuedEnum<DCAMERR> dcamwaitAbort(Pointer<HDCAMWAIT_struct> hWait);
+
+}
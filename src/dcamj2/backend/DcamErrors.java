@@ -0,0 +1,82 @@
+package dcamj2.backend;
+
+import java.util.Arrays;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+
+import org.bridj.FlagSet;
+import org.bridj.IntValuedEnum;
+
+/**
+ * Maps raw driver return codes to {@link DCAMERR} constants without
+ * allocating. BridJ's FlagSet.fromValue creates a new object for every call,
+ * this lookup returns the enum constant itself, so identity comparisons such
+ * as the one in DcamLibrary.hasSucceeded keep working.
+ *
+ * @author royer
+ */
+public final class DcamErrors
+{
+  private static final int[] cCodes;
+  private static final DCAMERR[] cErrors;
+  private static final int cLength;
+
+  static
+  {
+    final DCAMERR[] lErrors = DCAMERR.values().clone();
+    Arrays.sort(lErrors, (a, b) -> Long.compare(a.value, b.value));
+
+    cCodes = new int[lErrors.length];
+    cErrors = new DCAMERR[lErrors.length];
+    int lLength = 0;
+    for (final DCAMERR lError : lErrors)
+    {
+      // some codes have aliases, the first constant wins:
+      if (lLength > 0 && cCodes[lLength - 1] == (int) lError.value)
+        continue;
+      cCodes[lLength] = (int) lError.value;
+      cErrors[lLength] = lError;
+      lLength++;
+    }
+    cLength = lLength;
+  }
+
+  private DcamErrors()
+  {
+  }
+
+  /**
+   * Returns the error for a raw driver return code. Unknown codes are kept
+   * as they are in a BridJ flag set.
+   *
+   * @param pCode
+   *          raw return code
+   * @return error
+   */
+  public static IntValuedEnum<DCAMERR> fromCode(final int pCode)
+  {
+    if (pCode == (int) DCAMERR.DCAMERR_SUCCESS.value)
+      return DCAMERR.DCAMERR_SUCCESS;
+
+    final int lIndex = Arrays.binarySearch(cCodes, 0, cLength, pCode);
+    if (lIndex >= 0)
+      return cErrors[lIndex];
+
+    // FlagSet.fromValue would return the first constant whose bits are all
+    // set in the code, e.g. DCAMERR_SUCCESS for any odd code:
+    return FlagSet.createFlagSet(pCode, DCAMERR.class);
+  }
+
+  /**
+   * Returns the raw driver return code of an error
+   *
+   * @param pError
+   *          error
+   * @return raw return code
+   */
+  public static int toCode(final IntValuedEnum<DCAMERR> pError)
+  {
+    return (int) pError.value();
+  }
+
+}
@@ -0,0 +1,71 @@
+package dcamj2.backend;
+
+/**
+ * Driver functions of the {@link DcamBackend} interface, with the name of the
+ * corresponding DCAM-API C function. Used to tag trace records and
+ * statistics.
+ *
+ * @author royer
+ */
+public enum DcamFunction
+{
+ API_INIT("dcamapi_init"),
+ API_UNINIT("dcamapi_uninit"),
+ DEV_OPEN("dcamdev_open"),
+ DEV_CLOSE("dcamdev_close"),
+ DEV_SHOWPANEL("dcamdev_showpanel"),
+ DEV_GETSTRING("dcamdev_getstring"),
+ PROP_GETATTR("dcamprop_getattr"),
+ PROP_GETVALUE("dcamprop_getvalue"),
+ PROP_SETVALUE("dcamprop_setvalue"),
+ PROP_SETGETVALUE("dcamprop_setgetvalue"),
+ PROP_QUERYVALUE("dcamprop_queryvalue"),
+ PROP_GETNEXTID("dcamprop_getnextid"),
+ PROP_GETNAME("dcamprop_getname"),
+ BUF_ALLOC("dcambuf_alloc"),
+ BUF_ATTACH("dcambuf_attach"),
+ BUF_RELEASE("dcambuf_release"),
+ BUF_LOCKFRAME("dcambuf_lockframe"),
+ BUF_COPYFRAME("dcambuf_copyframe"),
+ CAP_START("dcamcap_start"),
+ CAP_STOP("dcamcap_stop"),
+ CAP_STATUS("dcamcap_status"),
+ CAP_TRANSFERINFO("dcamcap_transferinfo"),
+ CAP_FIRETRIGGER("dcamcap_firetrigger"),
+ WAIT_OPEN("dcamwait_open"),
+ WAIT_CLOSE("dcamwait_close"),
+ WAIT_START("dcamwait_start"),
+ WAIT_ABORT("dcamwait_abort");
+
+  private static final DcamFunction[] cValues = values();
+
+  private final String mNativeName;
+
+  private DcamFunction(final String pNativeName)
+  {
+    mNativeName = pNativeName;
+  }
+
+  /**
+   * Returns the name of the DCAM-API C function
+   *
+   * @return native function name
+   */
+  public String getNativeName()
+  {
+    return mNativeName;
+  }
+
+  /**
+   * Returns the function for a given ordinal
+   *
+   * @param pOrdinal
+   *          ordinal
+   * @return function
+   */
+  public static DcamFunction fromOrdinal(final int pOrdinal)
+  {
+    return cValues[pOrdinal];
+  }
+
+}
@@ -0,0 +1,115 @@
+package dcamj2.backend;
+
+import org.bridj.BridJ;
+import org.bridj.CRuntime;
+import org.bridj.ann.CLong;
+import org.bridj.ann.Library;
+import org.bridj.ann.Name;
+import org.bridj.ann.Ptr;
+import org.bridj.ann.Runtime;
+
+/**
+ * Primitive-only bindings for the per-frame DCAM-API calls. Handles and
+ * structures are passed as raw addresses and the DCAMERR result is returned
+ * as a plain int, so BridJ neither wraps arguments nor allocates a result
+ * object on each call.
+ *
+ * @author royer
+ */
+@Library("dcamapi")
+@Runtime(CRuntime.class)
+class DcamapiRaw
+{
+  static
+  {
+    BridJ.register();
+  }
+
+  /**
+   * Original signature : <code>DCAMERR dcamprop_getvalue(HDCAM, int32,
+   * double*)</code>
+   */
+  @Name("dcamprop_getvalue")
+  static native int dcampropGetvalue(@Ptr long h,
+                                     @CLong long iProp,
+                                     @Ptr long pValue);
+
+  /**
+   * Original signature : <code>DCAMERR dcamprop_setvalue(HDCAM, int32,
+   * double)</code>
+   */
+  @Name("dcamprop_setvalue")
+  static native int dcampropSetvalue(@Ptr long h,
+                                     @CLong long iProp,
+                                     double fValue);
+
+  /**
+   * Original signature : <code>DCAMERR dcamprop_setgetvalue(HDCAM, int32,
+   * double*, int32)</code>
+   */
+  @Name("dcamprop_setgetvalue")
+  static native int dcampropSetgetvalue(@Ptr long h,
+                                        @CLong long iProp,
+                                        @Ptr long pValue,
+                                        @CLong long option);
+
+  /**
+   * Original signature : <code>DCAMERR dcambuf_lockframe(HDCAM,
+   * DCAMBUF_FRAME*)</code>
+   */
+  @Name("dcambuf_lockframe")
+  static native int dcambufLockframe(@Ptr long h, @Ptr long pFrame);
+
+  /**
+   * Original signature : <code>DCAMERR dcambuf_copyframe(HDCAM,
+   * DCAMBUF_FRAME*)</code>
+   */
+  @Name("dcambuf_copyframe")
+  static native int dcambufCopyframe(@Ptr long h, @Ptr long pFrame);
+
+  /**
+   * Original signature : <code>DCAMERR dcamcap_start(HDCAM, int32)</code>
+   */
+  @Name("dcamcap_start")
+  static native int dcamcapStart(@Ptr long h, @CLong long mode);
+
+  /**
+   * Original signature : <code>DCAMERR dcamcap_stop(HDCAM)</code>
+   */
+  @Name("dcamcap_stop")
+  static native int dcamcapStop(@Ptr long h);
+
+  /**
+   * Original signature : <code>DCAMERR dcamcap_status(HDCAM, int32*)</code>
+   */
+  @Name("dcamcap_status")
+  static native int dcamcapStatus(@Ptr long h, @Ptr long pStatus);
+
+  /**
+   * Original signature : <code>DCAMERR dcamcap_transferinfo(HDCAM,
+   * DCAMCAP_TRANSFERINFO*)</code>
+   */
+  @Name("dcamcap_transferinfo")
+  static native int dcamcapTransferinfo(@Ptr long h, @Ptr long param);
+
+  /**
+   * Original signature : <code>DCAMERR dcamcap_firetrigger(HDCAM,
+   * int32)</code>
+   */
+  @Name("dcamcap_firetrigger")
+  static native int dcamcapFiretrigger(@Ptr long h, @CLong long iKind);
+
+  /**
+   * Original signature : <code>DCAMERR dcamwait_start(HDCAMWAIT,
+   * DCAMWAIT_START*)</code>
+   */
+  @Name("dcamwait_start")
+  static native int dcamwaitStart(@Ptr long hWait, @Ptr long param);
+
+  /**
+   * Original signature : <code>DCAMERR dcamwait_abort(HDCAMWAIT)</code>
+   */
+  @Name("dcamwait_abort")
+  static native int dcamwaitAbort(@Ptr long hWait);
+
+}
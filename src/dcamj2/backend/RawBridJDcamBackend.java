@@ -0,0 +1,136 @@
+package dcamj2.backend;
+
+import static org.bridj.Pointer.getPeer;
+
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend that calls the per-frame and per-property driver functions
+ * through the primitive-only bindings in {@link DcamapiRaw}: handles and
+ * structures are passed as addresses, and return codes are mapped to DCAMERR
+ * constants by {@link DcamErrors} instead of being wrapped by BridJ. Calls
+ * made only at setup time go through the regular BridJ bindings.
+ *
+ * Callers keep their structures preallocated (see DcamNativeScratch and
+ * DcamWait) so that a frame costs no allocation on the Java side.
+ *
+ * @author royer
+ */
+public class RawBridJDcamBackend extends BridJDcamBackend
+{
+
+  @Override
+  public String getName()
+  {
+    return "raw";
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final Pointer<Double> pValue)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcampropGetvalue(getPeer(h),
+                                                           iProp,
+                                                           getPeer(pValue)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final double fValue)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcampropSetvalue(getPeer(h),
+                                                           iProp,
+                                                           fValue));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetgetvalue(final Pointer<HDCAM_struct> h,
+                                                    final long iProp,
+                                                    final Pointer<Double> pValue,
+                                                    final long option)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcampropSetgetvalue(getPeer(h),
+                                                              iProp,
+                                                              getPeer(pValue),
+                                                              option));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufLockframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcambufLockframe(getPeer(h),
+                                                           getPeer(pFrame)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufCopyframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcambufCopyframe(getPeer(h),
+                                                           getPeer(pFrame)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStart(final Pointer<HDCAM_struct> h,
+                                             final long mode)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamcapStart(getPeer(h), mode));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStop(final Pointer<HDCAM_struct> h)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamcapStop(getPeer(h)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStatus(final Pointer<HDCAM_struct> h,
+                                              final Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamcapStatus(getPeer(h),
+                                                        getPeer(pStatus)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapTransferinfo(final Pointer<HDCAM_struct> h,
+                                                    final Pointer<DCAMCAP_TRANSFERINFO> param)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamcapTransferinfo(getPeer(h),
+                                                              getPeer(param)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapFiretrigger(final Pointer<HDCAM_struct> h,
+                                                   final long iKind)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamcapFiretrigger(getPeer(h),
+                                                             iKind));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitStart(final Pointer<HDCAMWAIT_struct> hWait,
+                                              final Pointer<DCAMWAIT_START> param)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamwaitStart(getPeer(hWait),
+                                                        getPeer(param)));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitAbort(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    return DcamErrors.fromCode(DcamapiRaw.dcamwaitAbort(getPeer(hWait)));
+  }
+
+}
@@ -0,0 +1,64 @@
+package dcamj2.backend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamj2.DcamLibrary;
+import dcamj2.backend.DcamErrors;
+
+import org.bridj.IntValuedEnum;
+import org.junit.Test;
+
+/**
+ * Return code lookup tests
+ *
+ * @author royer
+ */
+public class DcamErrorsTests
+{
+
+  /**
+   * Tests that every known code maps to a constant with that code, the same
+   * constant for every call
+   */
+  @Test
+  public void testKnownCodes()
+  {
+    for (final DCAMERR lError : DCAMERR.values())
+    {
+      final int lCode = DcamErrors.toCode(lError);
+      final IntValuedEnum<DCAMERR> lFound = DcamErrors.fromCode(lCode);
+      assertEquals(lError.value, lFound.value());
+      assertSame(lFound, DcamErrors.fromCode(lCode));
+    }
+  }
+
+  /**
+   * Tests that success is the constant DcamLibrary compares against
+   */
+  @Test
+  public void testSuccess()
+  {
+    final IntValuedEnum<DCAMERR> lSuccess =
+                                          DcamErrors.fromCode((int) DCAMERR.DCAMERR_SUCCESS.value);
+    assertSame(DCAMERR.DCAMERR_SUCCESS, lSuccess);
+    assertEquals(true, DcamLibrary.hasSucceeded(lSuccess));
+    assertEquals(false,
+                 DcamLibrary.hasSucceeded(DcamErrors.fromCode((int) DCAMERR.DCAMERR_BUSY.value)));
+  }
+
+  /**
+   * Tests that unknown codes are kept as they are
+   */
+  @Test
+  public void testUnknownCode()
+  {
+    final int lCode = 0x12345;
+    final IntValuedEnum<DCAMERR> lUnknown = DcamErrors.fromCode(lCode);
+    assertEquals(lCode, lUnknown.value());
+    assertEquals(lCode, DcamErrors.toCode(lUnknown));
+    assertEquals(false, DcamLibrary.hasSucceeded(lUnknown));
+  }
+
+}
@@ -4,13 +4,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import coremem.recycling.BasicRecycler;
 import dcamj2.DcamDevice;
 import dcamj2.DcamLibrary;
 import dcamj2.DcamSequenceAcquisition;
+import dcamj2.DcamStreamingAcquisition;
 import dcamj2.imgseq.DcamImageSequence;
 import dcamj2.imgseq.DcamImageSequenceFactory;
 import dcamj2.imgseq.DcamImageSequenceRequest;
@@ -300,4 +304,107 @@ public class DcamJDemo
 
   }
 
+  /**
+   * Tests continuous streaming acquisition
+   * 
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testStreamingAcquisition() throws InterruptedException
+  {
+    int lWidth = 2048;
+    int lHeight = 2048;
+    int lRingDepth = 64;
+
+    assertTrue(DcamLibrary.initialize());
+
+    DcamDevice lDcamDevice = new DcamDevice(0);
+    assertNotNull(lDcamDevice);
+
+    assertTrue(lDcamDevice.open());
+    lDcamDevice.setInputTriggerToInternal();
+
+    DcamImageSequence lRingSequence = new DcamImageSequence(lDcamDevice,
+                                                            2,
+                                                            lWidth,
+                                                            lHeight,
+                                                            lRingDepth);
+
+    AtomicLong lFrameCounter = new AtomicLong();
+
+    try (DcamStreamingAcquisition lDcamStreamingAcquisition =
+                                                            new DcamStreamingAcquisition(lDcamDevice))
+    {
+      lDcamStreamingAcquisition.addListener((a, f, t, i, s) -> {
+        lFrameCounter.incrementAndGet();
+      });
+
+      assertTrue(lDcamStreamingAcquisition.start(0.01, lRingSequence));
+      Thread.sleep(5000);
+      assertTrue(lDcamStreamingAcquisition.stop());
+
+      System.out.format("received: %d frames, dropped: %d frames \n",
+                        lDcamStreamingAcquisition.getReceivedFrameCount(),
+                        lDcamStreamingAcquisition.getDroppedFrameCount());
+    }
+
+    assertTrue(lFrameCounter.get() > 0);
+
+    lDcamDevice.close();
+
+    assertTrue(DcamLibrary.uninitialize());
+
+  }
+
+  /**
+   * Tests pipelined back-to-back sequence acquisition
+   * 
+   * @throws InterruptedException
+   *           NA
+   * @throws ExecutionException
+   *           NA
+   */
+  @Test
+  public void testPipelinedSequenceAcquisition() throws InterruptedException,
+                                                 ExecutionException
+  {
+    int lWidth = 2048;
+    int lHeight = 2048;
+    int lDepth = 100;
+    int lNumberOfStacks = 10;
+
+    assertTrue(DcamLibrary.initialize());
+
+    DcamDevice lDcamDevice = new DcamDevice(0);
+    assertNotNull(lDcamDevice);
+
+    assertTrue(lDcamDevice.open());
+    lDcamDevice.setInputTriggerToInternal();
+
+    DcamSequenceAcquisition lDcamSequenceAcquisition =
+                                                     new DcamSequenceAcquisition(lDcamDevice);
+
+    ArrayList<CompletableFuture<DcamImageSequence>> lFutureList =
+                                                                 new ArrayList<>();
+    for (int i = 0; i < lNumberOfStacks; i++)
+    {
+      DcamImageSequence lSequence = new DcamImageSequence(lDcamDevice,
+                                                          2,
+                                                          lWidth,
+                                                          lHeight,
+                                                          lDepth);
+      lFutureList.add(lDcamSequenceAcquisition.enqueueSequence(0.01,
+                                                               lSequence));
+    }
+
+    for (CompletableFuture<DcamImageSequence> lFuture : lFutureList)
+      assertNotNull(lFuture.get());
+
+    lDcamDevice.close();
+
+    assertTrue(DcamLibrary.uninitialize());
+
+  }
+
 }
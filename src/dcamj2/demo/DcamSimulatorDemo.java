@@ -0,0 +1,72 @@
+package dcamj2.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+
+import dcamj2.DcamDevice;
+import dcamj2.DcamLibrary;
+import dcamj2.DcamSequenceAcquisition;
+import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.sim.DcamSimulatorBackend;
+
+import org.junit.Test;
+
+/**
+ * DcamJ demo running against the in-process camera simulator, no camera or
+ * driver needed.
+ *
+ * @author royer
+ */
+public class DcamSimulatorDemo
+{
+
+  /**
+   * Tests sequence acquisition on a simulated camera
+   *
+   * @throws InterruptedException
+   *           NA
+   * @throws ExecutionException
+   *           NA
+   */
+  @Test
+  public void testSimulatedSequenceAcquisition() throws InterruptedException,
+                                                 ExecutionException
+  {
+    int lWidth = 512;
+    int lHeight = 512;
+    int lDepth = 100;
+
+    DcamLibrary.setBackend(new DcamSimulatorBackend(1));
+    assertTrue(DcamLibrary.initialize());
+    assertEquals(1, DcamLibrary.getNumberOfDevices());
+
+    DcamDevice lDcamDevice = new DcamDevice(0, true);
+    lDcamDevice.printDeviceInfo();
+
+    DcamSequenceAcquisition lDcamSequenceAcquisition =
+                                                     new DcamSequenceAcquisition(lDcamDevice);
+
+    DcamImageSequence lSequence = new DcamImageSequence(lDcamDevice,
+                                                        2,
+                                                        lWidth,
+                                                        lHeight,
+                                                        lDepth);
+
+    for (int i = 0; i < 5; i++)
+    {
+      long lStart = System.nanoTime();
+      assertTrue(lDcamSequenceAcquisition.acquireSequence(0.002,
+                                                          lSequence));
+      long lStop = System.nanoTime();
+      System.out.format("Acquired %d images in %.1f ms \n",
+                        lDepth,
+                        (lStop - lStart) * 1e-6);
+    }
+
+    lDcamDevice.close();
+    assertTrue(DcamLibrary.uninitialize());
+  }
+
+}
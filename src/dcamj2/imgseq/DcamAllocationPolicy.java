@@ -0,0 +1,77 @@
+package dcamj2.imgseq;
+
+/**
+ * Allocation policy for the memory of image sequences. Large sequences
+ * allocated with the default policy are backed by 4 KB pages that are only
+ * faulted in when the driver first writes to them, which can stall the first
+ * acquisitions. The huge page policies align allocations to 2 MB, advise the
+ * kernel to back them with transparent huge pages (Linux only, ignored
+ * elsewhere), and optionally touch every page before the sequence is handed
+ * out, so that it is fully resident before it is attached. Allocations
+ * smaller than a huge page, such as the planes of small fragmented sequences,
+ * are page aligned and not advised.
+ *
+ * @author royer
+ */
+public enum DcamAllocationPolicy
+{
+ /**
+  * 4 KB aligned allocation, pages are faulted in on first use.
+  */
+ PAGE_ALIGNED(4096, false, false),
+
+ /**
+  * 2 MB aligned allocation with transparent huge page advice, pages are
+  * faulted in on first use.
+  */
+ HUGE_PAGES(2 * 1024 * 1024, true, false),
+
+ /**
+  * 2 MB aligned allocation with transparent huge page advice, all pages are
+  * touched in parallel at allocation time.
+  */
+ HUGE_PAGES_PRETOUCHED(2 * 1024 * 1024, true, true);
+
+  private final long mAlignment;
+  private final boolean mHugePageAdvice;
+  private final boolean mPreTouched;
+
+  private DcamAllocationPolicy(final long pAlignment,
+                               final boolean pHugePageAdvice,
+                               final boolean pPreTouched)
+  {
+    mAlignment = pAlignment;
+    mHugePageAdvice = pHugePageAdvice;
+    mPreTouched = pPreTouched;
+  }
+
+  /**
+   * Returns the alignment of allocations in bytes
+   * 
+   * @return alignment in bytes
+   */
+  public long getAlignment()
+  {
+    return mAlignment;
+  }
+
+  /**
+   * Returns whether the kernel is advised to back allocations with huge pages
+   * 
+   * @return true: huge page advice
+   */
+  public boolean isHugePageAdvice()
+  {
+    return mHugePageAdvice;
+  }
+
+  /**
+   * Returns whether all pages are touched at allocation time
+   * 
+   * @return true: pre-touched
+   */
+  public boolean isPreTouched()
+  {
+    return mPreTouched;
+  }
+}
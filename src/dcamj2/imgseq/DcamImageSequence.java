@@ -18,6 +18,12 @@ import org.bridj.Pointer;
 
 /**
  * Dcam image sequence
+ * <p>
+ * Attaching an image sequence to a device does not end with the acquisition:
+ * the driver keeps the buffers until another sequence is attached or the
+ * device is closed. Freeing an attached sequence, directly or when it is
+ * disposed of by its recycler or pool, first stops the acquisition if needed
+ * and releases the buffers from the driver.
  *
  * @author royer
  */
@@ -27,16 +33,21 @@ public class DcamImageSequence implements
                                Freeable
 {
 
-  private static final int cPageAlignment = 4096;
-
   private DcamDevice mDcamDevice;
   private FragmentedMemoryInterface mFragmentedMemory;
 
   private volatile long mBytesPerPixel, mWidth, mHeight, mDepth;
   private volatile long mTimeStampInNs;
+  private volatile DcamImageSequence[] mPlaneViews;
+  private DcamAllocationPolicy mAllocationPolicy =
+                                                  DcamAllocationPolicy.PAGE_ALIGNED;
 
   // Recycling stuff:
   private RecyclerInterface<DcamImageSequence, DcamImageSequenceRequest> mRecycler;
+  private DcamImageSequencePool mPool;
+
+  // bytes reserved with the memory governor, 0 once freed:
+  private long mGovernedBytes;
   private boolean mIsReleased;
 
   /**
@@ -93,35 +104,153 @@ public class DcamImageSequence implements
                            final long pHeight,
                            final long pDepth,
                            boolean pFragmented)
+  {
+    this(pDcamDevice,
+         pBytesPerPixel,
+         pWidth,
+         pHeight,
+         pDepth,
+         pFragmented,
+         DcamAllocationPolicy.PAGE_ALIGNED);
+  }
+
+  /**
+   * Initialises a Dcam image sequence given the number of bytes per pixel,
+   * image sequence width, height and depth, and an allocation policy. The
+   * memory allocation is handled by this constructor.
+   * 
+   * @param pDcamDevice
+   *          device to use for acquisition, this is used to adjust height and
+   *          width
+   * 
+   * @param pBytesPerPixel
+   *          bytes per pixel/voxel
+   * @param pWidth
+   *          width
+   * @param pHeight
+   *          height
+   * @param pDepth
+   *          depth
+   * @param pFragmented
+   *          true: allocates multiple independent buffers, false: allocates a
+   *          single contiguous buffer
+   * @param pAllocationPolicy
+   *          allocation policy
+   */
+  public DcamImageSequence(DcamDevice pDcamDevice,
+                           final long pBytesPerPixel,
+                           final long pWidth,
+                           final long pHeight,
+                           final long pDepth,
+                           boolean pFragmented,
+                           DcamAllocationPolicy pAllocationPolicy)
   {
     this(pDcamDevice, null, pBytesPerPixel, pWidth, pHeight, pDepth);
+    mAllocationPolicy = pAllocationPolicy;
 
+    // the governor accounts for the alignment padding of each allocation:
+    final long lPlaneSizeInBytes = pBytesPerPixel * mWidth * mHeight;
+    final long lAllocatedBytes;
     if (pFragmented)
+      lAllocatedBytes = mDepth * getAllocatedSize(lPlaneSizeInBytes,
+                                                  pAllocationPolicy);
+    else
+      lAllocatedBytes = getAllocatedSize(lPlaneSizeInBytes * mDepth,
+                                         pAllocationPolicy);
+    DcamMemoryGovernor.get().reserveOrFail(getDeviceId(), lAllocatedBytes);
+    mGovernedBytes = lAllocatedBytes;
+
+    final OffHeapMemory[] lAllocatedMemories;
+    try
     {
+      lAllocatedMemories = allocate(pBytesPerPixel, pFragmented);
+    }
+    catch (RuntimeException e)
+    {
+      free();
+      throw e;
+    }
+
+    if (pAllocationPolicy.isPreTouched())
+      DcamMemoryAdvice.preTouch(lAllocatedMemories);
+  }
+
+  private OffHeapMemory[] allocate(final long pBytesPerPixel,
+                                   final boolean pFragmented)
+  {
+    final OffHeapMemory[] lAllocatedMemories;
+    if (pFragmented)
+    {
+      lAllocatedMemories = new OffHeapMemory[(int) mDepth];
       mFragmentedMemory = new FragmentedMemory();
       for (int i = 0; i < mDepth; i++)
       {
         long lNumberOfBytes = pBytesPerPixel * mWidth * mHeight;
-        OffHeapMemory lAllocatedMemory =
-                                       OffHeapMemory.allocateAlignedBytes("DcamImageSequence"
-                                                                          + i,
-                                                                          lNumberOfBytes,
-                                                                          cPageAlignment);
-        mFragmentedMemory.add(lAllocatedMemory);
+        lAllocatedMemories[i] = allocate("DcamImageSequence" + i,
+                                         lNumberOfBytes,
+                                         mAllocationPolicy);
+        mFragmentedMemory.add(lAllocatedMemories[i]);
       }
     }
     else
     {
       long lNumberOfBytes =
                           pBytesPerPixel * mWidth * mHeight * mDepth;
-      OffHeapMemory lAllocatedMemory =
-                                     OffHeapMemory.allocateAlignedBytes("DcamImageSequence",
-                                                                        lNumberOfBytes,
-                                                                        cPageAlignment);
-      mFragmentedMemory = FragmentedMemory.split(lAllocatedMemory,
+      lAllocatedMemories = new OffHeapMemory[]
+      { allocate("DcamImageSequence", lNumberOfBytes, mAllocationPolicy) };
+      mFragmentedMemory = FragmentedMemory.split(lAllocatedMemories[0],
                                                  mDepth);
     }
+    return lAllocatedMemories;
+  }
+
+  static OffHeapMemory allocate(final String pName,
+                                final long pNumberOfBytes,
+                                final DcamAllocationPolicy pAllocationPolicy)
+  {
+    final OffHeapMemory lAllocatedMemory =
+                                         OffHeapMemory.allocateAlignedBytes(pName,
+                                                                            pNumberOfBytes,
+                                                                            getAlignment(pNumberOfBytes,
+                                                                                         pAllocationPolicy));
+    if (isHugePages(pNumberOfBytes, pAllocationPolicy))
+      DcamMemoryAdvice.adviseHugePages(lAllocatedMemory);
+    return lAllocatedMemory;
+  }
+
+  /**
+   * Returns the number of bytes actually allocated for a given size: aligned
+   * allocations are padded by their alignment.
+   * 
+   * @param pNumberOfBytes
+   *          requested number of bytes
+   * @param pAllocationPolicy
+   *          allocation policy
+   * @return allocated number of bytes
+   */
+  static long getAllocatedSize(final long pNumberOfBytes,
+                               final DcamAllocationPolicy pAllocationPolicy)
+  {
+    return pNumberOfBytes + getAlignment(pNumberOfBytes, pAllocationPolicy);
+  }
+
+  // Allocations smaller than a huge page can not be backed by one, aligning
+  // them to 2 MB would only waste address space (e.g. each plane of a
+  // fragmented sequence), they are page aligned instead:
+  private static boolean isHugePages(final long pNumberOfBytes,
+                                     final DcamAllocationPolicy pAllocationPolicy)
+  {
+    return pAllocationPolicy.isHugePageAdvice()
+           && pNumberOfBytes >= pAllocationPolicy.getAlignment();
+  }
 
+  static long getAlignment(final long pNumberOfBytes,
+                          final DcamAllocationPolicy pAllocationPolicy)
+  {
+    if (pAllocationPolicy.isHugePageAdvice()
+        && pNumberOfBytes < pAllocationPolicy.getAlignment())
+      return DcamAllocationPolicy.PAGE_ALIGNED.getAlignment();
+    return pAllocationPolicy.getAlignment();
   }
 
   /**
@@ -163,6 +292,51 @@ public class DcamImageSequence implements
     mFragmentedMemory = pFragmentedMemory;
   }
 
+  /**
+   * Instantiates a view on a single plane of a parent image sequence. The
+   * width and height are those of the parent, and are not adjusted again.
+   * 
+   * @param pParent
+   *          parent image sequence
+   * @param pIndex
+   *          plane index
+   */
+  private DcamImageSequence(final DcamImageSequence pParent,
+                            final int pIndex)
+  {
+    mDcamDevice = pParent.mDcamDevice;
+    mBytesPerPixel = pParent.mBytesPerPixel;
+    mWidth = pParent.mWidth;
+    mHeight = pParent.mHeight;
+    mDepth = 1;
+    mAllocationPolicy = pParent.mAllocationPolicy;
+
+    mFragmentedMemory =
+                      FragmentedMemory.wrap(pParent.getMemoryForPlane(pIndex));
+  }
+
+  /**
+   * Sets the memory of an image sequence created without one, used by
+   * subclasses that allocate their memory after the geometry is known.
+   * 
+   * @param pFragmentedMemory
+   *          fragmented memory object
+   */
+  void setFragmentedMemory(final FragmentedMemoryInterface pFragmentedMemory)
+  {
+    mFragmentedMemory = pFragmentedMemory;
+  }
+
+  void setAllocationPolicy(final DcamAllocationPolicy pAllocationPolicy)
+  {
+    mAllocationPolicy = pAllocationPolicy;
+  }
+
+  void setPool(final DcamImageSequencePool pPool)
+  {
+    mPool = pPool;
+  }
+
   /**
    * Returns the parent Dcam device
    * 
@@ -173,6 +347,11 @@ public class DcamImageSequence implements
     return mDcamDevice;
   }
 
+  long getDeviceId()
+  {
+    return mDcamDevice.getDeviceID();
+  }
+
   /**
    * Returns the number of bytes per pixel
    * 
@@ -213,6 +392,18 @@ public class DcamImageSequence implements
     return mDepth;
   }
 
+  /**
+   * Returns the policy with which the memory of this image sequence was
+   * allocated. Image sequences wrapping externally allocated memory report
+   * {@link DcamAllocationPolicy#PAGE_ALIGNED}.
+   * 
+   * @return allocation policy
+   */
+  public final DcamAllocationPolicy getAllocationPolicy()
+  {
+    return mAllocationPolicy;
+  }
+
   /**
    * Sets this image sequence time stamp.
    * 
@@ -262,7 +453,12 @@ public class DcamImageSequence implements
 
   /**
    * Returns a Dcam image sequence for a single image of given index from this
-   * image sequence
+   * image sequence. Plane views are created once, on first use, and then
+   * shared: repeated calls return the same object, and involve neither
+   * allocation nor driver calls. Since they are shared, views are read-only:
+   * setting their time stamp, recycler or released state throws an
+   * {@link UnsupportedOperationException}, and freeing or releasing them does
+   * nothing, their memory belongs to this image sequence.
    * 
    * @param pIndex
    *          image index
@@ -270,15 +466,65 @@ public class DcamImageSequence implements
    */
   public DcamImageSequence getSinglePlaneImageSequence(final int pIndex)
   {
-    ContiguousMemoryInterface lMemory = getMemoryForPlane(pIndex);
-    DcamImageSequence lDcamImageSequence =
-                                         new DcamImageSequence(mDcamDevice,
-                                                               FragmentedMemory.wrap(lMemory),
-                                                               getBytesPerPixel(),
-                                                               getWidth(),
-                                                               getDepth(),
-                                                               1L);
-    return lDcamImageSequence;
+    DcamImageSequence[] lPlaneViews = mPlaneViews;
+    if (lPlaneViews == null)
+      lPlaneViews = createPlaneViews();
+    return lPlaneViews[pIndex];
+  }
+
+  private synchronized DcamImageSequence[] createPlaneViews()
+  {
+    DcamImageSequence[] lPlaneViews = mPlaneViews;
+    if (lPlaneViews == null)
+    {
+      lPlaneViews =
+                  new DcamImageSequence[mFragmentedMemory.getNumberOfFragments()];
+      for (int i = 0; i < lPlaneViews.length; i++)
+        lPlaneViews[i] = new PlaneView(this, i);
+      mPlaneViews = lPlaneViews;
+    }
+    return lPlaneViews;
+  }
+
+  /**
+   * Read-only view on a single plane of a parent image sequence
+   */
+  private static final class PlaneView extends DcamImageSequence
+  {
+    private PlaneView(final DcamImageSequence pParent, final int pIndex)
+    {
+      super(pParent, pIndex);
+    }
+
+    @Override
+    public void setTimeStampInNs(final long pTimeStampInNs)
+    {
+      throw new UnsupportedOperationException("Plane views are read-only");
+    }
+
+    @Override
+    public void setRecycler(RecyclerInterface<DcamImageSequence, DcamImageSequenceRequest> pRecycler)
+    {
+      throw new UnsupportedOperationException("Plane views are read-only");
+    }
+
+    @Override
+    public void setReleased(final boolean pIsReleased)
+    {
+      throw new UnsupportedOperationException("Plane views are read-only");
+    }
+
+    @Override
+    public void free()
+    {
+      // the plane belongs to the parent
+    }
+
+    @Override
+    public void release()
+    {
+      // the plane belongs to the parent
+    }
   }
 
   /**
@@ -344,6 +590,17 @@ public class DcamImageSequence implements
     return getNumberOfFragments() > 1;
   }
 
+  /**
+   * Returns whether the planes of this image sequence are regions of a memory
+   * mapped file
+   * 
+   * @return true: memory mapped, false otherwise
+   */
+  public boolean isMapped()
+  {
+    return false;
+  }
+
   @Override
   public long getSizeInBytes()
   {
@@ -353,7 +610,23 @@ public class DcamImageSequence implements
   @Override
   public void free()
   {
-    mFragmentedMemory.free();
+    // the driver must not keep writing into freed memory:
+    if (mDcamDevice != null)
+      mDcamDevice.getBufferControl().releaseBuffers(this);
+
+    if (mFragmentedMemory != null)
+      mFragmentedMemory.free();
+
+    final long lGovernedBytes;
+    synchronized (this)
+    {
+      lGovernedBytes = mGovernedBytes;
+      mGovernedBytes = 0;
+    }
+    if (lGovernedBytes > 0)
+      DcamMemoryGovernor.get().release(getDeviceId(),
+                                       lGovernedBytes,
+                                       mIsReleased);
   }
 
   @Override
@@ -398,8 +671,12 @@ public class DcamImageSequence implements
   }
 
   @Override
-  public void setReleased(boolean pIsReleased)
+  public synchronized void setReleased(boolean pIsReleased)
   {
+    if (mGovernedBytes > 0 && pIsReleased != mIsReleased)
+      DcamMemoryGovernor.get().setRecyclable(getDeviceId(),
+                                             mGovernedBytes,
+                                             pIsReleased);
     mIsReleased = pIsReleased;
   }
 
@@ -412,7 +689,9 @@ public class DcamImageSequence implements
   @Override
   public void release()
   {
-    if (mRecycler != null)
+    if (mPool != null)
+      mPool.release(this);
+    else if (mRecycler != null)
       mRecycler.release(this);
   }
 
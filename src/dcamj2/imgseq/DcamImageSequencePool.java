@@ -0,0 +1,549 @@
+package dcamj2.imgseq;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import coremem.fragmented.FragmentedMemory;
+import coremem.offheap.OffHeapMemory;
+import dcamj2.DcamDevice;
+import dcamj2.DcamException;
+
+/**
+ * Pool of image sequences with a memory budget. Unlike a recycler, which only
+ * reuses sequences that exactly match a request, the pool keeps contiguous
+ * memory slabs and carves each requested sequence out of the smallest idle
+ * slab that is large enough, so changing depth or ROI between acquisitions
+ * reuses the memory already allocated. New slabs are rounded up to size
+ * classes (at most 25% larger than needed) so that they fit nearby requests
+ * later on. When the allocated memory exceeds the budget, the least recently
+ * used idle slabs are freed. Slabs are also accounted by the process-wide
+ * {@link DcamMemoryGovernor}, with which the pool registers as a
+ * {@link DcamMemoryReclaimer}: when any allocation is short of memory, idle
+ * slabs are freed to make room. Before a slab is freed, the devices it was used with release
+ * it if they still hold it as attached buffers; this happens outside of the
+ * pool's lock, as it may stop a busy device. Sequences requested as
+ * fragmented have their planes aligned within the slab as if they were
+ * allocated independently.
+ *
+ * Sequences obtained from the pool are returned to it with
+ * {@link DcamImageSequence#release()}, and must not be freed directly.
+ * Memory mapped sequences are not pooled.
+ *
+ * @author royer
+ */
+public class DcamImageSequencePool implements DcamMemoryReclaimer
+{
+  private static final long cMinimalSlabSize = 4096;
+  private static final long cGovernorPollInMilliseconds = 10;
+
+  private static class Slab
+  {
+    final OffHeapMemory mMemory;
+    final long mCapacity;
+    // capacity and alignment padding, as accounted by the governor:
+    final long mGovernedBytes;
+    final DcamAllocationPolicy mAllocationPolicy;
+    // device the memory is accounted to by the governor:
+    long mDeviceId;
+    DcamImageSequence mSequence;
+    // whether mSequence was carved for a fragmented request:
+    boolean mFragmented;
+    // devices the slab has been used with, and that may hold its buffers:
+    final Set<DcamDevice> mDevices =
+                                   Collections.newSetFromMap(new IdentityHashMap<DcamDevice, Boolean>());
+
+    Slab(final OffHeapMemory pMemory,
+         final long pCapacity,
+         final DcamAllocationPolicy pAllocationPolicy,
+         final long pDeviceId)
+    {
+      mMemory = pMemory;
+      mCapacity = pCapacity;
+      mGovernedBytes = DcamImageSequence.getAllocatedSize(pCapacity,
+                                                          pAllocationPolicy);
+      mAllocationPolicy = pAllocationPolicy;
+      mDeviceId = pDeviceId;
+    }
+  }
+
+  // idle slabs, least recently used first:
+  private final ArrayDeque<Slab> mIdleSlabs = new ArrayDeque<>();
+  private final IdentityHashMap<DcamImageSequence, Slab> mSlabsInUse =
+                                                                     new IdentityHashMap<>();
+
+  private long mBudgetInBytes;
+  private long mAllocatedBytes;
+  private long mNumberOfEvictions;
+  private boolean mFreed;
+
+  /**
+   * Instantiates a pool with a given memory budget
+   * 
+   * @param pBudgetInBytes
+   *          maximal number of bytes allocated by this pool
+   */
+  public DcamImageSequencePool(final long pBudgetInBytes)
+  {
+    mBudgetInBytes = pBudgetInBytes;
+    DcamMemoryGovernor.get().addReclaimer(this);
+  }
+
+  /**
+   * Returns an image sequence for the given request, carved out of an idle
+   * slab or out of a newly allocated one.
+   * 
+   * @param pRequest
+   *          request
+   * @return image sequence, or null if the budget does not allow it
+   */
+  public DcamImageSequence getOrFail(final DcamImageSequenceRequest pRequest)
+  {
+    if (pRequest.getMappedDirectory() != null)
+      throw new DcamException("Memory mapped image sequences are not pooled");
+
+    synchronized (this)
+    {
+      complainIfFreed();
+      // fast path: a slab still holding a matching sequence:
+      for (Slab lSlab : mIdleSlabs)
+        if (lSlab.mSequence != null
+            && lSlab.mFragmented == pRequest.isFragmented()
+            && lSlab.mAllocationPolicy == pRequest.getAllocationPolicy()
+            && pRequest.hasGeometryOf(lSlab.mSequence))
+        {
+          mIdleSlabs.remove(lSlab);
+          return take(lSlab, lSlab.mSequence, true);
+        }
+    }
+
+    // width and height are adjusted by the device:
+    final DcamImageSequence lSequence =
+                                      new DcamImageSequence(pRequest.getDcamDevice(),
+                                                            null,
+                                                            pRequest.getBytesPerPixel(),
+                                                            pRequest.getWidth(),
+                                                            pRequest.getHeight(),
+                                                            pRequest.getDepth());
+    final long lSizeInBytes = getPlaneStride(lSequence,
+                                             pRequest.isFragmented(),
+                                             pRequest.getAllocationPolicy())
+                              * lSequence.getDepth();
+    final long lCapacity = getSizeClass(lSizeInBytes);
+    final long lGovernedBytes =
+                              DcamImageSequence.getAllocatedSize(lCapacity,
+                                                                 pRequest.getAllocationPolicy());
+
+    final List<Slab> lEvictedSlabs = new ArrayList<>();
+    synchronized (this)
+    {
+      complainIfFreed();
+      final Slab lBestFit = findBestFit(lSizeInBytes,
+                                        pRequest.getAllocationPolicy());
+      if (lBestFit != null)
+      {
+        mIdleSlabs.remove(lBestFit);
+        return carve(lBestFit, lSequence, pRequest.isFragmented(), true);
+      }
+
+      // only evict if that makes enough room:
+      long lIdleBytes = 0;
+      for (Slab lSlab : mIdleSlabs)
+        lIdleBytes += lSlab.mCapacity;
+      if (mAllocatedBytes - lIdleBytes + lCapacity > mBudgetInBytes)
+        return null;
+      while (mAllocatedBytes + lCapacity > mBudgetInBytes)
+        lEvictedSlabs.add(evict(mIdleSlabs.removeFirst()));
+
+      // the allocation happens outside of the lock, bytes are reserved:
+      mAllocatedBytes += lCapacity;
+    }
+    freeSlabs(lEvictedSlabs);
+
+    if (!reserveFromGovernor(lSequence.getDeviceId(), lGovernedBytes))
+    {
+      synchronized (this)
+      {
+        mAllocatedBytes -= lCapacity;
+      }
+      return null;
+    }
+
+    final Slab lSlab;
+    try
+    {
+      final OffHeapMemory lMemory =
+                                  DcamImageSequence.allocate("DcamImageSequencePool",
+                                                             lCapacity,
+                                                             pRequest.getAllocationPolicy());
+      if (pRequest.getAllocationPolicy().isPreTouched())
+        DcamMemoryAdvice.preTouch(new OffHeapMemory[]
+        { lMemory });
+      lSlab = new Slab(lMemory,
+                       lCapacity,
+                       pRequest.getAllocationPolicy(),
+                       lSequence.getDeviceId());
+    }
+    catch (RuntimeException e)
+    {
+      synchronized (this)
+      {
+        mAllocatedBytes -= lCapacity;
+      }
+      DcamMemoryGovernor.get().release(lSequence.getDeviceId(),
+                                       lGovernedBytes,
+                                       false);
+      throw e;
+    }
+
+    synchronized (this)
+    {
+      return carve(lSlab, lSequence, pRequest.isFragmented(), false);
+    }
+  }
+
+  /**
+   * Returns an image sequence for the given request, waiting for sequences in
+   * use to be released if the budget does not allow it right away.
+   * 
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time out unit
+   * @param pRequest
+   *          request
+   * @return image sequence, or null if none could be obtained in time
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  public DcamImageSequence getOrWait(final long pTimeOut,
+                                     final TimeUnit pTimeUnit,
+                                     final DcamImageSequenceRequest pRequest) throws InterruptedException
+  {
+    final long lDeadline = System.nanoTime() + pTimeUnit.toNanos(pTimeOut);
+    while (true)
+    {
+      final DcamImageSequence lSequence = getOrFail(pRequest);
+      if (lSequence != null)
+        return lSequence;
+
+      synchronized (this)
+      {
+        final long lRemaining = lDeadline - System.nanoTime();
+        if (lRemaining <= 0)
+          return null;
+        // memory can also be freed outside of this pool, so the wait is
+        // bounded:
+        TimeUnit.NANOSECONDS.timedWait(this,
+                                       Math.min(lRemaining,
+                                                TimeUnit.MILLISECONDS.toNanos(cGovernorPollInMilliseconds)));
+      }
+    }
+  }
+
+  /**
+   * Returns an image sequence to this pool. Called by
+   * {@link DcamImageSequence#release()}.
+   * 
+   * @param pSequence
+   *          image sequence
+   */
+  void release(final DcamImageSequence pSequence)
+  {
+    final List<Slab> lEvictedSlabs = new ArrayList<>();
+    synchronized (this)
+    {
+      final Slab lSlab = mSlabsInUse.remove(pSequence);
+      if (lSlab == null)
+        return;
+      pSequence.setReleased(true);
+      DcamMemoryGovernor.get().setRecyclable(lSlab.mDeviceId,
+                                             lSlab.mGovernedBytes,
+                                             true);
+
+      if (mFreed)
+        lEvictedSlabs.add(evict(lSlab));
+      else
+      {
+        mIdleSlabs.addLast(lSlab);
+        evictOverBudget(lEvictedSlabs);
+      }
+      notifyAll();
+    }
+    freeSlabs(lEvictedSlabs);
+  }
+
+  /**
+   * Sets the memory budget, idle slabs are freed if needed to meet it
+   * 
+   * @param pBudgetInBytes
+   *          maximal number of bytes allocated by this pool
+   */
+  public void setBudget(final long pBudgetInBytes)
+  {
+    final List<Slab> lEvictedSlabs = new ArrayList<>();
+    synchronized (this)
+    {
+      mBudgetInBytes = pBudgetInBytes;
+      evictOverBudget(lEvictedSlabs);
+    }
+    freeSlabs(lEvictedSlabs);
+  }
+
+  /**
+   * Returns the memory budget
+   * 
+   * @return maximal number of bytes allocated by this pool
+   */
+  public synchronized long getBudget()
+  {
+    return mBudgetInBytes;
+  }
+
+  /**
+   * Returns the number of bytes currently allocated, in use or idle
+   * 
+   * @return number of bytes allocated
+   */
+  public synchronized long getAllocatedBytes()
+  {
+    return mAllocatedBytes;
+  }
+
+  /**
+   * Returns the number of slabs, in use or idle
+   * 
+   * @return number of slabs
+   */
+  public synchronized int getNumberOfSlabs()
+  {
+    return mIdleSlabs.size() + mSlabsInUse.size();
+  }
+
+  /**
+   * Returns the number of idle slabs
+   * 
+   * @return number of idle slabs
+   */
+  public synchronized int getNumberOfIdleSlabs()
+  {
+    return mIdleSlabs.size();
+  }
+
+  /**
+   * Returns the number of slabs freed to stay within the budget
+   * 
+   * @return number of evictions
+   */
+  public synchronized long getNumberOfEvictions()
+  {
+    return mNumberOfEvictions;
+  }
+
+  /**
+   * Frees the least recently used idle slabs, called by the
+   * {@link DcamMemoryGovernor} when an allocation is short of memory.
+   * 
+   * @param pBytes
+   *          number of bytes needed
+   * @return number of bytes freed, as accounted by the governor
+   */
+  @Override
+  public long reclaim(final long pBytes)
+  {
+    final List<Slab> lEvictedSlabs = new ArrayList<>();
+    long lReclaimedBytes = 0;
+    synchronized (this)
+    {
+      while (lReclaimedBytes < pBytes && !mIdleSlabs.isEmpty())
+      {
+        final Slab lSlab = evict(mIdleSlabs.removeFirst());
+        lReclaimedBytes += lSlab.mGovernedBytes;
+        lEvictedSlabs.add(lSlab);
+      }
+    }
+    freeSlabs(lEvictedSlabs);
+    return lReclaimedBytes;
+  }
+
+  /**
+   * Frees all idle slabs. Slabs in use are freed when released.
+   */
+  public void free()
+  {
+    DcamMemoryGovernor.get().removeReclaimer(this);
+    final List<Slab> lEvictedSlabs = new ArrayList<>();
+    synchronized (this)
+    {
+      mFreed = true;
+      while (!mIdleSlabs.isEmpty())
+        lEvictedSlabs.add(evict(mIdleSlabs.removeFirst()));
+    }
+    freeSlabs(lEvictedSlabs);
+  }
+
+  private Slab findBestFit(final long pSizeInBytes,
+                           final DcamAllocationPolicy pAllocationPolicy)
+  {
+    Slab lBestFit = null;
+    for (Slab lSlab : mIdleSlabs)
+      if (lSlab.mAllocationPolicy == pAllocationPolicy
+          && lSlab.mCapacity >= pSizeInBytes
+          && (lBestFit == null || lSlab.mCapacity < lBestFit.mCapacity))
+        lBestFit = lSlab;
+    return lBestFit;
+  }
+
+  private DcamImageSequence carve(final Slab pSlab,
+                                  final DcamImageSequence pSequence,
+                                  final boolean pFragmented,
+                                  final boolean pWasIdle)
+  {
+    final long lPlaneSizeInBytes = pSequence.getBytesPerPixel()
+                                   * pSequence.getWidth()
+                                   * pSequence.getHeight();
+    final long lPlaneStride = getPlaneStride(pSequence,
+                                             pFragmented,
+                                             pSlab.mAllocationPolicy);
+    final FragmentedMemory lFragmentedMemory = new FragmentedMemory();
+    for (int i = 0; i < pSequence.getDepth(); i++)
+      lFragmentedMemory.add(pSlab.mMemory.subRegion(i * lPlaneStride,
+                                                    lPlaneSizeInBytes));
+    pSequence.setFragmentedMemory(lFragmentedMemory);
+    pSequence.setAllocationPolicy(pSlab.mAllocationPolicy);
+    pSequence.setPool(this);
+    pSlab.mSequence = pSequence;
+    pSlab.mFragmented = pFragmented;
+    return take(pSlab, pSequence, pWasIdle);
+  }
+
+  // planes of fragmented sequences are aligned as independent allocations
+  // would be, the others are laid out one after the other:
+  private static long getPlaneStride(final DcamImageSequence pSequence,
+                                     final boolean pFragmented,
+                                     final DcamAllocationPolicy pAllocationPolicy)
+  {
+    final long lPlaneSizeInBytes = pSequence.getBytesPerPixel()
+                                   * pSequence.getWidth()
+                                   * pSequence.getHeight();
+    if (!pFragmented)
+      return lPlaneSizeInBytes;
+    final long lAlignment =
+                          DcamImageSequence.getAlignment(lPlaneSizeInBytes,
+                                                         pAllocationPolicy);
+    return (lPlaneSizeInBytes + lAlignment - 1) / lAlignment * lAlignment;
+  }
+
+  // idle slabs, of this pool or others, are reclaimed by the governor:
+  private static boolean reserveFromGovernor(final long pDeviceId,
+                                             final long pGovernedBytes)
+  {
+    try
+    {
+      return DcamMemoryGovernor.get().reserve(pDeviceId,
+                                              pGovernedBytes,
+                                              0,
+                                              TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      // does not happen without waiting:
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private DcamImageSequence take(final Slab pSlab,
+                                 final DcamImageSequence pSequence,
+                                 final boolean pWasIdle)
+  {
+    if (pWasIdle)
+    {
+      final DcamMemoryGovernor lGovernor = DcamMemoryGovernor.get();
+      lGovernor.reassign(pSlab.mDeviceId,
+                         pSequence.getDeviceId(),
+                         pSlab.mGovernedBytes);
+      pSlab.mDeviceId = pSequence.getDeviceId();
+      lGovernor.setRecyclable(pSlab.mDeviceId,
+                              pSlab.mGovernedBytes,
+                              false);
+    }
+    pSlab.mDevices.add(pSequence.getDcamDevice());
+    mSlabsInUse.put(pSequence, pSlab);
+    pSequence.setReleased(false);
+    return pSequence;
+  }
+
+  private void evictOverBudget(final List<Slab> pEvictedSlabs)
+  {
+    while (mAllocatedBytes > mBudgetInBytes && !mIdleSlabs.isEmpty())
+      pEvictedSlabs.add(evict(mIdleSlabs.removeFirst()));
+  }
+
+  // Called with the lock held, the evicted slab is no longer reachable and
+  // is freed with freeSlab(...) once the lock is released:
+  private Slab evict(final Slab pSlab)
+  {
+    pSlab.mSequence = null;
+    mAllocatedBytes -= pSlab.mCapacity;
+    mNumberOfEvictions++;
+    return pSlab;
+  }
+
+  private static void freeSlabs(final List<Slab> pSlabs)
+  {
+    for (Slab lSlab : pSlabs)
+      freeSlab(lSlab);
+  }
+
+  private static void freeSlab(final Slab pSlab)
+  {
+    for (DcamDevice lDcamDevice : pSlab.mDevices)
+      lDcamDevice.getBufferControl()
+                 .releaseBuffersWithin(pSlab.mMemory.getAddress(),
+                                       pSlab.mCapacity);
+    pSlab.mMemory.free();
+    DcamMemoryGovernor.get().release(pSlab.mDeviceId,
+                                     pSlab.mGovernedBytes,
+                                     true);
+  }
+
+  private void complainIfFreed()
+  {
+    if (mFreed)
+      throw new DcamException("Image sequence pool has been freed");
+  }
+
+  /**
+   * Rounds a size up to its size class: sizes between two consecutive powers
+   * of two are rounded up to a quarter of the lower one.
+   * 
+   * @param pSizeInBytes
+   *          size in bytes
+   * @return size class in bytes
+   */
+  static long getSizeClass(final long pSizeInBytes)
+  {
+    if (pSizeInBytes <= cMinimalSlabSize)
+      return cMinimalSlabSize;
+    final long lStep = Math.max(cMinimalSlabSize,
+                                Long.highestOneBit(pSizeInBytes - 1) / 4);
+    return (pSizeInBytes + lStep - 1) / lStep * lStep;
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return String.format("DcamImageSequencePool [mBudgetInBytes=%d, mAllocatedBytes=%d, slabs=%d, idle=%d, mNumberOfEvictions=%d]",
+                         mBudgetInBytes,
+                         mAllocatedBytes,
+                         getNumberOfSlabs(),
+                         mIdleSlabs.size(),
+                         mNumberOfEvictions);
+  }
+
+}
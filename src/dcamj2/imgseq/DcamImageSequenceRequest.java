@@ -1,7 +1,11 @@
 package dcamj2.imgseq;
 
+import java.io.File;
+import java.io.IOException;
+
 import coremem.recycling.RecyclerRequestInterface;
 import dcamj2.DcamDevice;
+import dcamj2.DcamException;
 
 /**
  * Dcam image sequence request. Describes a requested image sequence
@@ -14,6 +18,8 @@ public class DcamImageSequenceRequest implements
   private DcamDevice mDcamDevice;
   private final long mBytesPerPixel, mWidth, mHeight, mDepth;
   private final boolean mFragmented;
+  private final DcamAllocationPolicy mAllocationPolicy;
+  private final File mMappedDirectory;
 
   /**
    * Instantiates a Dcam image sequence request
@@ -47,6 +53,77 @@ public class DcamImageSequenceRequest implements
                                         pFragmented);
   }
 
+  /**
+   * Instantiates a Dcam image sequence request
+   * 
+   * @param pDcamDevice
+   *          parent Dcam device
+   * @param pBytesPerPixel
+   *          bytes per pixel
+   * @param pWidth
+   *          width
+   * @param pHeight
+   *          height
+   * @param pDepth
+   *          depth
+   * @param pFragmented
+   *          'is-fragmented' flag
+   * @param pAllocationPolicy
+   *          allocation policy
+   * @return request
+   */
+  public static DcamImageSequenceRequest build(DcamDevice pDcamDevice,
+                                               long pBytesPerPixel,
+                                               long pWidth,
+                                               long pHeight,
+                                               long pDepth,
+                                               boolean pFragmented,
+                                               DcamAllocationPolicy pAllocationPolicy)
+  {
+    return new DcamImageSequenceRequest(pDcamDevice,
+                                        pBytesPerPixel,
+                                        pWidth,
+                                        pHeight,
+                                        pDepth,
+                                        pFragmented,
+                                        pAllocationPolicy);
+  }
+
+  /**
+   * Instantiates a request for image sequences backed by memory mapped files.
+   * New sequences are backed by new files created in the given directory.
+   * 
+   * @param pDcamDevice
+   *          parent Dcam device
+   * @param pBytesPerPixel
+   *          bytes per pixel
+   * @param pWidth
+   *          width
+   * @param pHeight
+   *          height
+   * @param pDepth
+   *          depth
+   * @param pDirectory
+   *          directory in which files are created
+   * @return request
+   */
+  public static DcamImageSequenceRequest buildMapped(DcamDevice pDcamDevice,
+                                                     long pBytesPerPixel,
+                                                     long pWidth,
+                                                     long pHeight,
+                                                     long pDepth,
+                                                     File pDirectory)
+  {
+    return new DcamImageSequenceRequest(pDcamDevice,
+                                        pBytesPerPixel,
+                                        pWidth,
+                                        pHeight,
+                                        pDepth,
+                                        true,
+                                        DcamAllocationPolicy.PAGE_ALIGNED,
+                                        pDirectory);
+  }
+
   /**
    * Instantiates a Dcam image sequence request
    * 
@@ -69,6 +146,60 @@ public class DcamImageSequenceRequest implements
                                   long pHeight,
                                   long pDepth,
                                   boolean pFragmented)
+  {
+    this(pDcamDevice,
+         pBytesPerPixel,
+         pWidth,
+         pHeight,
+         pDepth,
+         pFragmented,
+         DcamAllocationPolicy.PAGE_ALIGNED);
+  }
+
+  /**
+   * Instantiates a Dcam image sequence request
+   * 
+   * @param pDcamDevice
+   *          parent Dcam device
+   * @param pBytesPerPixel
+   *          bytes per pixel
+   * @param pWidth
+   *          width
+   * @param pHeight
+   *          height
+   * @param pDepth
+   *          depth
+   * @param pFragmented
+   *          'is-fragmented' flag
+   * @param pAllocationPolicy
+   *          allocation policy
+   */
+  public DcamImageSequenceRequest(DcamDevice pDcamDevice,
+                                  long pBytesPerPixel,
+                                  long pWidth,
+                                  long pHeight,
+                                  long pDepth,
+                                  boolean pFragmented,
+                                  DcamAllocationPolicy pAllocationPolicy)
+  {
+    this(pDcamDevice,
+         pBytesPerPixel,
+         pWidth,
+         pHeight,
+         pDepth,
+         pFragmented,
+         pAllocationPolicy,
+         null);
+  }
+
+  private DcamImageSequenceRequest(DcamDevice pDcamDevice,
+                                   long pBytesPerPixel,
+                                   long pWidth,
+                                   long pHeight,
+                                   long pDepth,
+                                   boolean pFragmented,
+                                   DcamAllocationPolicy pAllocationPolicy,
+                                   File pMappedDirectory)
   {
     super();
     mDcamDevice = pDcamDevice;
@@ -77,6 +208,89 @@ public class DcamImageSequenceRequest implements
     mHeight = pHeight;
     mDepth = pDepth;
     mFragmented = pFragmented;
+    mAllocationPolicy = pAllocationPolicy;
+    mMappedDirectory = pMappedDirectory;
+  }
+
+  /**
+   * Returns the parent Dcam device
+   * 
+   * @return parent Dcam device
+   */
+  public DcamDevice getDcamDevice()
+  {
+    return mDcamDevice;
+  }
+
+  /**
+   * Returns the requested number of bytes per pixel
+   * 
+   * @return bytes per pixel
+   */
+  public long getBytesPerPixel()
+  {
+    return mBytesPerPixel;
+  }
+
+  /**
+   * Returns the requested width
+   * 
+   * @return width
+   */
+  public long getWidth()
+  {
+    return mWidth;
+  }
+
+  /**
+   * Returns the requested height
+   * 
+   * @return height
+   */
+  public long getHeight()
+  {
+    return mHeight;
+  }
+
+  /**
+   * Returns the requested depth
+   * 
+   * @return depth
+   */
+  public long getDepth()
+  {
+    return mDepth;
+  }
+
+  /**
+   * Returns whether a fragmented sequence is acceptable
+   * 
+   * @return 'is-fragmented' flag
+   */
+  public boolean isFragmented()
+  {
+    return mFragmented;
+  }
+
+  /**
+   * Returns the requested allocation policy
+   * 
+   * @return allocation policy
+   */
+  public DcamAllocationPolicy getAllocationPolicy()
+  {
+    return mAllocationPolicy;
+  }
+
+  /**
+   * Returns the directory in which files backing memory mapped sequences are
+   * created
+   * 
+   * @return directory, null if sequences are not memory mapped
+   */
+  public File getMappedDirectory()
+  {
+    return mMappedDirectory;
   }
 
   /**
@@ -87,13 +301,35 @@ public class DcamImageSequenceRequest implements
    * @return true: compatible, false otherwise
    */
   public boolean isCompatible(DcamImageSequence pDcamImageSequence)
+  {
+    if (!hasGeometryOf(pDcamImageSequence))
+      return false;
+
+    if (mMappedDirectory != null)
+      return pDcamImageSequence.isMapped()
+             && mMappedDirectory.equals(((DcamMappedImageSequence) pDcamImageSequence).getFile()
+                                                                                       .getParentFile());
+
+    return !pDcamImageSequence.isMapped()
+           && mFragmented == pDcamImageSequence.isFragmented()
+           && mAllocationPolicy == pDcamImageSequence.getAllocationPolicy();
+  }
+
+  /**
+   * Returns whether the given image sequence has the device, bytes per pixel,
+   * width, height and depth of this request
+   * 
+   * @param pDcamImageSequence
+   *          image sequence
+   * @return true: same geometry, false otherwise
+   */
+  boolean hasGeometryOf(DcamImageSequence pDcamImageSequence)
   {
     return mDcamDevice == pDcamImageSequence.getDcamDevice()
            && mBytesPerPixel == pDcamImageSequence.getBytesPerPixel()
            && mWidth == pDcamImageSequence.getWidth()
            && mHeight == pDcamImageSequence.getHeight()
-           && mDepth == pDcamImageSequence.getDepth()
-           && mFragmented == pDcamImageSequence.isFragmented();
+           && mDepth == pDcamImageSequence.getDepth();
   }
 
   /**
@@ -103,25 +339,53 @@ public class DcamImageSequenceRequest implements
    */
   public DcamImageSequence newImageSequence()
   {
+    if (mMappedDirectory != null)
+      return newMappedImageSequence();
+
     DcamImageSequence lSequence = new DcamImageSequence(mDcamDevice,
                                                         mBytesPerPixel,
                                                         mWidth,
                                                         mHeight,
                                                         mDepth,
-                                                        mFragmented);
+                                                        mFragmented,
+                                                        mAllocationPolicy);
     return lSequence;
   }
 
+  private DcamImageSequence newMappedImageSequence()
+  {
+    final File lFile;
+    try
+    {
+      lFile = File.createTempFile("DcamImageSequence",
+                                  ".raw",
+                                  mMappedDirectory);
+    }
+    catch (IOException e)
+    {
+      throw new DcamException("Could not create file in: "
+                              + mMappedDirectory, e);
+    }
+    return new DcamMappedImageSequence(mDcamDevice,
+                                       lFile,
+                                       mBytesPerPixel,
+                                       mWidth,
+                                       mHeight,
+                                       mDepth);
+  }
+
   @Override
   public String toString()
   {
-    return String.format("DcamImageSequenceRequest [mDcamDevice=%s, mBytesPerPixel=%s, mWidth=%s, mHeight=%s, mDepth=%s, mFragmented=%s]",
+    return String.format("DcamImageSequenceRequest [mDcamDevice=%s, mBytesPerPixel=%s, mWidth=%s, mHeight=%s, mDepth=%s, mFragmented=%s, mAllocationPolicy=%s, mMappedDirectory=%s]",
                          mDcamDevice,
                          mBytesPerPixel,
                          mWidth,
                          mHeight,
                          mDepth,
-                         mFragmented);
+                         mFragmented,
+                         mAllocationPolicy,
+                         mMappedDirectory);
   }
 
 }
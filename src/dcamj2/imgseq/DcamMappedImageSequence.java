@@ -0,0 +1,302 @@
+package dcamj2.imgseq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import coremem.fragmented.FragmentedMemory;
+import coremem.offheap.OffHeapMemory;
+import dcamj2.DcamDevice;
+import dcamj2.DcamException;
+
+/**
+ * Dcam image sequence backed by a memory mapped file. Each plane is a page
+ * aligned region of the file, so the driver writes frames directly into the
+ * page cache and persisting a sequence only requires flushing it, instead of
+ * copying it to disk after acquisition. Note that this does not let a sequence
+ * exceed the available memory: while attached to a device, the driver pins
+ * all of its pages. Once flushed and detached, clean pages can be evicted by
+ * the kernel as needed.
+ * 
+ * The file is not deleted when the sequence is freed. Freeing releases the
+ * sequence from the driver if it is attached, and unmaps the file right away
+ * where the runtime allows it. Otherwise the mappings live until garbage
+ * collected, and on Windows the file can not be resized or mapped again
+ * until then: do not reuse its path for a new sequence in that case. A sequence that is
+ * released to a recycler will be reused for a later acquisition, which
+ * overwrites its file: release it only once its contents have been flushed
+ * and are no longer needed, otherwise just free it.
+ *
+ * @author royer
+ */
+public class DcamMappedImageSequence extends DcamImageSequence
+{
+  private static final long cPlaneAlignment = 4096;
+
+  // FileChannel.map is limited to 2 GB per mapping:
+  private static final long cMaximalMappingSize = 1L << 30;
+
+  private static final ExecutorService cFlushExecutor =
+                                                      Executors.newSingleThreadExecutor(r -> {
+                                                        Thread lThread =
+                                                                       new Thread(r,
+                                                                                  "DcamMappedImageSequenceFlush");
+                                                        lThread.setDaemon(true);
+                                                        return lThread;
+                                                      });
+
+  private static final Unmapper cUnmapper = Unmapper.create();
+
+  private final File mFile;
+  private final long mPlaneStrideInBytes;
+  private volatile RandomAccessFile mRandomAccessFile;
+  private volatile MappedByteBuffer[] mMappings;
+
+  /**
+   * Instantiates a file backed Dcam image sequence given the file, number of
+   * bytes per pixel, and image sequence width, height and depth. The file is
+   * created if needed, and resized to hold the whole sequence.
+   * 
+   * @param pDcamDevice
+   *          device to use for acquisition, this is used to adjust height and
+   *          width
+   * @param pFile
+   *          file backing the image sequence
+   * @param pBytesPerPixel
+   *          bytes per pixel/voxel
+   * @param pWidth
+   *          width
+   * @param pHeight
+   *          height
+   * @param pDepth
+   *          depth
+   */
+  public DcamMappedImageSequence(DcamDevice pDcamDevice,
+                                 final File pFile,
+                                 final long pBytesPerPixel,
+                                 final long pWidth,
+                                 final long pHeight,
+                                 final long pDepth)
+  {
+    super(pDcamDevice, null, pBytesPerPixel, pWidth, pHeight, pDepth);
+    mFile = pFile;
+
+    final long lPlaneSizeInBytes = getBytesPerPixel() * getWidth()
+                                   * getHeight();
+    mPlaneStrideInBytes = (lPlaneSizeInBytes + cPlaneAlignment - 1)
+                          / cPlaneAlignment
+                          * cPlaneAlignment;
+    final long lPlanesPerMapping =
+                                 Math.max(1,
+                                          cMaximalMappingSize
+                                             / mPlaneStrideInBytes);
+    final int lNumberOfMappings =
+                                (int) ((pDepth + lPlanesPerMapping - 1)
+                                       / lPlanesPerMapping);
+
+    try
+    {
+      mRandomAccessFile = new RandomAccessFile(pFile, "rw");
+      mRandomAccessFile.setLength(pDepth * mPlaneStrideInBytes);
+      final FileChannel lChannel = mRandomAccessFile.getChannel();
+
+      mMappings = new MappedByteBuffer[lNumberOfMappings];
+      final FragmentedMemory lFragmentedMemory = new FragmentedMemory();
+      for (int m = 0; m < lNumberOfMappings; m++)
+      {
+        final long lFirstPlane = m * lPlanesPerMapping;
+        final long lNumberOfPlanes =
+                                   Math.min(lPlanesPerMapping,
+                                            pDepth - lFirstPlane);
+        mMappings[m] =
+                     lChannel.map(MapMode.READ_WRITE,
+                                  lFirstPlane * mPlaneStrideInBytes,
+                                  lNumberOfPlanes * mPlaneStrideInBytes);
+        final OffHeapMemory lMappedMemory =
+                                          OffHeapMemory.wrapBuffer(mMappings[m]);
+        for (int p = 0; p < lNumberOfPlanes; p++)
+          lFragmentedMemory.add(lMappedMemory.subRegion(p
+                                                        * mPlaneStrideInBytes,
+                                                        lPlaneSizeInBytes));
+      }
+      setFragmentedMemory(lFragmentedMemory);
+    }
+    catch (IOException e)
+    {
+      closeFile();
+      throw new DcamException("Could not map file: " + pFile, e);
+    }
+  }
+
+  /**
+   * Returns the file backing this image sequence
+   * 
+   * @return file
+   */
+  public File getFile()
+  {
+    return mFile;
+  }
+
+  /**
+   * Returns the distance in bytes between the start of consecutive planes in
+   * the file. Planes are page aligned, so this is the plane size rounded up to
+   * a multiple of 4096 bytes.
+   * 
+   * @return plane stride in bytes
+   */
+  public long getPlaneStrideInBytes()
+  {
+    return mPlaneStrideInBytes;
+  }
+
+  @Override
+  public boolean isMapped()
+  {
+    return true;
+  }
+
+  /**
+   * Writes the contents of this image sequence back to the file, and waits for
+   * completion.
+   */
+  public synchronized void flush()
+  {
+    final MappedByteBuffer[] lMappings = mMappings;
+    if (lMappings == null)
+      return;
+    for (MappedByteBuffer lMapping : lMappings)
+      lMapping.force();
+  }
+
+  /**
+   * Writes the contents of this image sequence back to the file on a
+   * background thread. Flushes are done one after the other, in the order in
+   * which they are requested.
+   * 
+   * @return future completed when the contents have been written back
+   */
+  public CompletableFuture<Void> flushAsync()
+  {
+    return CompletableFuture.runAsync(this::flush, cFlushExecutor);
+  }
+
+  /**
+   * Frees this image sequence, after releasing it from the driver if attached,
+   * unmaps and closes its file. The file itself is kept. If the runtime does
+   * not allow unmapping explicitly, the mappings are unmapped by the garbage
+   * collector once unreachable.
+   */
+  @Override
+  public void free()
+  {
+    super.free();
+    final MappedByteBuffer[] lMappings;
+    // waits for a flush in progress:
+    synchronized (this)
+    {
+      lMappings = mMappings;
+      mMappings = null;
+    }
+    closeFile();
+    if (lMappings != null)
+      for (MappedByteBuffer lMapping : lMappings)
+        cUnmapper.unmap(lMapping);
+  }
+
+  private void closeFile()
+  {
+    final RandomAccessFile lRandomAccessFile = mRandomAccessFile;
+    mRandomAccessFile = null;
+    if (lRandomAccessFile != null)
+      try
+      {
+        lRandomAccessFile.close();
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+      }
+  }
+
+  /**
+   * Unmaps mapped buffers explicitly, through the cleaner of the buffer. There
+   * is no public API for this, so it is looked up once by reflection:
+   * Unsafe.invokeCleaner on Java 9 and later, the buffer's own cleaner on Java
+   * 8. If neither is available unmapping is left to the garbage collector.
+   */
+  private static class Unmapper
+  {
+    private final Object mUnsafe;
+    private final Method mInvokeCleaner;
+
+    private Unmapper(final Object pUnsafe, final Method pInvokeCleaner)
+    {
+      mUnsafe = pUnsafe;
+      mInvokeCleaner = pInvokeCleaner;
+    }
+
+    static Unmapper create()
+    {
+      try
+      {
+        final Class<?> lUnsafeClass = Class.forName("sun.misc.Unsafe");
+        final Method lInvokeCleaner =
+                                    lUnsafeClass.getMethod("invokeCleaner",
+                                                           ByteBuffer.class);
+        final Field lField = lUnsafeClass.getDeclaredField("theUnsafe");
+        lField.setAccessible(true);
+        return new Unmapper(lField.get(null), lInvokeCleaner);
+      }
+      catch (Throwable e)
+      {
+        // Java 8, the cleaner is reached through the buffer:
+        return new Unmapper(null, null);
+      }
+    }
+
+    void unmap(final MappedByteBuffer pBuffer)
+    {
+      try
+      {
+        if (mInvokeCleaner != null)
+          mInvokeCleaner.invoke(mUnsafe, pBuffer);
+        else
+        {
+          final Method lCleanerMethod = pBuffer.getClass()
+                                               .getMethod("cleaner");
+          lCleanerMethod.setAccessible(true);
+          final Object lCleaner = lCleanerMethod.invoke(pBuffer);
+          if (lCleaner != null)
+            lCleaner.getClass().getMethod("clean").invoke(lCleaner);
+        }
+      }
+      catch (Throwable e)
+      {
+        // left to the garbage collector
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("DcamMappedImageSequence [mFile=%s, mBytesPerPixel=%d, mWidth=%d, mHeight=%d, mDepth=%d, mTimeStampInNs=%d]",
+                         mFile,
+                         getBytesPerPixel(),
+                         getWidth(),
+                         getHeight(),
+                         getDepth(),
+                         getTimeStampInNs());
+  }
+
+}
@@ -0,0 +1,116 @@
+package dcamj2.imgseq;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import coremem.ContiguousMemoryInterface;
+
+import org.bridj.BridJ;
+import org.bridj.CRuntime;
+import org.bridj.Platform;
+import org.bridj.Pointer;
+import org.bridj.ann.Library;
+import org.bridj.ann.Ptr;
+import org.bridj.ann.Runtime;
+
+/**
+ * Memory advice and pre-faulting for image sequence allocations.
+ *
+ * @author royer
+ */
+class DcamMemoryAdvice
+{
+  private static final int cTouchStride = 4096;
+  private static final long cTouchChunk = 2 * 1024 * 1024;
+
+  // from linux/mman.h:
+  private static final int MADV_HUGEPAGE = 14;
+
+  private static volatile boolean sAdviceAvailable = Platform.isLinux();
+
+  /**
+   * Advises the kernel to back the given memory with transparent huge pages.
+   * This is best effort: it does nothing on platforms other than Linux, and
+   * failures are ignored. If madvise can not be called at all, this is
+   * reported once and the advice is not attempted again.
+   * 
+   * @param pMemory
+   *          memory
+   * @return true: advice accepted, false otherwise
+   */
+  static boolean adviseHugePages(final ContiguousMemoryInterface pMemory)
+  {
+    if (!sAdviceAvailable)
+      return false;
+    try
+    {
+      return Libc.madvise(pMemory.getAddress(),
+                          pMemory.getSizeInBytes(),
+                          MADV_HUGEPAGE) == 0;
+    }
+    catch (Throwable e)
+    {
+      if (sAdviceAvailable)
+      {
+        sAdviceAvailable = false;
+        System.err.println("DCAMJ2: huge page advice not available: "
+                           + e);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Touches every page of the given memory regions, in parallel, so that they
+   * are resident before the driver writes to them. The contents of the
+   * regions are not preserved.
+   * 
+   * @param pMemories
+   *          memory regions
+   */
+  static void preTouch(final ContiguousMemoryInterface[] pMemories)
+  {
+    long lTotalChunks = 0;
+    final long[] lFirstChunk = new long[pMemories.length + 1];
+    for (int i = 0; i < pMemories.length; i++)
+    {
+      lFirstChunk[i] = lTotalChunks;
+      lTotalChunks += (pMemories[i].getSizeInBytes() + cTouchChunk - 1)
+                      / cTouchChunk;
+    }
+    lFirstChunk[pMemories.length] = lTotalChunks;
+
+    IntStream.range(0, (int) lTotalChunks).parallel().forEach(c -> {
+      int lIndex = Arrays.binarySearch(lFirstChunk, 0, pMemories.length, c);
+      if (lIndex < 0)
+        lIndex = -lIndex - 2;
+      final ContiguousMemoryInterface lMemory = pMemories[lIndex];
+      final Pointer<Byte> lPointer = lMemory.getBridJPointer(Byte.class);
+      final long lStart = (c - lFirstChunk[lIndex]) * cTouchChunk;
+      final long lEnd = Math.min(lStart + cTouchChunk,
+                                 lMemory.getSizeInBytes());
+      touch(lPointer, lStart, lEnd);
+    });
+  }
+
+  @SuppressWarnings("deprecation")
+  private static void touch(final Pointer<Byte> pPointer,
+                            final long pStart,
+                            final long pEnd)
+  {
+    for (long lOffset = pStart; lOffset < pEnd; lOffset += cTouchStride)
+      pPointer.setByteAtOffset(lOffset, (byte) 0);
+  }
+
+  @Library("c")
+  @Runtime(CRuntime.class)
+  private static class Libc
+  {
+    static
+    {
+      BridJ.register();
+    }
+
+    static native int madvise(@Ptr long addr, @Ptr long length, int advice);
+  }
+}
@@ -0,0 +1,434 @@
+package dcamj2.imgseq;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import dcamj2.DcamException;
+import dcamj2.DcamLibrary;
+
+/**
+ * Process-wide governor of the memory allocated for image sequences, across
+ * all devices. Allocations made by {@link DcamImageSequence} and
+ * {@link DcamImageSequencePool} reserve their bytes here first: when the
+ * ceiling would be exceeded, the registered {@link DcamMemoryReclaimer}s are
+ * asked to free idle memory, and otherwise the allocating thread waits for
+ * memory to be freed or released elsewhere, up to a time out, instead of
+ * overcommitting. The ceiling and time
+ * out are taken from the {@link DcamLibrary#cMemoryCeilingProperty} and
+ * {@link DcamLibrary#cMemoryTimeOutProperty} system properties, the default
+ * ceiling is unlimited. Allocated, in-use and recyclable bytes are accounted
+ * per device and published through JMX (dcamj2:type=DcamMemoryGovernor).
+ * Memory mapped sequences are backed by the page cache and are not governed.
+ *
+ * @author royer
+ */
+public class DcamMemoryGovernor implements DcamMemoryGovernorMXBean
+{
+  /**
+   * JMX object name of the governor
+   */
+  public static final String cObjectName = "dcamj2:type=DcamMemoryGovernor";
+
+  private static final long cDefaultTimeOutInMilliseconds = 10000;
+
+  private static class Holder
+  {
+    static final DcamMemoryGovernor cInstance = new DcamMemoryGovernor();
+    static
+    {
+      cInstance.registerMXBean();
+    }
+  }
+
+  private static class DeviceUsage
+  {
+    long mAllocatedBytes;
+    long mInUseBytes;
+    long mRecyclableBytes;
+  }
+
+  private final TreeMap<Long, DeviceUsage> mUsage = new TreeMap<>();
+  private final CopyOnWriteArrayList<DcamMemoryReclaimer> mReclaimers =
+                                                                      new CopyOnWriteArrayList<>();
+
+  private long mCeilingInBytes;
+  private long mTimeOutInMilliseconds;
+  private long mAllocatedBytes;
+  private long mInUseBytes;
+  private long mRecyclableBytes;
+  private long mWaits;
+  private long mTimeOuts;
+
+  private DcamMemoryGovernor()
+  {
+    mCeilingInBytes =
+                    Long.getLong(DcamLibrary.cMemoryCeilingProperty,
+                                 Long.MAX_VALUE);
+    mTimeOutInMilliseconds =
+                           Long.getLong(DcamLibrary.cMemoryTimeOutProperty,
+                                        cDefaultTimeOutInMilliseconds);
+  }
+
+  /**
+   * Returns the process-wide governor
+   *
+   * @return governor
+   */
+  public static DcamMemoryGovernor get()
+  {
+    return Holder.cInstance;
+  }
+
+  /**
+   * Registers this governor with the platform MBean server.
+   */
+  public void registerMXBean()
+  {
+    try
+    {
+      final MBeanServer lServer = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName lName = new ObjectName(cObjectName);
+      if (lServer.isRegistered(lName))
+        lServer.unregisterMBean(lName);
+      lServer.registerMBean(this, lName);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Registers a reclaimer, asked to free idle memory before allocations wait
+   *
+   * @param pReclaimer
+   *          reclaimer
+   */
+  public void addReclaimer(final DcamMemoryReclaimer pReclaimer)
+  {
+    mReclaimers.addIfAbsent(pReclaimer);
+  }
+
+  /**
+   * Unregisters a reclaimer
+   *
+   * @param pReclaimer
+   *          reclaimer
+   */
+  public void removeReclaimer(final DcamMemoryReclaimer pReclaimer)
+  {
+    mReclaimers.remove(pReclaimer);
+  }
+
+  @Override
+  public synchronized long getCeiling()
+  {
+    return mCeilingInBytes;
+  }
+
+  @Override
+  public synchronized void setCeiling(final long pCeilingInBytes)
+  {
+    mCeilingInBytes = pCeilingInBytes;
+    notifyAll();
+  }
+
+  /**
+   * Returns how long allocations wait for memory before failing
+   *
+   * @return time out in milliseconds
+   */
+  public synchronized long getTimeOutInMilliseconds()
+  {
+    return mTimeOutInMilliseconds;
+  }
+
+  /**
+   * Sets how long allocations wait for memory before failing
+   *
+   * @param pTimeOutInMilliseconds
+   *          time out in milliseconds
+   */
+  public synchronized void setTimeOutInMilliseconds(final long pTimeOutInMilliseconds)
+  {
+    mTimeOutInMilliseconds = pTimeOutInMilliseconds;
+  }
+
+  @Override
+  public synchronized long getAllocatedBytes()
+  {
+    return mAllocatedBytes;
+  }
+
+  @Override
+  public synchronized long getInUseBytes()
+  {
+    return mInUseBytes;
+  }
+
+  @Override
+  public synchronized long getRecyclableBytes()
+  {
+    return mRecyclableBytes;
+  }
+
+  @Override
+  public synchronized long getWaits()
+  {
+    return mWaits;
+  }
+
+  @Override
+  public synchronized long getTimeOuts()
+  {
+    return mTimeOuts;
+  }
+
+  @Override
+  public synchronized List<DcamMemoryUsage> getUsage()
+  {
+    final ArrayList<DcamMemoryUsage> lUsageList = new ArrayList<>();
+    for (Long lDeviceId : mUsage.keySet())
+      lUsageList.add(getUsage(lDeviceId));
+    return lUsageList;
+  }
+
+  /**
+   * Returns the memory usage of a given device
+   *
+   * @param pDeviceId
+   *          device id (index)
+   * @return usage
+   */
+  public synchronized DcamMemoryUsage getUsage(final long pDeviceId)
+  {
+    final DeviceUsage lUsage = mUsage.get(pDeviceId);
+    if (lUsage == null)
+      return new DcamMemoryUsage(pDeviceId, 0, 0, 0);
+    return new DcamMemoryUsage(pDeviceId,
+                               lUsage.mAllocatedBytes,
+                               lUsage.mInUseBytes,
+                               lUsage.mRecyclableBytes);
+  }
+
+  /**
+   * Reserves memory for a sequence in use, waiting up to the configured time
+   * out for memory to be freed if needed.
+   *
+   * @param pDeviceId
+   *          device id (index)
+   * @param pBytes
+   *          number of bytes
+   * @throws DcamException
+   *           if the memory could not be reserved in time
+   */
+  void reserveOrFail(final long pDeviceId, final long pBytes)
+  {
+    final long lTimeOut = getTimeOutInMilliseconds();
+    try
+    {
+      if (reserve(pDeviceId, pBytes, lTimeOut, TimeUnit.MILLISECONDS))
+        return;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    throw new DcamException(String.format("Could not allocate %d bytes for device %d within %d ms: %d of %d bytes allocated",
+                                          pBytes,
+                                          pDeviceId,
+                                          lTimeOut,
+                                          getAllocatedBytes(),
+                                          getCeiling()));
+  }
+
+  /**
+   * Reserves memory for a sequence in use, reclaiming idle memory and then
+   * waiting up to the given time out for memory to be freed if needed.
+   *
+   * @param pDeviceId
+   *          device id (index)
+   * @param pBytes
+   *          number of bytes
+   * @param pTimeOut
+   *          time out, 0 to not wait
+   * @param pTimeUnit
+   *          time out unit
+   * @return true: reserved, false: timed out
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  boolean reserve(final long pDeviceId,
+                  final long pBytes,
+                  final long pTimeOut,
+                  final TimeUnit pTimeUnit) throws InterruptedException
+  {
+    final long lDeadline = System.nanoTime() + pTimeUnit.toNanos(pTimeOut);
+    boolean lWaited = false;
+    while (true)
+    {
+      final long lMissingBytes;
+      synchronized (this)
+      {
+        lMissingBytes = mAllocatedBytes + pBytes - mCeilingInBytes;
+        if (lMissingBytes <= 0)
+        {
+          final DeviceUsage lUsage = getDeviceUsage(pDeviceId);
+          lUsage.mAllocatedBytes += pBytes;
+          lUsage.mInUseBytes += pBytes;
+          mAllocatedBytes += pBytes;
+          mInUseBytes += pBytes;
+          return true;
+        }
+      }
+
+      // reclaimers free memory through release(), the lock is not held:
+      if (reclaim(lMissingBytes) > 0)
+        continue;
+
+      synchronized (this)
+      {
+        if (mAllocatedBytes + pBytes <= mCeilingInBytes)
+          continue;
+        if (pTimeOut <= 0)
+          return false;
+        if (!lWaited)
+        {
+          mWaits++;
+          lWaited = true;
+        }
+        final long lRemaining = lDeadline - System.nanoTime();
+        if (lRemaining <= 0)
+        {
+          mTimeOuts++;
+          return false;
+        }
+        // woken up when memory is freed or becomes recyclable:
+        TimeUnit.NANOSECONDS.timedWait(this, lRemaining);
+      }
+    }
+  }
+
+  private long reclaim(final long pBytes)
+  {
+    long lReclaimedBytes = 0;
+    for (DcamMemoryReclaimer lReclaimer : mReclaimers)
+    {
+      if (lReclaimedBytes >= pBytes)
+        break;
+      lReclaimedBytes += lReclaimer.reclaim(pBytes - lReclaimedBytes);
+    }
+    return lReclaimedBytes;
+  }
+
+  /**
+   * Accounts reserved memory as recyclable (released) or in use
+   *
+   * @param pDeviceId
+   *          device id (index)
+   * @param pBytes
+   *          number of bytes
+   * @param pRecyclable
+   *          true: now recyclable, false: now in use
+   */
+  synchronized void setRecyclable(final long pDeviceId,
+                                  final long pBytes,
+                                  final boolean pRecyclable)
+  {
+    final DeviceUsage lUsage = getDeviceUsage(pDeviceId);
+    final long lDelta = pRecyclable ? pBytes : -pBytes;
+    lUsage.mRecyclableBytes += lDelta;
+    lUsage.mInUseBytes -= lDelta;
+    mRecyclableBytes += lDelta;
+    mInUseBytes -= lDelta;
+    // waiting allocations can now reclaim it:
+    if (pRecyclable)
+      notifyAll();
+  }
+
+  /**
+   * Returns reserved memory once freed, and wakes up waiting allocations.
+   *
+   * @param pDeviceId
+   *          device id (index)
+   * @param pBytes
+   *          number of bytes
+   * @param pRecyclable
+   *          true: the memory was accounted as recyclable, false: in use
+   */
+  synchronized void release(final long pDeviceId,
+                            final long pBytes,
+                            final boolean pRecyclable)
+  {
+    final DeviceUsage lUsage = getDeviceUsage(pDeviceId);
+    lUsage.mAllocatedBytes -= pBytes;
+    mAllocatedBytes -= pBytes;
+    if (pRecyclable)
+    {
+      lUsage.mRecyclableBytes -= pBytes;
+      mRecyclableBytes -= pBytes;
+    }
+    else
+    {
+      lUsage.mInUseBytes -= pBytes;
+      mInUseBytes -= pBytes;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Moves recyclable memory from one device to another, when memory released
+   * by one device is reused for another.
+   *
+   * @param pFromDeviceId
+   *          device id (index) the memory was accounted to
+   * @param pToDeviceId
+   *          device id (index) the memory is now accounted to
+   * @param pBytes
+   *          number of bytes
+   */
+  synchronized void reassign(final long pFromDeviceId,
+                             final long pToDeviceId,
+                             final long pBytes)
+  {
+    if (pFromDeviceId == pToDeviceId)
+      return;
+    final DeviceUsage lFrom = getDeviceUsage(pFromDeviceId);
+    final DeviceUsage lTo = getDeviceUsage(pToDeviceId);
+    lFrom.mAllocatedBytes -= pBytes;
+    lFrom.mRecyclableBytes -= pBytes;
+    lTo.mAllocatedBytes += pBytes;
+    lTo.mRecyclableBytes += pBytes;
+  }
+
+  private DeviceUsage getDeviceUsage(final long pDeviceId)
+  {
+    DeviceUsage lUsage = mUsage.get(pDeviceId);
+    if (lUsage == null)
+    {
+      lUsage = new DeviceUsage();
+      mUsage.put(pDeviceId, lUsage);
+    }
+    return lUsage;
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return String.format("DcamMemoryGovernor [mCeilingInBytes=%d, mAllocatedBytes=%d, mInUseBytes=%d, mRecyclableBytes=%d, mWaits=%d, mTimeOuts=%d]",
+                         mCeilingInBytes,
+                         mAllocatedBytes,
+                         mInUseBytes,
+                         mRecyclableBytes,
+                         mWaits,
+                         mTimeOuts);
+  }
+
+}
@@ -0,0 +1,70 @@
+package dcamj2.imgseq;
+
+import java.util.List;
+
+/**
+ * JMX view of the image sequence memory governor
+ *
+ * @author royer
+ */
+public interface DcamMemoryGovernorMXBean
+{
+  /**
+   * Returns the maximal number of bytes that can be allocated
+   *
+   * @return ceiling in bytes
+   */
+  long getCeiling();
+
+  /**
+   * Sets the maximal number of bytes that can be allocated
+   *
+   * @param pCeilingInBytes
+   *          ceiling in bytes
+   */
+  void setCeiling(long pCeilingInBytes);
+
+  /**
+   * Returns the number of bytes allocated, over all devices
+   *
+   * @return allocated bytes
+   */
+  long getAllocatedBytes();
+
+  /**
+   * Returns the number of allocated bytes held by sequences in use, over all
+   * devices
+   *
+   * @return bytes in use
+   */
+  long getInUseBytes();
+
+  /**
+   * Returns the number of allocated bytes held by released sequences, over all
+   * devices
+   *
+   * @return recyclable bytes
+   */
+  long getRecyclableBytes();
+
+  /**
+   * Returns the number of allocations that had to wait for memory
+   *
+   * @return number of waits
+   */
+  long getWaits();
+
+  /**
+   * Returns the number of allocations that timed out waiting for memory
+   *
+   * @return number of time outs
+   */
+  long getTimeOuts();
+
+  /**
+   * Returns the memory usage per device
+   *
+   * @return usage per device
+   */
+  List<DcamMemoryUsage> getUsage();
+}
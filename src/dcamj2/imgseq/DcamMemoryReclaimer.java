@@ -0,0 +1,23 @@
+package dcamj2.imgseq;
+
+/**
+ * Frees idle image sequence memory when asked by the
+ * {@link DcamMemoryGovernor}. Reclaimers are registered with
+ * {@link DcamMemoryGovernor#addReclaimer(DcamMemoryReclaimer)} and are called
+ * before an allocation waits for memory, without any governor lock held.
+ * {@link DcamImageSequencePool} registers itself; owners of a recycler can
+ * register a reclaimer that frees the sequences released to it.
+ *
+ * @author royer
+ */
+public interface DcamMemoryReclaimer
+{
+  /**
+   * Frees idle memory, ideally at least the given number of bytes
+   *
+   * @param pBytes
+   *          number of bytes needed
+   * @return number of bytes freed
+   */
+  long reclaim(long pBytes);
+}
@@ -0,0 +1,77 @@
+package dcamj2.imgseq;
+
+/**
+ * Immutable snapshot of the image sequence memory of one device, as accounted
+ * by the {@link DcamMemoryGovernor}.
+ *
+ * @author royer
+ */
+public class DcamMemoryUsage
+{
+  private final long mDeviceId;
+  private final long mAllocatedBytes;
+  private final long mInUseBytes;
+  private final long mRecyclableBytes;
+
+  DcamMemoryUsage(final long pDeviceId,
+                  final long pAllocatedBytes,
+                  final long pInUseBytes,
+                  final long pRecyclableBytes)
+  {
+    mDeviceId = pDeviceId;
+    mAllocatedBytes = pAllocatedBytes;
+    mInUseBytes = pInUseBytes;
+    mRecyclableBytes = pRecyclableBytes;
+  }
+
+  /**
+   * Returns the device id (index)
+   *
+   * @return device id
+   */
+  public long getDeviceId()
+  {
+    return mDeviceId;
+  }
+
+  /**
+   * Returns the number of bytes allocated for this device
+   *
+   * @return allocated bytes
+   */
+  public long getAllocatedBytes()
+  {
+    return mAllocatedBytes;
+  }
+
+  /**
+   * Returns the number of allocated bytes held by sequences in use
+   *
+   * @return bytes in use
+   */
+  public long getInUseBytes()
+  {
+    return mInUseBytes;
+  }
+
+  /**
+   * Returns the number of allocated bytes held by sequences that have been
+   * released to a recycler or pool, and can be reused
+   *
+   * @return recyclable bytes
+   */
+  public long getRecyclableBytes()
+  {
+    return mRecyclableBytes;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("DcamMemoryUsage [mDeviceId=%d, mAllocatedBytes=%d, mInUseBytes=%d, mRecyclableBytes=%d]",
+                         mDeviceId,
+                         mAllocatedBytes,
+                         mInUseBytes,
+                         mRecyclableBytes);
+  }
+}
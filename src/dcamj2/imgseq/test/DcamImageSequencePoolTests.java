@@ -0,0 +1,305 @@
+package dcamj2.imgseq.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamj2.DcamDevice;
+import dcamj2.DcamLibrary;
+import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.imgseq.DcamImageSequencePool;
+import dcamj2.imgseq.DcamImageSequenceRequest;
+import dcamj2.sim.DcamSimulatorBackend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Image sequence pool tests, against the camera simulator
+ *
+ * @author royer
+ */
+public class DcamImageSequencePoolTests
+{
+  private static final long cWidth = 512;
+  private static final long cHeight = 512;
+  private static final long cPlaneSize = 2 * cWidth * cHeight;
+
+  private DcamDevice mDcamDevice;
+
+  /**
+   * Opens a simulated device
+   */
+  @Before
+  public void setUp()
+  {
+    DcamLibrary.setBackend(new DcamSimulatorBackend(1));
+    assertTrue(DcamLibrary.initialize());
+    mDcamDevice = new DcamDevice(0, true);
+  }
+
+  /**
+   * Closes the simulated device
+   */
+  @After
+  public void tearDown()
+  {
+    mDcamDevice.close();
+    assertTrue(DcamLibrary.uninitialize());
+  }
+
+  private DcamImageSequenceRequest request(final long pDepth)
+  {
+    return DcamImageSequenceRequest.build(mDcamDevice,
+                                          2,
+                                          cWidth,
+                                          cHeight,
+                                          pDepth,
+                                          false);
+  }
+
+  private static long address(final DcamImageSequence pSequence)
+  {
+    return pSequence.getMemoryForPlane(0).getAddress();
+  }
+
+  /**
+   * Tests that a sequence that matches an idle one exactly is reused as is
+   */
+  @Test
+  public void testExactReuse()
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(64 * cPlaneSize);
+    try
+    {
+      final DcamImageSequence lSequence = lPool.getOrFail(request(10));
+      assertNotNull(lSequence);
+      lSequence.release();
+
+      assertSame(lSequence, lPool.getOrFail(request(10)));
+      assertEquals(1, lPool.getNumberOfSlabs());
+      lSequence.release();
+    }
+    finally
+    {
+      lPool.free();
+    }
+  }
+
+  /**
+   * Tests that a new sequence is carved out of the smallest idle slab that is
+   * large enough
+   */
+  @Test
+  public void testBestFitCarving()
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(64 * cPlaneSize);
+    try
+    {
+      final DcamImageSequence lLarge = lPool.getOrFail(request(20));
+      final DcamImageSequence lSmall = lPool.getOrFail(request(10));
+      final long lSmallAddress = address(lSmall);
+      lLarge.release();
+      lSmall.release();
+      assertEquals(2, lPool.getNumberOfIdleSlabs());
+
+      final DcamImageSequence lCarved = lPool.getOrFail(request(8));
+      assertNotNull(lCarved);
+      assertEquals(8, lCarved.getDepth());
+      assertEquals(lSmallAddress, address(lCarved));
+      assertEquals(2, lPool.getNumberOfSlabs());
+      assertEquals(1, lPool.getNumberOfIdleSlabs());
+
+      // too large for any idle slab, a new one is allocated:
+      final DcamImageSequence lNew = lPool.getOrFail(request(30));
+      assertNotNull(lNew);
+      assertEquals(3, lPool.getNumberOfSlabs());
+
+      lCarved.release();
+      lNew.release();
+    }
+    finally
+    {
+      lPool.free();
+    }
+  }
+
+  /**
+   * Tests that the planes of a sequence requested as fragmented are aligned
+   * as independent allocations, and that its slab is only reused as is for
+   * fragmented requests
+   */
+  @Test
+  public void testFragmentedRequest()
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(64 * cPlaneSize);
+    try
+    {
+      // planes of 2*512*500 bytes are not a multiple of the page size:
+      final DcamImageSequenceRequest lRequest =
+                                              DcamImageSequenceRequest.build(mDcamDevice,
+                                                                             2,
+                                                                             cWidth,
+                                                                             500,
+                                                                             4,
+                                                                             true);
+      final DcamImageSequence lSequence = lPool.getOrFail(lRequest);
+      assertNotNull(lSequence);
+      assertTrue(lSequence.isFragmented());
+      assertTrue(lRequest.isCompatible(lSequence));
+      for (int i = 0; i < 4; i++)
+        assertEquals(0,
+                     lSequence.getMemoryForPlane(i).getAddress() % 4096);
+      lSequence.release();
+
+      final DcamImageSequence lContiguous =
+                                          lPool.getOrFail(DcamImageSequenceRequest.build(mDcamDevice,
+                                                                                         2,
+                                                                                         cWidth,
+                                                                                         500,
+                                                                                         4,
+                                                                                         false));
+      assertNotSame(lSequence, lContiguous);
+      assertEquals(address(lSequence), address(lContiguous));
+      assertEquals(2 * cWidth * 500,
+                   lContiguous.getMemoryForPlane(1).getAddress()
+                                   - address(lContiguous));
+      lContiguous.release();
+
+      assertNotSame(lContiguous, lPool.getOrFail(lRequest));
+      assertEquals(1, lPool.getNumberOfSlabs());
+    }
+    finally
+    {
+      lPool.free();
+    }
+  }
+
+  /**
+   * Tests that the least recently used idle slabs are freed first when the
+   * budget is lowered, and that a request is refused when evicting would not
+   * make enough room
+   */
+  @Test
+  public void testLRUEvictionUnderBudget()
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(20 * cPlaneSize);
+    try
+    {
+      final DcamImageSequence lFirst = lPool.getOrFail(request(10));
+      final DcamImageSequence lSecond = lPool.getOrFail(request(10));
+      assertNotNull(lFirst);
+      assertNotNull(lSecond);
+
+      // both slabs are in use, nothing can be evicted:
+      assertNull(lPool.getOrFail(request(5)));
+
+      final long lSecondAddress = address(lSecond);
+      lFirst.release();
+      lSecond.release();
+
+      lPool.setBudget(10 * cPlaneSize);
+      assertEquals(1, lPool.getNumberOfEvictions());
+      assertEquals(1, lPool.getNumberOfSlabs());
+      assertEquals(10 * cPlaneSize, lPool.getAllocatedBytes());
+
+      // the most recently released slab is the one kept:
+      final DcamImageSequence lReused = lPool.getOrFail(request(10));
+      assertSame(lSecond, lReused);
+      assertEquals(lSecondAddress, address(lReused));
+      lReused.release();
+
+      // a larger request evicts the idle slab to make room:
+      lPool.setBudget(15 * cPlaneSize);
+      final DcamImageSequence lLarger = lPool.getOrFail(request(12));
+      assertNotNull(lLarger);
+      assertEquals(2, lPool.getNumberOfEvictions());
+      assertEquals(1, lPool.getNumberOfSlabs());
+      lLarger.release();
+    }
+    finally
+    {
+      lPool.free();
+    }
+  }
+
+  /**
+   * Tests that a waiting request is woken up when a sequence is released
+   *
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testGetOrWaitWakeUp() throws InterruptedException
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(10 * cPlaneSize);
+    try
+    {
+      final DcamImageSequence lSequence = lPool.getOrFail(request(10));
+      assertNotNull(lSequence);
+      assertNull(lPool.getOrWait(10, TimeUnit.MILLISECONDS, request(10)));
+
+      final Thread lReleaser = new Thread(() -> {
+        try
+        {
+          Thread.sleep(100);
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        lSequence.release();
+      });
+      final long lStart = System.nanoTime();
+      lReleaser.start();
+      final DcamImageSequence lWaited =
+                                      lPool.getOrWait(10,
+                                                      TimeUnit.SECONDS,
+                                                      request(10));
+      final long lElapsed = System.nanoTime() - lStart;
+      lReleaser.join();
+
+      assertSame(lSequence, lWaited);
+      assertTrue(lElapsed < TimeUnit.SECONDS.toNanos(5));
+      lWaited.release();
+    }
+    finally
+    {
+      lPool.free();
+    }
+  }
+
+  /**
+   * Tests that freeing the pool frees idle slabs right away and slabs in use
+   * when they are released
+   */
+  @Test
+  public void testFree()
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(64 * cPlaneSize);
+    final DcamImageSequence lIdle = lPool.getOrFail(request(10));
+    final DcamImageSequence lInUse = lPool.getOrFail(request(20));
+    lIdle.release();
+
+    lPool.free();
+    assertEquals(1, lPool.getNumberOfSlabs());
+    assertEquals(20 * cPlaneSize, lPool.getAllocatedBytes());
+
+    lInUse.release();
+    assertEquals(0, lPool.getNumberOfSlabs());
+    assertEquals(0, lPool.getAllocatedBytes());
+  }
+
+}
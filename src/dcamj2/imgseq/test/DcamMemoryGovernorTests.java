@@ -0,0 +1,313 @@
+package dcamj2.imgseq.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import dcamj2.DcamDevice;
+import dcamj2.DcamException;
+import dcamj2.DcamLibrary;
+import dcamj2.imgseq.DcamImageSequence;
+import dcamj2.imgseq.DcamImageSequenceFactory;
+import dcamj2.imgseq.DcamImageSequencePool;
+import dcamj2.imgseq.DcamImageSequenceRequest;
+import dcamj2.imgseq.DcamMemoryGovernor;
+import dcamj2.imgseq.DcamMemoryUsage;
+import dcamj2.sim.DcamSimulatorBackend;
+
+import coremem.recycling.BasicRecycler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Memory governor tests, against the camera simulator. The governor is
+ * process-wide, so usage is compared to what it was before each test.
+ *
+ * @author royer
+ */
+public class DcamMemoryGovernorTests
+{
+  private static final long cWidth = 512;
+  private static final long cHeight = 512;
+  private static final long cPlaneSize = 2 * cWidth * cHeight;
+
+  private final DcamMemoryGovernor mGovernor = DcamMemoryGovernor.get();
+
+  private DcamDevice mFirstDevice, mSecondDevice;
+  private DcamMemoryUsage mFirstBaseline, mSecondBaseline;
+  private long mCeiling, mTimeOut;
+
+  /**
+   * Opens two simulated devices
+   */
+  @Before
+  public void setUp()
+  {
+    DcamLibrary.setBackend(new DcamSimulatorBackend(2));
+    assertTrue(DcamLibrary.initialize());
+    mFirstDevice = new DcamDevice(0, true);
+    mSecondDevice = new DcamDevice(1, true);
+    mFirstBaseline = mGovernor.getUsage(0);
+    mSecondBaseline = mGovernor.getUsage(1);
+    mCeiling = mGovernor.getCeiling();
+    mTimeOut = mGovernor.getTimeOutInMilliseconds();
+  }
+
+  /**
+   * Closes the simulated devices and restores the governor settings
+   */
+  @After
+  public void tearDown()
+  {
+    mGovernor.setCeiling(mCeiling);
+    mGovernor.setTimeOutInMilliseconds(mTimeOut);
+    mFirstDevice.close();
+    mSecondDevice.close();
+    assertTrue(DcamLibrary.uninitialize());
+  }
+
+  private DcamImageSequenceRequest request(final DcamDevice pDcamDevice,
+                                           final long pDepth)
+  {
+    return request(pDcamDevice, pDepth, false);
+  }
+
+  private DcamImageSequenceRequest request(final DcamDevice pDcamDevice,
+                                           final long pDepth,
+                                           final boolean pFragmented)
+  {
+    return DcamImageSequenceRequest.build(pDcamDevice,
+                                          2,
+                                          cWidth,
+                                          cHeight,
+                                          pDepth,
+                                          pFragmented);
+  }
+
+  /**
+   * Checks the usage of a device relative to its baseline, and that allocated
+   * memory is always either in use or recyclable.
+   */
+  private void assertUsage(final long pDeviceId,
+                           final DcamMemoryUsage pBaseline,
+                           final long pInUseBytes,
+                           final long pRecyclableBytes)
+  {
+    final DcamMemoryUsage lUsage = mGovernor.getUsage(pDeviceId);
+    assertEquals(pInUseBytes,
+                 lUsage.getInUseBytes() - pBaseline.getInUseBytes());
+    assertEquals(pRecyclableBytes,
+                 lUsage.getRecyclableBytes()
+                                   - pBaseline.getRecyclableBytes());
+    assertEquals(lUsage.getAllocatedBytes(),
+                 lUsage.getInUseBytes() + lUsage.getRecyclableBytes());
+    assertEquals(mGovernor.getAllocatedBytes(),
+                 mGovernor.getInUseBytes()
+                                                + mGovernor.getRecyclableBytes());
+  }
+
+  /**
+   * Tests accounting of a sequence obtained from a recycler: in use,
+   * recyclable once released, in use again once reused, and gone once freed
+   */
+  @Test
+  public void testRecyclerAccounting()
+  {
+    final BasicRecycler<DcamImageSequence, DcamImageSequenceRequest> lRecycler =
+                                                                              new BasicRecycler<>(new DcamImageSequenceFactory(),
+                                                                                                  2);
+    // the recycler only reuses multi-plane sequences requested as fragmented:
+    final DcamImageSequence lSequence =
+                                      lRecycler.getOrFail(request(mFirstDevice,
+                                                                  10,
+                                                                  true));
+    assertNotNull(lSequence);
+    final long lBytes = mGovernor.getUsage(0).getAllocatedBytes()
+                        - mFirstBaseline.getAllocatedBytes();
+    assertTrue(lBytes >= 10 * cPlaneSize);
+    assertUsage(0, mFirstBaseline, lBytes, 0);
+
+    lSequence.release();
+    assertUsage(0, mFirstBaseline, 0, lBytes);
+
+    assertSame(lSequence,
+               lRecycler.getOrFail(request(mFirstDevice, 10, true)));
+    assertUsage(0, mFirstBaseline, lBytes, 0);
+
+    lSequence.free();
+    assertUsage(0, mFirstBaseline, 0, 0);
+  }
+
+  /**
+   * Tests accounting of pool slabs across release, reuse by another device
+   * (reassignment), eviction and freeing of the pool
+   */
+  @Test
+  public void testPoolAccounting()
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(64 * cPlaneSize);
+    final DcamImageSequence lSequence =
+                                      lPool.getOrFail(request(mFirstDevice,
+                                                              10));
+    assertNotNull(lSequence);
+    final long lBytes = mGovernor.getUsage(0).getAllocatedBytes()
+                        - mFirstBaseline.getAllocatedBytes();
+    assertTrue(lBytes >= 10 * cPlaneSize);
+    assertUsage(0, mFirstBaseline, lBytes, 0);
+
+    lSequence.release();
+    assertUsage(0, mFirstBaseline, 0, lBytes);
+
+    // carved for the second device, the slab is reassigned to it:
+    final DcamImageSequence lReused =
+                                    lPool.getOrFail(request(mSecondDevice,
+                                                            8));
+    assertNotNull(lReused);
+    assertEquals(1, lPool.getNumberOfSlabs());
+    assertUsage(0, mFirstBaseline, 0, 0);
+    assertUsage(1, mSecondBaseline, lBytes, 0);
+
+    lReused.release();
+    assertUsage(1, mSecondBaseline, 0, lBytes);
+
+    // evicted when the budget is lowered:
+    lPool.setBudget(0);
+    assertEquals(1, lPool.getNumberOfEvictions());
+    assertUsage(1, mSecondBaseline, 0, 0);
+
+    lPool.setBudget(64 * cPlaneSize);
+    final DcamImageSequence lInUse = lPool.getOrFail(request(mFirstDevice,
+                                                             10));
+    assertNotNull(lInUse);
+    lPool.free();
+    assertUsage(0, mFirstBaseline, lBytes, 0);
+    lInUse.release();
+    assertUsage(0, mFirstBaseline, 0, 0);
+    assertEquals(0, lPool.getAllocatedBytes());
+  }
+
+  /**
+   * Tests that an allocation that would exceed the ceiling waits and then
+   * fails, leaving the accounting untouched
+   */
+  @Test
+  public void testCeiling()
+  {
+    final long lTimeOuts = mGovernor.getTimeOuts();
+    mGovernor.setCeiling(mGovernor.getAllocatedBytes() + 5 * cPlaneSize);
+    mGovernor.setTimeOutInMilliseconds(50);
+    try
+    {
+      new DcamImageSequence(mFirstDevice, 2, cWidth, cHeight, 10);
+      fail("allocation above the ceiling succeeded");
+    }
+    catch (DcamException e)
+    {
+      // expected
+    }
+    assertEquals(lTimeOuts + 1, mGovernor.getTimeOuts());
+    assertUsage(0, mFirstBaseline, 0, 0);
+  }
+
+  /**
+   * Tests that an allocation waiting at the ceiling succeeds once another
+   * thread frees a sequence
+   *
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testWaitForFreedMemory() throws InterruptedException
+  {
+    final DcamImageSequence lSequence =
+                                      new DcamImageSequence(mFirstDevice,
+                                                            2,
+                                                            cWidth,
+                                                            cHeight,
+                                                            10);
+    mGovernor.setCeiling(mGovernor.getAllocatedBytes());
+    mGovernor.setTimeOutInMilliseconds(10000);
+
+    final DcamImageSequence lWaited = allocateAfter(() -> lSequence.free());
+    assertUsage(0, mFirstBaseline, 0, 0);
+    assertTrue(mGovernor.getUsage(1).getInUseBytes()
+               - mSecondBaseline.getInUseBytes() >= 8 * cPlaneSize);
+    lWaited.free();
+  }
+
+  /**
+   * Tests that an allocation waiting at the ceiling succeeds once another
+   * thread releases a pool sequence, the idle slab being reclaimed from the
+   * pool
+   *
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testReclaimReleasedPoolSequence() throws InterruptedException
+  {
+    final DcamImageSequencePool lPool =
+                                      new DcamImageSequencePool(64 * cPlaneSize);
+    try
+    {
+      final DcamImageSequence lSequence =
+                                        lPool.getOrFail(request(mFirstDevice,
+                                                                10));
+      assertNotNull(lSequence);
+      mGovernor.setCeiling(mGovernor.getAllocatedBytes());
+      mGovernor.setTimeOutInMilliseconds(10000);
+
+      final DcamImageSequence lWaited =
+                                      allocateAfter(() -> lSequence.release());
+      assertEquals(0, lPool.getNumberOfSlabs());
+      assertEquals(1, lPool.getNumberOfEvictions());
+      assertUsage(0, mFirstBaseline, 0, 0);
+      lWaited.free();
+    }
+    finally
+    {
+      lPool.free();
+    }
+  }
+
+  // allocates a sequence for the second device while another thread runs
+  // the given action after a delay, the allocation must wait for it:
+  private DcamImageSequence allocateAfter(final Runnable pAction) throws InterruptedException
+  {
+    final long lWaits = mGovernor.getWaits();
+    final Thread lThread = new Thread(() -> {
+      try
+      {
+        Thread.sleep(100);
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      pAction.run();
+    });
+    final long lStart = System.nanoTime();
+    lThread.start();
+    final DcamImageSequence lSequence =
+                                      new DcamImageSequence(mSecondDevice,
+                                                            2,
+                                                            cWidth,
+                                                            cHeight,
+                                                            8);
+    final long lElapsed = System.nanoTime() - lStart;
+    lThread.join();
+
+    assertEquals(lWaits + 1, mGovernor.getWaits());
+    assertTrue(lElapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(lElapsed < TimeUnit.SECONDS.toNanos(5));
+    return lSequence;
+  }
+
+}
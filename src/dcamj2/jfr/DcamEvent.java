@@ -0,0 +1,31 @@
+package dcamj2.jfr;
+
+/**
+ * Timed DcamJ event. An event starts when it is obtained from
+ * {@link DcamEvents} and ends when it is committed.
+ *
+ * @author royer
+ */
+public interface DcamEvent
+{
+  /**
+   * Ends and commits this event
+   *
+   * @param pSuccess
+   *          true if the operation succeeded
+   */
+  void commit(boolean pSuccess);
+
+  /**
+   * Ends and commits this event with the outcome of the operation: the event
+   * that happened for waits, the frame count for transfer info reads, and the
+   * number of failed writes for property transactions. Ignored by the other
+   * events.
+   *
+   * @param pSuccess
+   *          true if the operation succeeded
+   * @param pResult
+   *          outcome
+   */
+  void commit(boolean pSuccess, long pResult);
+}
@@ -0,0 +1,31 @@
+package dcamj2.jfr;
+
+/**
+ * Creates the events returned by {@link DcamEvents}. The flight recorder
+ * implementation is compiled separately from the main sources, which only
+ * use the Java 8 API, and is loaded reflectively when available.
+ *
+ * @author royer
+ */
+interface DcamEventFactory
+{
+  boolean isWaitEnabled();
+
+  boolean isTransferInfoEnabled();
+
+  DcamEvent open(long pDeviceId);
+
+  DcamEvent transaction(long pDeviceId, int pNumberOfWrites);
+
+  DcamEvent buffer(long pDeviceId,
+                   String pOperation,
+                   long pNumberOfBuffers);
+
+  DcamEvent capture(long pDeviceId, String pOperation, long pMode);
+
+  DcamEvent waitStart(long pDeviceId, long pEventMask, long pTimeOut);
+
+  DcamEvent transferInfo(long pDeviceId);
+
+  DcamEvent stack(long pDeviceId, long pDepth);
+}
@@ -0,0 +1,213 @@
+package dcamj2.jfr;
+
+import dcamj2.DcamLibrary;
+
+/**
+ * Java Flight Recorder events for the acquisition lifecycle: device open,
+ * property transactions, buffer attach and release, capture start and stop,
+ * waits, transfer info reads and stack completion. Events are only emitted
+ * when the running JVM has the jdk.jfr API (Java 8u262 and later, Java 11),
+ * the event classes were built (they are compiled apart from the main
+ * sources, which only use the Java 8 API) and the 'dcamj.jfr' system property
+ * is not 'false', otherwise a shared no-op event is returned. Events that are not enabled in the recording
+ * settings cost an allocation and two timestamps, except for the per-frame
+ * wait and transfer info events: these are not allocated at all unless a
+ * running recording enables them.
+ *
+ * @author royer
+ */
+public final class DcamEvents
+{
+  private static final DcamEvent cNoEvent = new DcamEvent()
+  {
+    @Override
+    public void commit(boolean pSuccess)
+    {
+    }
+
+    @Override
+    public void commit(boolean pSuccess, long pResult)
+    {
+    }
+  };
+
+  private static final DcamEventFactory cFactory = loadFactory();
+  private static final boolean cEnabled = cFactory != null;
+
+  private DcamEvents()
+  {
+  }
+
+  private static DcamEventFactory loadFactory()
+  {
+    if (!Boolean.parseBoolean(System.getProperty(DcamLibrary.cFlightRecorderProperty,
+                                                 "true")))
+      return null;
+    try
+    {
+      Class.forName("jdk.jfr.Event");
+      return (DcamEventFactory) Class.forName("dcamj2.jfr.FlightRecorderEvents")
+                                     .getDeclaredConstructor()
+                                     .newInstance();
+    }
+    catch (ReflectiveOperationException | LinkageError e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if DcamJ events are emitted to the flight recorder
+   *
+   * @return true if enabled
+   */
+  public static boolean isEnabled()
+  {
+    return cEnabled;
+  }
+
+  /**
+   * Begins a device open event, which covers the wait for the device to
+   * become ready
+   *
+   * @param pDeviceId
+   *          device id
+   * @return event
+   */
+  public static DcamEvent open(final long pDeviceId)
+  {
+    return cEnabled ? cFactory.open(pDeviceId) : cNoEvent;
+  }
+
+  /**
+   * Begins a property transaction event
+   *
+   * @param pDeviceId
+   *          device id
+   * @param pNumberOfWrites
+   *          number of requested writes
+   * @return event
+   */
+  public static DcamEvent transaction(final long pDeviceId,
+                                      final int pNumberOfWrites)
+  {
+    return cEnabled ? cFactory.transaction(pDeviceId,
+                                                       pNumberOfWrites)
+                    : cNoEvent;
+  }
+
+  /**
+   * Begins a buffer attach event
+   *
+   * @param pDeviceId
+   *          device id
+   * @param pNumberOfBuffers
+   *          number of buffers attached
+   * @return event
+   */
+  public static DcamEvent bufferAttach(final long pDeviceId,
+                                       final long pNumberOfBuffers)
+  {
+    return cEnabled ? cFactory.buffer(pDeviceId,
+                                                  "attach",
+                                                  pNumberOfBuffers)
+                    : cNoEvent;
+  }
+
+  /**
+   * Begins a buffer release event
+   *
+   * @param pDeviceId
+   *          device id
+   * @return event
+   */
+  public static DcamEvent bufferRelease(final long pDeviceId)
+  {
+    return cEnabled ? cFactory.buffer(pDeviceId, "release", 0)
+                    : cNoEvent;
+  }
+
+  /**
+   * Begins a capture start event
+   *
+   * @param pDeviceId
+   *          device id
+   * @param pMode
+   *          DCAMCAP_START mode
+   * @return event
+   */
+  public static DcamEvent captureStart(final long pDeviceId,
+                                       final long pMode)
+  {
+    return cEnabled ? cFactory.capture(pDeviceId,
+                                                   "start",
+                                                   pMode)
+                    : cNoEvent;
+  }
+
+  /**
+   * Begins a capture stop event
+   *
+   * @param pDeviceId
+   *          device id
+   * @return event
+   */
+  public static DcamEvent captureStop(final long pDeviceId)
+  {
+    return cEnabled ? cFactory.capture(pDeviceId, "stop", 0)
+                    : cNoEvent;
+  }
+
+  /**
+   * Begins a wait event, to be committed with the event that happened
+   *
+   * @param pDeviceId
+   *          device id
+   * @param pEventMask
+   *          DCAMWAIT_EVENT mask waited for
+   * @param pTimeOut
+   *          time out in milliseconds
+   * @return event
+   */
+  public static DcamEvent waitStart(final long pDeviceId,
+                                    final long pEventMask,
+                                    final long pTimeOut)
+  {
+    if (cEnabled && cFactory.isWaitEnabled())
+      return cFactory.waitStart(pDeviceId,
+                                            pEventMask,
+                                            pTimeOut);
+    return cNoEvent;
+  }
+
+  /**
+   * Begins a transfer info read event, to be committed with the frame count
+   *
+   * @param pDeviceId
+   *          device id
+   * @return event
+   */
+  public static DcamEvent transferInfo(final long pDeviceId)
+  {
+    if (cEnabled && cFactory.isTransferInfoEnabled())
+      return cFactory.transferInfo(pDeviceId);
+    return cNoEvent;
+  }
+
+  /**
+   * Begins a stack event, which lasts from the setup of a stack (ROI,
+   * exposure, buffers, capture start) to its completion
+   *
+   * @param pDeviceId
+   *          device id
+   * @param pDepth
+   *          stack depth
+   * @return event
+   */
+  public static DcamEvent stack(final long pDeviceId, final long pDepth)
+  {
+    return cEnabled ? cFactory.stack(pDeviceId, pDepth)
+                    : cNoEvent;
+  }
+
+}
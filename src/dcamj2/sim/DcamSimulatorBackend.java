@@ -0,0 +1,652 @@
+package dcamj2.sim;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import dcamapi.DCAMAPI_INIT;
+import dcamapi.DCAMBUF_ATTACH;
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMDEV_OPEN;
+import dcamapi.DCAMDEV_STRING;
+import dcamapi.DCAMWAIT_OPEN;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DCAM_PROPERTYATTR;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.DcamapiLibrary.DCAMPROPATTRIBUTE;
+import dcamapi.DcamapiLibrary.DCAMPROPOPTION;
+import dcamapi.DcamapiLibrary.DCAMWAIT_EVENT;
+import dcamapi.DcamapiLibrary.DCAM_IDSTR;
+import dcamapi.DcamapiLibrary.DCAM_PIXELTYPE;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+import dcamj2.backend.DcamBackend;
+
+import org.bridj.FlagSet;
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend simulating Hamamatsu cameras in-process, without driver or
+ * hardware. Each simulated camera writes synthetic 16-bit frames into the
+ * attached buffers at the rate given by its exposure and readout time, so
+ * that acquisition throughput and latency can be measured on any machine.
+ *
+ * Handles given out by the simulator are small native allocations, they are
+ * only used as keys and never dereferenced.
+ *
+ * @author royer
+ */
+public class DcamSimulatorBackend implements DcamBackend
+{
+  private static final int cDefaultSensorSize = 2048;
+  private static final double cDefaultFullFrameReadoutTime = 0.01;
+
+  private final int mNumberOfCameras;
+  private volatile long mSensorWidth = cDefaultSensorSize;
+  private volatile long mSensorHeight = cDefaultSensorSize;
+  private volatile double mFullFrameReadoutTime =
+                                                cDefaultFullFrameReadoutTime;
+  private volatile boolean mWritePattern = true;
+
+  private final SimulatedCamera[] mCameras;
+  private final ConcurrentHashMap<Long, SimulatedCamera> mOpenCameras =
+                                                                      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, SimulatedWait> mOpenWaits =
+                                                                  new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Pointer<?>> mHandles =
+                                                             new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a simulator backend with a given number of cameras
+   *
+   * @param pNumberOfCameras
+   *          number of simulated cameras
+   */
+  public DcamSimulatorBackend(final int pNumberOfCameras)
+  {
+    mNumberOfCameras = pNumberOfCameras;
+    mCameras = new SimulatedCamera[pNumberOfCameras];
+  }
+
+  /**
+   * Sets the sensor size of the simulated cameras. Must be called before the
+   * cameras are opened.
+   *
+   * @param pWidth
+   *          sensor width
+   * @param pHeight
+   *          sensor height
+   * @return this backend
+   */
+  public DcamSimulatorBackend setSensorSize(final long pWidth,
+                                            final long pHeight)
+  {
+    mSensorWidth = pWidth;
+    mSensorHeight = pHeight;
+    return this;
+  }
+
+  /**
+   * Sets the time needed to read out a full sensor frame. Readout time scales
+   * with the number of rows of the ROI. Must be called before the cameras are
+   * opened.
+   *
+   * @param pSeconds
+   *          full frame readout time in seconds
+   * @return this backend
+   */
+  public DcamSimulatorBackend setFullFrameReadoutTime(final double pSeconds)
+  {
+    mFullFrameReadoutTime = pSeconds;
+    return this;
+  }
+
+  /**
+   * Sets whether a full synthetic image is written for every frame. When
+   * false only the frame index is written (first pixel), which measures the
+   * library overhead without the memory bandwidth of the simulated camera.
+   * Must be called before the cameras are opened.
+   *
+   * @param pWritePattern
+   *          true to write full frames
+   * @return this backend
+   */
+  public DcamSimulatorBackend setWritePattern(final boolean pWritePattern)
+  {
+    mWritePattern = pWritePattern;
+    return this;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "simulator";
+  }
+
+  private synchronized SimulatedCamera getCamera(final int pIndex)
+  {
+    if (mCameras[pIndex] == null)
+      mCameras[pIndex] = new SimulatedCamera(pIndex,
+                                             mSensorWidth,
+                                             mSensorHeight,
+                                             mFullFrameReadoutTime,
+                                             mWritePattern);
+    return mCameras[pIndex];
+  }
+
+  private SimulatedCamera camera(final Pointer<HDCAM_struct> h)
+  {
+    return h == null ? null : mOpenCameras.get(h.getPeer());
+  }
+
+  private long newHandle()
+  {
+    final Pointer<?> lHandle = Pointer.allocateBytes(8);
+    mHandles.put(lHandle.getPeer(), lHandle);
+    return lHandle.getPeer();
+  }
+
+  private void releaseHandle(final long pPeer)
+  {
+    final Pointer<?> lHandle = mHandles.remove(pPeer);
+    if (lHandle != null)
+      lHandle.release();
+  }
+
+  // Initialization:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiInit(final Pointer<DCAMAPI_INIT> param)
+  {
+    param.get().iDeviceCount(mNumberOfCameras);
+    return mNumberOfCameras > 0 ? DCAMERR.DCAMERR_SUCCESS
+                                : DCAMERR.DCAMERR_NOCAMERA;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public IntValuedEnum<DCAMERR> dcamapiUninit()
+  {
+    for (final Long lPeer : mOpenCameras.keySet())
+      dcamdevClose(Pointer.pointerToAddress(lPeer, HDCAM_struct.class));
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  // Device:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevOpen(final Pointer<DCAMDEV_OPEN> param)
+  {
+    final DCAMDEV_OPEN lOpen = param.get();
+    final long lIndex = lOpen.index();
+    if (lIndex < 0 || lIndex >= mNumberOfCameras)
+      return DCAMERR.DCAMERR_NOCAMERA;
+
+    final SimulatedCamera lCamera = getCamera((int) lIndex);
+    if (mOpenCameras.containsValue(lCamera))
+      return DCAMERR.DCAMERR_ALREADYOCCUPIED;
+
+    final long lHandle = newHandle();
+    mOpenCameras.put(lHandle, lCamera);
+    @SuppressWarnings("deprecation")
+    final Pointer<HDCAM_struct> lHDCAM =
+                                       Pointer.pointerToAddress(lHandle,
+                                                                HDCAM_struct.class);
+    lOpen.hdcam(lHDCAM);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevClose(final Pointer<HDCAM_struct> h)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    lCamera.stop();
+    lCamera.release();
+    mOpenCameras.remove(h.getPeer());
+    releaseHandle(h.getPeer());
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevShowpanel(final Pointer<HDCAM_struct> h,
+                                                 final long iKind)
+  {
+    return DCAMERR.DCAMERR_NOTSUPPORT;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevGetstring(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAMDEV_STRING> param)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final DCAMDEV_STRING lString = param.get();
+    final long lId = lString.iString();
+    final String lText;
+    if (lId == DCAM_IDSTR.DCAM_IDSTR_VENDOR.value)
+      lText = "DcamJ";
+    else if (lId == DCAM_IDSTR.DCAM_IDSTR_MODEL.value)
+      lText = "Simulated camera";
+    else if (lId == DCAM_IDSTR.DCAM_IDSTR_CAMERAID.value)
+      lText = "S/N: SIM" + lCamera.getIndex();
+    else if (lId == DCAM_IDSTR.DCAM_IDSTR_BUS.value)
+      lText = "Simulator";
+    else
+      lText = "1.0";
+
+    final int lCapacity = (int) lString.textbytes();
+    if (lCapacity <= 0)
+      return DCAMERR.DCAMERR_INVALIDPARAM;
+    final byte[] lBytes = lText.getBytes();
+    final byte[] lTerminated = new byte[Math.min(lBytes.length + 1,
+                                                 lCapacity)];
+    System.arraycopy(lBytes, 0, lTerminated, 0, lTerminated.length - 1);
+    lString.text().setBytes(lTerminated);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  // Properties:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetattr(final Pointer<HDCAM_struct> h,
+                                                final Pointer<DCAM_PROPERTYATTR> param)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final DCAM_PROPERTYATTR lAttr = param.get();
+    final SimulatedProperty lProperty = lCamera.getProperty(lAttr.iProp());
+    if (lProperty == null)
+      return DCAMERR.DCAMERR_INVALIDPROPERTYID;
+
+    lAttr.attribute(FlagSet.fromValue((int) (lProperty.mAttributes
+                                        | lProperty.mType),
+                                      DCAMPROPATTRIBUTE.class));
+    lAttr.iUnit(lProperty.mUnit);
+    lAttr.valuemin(lProperty.mMin);
+    lAttr.valuemax(lProperty.mMax);
+    lAttr.valuestep(lProperty.mStep);
+    lAttr.valuedefault(lProperty.mDefault);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final Pointer<Double> pValue)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final double[] lValue = new double[1];
+    final IntValuedEnum<DCAMERR> lError = lCamera.getValue(iProp, lValue);
+    if (lError == DCAMERR.DCAMERR_SUCCESS)
+      pValue.setDouble(lValue[0]);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final double fValue)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    return lCamera.setValue(iProp, new double[]
+    { fValue });
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetgetvalue(final Pointer<HDCAM_struct> h,
+                                                    final long iProp,
+                                                    final Pointer<Double> pValue,
+                                                    final long option)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final double[] lValue = new double[]
+    { pValue.getDouble() };
+    final IntValuedEnum<DCAMERR> lError = lCamera.setValue(iProp, lValue);
+    if (lError == DCAMERR.DCAMERR_SUCCESS)
+      pValue.setDouble(lValue[0]);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropQueryvalue(final Pointer<HDCAM_struct> h,
+                                                   final long iProp,
+                                                   final Pointer<Double> pValue,
+                                                   final long option)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final SimulatedProperty lProperty = lCamera.getProperty(iProp);
+    if (lProperty == null)
+      return DCAMERR.DCAMERR_INVALIDPROPERTYID;
+
+    final double lValue;
+    if (option == DCAMPROPOPTION.DCAMPROP_OPTION_NEXT.value)
+      lValue = lProperty.next(pValue.getDouble());
+    else
+      lValue = lProperty.snap(pValue.getDouble());
+
+    if (Double.isNaN(lValue))
+      return DCAMERR.DCAMERR_OUTOFRANGE;
+
+    pValue.setDouble(lValue);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @SuppressWarnings(
+  { "unchecked", "rawtypes" })
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetnextid(final Pointer<HDCAM_struct> h,
+                                                  final Pointer<IntValuedEnum<DCAMIDPROP>> pProp,
+                                                  final long option)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final Pointer lPointer = pProp;
+    final long lNextId = lCamera.getNextPropertyId(lPointer.getCLong());
+    if (lNextId < 0)
+      return DCAMERR.DCAMERR_NOPROPERTY;
+
+    lPointer.setCLong(lNextId);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetname(final Pointer<HDCAM_struct> h,
+                                                final long iProp,
+                                                final Pointer<Byte> text,
+                                                final long textbytes)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final SimulatedProperty lProperty = lCamera.getProperty(iProp);
+    if (lProperty == null)
+      return DCAMERR.DCAMERR_INVALIDPROPERTYID;
+
+    final byte[] lBytes = lProperty.mName.getBytes();
+    final byte[] lTerminated = new byte[(int) Math.min(lBytes.length + 1,
+                                                       textbytes)];
+    System.arraycopy(lBytes, 0, lTerminated, 0, lTerminated.length - 1);
+    text.setBytes(lTerminated);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  // Buffers:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAlloc(final Pointer<HDCAM_struct> h,
+                                             final long framecount)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    return lCamera.allocate(framecount);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAttach(final Pointer<HDCAM_struct> h,
+                                              final Pointer<DCAMBUF_ATTACH> param)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final DCAMBUF_ATTACH lAttach = param.get();
+    final int lBufferCount = (int) lAttach.buffercount();
+    final Pointer<Pointer<?>> lBuffers = lAttach.buffer();
+    if (lBuffers == null || lBufferCount <= 0)
+      return DCAMERR.DCAMERR_INVALIDPARAM;
+
+    final long[] lAddresses = new long[lBufferCount];
+    for (int i = 0; i < lBufferCount; i++)
+    {
+      final Pointer<?> lBuffer =
+                               lBuffers.getPointerAtOffset((long) i
+                                                           * Pointer.SIZE);
+      if (lBuffer == null)
+        return DCAMERR.DCAMERR_INVALIDPARAM;
+      lAddresses[i] = lBuffer.getPeer();
+    }
+
+    return lCamera.attach(lAddresses);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufRelease(final Pointer<HDCAM_struct> h,
+                                               final long iKind)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    return lCamera.release();
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufLockframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final DCAM_FRAME lFrame = pFrame.get();
+    final long[] lFrameInfo = new long[4];
+    final IntValuedEnum<DCAMERR> lError =
+                                        lCamera.getFrame(lFrame.iFrame(),
+                                                         lFrameInfo);
+    if (lError != DCAMERR.DCAMERR_SUCCESS)
+      return lError;
+
+    fillFrame(lFrame, lFrameInfo);
+    @SuppressWarnings("deprecation")
+    final Pointer<?> lBuffer = Pointer.pointerToAddress(lFrameInfo[0],
+                                                        2 * lFrameInfo[1]
+                                                                       * lFrameInfo[2]);
+    lFrame.buf(lBuffer);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public IntValuedEnum<DCAMERR> dcambufCopyframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final DCAM_FRAME lFrame = pFrame.get();
+    final long[] lFrameInfo = new long[4];
+    final IntValuedEnum<DCAMERR> lError =
+                                        lCamera.getFrame(lFrame.iFrame(),
+                                                         lFrameInfo);
+    if (lError != DCAMERR.DCAMERR_SUCCESS)
+      return lError;
+
+    final Pointer<?> lDestination = lFrame.buf();
+    if (lDestination == null)
+      return DCAMERR.DCAMERR_INVALIDPARAM;
+
+    final long lFrameBytes = 2 * lFrameInfo[1] * lFrameInfo[2];
+    Pointer.pointerToAddress(lFrameInfo[0], lFrameBytes)
+           .copyBytesAtOffsetTo(0, lDestination, 0, lFrameBytes);
+    fillFrame(lFrame, lFrameInfo);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  private static void fillFrame(final DCAM_FRAME pFrame,
+                                final long[] pFrameInfo)
+  {
+    pFrame.width(pFrameInfo[1]);
+    pFrame.height(pFrameInfo[2]);
+    pFrame.rowbytes(2 * pFrameInfo[1]);
+    pFrame.left(0);
+    pFrame.top(0);
+    pFrame.type(DCAM_PIXELTYPE.DCAM_PIXELTYPE_MONO16);
+    pFrame.framestamp(pFrameInfo[3]);
+  }
+
+  // Capture:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStart(final Pointer<HDCAM_struct> h,
+                                             final long mode)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    return lCamera.start(mode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStop(final Pointer<HDCAM_struct> h)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    return lCamera.stop();
+  }
+
+  @SuppressWarnings(
+  { "unchecked", "rawtypes" })
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStatus(final Pointer<HDCAM_struct> h,
+                                              final Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    ((Pointer) pStatus).setCLong(lCamera.getStatus());
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapTransferinfo(final Pointer<HDCAM_struct> h,
+                                                    final Pointer<DCAMCAP_TRANSFERINFO> param)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final long[] lTransferInfo = new long[2];
+    lCamera.getTransferInfo(lTransferInfo);
+    final DCAMCAP_TRANSFERINFO lInfo = param.get();
+    lInfo.nNewestFrameIndex(lTransferInfo[0]);
+    lInfo.nFrameCount(lTransferInfo[1]);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapFiretrigger(final Pointer<HDCAM_struct> h,
+                                                   final long iKind)
+  {
+    final SimulatedCamera lCamera = camera(h);
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    lCamera.fireTrigger();
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  // Wait:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitOpen(final Pointer<DCAMWAIT_OPEN> param)
+  {
+    final DCAMWAIT_OPEN lOpen = param.get();
+    final SimulatedCamera lCamera = camera(lOpen.hdcam());
+    if (lCamera == null)
+      return DCAMERR.DCAMERR_INVALIDHANDLE;
+
+    final SimulatedWait lWait = new SimulatedWait();
+    lCamera.addWait(lWait);
+
+    final long lHandle = newHandle();
+    mOpenWaits.put(lHandle, lWait);
+    @SuppressWarnings("deprecation")
+    final Pointer<HDCAMWAIT_struct> lHWait =
+                                           Pointer.pointerToAddress(lHandle,
+                                                                    HDCAMWAIT_struct.class);
+    lOpen.hwait(lHWait);
+    lOpen.supportevent(DCAMWAIT_EVENT.DCAMCAP_EVENT_TRANSFERRED.value
+                       | DCAMWAIT_EVENT.DCAMCAP_EVENT_FRAMEREADY.value
+                       | DCAMWAIT_EVENT.DCAMCAP_EVENT_EXPOSUREEND.value
+                       | DCAMWAIT_EVENT.DCAMCAP_EVENT_STOPPED.value);
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitClose(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    final SimulatedWait lWait = hWait == null ? null
+                                              : mOpenWaits.remove(hWait.getPeer());
+    if (lWait == null)
+      return DCAMERR.DCAMERR_INVALIDWAITHANDLE;
+
+    lWait.abort();
+    for (final SimulatedCamera lCamera : mOpenCameras.values())
+      lCamera.removeWait(lWait);
+    releaseHandle(hWait.getPeer());
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitStart(final Pointer<HDCAMWAIT_struct> hWait,
+                                              final Pointer<DCAMWAIT_START> param)
+  {
+    final SimulatedWait lWait = hWait == null ? null
+                                              : mOpenWaits.get(hWait.getPeer());
+    if (lWait == null)
+      return DCAMERR.DCAMERR_INVALIDWAITHANDLE;
+
+    final DCAMWAIT_START lStart = param.get();
+    final long[] lEventHappened = new long[1];
+    final IntValuedEnum<DCAMERR> lError =
+                                        lWait.await(lStart.eventmask(),
+                                                    lStart.timeout(),
+                                                    lEventHappened);
+    lStart.eventhappened(lEventHappened[0]);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitAbort(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    final SimulatedWait lWait = hWait == null ? null
+                                              : mOpenWaits.get(hWait.getPeer());
+    if (lWait == null)
+      return DCAMERR.DCAMERR_INVALIDWAITHANDLE;
+
+    lWait.abort();
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+}
@@ -0,0 +1,707 @@
+package dcamj2.sim;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import dcamapi.DcamapiLibrary.DCAMCAP_START;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.DcamapiLibrary.DCAMPROPATTRIBUTE;
+import dcamapi.DcamapiLibrary.DCAMPROPMODEVALUE;
+import dcamapi.DcamapiLibrary.DCAMPROPUNIT;
+import dcamapi.DcamapiLibrary.DCAMWAIT_EVENT;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Simulated camera: property table, attached buffers and a capture thread
+ * that writes synthetic 16-bit frames into the buffers at the rate given by
+ * the exposure and the readout time.
+ *
+ * Exposure and readout overlap as for a rolling shutter sensor, the frame
+ * period is the longest of the two. Internal and external trigger sources
+ * free-run (external triggers are assumed to arrive as fast as the camera
+ * can take them), the software trigger source waits for
+ * dcamcap_firetrigger.
+ *
+ * @author royer
+ */
+class SimulatedCamera
+{
+  private static final long cFrameReadyEvents =
+                                              DCAMWAIT_EVENT.DCAMCAP_EVENT_TRANSFERRED.value
+                                                | DCAMWAIT_EVENT.DCAMCAP_EVENT_EXPOSUREEND.value
+                                                | DCAMWAIT_EVENT.DCAMCAP_EVENT_FRAMEREADY.value;
+
+  private final int mIndex;
+  private final long mSensorWidth, mSensorHeight;
+  private final double mFullFrameReadoutTime;
+  private final boolean mWritePattern;
+
+  private final TreeMap<Long, SimulatedProperty> mProperties =
+                                                             new TreeMap<>();
+  private final long[] mPropertyIds;
+
+  private final CopyOnWriteArrayList<SimulatedWait> mWaits =
+                                                           new CopyOnWriteArrayList<>();
+
+  private final Semaphore mSoftwareTriggers = new Semaphore(0);
+
+  // Capture state, guarded by this:
+  private long[] mBufferAddresses;
+  private Pointer<Byte>[] mInternalBuffers;
+  private Thread mCaptureThread;
+  private volatile boolean mCapturing;
+  private volatile boolean mStopRequested;
+  private long mFrameCount;
+  private long mNewestFrameIndex = -1;
+  private long mWidth, mHeight;
+
+  SimulatedCamera(final int pIndex,
+                  final long pSensorWidth,
+                  final long pSensorHeight,
+                  final double pFullFrameReadoutTime,
+                  final boolean pWritePattern)
+  {
+    mIndex = pIndex;
+    mSensorWidth = pSensorWidth;
+    mSensorHeight = pSensorHeight;
+    mFullFrameReadoutTime = pFullFrameReadoutTime;
+    mWritePattern = pWritePattern;
+
+    final double lLineTime = pFullFrameReadoutTime / pSensorHeight;
+
+    add(SimulatedProperty.real(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME,
+                               "EXPOSURE TIME",
+                               DCAMPROPUNIT.DCAMPROP_UNIT_SECOND,
+                               lLineTime,
+                               10,
+                               lLineTime,
+                               0.01));
+    add(SimulatedProperty.integer(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS,
+                                  "SUBARRAY HPOS",
+                                  0,
+                                  pSensorWidth - 4,
+                                  4,
+                                  0));
+    add(SimulatedProperty.integer(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE,
+                                  "SUBARRAY HSIZE",
+                                  4,
+                                  pSensorWidth,
+                                  4,
+                                  pSensorWidth));
+    add(SimulatedProperty.integer(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS,
+                                  "SUBARRAY VPOS",
+                                  0,
+                                  pSensorHeight - 4,
+                                  4,
+                                  0));
+    add(SimulatedProperty.integer(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE,
+                                  "SUBARRAY VSIZE",
+                                  4,
+                                  pSensorHeight,
+                                  4,
+                                  pSensorHeight));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE,
+                               "SUBARRAY MODE",
+                               DCAMPROPMODEVALUE.DCAMPROP_MODE__OFF.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_MODE__OFF.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_MODE__ON.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_BINNING,
+                               "BINNING",
+                               1,
+                               1,
+                               2,
+                               4));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_TRIGGERSOURCE,
+                               "TRIGGER SOURCE",
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERSOURCE__INTERNAL.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERSOURCE__INTERNAL.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERSOURCE__EXTERNAL.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERSOURCE__SOFTWARE.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_TRIGGERACTIVE,
+                               "TRIGGER ACTIVE",
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERACTIVE__EDGE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERACTIVE__EDGE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERACTIVE__LEVEL.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERACTIVE__SYNCREADOUT.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_TRIGGER_MODE,
+                               "TRIGGER MODE",
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGER_MODE__NORMAL.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGER_MODE__NORMAL.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGER_MODE__START.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_TRIGGERPOLARITY,
+                               "TRIGGER POLARITY",
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERPOLARITY__NEGATIVE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERPOLARITY__NEGATIVE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGERPOLARITY__POSITIVE.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_TRIGGER_CONNECTOR,
+                               "TRIGGER CONNECTOR",
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGER_CONNECTOR__BNC.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGER_CONNECTOR__INTERFACE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_TRIGGER_CONNECTOR__BNC.value));
+    add(SimulatedProperty.integer(DCAMIDPROP.DCAM_IDPROP_TRIGGERTIMES,
+                                  "TRIGGER TIMES",
+                                  1,
+                                  10000,
+                                  1,
+                                  1));
+    add(SimulatedProperty.real(DCAMIDPROP.DCAM_IDPROP_TRIGGERDELAY,
+                               "TRIGGER DELAY",
+                               DCAMPROPUNIT.DCAMPROP_UNIT_SECOND,
+                               0,
+                               10,
+                               lLineTime,
+                               0));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_OUTPUTTRIGGER_POLARITY,
+                               "OUTPUT TRIGGER POLARITY",
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_POLARITY__POSITIVE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_POLARITY__NEGATIVE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_POLARITY__POSITIVE.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_OUTPUTTRIGGER_KIND,
+                               "OUTPUT TRIGGER KIND",
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_KIND__EXPOSURE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_KIND__LOW.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_KIND__EXPOSURE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_KIND__PROGRAMABLE.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_KIND__TRIGGERREADY.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_OUTPUTTRIGGER_KIND__HIGH.value));
+    add(SimulatedProperty.mode(DCAMIDPROP.DCAM_IDPROP_DEFECTCORRECT_MODE,
+                               "DEFECT CORRECT MODE",
+                               DCAMPROPMODEVALUE.DCAMPROP_MODE__ON.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_MODE__OFF.value,
+                               DCAMPROPMODEVALUE.DCAMPROP_MODE__ON.value));
+
+    final long lLong = DCAMPROPATTRIBUTE.DCAMPROP_TYPE_LONG.value;
+    final long lReal = DCAMPROPATTRIBUTE.DCAMPROP_TYPE_REAL.value;
+    final DCAMPROPUNIT lNone = DCAMPROPUNIT.DCAMPROP_UNIT_NONE;
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_IMAGE_WIDTH,
+                                  "IMAGE WIDTH",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_IMAGE_HEIGHT,
+                                  "IMAGE HEIGHT",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_IMAGE_ROWBYTES,
+                                  "IMAGE ROWBYTES",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_IMAGE_FRAMEBYTES,
+                                  "IMAGE FRAMEBYTES",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_IMAGE_PIXELTYPE,
+                                  "IMAGE PIXEL TYPE",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_BUFFER_ROWBYTES,
+                                  "BUFFER ROWBYTES",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_BUFFER_FRAMEBYTES,
+                                  "BUFFER FRAMEBYTES",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_BITSPERCHANNEL,
+                                  "BIT PER CHANNEL",
+                                  lLong,
+                                  lNone,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_TIMING_READOUTTIME,
+                                  "TIMING READOUT TIME",
+                                  lReal,
+                                  DCAMPROPUNIT.DCAMPROP_UNIT_SECOND,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_INTERNAL_FRAMEINTERVAL,
+                                  "INTERNAL FRAME INTERVAL",
+                                  lReal,
+                                  DCAMPROPUNIT.DCAMPROP_UNIT_SECOND,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_INTERNALFRAMERATE,
+                                  "INTERNAL FRAME RATE",
+                                  lReal,
+                                  DCAMPROPUNIT.DCAMPROP_UNIT_PERSECOND,
+                                  false));
+    add(SimulatedProperty.derived(DCAMIDPROP.DCAM_IDPROP_SENSORTEMPERATURE,
+                                  "SENSOR TEMPERATURE",
+                                  lReal,
+                                  DCAMPROPUNIT.DCAMPROP_UNIT_CELSIUS,
+                                  true));
+
+    mPropertyIds = new long[mProperties.size()];
+    int i = 0;
+    for (final Long lId : mProperties.keySet())
+      mPropertyIds[i++] = lId;
+  }
+
+  private void add(final SimulatedProperty pProperty)
+  {
+    mProperties.put(pProperty.mId, pProperty);
+  }
+
+  int getIndex()
+  {
+    return mIndex;
+  }
+
+  SimulatedProperty getProperty(final long pId)
+  {
+    return mProperties.get(pId);
+  }
+
+  /**
+   * Returns the id of the property following the given one, or -1
+   *
+   * @param pId
+   *          property id (0 for the first)
+   * @return next property id or -1
+   */
+  long getNextPropertyId(final long pId)
+  {
+    int lIndex = Arrays.binarySearch(mPropertyIds, pId);
+    lIndex = lIndex < 0 ? -lIndex - 1 : lIndex + 1;
+    return lIndex < mPropertyIds.length ? mPropertyIds[lIndex] : -1;
+  }
+
+  void addWait(final SimulatedWait pWait)
+  {
+    mWaits.add(pWait);
+  }
+
+  void removeWait(final SimulatedWait pWait)
+  {
+    mWaits.remove(pWait);
+  }
+
+  private void signal(final long pEvents)
+  {
+    for (final SimulatedWait lWait : mWaits)
+      lWait.signal(pEvents);
+  }
+
+  // Properties:
+
+  private double value(final DCAMIDPROP pId)
+  {
+    return mProperties.get(pId.value).mValue;
+  }
+
+  private boolean isSubarrayOn()
+  {
+    return value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYMODE) == DCAMPROPMODEVALUE.DCAMPROP_MODE__ON.value;
+  }
+
+  private long getImageWidth()
+  {
+    final long lWidth = isSubarrayOn()
+                                       ? (long) value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE)
+                                       : mSensorWidth;
+    return lWidth / (long) value(DCAMIDPROP.DCAM_IDPROP_BINNING);
+  }
+
+  private long getImageHeight()
+  {
+    final long lHeight = isSubarrayOn()
+                                        ? (long) value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE)
+                                        : mSensorHeight;
+    return lHeight / (long) value(DCAMIDPROP.DCAM_IDPROP_BINNING);
+  }
+
+  private double getReadoutTime()
+  {
+    final double lRows = isSubarrayOn()
+                                        ? value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE)
+                                        : mSensorHeight;
+    return mFullFrameReadoutTime * lRows / mSensorHeight;
+  }
+
+  private double getFrameInterval()
+  {
+    return Math.max(value(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME),
+                    getReadoutTime());
+  }
+
+  /**
+   * Reads a property value
+   *
+   * @param pId
+   *          property id
+   * @param pValue
+   *          receives the value, index 0
+   * @return driver error code
+   */
+  IntValuedEnum<DCAMERR> getValue(final long pId, final double[] pValue)
+  {
+    final SimulatedProperty lProperty = mProperties.get(pId);
+    if (lProperty == null)
+      return DCAMERR.DCAMERR_INVALIDPROPERTYID;
+
+    if (lProperty.isWritable())
+      pValue[0] = lProperty.mValue;
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_IMAGE_WIDTH.value)
+      pValue[0] = getImageWidth();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_IMAGE_HEIGHT.value)
+      pValue[0] = getImageHeight();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_IMAGE_ROWBYTES.value
+             || pId == DCAMIDPROP.DCAM_IDPROP_BUFFER_ROWBYTES.value)
+      pValue[0] = 2 * getImageWidth();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_IMAGE_FRAMEBYTES.value
+             || pId == DCAMIDPROP.DCAM_IDPROP_BUFFER_FRAMEBYTES.value)
+      pValue[0] = 2 * getImageWidth() * getImageHeight();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_IMAGE_PIXELTYPE.value)
+      pValue[0] = 2; // DCAM_PIXELTYPE_MONO16
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_BITSPERCHANNEL.value)
+      pValue[0] = 16;
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_TIMING_READOUTTIME.value)
+      pValue[0] = getReadoutTime();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_INTERNAL_FRAMEINTERVAL.value)
+      pValue[0] = getFrameInterval();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_INTERNALFRAMERATE.value)
+      pValue[0] = 1 / getFrameInterval();
+    else if (pId == DCAMIDPROP.DCAM_IDPROP_SENSORTEMPERATURE.value)
+      pValue[0] = -10 + 0.1 * Math.sin(System.nanoTime() * 1e-9);
+    else
+      return DCAMERR.DCAMERR_NOTREADABLE;
+
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  /**
+   * Writes a property value, the effective (snapped) value is returned
+   *
+   * @param pId
+   *          property id
+   * @param pValue
+   *          requested value, receives the effective value, index 0
+   * @return driver error code
+   */
+  synchronized IntValuedEnum<DCAMERR> setValue(final long pId,
+                                               final double[] pValue)
+  {
+    final SimulatedProperty lProperty = mProperties.get(pId);
+    if (lProperty == null)
+      return DCAMERR.DCAMERR_INVALIDPROPERTYID;
+    if (!lProperty.isWritable())
+      return DCAMERR.DCAMERR_NOTWRITABLE;
+
+    // Only the exposure can be changed while capturing:
+    if (mCapturing && pId != DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME.value)
+      return DCAMERR.DCAMERR_BUSY;
+
+    final double lValue = lProperty.snap(pValue[0]);
+    if (Double.isNaN(lValue))
+      return DCAMERR.DCAMERR_OUTOFRANGE;
+
+    final double lPreviousValue = lProperty.mValue;
+    lProperty.mValue = lValue;
+
+    if (isSubarrayOn() && !isSubarrayValid())
+    {
+      lProperty.mValue = lPreviousValue;
+      return DCAMERR.DCAMERR_INVALIDSUBARRAY;
+    }
+
+    pValue[0] = lValue;
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  private boolean isSubarrayValid()
+  {
+    final long lBinning = (long) value(DCAMIDPROP.DCAM_IDPROP_BINNING);
+    final long lHPos = (long) value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHPOS);
+    final long lHSize = (long) value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYHSIZE);
+    final long lVPos = (long) value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVPOS);
+    final long lVSize = (long) value(DCAMIDPROP.DCAM_IDPROP_SUBARRAYVSIZE);
+    return lHPos + lHSize <= mSensorWidth
+           && lVPos + lVSize <= mSensorHeight
+           && lHSize % lBinning == 0
+           && lVSize % lBinning == 0;
+  }
+
+  // Buffers:
+
+  synchronized IntValuedEnum<DCAMERR> attach(final long[] pAddresses)
+  {
+    if (mCapturing)
+      return DCAMERR.DCAMERR_BUSY;
+    if (mBufferAddresses != null)
+      return DCAMERR.DCAMERR_ALREADYOCCUPIED;
+    if (pAddresses.length == 0)
+      return DCAMERR.DCAMERR_INVALIDPARAM;
+    mBufferAddresses = pAddresses;
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  @SuppressWarnings("unchecked")
+  synchronized IntValuedEnum<DCAMERR> allocate(final long pFrameCount)
+  {
+    if (mCapturing)
+      return DCAMERR.DCAMERR_BUSY;
+    if (mBufferAddresses != null)
+      return DCAMERR.DCAMERR_ALREADYOCCUPIED;
+    if (pFrameCount < 1)
+      return DCAMERR.DCAMERR_INVALIDPARAM;
+
+    final long lFrameBytes = 2 * getImageWidth() * getImageHeight();
+    @SuppressWarnings(
+    { "rawtypes", "unchecked" })
+    final Pointer<Byte>[] lInternalBuffers = new Pointer[(int) pFrameCount];
+    mInternalBuffers = lInternalBuffers;
+    final long[] lAddresses = new long[(int) pFrameCount];
+    for (int i = 0; i < pFrameCount; i++)
+    {
+      mInternalBuffers[i] = Pointer.allocateBytes(lFrameBytes);
+      lAddresses[i] = mInternalBuffers[i].getPeer();
+    }
+    mBufferAddresses = lAddresses;
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  synchronized IntValuedEnum<DCAMERR> release()
+  {
+    if (mCapturing)
+      return DCAMERR.DCAMERR_BUSY;
+
+    if (mInternalBuffers != null)
+      for (final Pointer<Byte> lBuffer : mInternalBuffers)
+        lBuffer.release();
+    mInternalBuffers = null;
+    mBufferAddresses = null;
+    mFrameCount = 0;
+    mNewestFrameIndex = -1;
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  /**
+   * Returns the address, geometry and frame stamp of a captured frame
+   *
+   * @param pFrameIndex
+   *          frame index in the buffer ring, -1 for the newest
+   * @param pFrameInfo
+   *          receives address, width, height and frame stamp
+   * @return driver error code
+   */
+  synchronized IntValuedEnum<DCAMERR> getFrame(final long pFrameIndex,
+                                               final long[] pFrameInfo)
+  {
+    if (mBufferAddresses == null)
+      return DCAMERR.DCAMERR_NOTREADY;
+
+    final long lIndex = pFrameIndex < 0 ? mNewestFrameIndex : pFrameIndex;
+    if (lIndex < 0 || lIndex >= mBufferAddresses.length
+        || lIndex >= mFrameCount)
+      return DCAMERR.DCAMERR_INVALIDFRAMEINDEX;
+
+    pFrameInfo[0] = mBufferAddresses[(int) lIndex];
+    pFrameInfo[1] = mWidth;
+    pFrameInfo[2] = mHeight;
+    pFrameInfo[3] = lIndex;
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  // Capture:
+
+  synchronized long getStatus()
+  {
+    if (mCapturing)
+      return DCAMCAP_STATUS.DCAMCAP_STATUS_BUSY.value;
+    if (mBufferAddresses != null)
+      return DCAMCAP_STATUS.DCAMCAP_STATUS_READY.value;
+    return DCAMCAP_STATUS.DCAMCAP_STATUS_STABLE.value;
+  }
+
+  synchronized void getTransferInfo(final long[] pTransferInfo)
+  {
+    pTransferInfo[0] = mNewestFrameIndex;
+    pTransferInfo[1] = mFrameCount;
+  }
+
+  synchronized IntValuedEnum<DCAMERR> start(final long pMode)
+  {
+    if (mCapturing)
+      return DCAMERR.DCAMERR_BUSY;
+    if (mBufferAddresses == null)
+      return DCAMERR.DCAMERR_NOTREADY;
+
+    final boolean lSnap = pMode == DCAMCAP_START.DCAMCAP_START_SNAP.value;
+    final long[] lAddresses = mBufferAddresses;
+    mWidth = getImageWidth();
+    mHeight = getImageHeight();
+    mFrameCount = 0;
+    mNewestFrameIndex = -1;
+    mStopRequested = false;
+    mCapturing = true;
+    mSoftwareTriggers.drainPermits();
+    for (final SimulatedWait lWait : mWaits)
+      lWait.clear();
+
+    mCaptureThread = new Thread(() -> captureLoop(lAddresses,
+                                                  mWidth,
+                                                  mHeight,
+                                                  lSnap),
+                                "DcamSimulator-" + mIndex);
+    mCaptureThread.setDaemon(true);
+    mCaptureThread.start();
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  IntValuedEnum<DCAMERR> stop()
+  {
+    final Thread lCaptureThread;
+    synchronized (this)
+    {
+      lCaptureThread = mCaptureThread;
+      mStopRequested = true;
+    }
+
+    if (lCaptureThread != null)
+    {
+      LockSupport.unpark(lCaptureThread);
+      try
+      {
+        lCaptureThread.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+  void fireTrigger()
+  {
+    mSoftwareTriggers.release();
+  }
+
+  private void captureLoop(final long[] pAddresses,
+                           final long pWidth,
+                           final long pHeight,
+                           final boolean pSnap)
+  {
+    final int lBufferCount = pAddresses.length;
+    final short[] lPattern = new short[(int) (pWidth + pHeight)];
+    for (int i = 0; i < lPattern.length; i++)
+      lPattern[i] = (short) (i * 16);
+
+    long lDeadline = System.nanoTime();
+    boolean lFirst = true;
+
+    try
+    {
+      for (long lFrame = 0; !pSnap || lFrame < lBufferCount; lFrame++)
+      {
+        if (!waitForTrigger())
+          break;
+
+        final double lExposure =
+                               value(DCAMIDPROP.DCAM_IDPROP_EXPOSURETIME);
+        final double lPeriod = lFirst ? lExposure + getReadoutTime()
+                                      : Math.max(lExposure,
+                                                 getReadoutTime());
+        lFirst = false;
+
+        final long lNow = System.nanoTime();
+        // If we are late by more than a period we do not try to catch up:
+        if (lNow - lDeadline > (long) (lPeriod * 1e9))
+          lDeadline = lNow;
+        lDeadline += (long) (lPeriod * 1e9);
+
+        if (!parkUntil(lDeadline))
+          break;
+
+        final int lIndexInRing = (int) (lFrame % lBufferCount);
+        writeFrame(pAddresses[lIndexInRing],
+                   pWidth,
+                   pHeight,
+                   lFrame,
+                   lPattern);
+
+        synchronized (this)
+        {
+          mFrameCount = lFrame + 1;
+          mNewestFrameIndex = lIndexInRing;
+        }
+        signal(cFrameReadyEvents);
+      }
+    }
+    finally
+    {
+      synchronized (this)
+      {
+        mCapturing = false;
+        mCaptureThread = null;
+      }
+      signal(DCAMWAIT_EVENT.DCAMCAP_EVENT_STOPPED.value);
+    }
+  }
+
+  private boolean waitForTrigger()
+  {
+    if (value(DCAMIDPROP.DCAM_IDPROP_TRIGGERSOURCE) != DCAMPROPMODEVALUE.DCAMPROP_TRIGGERSOURCE__SOFTWARE.value)
+      return !mStopRequested;
+
+    try
+    {
+      while (!mStopRequested)
+        if (mSoftwareTriggers.tryAcquire(10, TimeUnit.MILLISECONDS))
+          return true;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  private boolean parkUntil(final long pDeadline)
+  {
+    long lRemaining;
+    while ((lRemaining = pDeadline - System.nanoTime()) > 0)
+    {
+      if (mStopRequested)
+        return false;
+      LockSupport.parkNanos(lRemaining);
+    }
+    return !mStopRequested;
+  }
+
+  @SuppressWarnings("deprecation")
+  private void writeFrame(final long pAddress,
+                          final long pWidth,
+                          final long pHeight,
+                          final long pFrame,
+                          final short[] pPattern)
+  {
+    final Pointer<?> lFrame = Pointer.pointerToAddress(pAddress,
+                                                       2 * pWidth
+                                                                 * pHeight);
+    if (mWritePattern)
+    {
+      // Diagonal ramp, each row is a shifted window into the pattern:
+      for (int y = 0; y < pHeight; y++)
+        lFrame.setShortsAtOffset(2L * y * pWidth,
+                                 pPattern,
+                                 y,
+                                 (int) pWidth);
+    }
+
+    // First pixel holds the frame index:
+    lFrame.setShortAtOffset(0, (short) pFrame);
+  }
+
+}
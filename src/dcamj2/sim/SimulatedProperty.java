@@ -0,0 +1,198 @@
+package dcamj2.sim;
+
+import java.util.Arrays;
+
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.DcamapiLibrary.DCAMPROPATTRIBUTE;
+import dcamapi.DcamapiLibrary.DCAMPROPUNIT;
+
+/**
+ * Simulated property: attributes as reported by dcamprop_getattr and the
+ * current value. Derived (read-only) properties get their value from the
+ * simulated camera instead.
+ *
+ * @author royer
+ */
+class SimulatedProperty
+{
+  final long mId;
+  final String mName;
+  final long mType;
+  final long mAttributes;
+  final DCAMPROPUNIT mUnit;
+  final double mMin, mMax, mStep, mDefault;
+  final double[] mValues;
+
+  volatile double mValue;
+
+  private SimulatedProperty(final DCAMIDPROP pId,
+                            final String pName,
+                            final long pType,
+                            final long pAttributes,
+                            final DCAMPROPUNIT pUnit,
+                            final double pMin,
+                            final double pMax,
+                            final double pStep,
+                            final double pDefault,
+                            final double[] pValues)
+  {
+    mId = pId.value;
+    mName = pName;
+    mType = pType;
+    mAttributes = pAttributes;
+    mUnit = pUnit;
+    mMin = pMin;
+    mMax = pMax;
+    mStep = pStep;
+    mDefault = pDefault;
+    mValues = pValues;
+    mValue = pDefault;
+  }
+
+  static SimulatedProperty real(final DCAMIDPROP pId,
+                                final String pName,
+                                final DCAMPROPUNIT pUnit,
+                                final double pMin,
+                                final double pMax,
+                                final double pStep,
+                                final double pDefault)
+  {
+    return new SimulatedProperty(pId,
+                                 pName,
+                                 DCAMPROPATTRIBUTE.DCAMPROP_TYPE_REAL.value,
+                                 readWrite(),
+                                 pUnit,
+                                 pMin,
+                                 pMax,
+                                 pStep,
+                                 pDefault,
+                                 null);
+  }
+
+  static SimulatedProperty integer(final DCAMIDPROP pId,
+                                   final String pName,
+                                   final double pMin,
+                                   final double pMax,
+                                   final double pStep,
+                                   final double pDefault)
+  {
+    return new SimulatedProperty(pId,
+                                 pName,
+                                 DCAMPROPATTRIBUTE.DCAMPROP_TYPE_LONG.value,
+                                 readWrite(),
+                                 DCAMPROPUNIT.DCAMPROP_UNIT_NONE,
+                                 pMin,
+                                 pMax,
+                                 pStep,
+                                 pDefault,
+                                 null);
+  }
+
+  static SimulatedProperty mode(final DCAMIDPROP pId,
+                                final String pName,
+                                final double pDefault,
+                                final double... pValues)
+  {
+    final double[] lValues = pValues.clone();
+    Arrays.sort(lValues);
+    return new SimulatedProperty(pId,
+                                 pName,
+                                 DCAMPROPATTRIBUTE.DCAMPROP_TYPE_MODE.value,
+                                 readWrite(),
+                                 DCAMPROPUNIT.DCAMPROP_UNIT_NONE,
+                                 lValues[0],
+                                 lValues[lValues.length - 1],
+                                 1,
+                                 pDefault,
+                                 lValues);
+  }
+
+  static SimulatedProperty derived(final DCAMIDPROP pId,
+                                   final String pName,
+                                   final long pType,
+                                   final DCAMPROPUNIT pUnit,
+                                   final boolean pVolatile)
+  {
+    return new SimulatedProperty(pId,
+                                 pName,
+                                 pType,
+                                 DCAMPROPATTRIBUTE.DCAMPROP_ATTR_READABLE.value
+                                       | (pVolatile ? DCAMPROPATTRIBUTE.DCAMPROP_ATTR_VOLATILE.value
+                                                    : 0),
+                                 pUnit,
+                                 0,
+                                 Double.MAX_VALUE,
+                                 0,
+                                 0,
+                                 null);
+  }
+
+  private static long readWrite()
+  {
+    return DCAMPROPATTRIBUTE.DCAMPROP_ATTR_READABLE.value
+           | DCAMPROPATTRIBUTE.DCAMPROP_ATTR_WRITABLE.value;
+  }
+
+  boolean isWritable()
+  {
+    return (mAttributes
+            & DCAMPROPATTRIBUTE.DCAMPROP_ATTR_WRITABLE.value) != 0;
+  }
+
+  /**
+   * Snaps a requested value the way the driver would: to the nearest valid
+   * mode value, or to the step and range of the property.
+   *
+   * @param pValue
+   *          requested value
+   * @return snapped value, or NaN if the value is out of range
+   */
+  double snap(final double pValue)
+  {
+    if (Double.isNaN(pValue) || pValue < mMin || pValue > mMax)
+      return Double.NaN;
+
+    if (mValues != null)
+    {
+      for (final double lValue : mValues)
+        if (lValue == pValue)
+          return lValue;
+      return Double.NaN;
+    }
+
+    if (mStep > 0)
+      return Math.min(mMax,
+                      mMin + Math.round((pValue - mMin) / mStep) * mStep);
+
+    return pValue;
+  }
+
+  /**
+   * Returns the valid value following the given one, or NaN if there is none
+   *
+   * @param pValue
+   *          value
+   * @return next valid value or NaN
+   */
+  double next(final double pValue)
+  {
+    if (mValues != null)
+    {
+      for (final double lValue : mValues)
+        if (lValue > pValue)
+          return lValue;
+      return Double.NaN;
+    }
+
+    if (mStep <= 0)
+      return Double.NaN;
+
+    final double lNext = pValue < mMin ? mMin
+                                       : mMin + (Math.floor((pValue - mMin)
+                                                            / mStep)
+                                                 + 1)
+                                                * mStep;
+    return lNext > mMax ? Double.NaN : lNext;
+  }
+
+}
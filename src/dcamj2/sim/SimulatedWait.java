@@ -0,0 +1,102 @@
+package dcamj2.sim;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMWAIT_TIMEOUT;
+
+import org.bridj.IntValuedEnum;
+
+/**
+ * Simulated wait handle. Events are latched: an event signaled while nobody
+ * waits is reported by the next wait whose mask covers it, as the driver
+ * does.
+ *
+ * @author royer
+ */
+class SimulatedWait
+{
+  private long mPendingEvents;
+  private long mAbortCount;
+
+  /**
+   * Signals events to this wait handle
+   *
+   * @param pEvents
+   *          event bits
+   */
+  synchronized void signal(final long pEvents)
+  {
+    mPendingEvents |= pEvents;
+    notifyAll();
+  }
+
+  /**
+   * Clears all pending events, called when a new capture starts
+   */
+  synchronized void clear()
+  {
+    mPendingEvents = 0;
+  }
+
+  /**
+   * Aborts all current waits
+   */
+  synchronized void abort()
+  {
+    mAbortCount++;
+    notifyAll();
+  }
+
+  /**
+   * Waits for one of the events in the given mask
+   *
+   * @param pEventMask
+   *          event mask
+   * @param pTimeOutInMilliseconds
+   *          time out in milliseconds
+   * @param pEventHappened
+   *          receives the events that happened, index 0
+   * @return driver error code
+   */
+  synchronized IntValuedEnum<DCAMERR> await(final long pEventMask,
+                                            final long pTimeOutInMilliseconds,
+                                            final long[] pEventHappened)
+  {
+    final boolean lInfinite =
+                            pTimeOutInMilliseconds < 0
+                              || pTimeOutInMilliseconds == DCAMWAIT_TIMEOUT.DCAMWAIT_TIMEOUT_INFINITE.value;
+    final long lDeadline = System.nanoTime()
+                           + pTimeOutInMilliseconds * 1000000L;
+    final long lAbortCount = mAbortCount;
+
+    try
+    {
+      while ((mPendingEvents & pEventMask) == 0)
+      {
+        if (mAbortCount != lAbortCount)
+          return DCAMERR.DCAMERR_ABORT;
+
+        if (lInfinite)
+          wait();
+        else
+        {
+          final long lRemainingNanos = lDeadline - System.nanoTime();
+          if (lRemainingNanos <= 0)
+            return DCAMERR.DCAMERR_TIMEOUT;
+          wait(lRemainingNanos / 1000000L,
+               (int) (lRemainingNanos % 1000000L));
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return DCAMERR.DCAMERR_ABORT;
+    }
+
+    final long lHappened = mPendingEvents & pEventMask;
+    mPendingEvents &= ~lHappened;
+    pEventHappened[0] = lHappened;
+    return DCAMERR.DCAMERR_SUCCESS;
+  }
+
+}
@@ -0,0 +1,113 @@
+package dcamj2.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import dcamj2.backend.DcamFunction;
+
+/**
+ * Lock-free call statistics of one driver function on one device: number of
+ * calls, number of errors, and for the calls that were timed their total and
+ * maximal duration and a latency histogram with power-of-two buckets (bucket
+ * i counts calls that took less than 2^i nanoseconds, and at least 2^(i-1)).
+ *
+ * @author royer
+ */
+public class DcamCallStatistics
+{
+  /**
+   * Number of histogram buckets
+   */
+  public static final int cNumberOfBuckets = 40;
+
+  private static final int cErrors = cNumberOfBuckets;
+  private static final int cTotalNanos = cNumberOfBuckets + 1;
+  private static final int cMaxNanos = cNumberOfBuckets + 2;
+  private static final int cCalls = cNumberOfBuckets + 3;
+
+  private final DcamFunction mFunction;
+  private final long mDeviceId;
+
+  // buckets, then errors, total, max and calls, in a single array. The number
+  // of timed calls is the sum of the buckets:
+  private final AtomicLongArray mCounters =
+                                          new AtomicLongArray(cNumberOfBuckets
+                                                              + 4);
+
+  DcamCallStatistics(final DcamFunction pFunction, final long pDeviceId)
+  {
+    mFunction = pFunction;
+    mDeviceId = pDeviceId;
+  }
+
+  /**
+   * Counts a call that was not timed
+   *
+   * @param pError
+   *          true if the call failed
+   */
+  void count(final boolean pError)
+  {
+    mCounters.incrementAndGet(cCalls);
+    if (pError)
+      mCounters.incrementAndGet(cErrors);
+  }
+
+  /**
+   * Records a timed call
+   *
+   * @param pDurationNanos
+   *          call duration in nanoseconds
+   * @param pError
+   *          true if the call failed
+   */
+  void record(final long pDurationNanos, final boolean pError)
+  {
+    count(pError);
+    final int lBucket =
+                      Math.min(cNumberOfBuckets - 1,
+                               64 - Long.numberOfLeadingZeros(Math.max(0,
+                                                                       pDurationNanos)));
+    mCounters.incrementAndGet(lBucket);
+    mCounters.addAndGet(cTotalNanos, pDurationNanos);
+
+    long lMax;
+    while (pDurationNanos > (lMax = mCounters.get(cMaxNanos)))
+      if (mCounters.compareAndSet(cMaxNanos, lMax, pDurationNanos))
+        break;
+  }
+
+  /**
+   * Resets all counters
+   */
+  void reset()
+  {
+    for (int i = 0; i < mCounters.length(); i++)
+      mCounters.set(i, 0);
+  }
+
+  /**
+   * Returns a snapshot of these statistics
+   *
+   * @return snapshot
+   */
+  public DcamCallStatisticsSnapshot snapshot()
+  {
+    final long[] lBuckets = new long[cNumberOfBuckets];
+    long lTimedCalls = 0;
+    for (int i = 0; i < cNumberOfBuckets; i++)
+    {
+      lBuckets[i] = mCounters.get(i);
+      lTimedCalls += lBuckets[i];
+    }
+
+    return new DcamCallStatisticsSnapshot(mFunction.getNativeName(),
+                                          mDeviceId,
+                                          mCounters.get(cCalls),
+                                          lTimedCalls,
+                                          mCounters.get(cErrors),
+                                          mCounters.get(cTotalNanos),
+                                          mCounters.get(cMaxNanos),
+                                          lBuckets);
+  }
+
+}
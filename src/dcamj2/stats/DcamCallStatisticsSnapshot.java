@@ -0,0 +1,198 @@
+package dcamj2.stats;
+
+/**
+ * Immutable snapshot of the call statistics of one driver function on one
+ * device. Calls and errors are exact, durations are measured on all calls or,
+ * for the cheap functions called in tight loops, on a sample of the calls
+ * (see {@link StatisticsDcamBackend#isSampled(dcamj2.backend.DcamFunction)}).
+ * Percentiles are estimated from the histogram and given as the upper bound of
+ * the bucket they fall in.
+ *
+ * @author royer
+ */
+public class DcamCallStatisticsSnapshot
+{
+  private final String mFunction;
+  private final long mDeviceId;
+  private final long mCalls;
+  private final long mTimedCalls;
+  private final long mErrors;
+  private final long mTotalNanos;
+  private final long mMaxNanos;
+  private final long[] mBuckets;
+
+  DcamCallStatisticsSnapshot(final String pFunction,
+                             final long pDeviceId,
+                             final long pCalls,
+                             final long pTimedCalls,
+                             final long pErrors,
+                             final long pTotalNanos,
+                             final long pMaxNanos,
+                             final long[] pBuckets)
+  {
+    mFunction = pFunction;
+    mDeviceId = pDeviceId;
+    mCalls = pCalls;
+    mTimedCalls = pTimedCalls;
+    mErrors = pErrors;
+    mTotalNanos = pTotalNanos;
+    mMaxNanos = pMaxNanos;
+    mBuckets = pBuckets;
+  }
+
+  /**
+   * Returns the name of the DCAM-API function
+   *
+   * @return function name
+   */
+  public String getFunction()
+  {
+    return mFunction;
+  }
+
+  /**
+   * Returns the device id (index), -1 for calls not made on a device
+   *
+   * @return device id
+   */
+  public long getDeviceId()
+  {
+    return mDeviceId;
+  }
+
+  /**
+   * Returns the number of calls
+   *
+   * @return number of calls
+   */
+  public long getCalls()
+  {
+    return mCalls;
+  }
+
+  /**
+   * Returns the number of calls that were timed
+   *
+   * @return number of timed calls
+   */
+  public long getTimedCalls()
+  {
+    return mTimedCalls;
+  }
+
+  /**
+   * Returns the number of calls that did not succeed
+   *
+   * @return number of errors
+   */
+  public long getErrors()
+  {
+    return mErrors;
+  }
+
+  /**
+   * Returns the total time spent in this function, estimated from the timed
+   * calls
+   *
+   * @return total time in nanoseconds
+   */
+  public long getTotalNanos()
+  {
+    return mTimedCalls == 0 ? 0
+                            : (long) ((double) mTotalNanos / mTimedCalls
+                                      * mCalls);
+  }
+
+  /**
+   * Returns the mean duration of the timed calls
+   *
+   * @return mean duration in nanoseconds
+   */
+  public double getMeanNanos()
+  {
+    return mTimedCalls == 0 ? 0 : (double) mTotalNanos / mTimedCalls;
+  }
+
+  /**
+   * Returns the longest duration of the timed calls
+   *
+   * @return max duration in nanoseconds
+   */
+  public long getMaxNanos()
+  {
+    return mMaxNanos;
+  }
+
+  /**
+   * Returns the median call duration
+   *
+   * @return median in nanoseconds
+   */
+  public long getP50Nanos()
+  {
+    return getPercentileNanos(0.5);
+  }
+
+  /**
+   * Returns the 99th percentile of the call duration
+   *
+   * @return 99th percentile in nanoseconds
+   */
+  public long getP99Nanos()
+  {
+    return getPercentileNanos(0.99);
+  }
+
+  /**
+   * Returns a percentile of the call duration
+   *
+   * @param pFraction
+   *          fraction between 0 and 1
+   * @return percentile in nanoseconds, at most the max duration
+   */
+  public long getPercentileNanos(final double pFraction)
+  {
+    long lCount = 0;
+    for (final long lBucket : mBuckets)
+      lCount += lBucket;
+    if (lCount == 0)
+      return 0;
+
+    final long lRank = (long) Math.ceil(pFraction * lCount);
+    long lCumulated = 0;
+    for (int i = 0; i < mBuckets.length; i++)
+    {
+      lCumulated += mBuckets[i];
+      if (lCumulated >= lRank)
+        return Math.min(mMaxNanos, 1L << i);
+    }
+    return mMaxNanos;
+  }
+
+  /**
+   * Returns the latency histogram, bucket i counts calls shorter than 2^i
+   * nanoseconds
+   *
+   * @return histogram buckets
+   */
+  public long[] getBuckets()
+  {
+    return mBuckets.clone();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%s [device=%d, calls=%d, timed=%d, errors=%d, mean=%.0f ns, p50=%d ns, p99=%d ns, max=%d ns]",
+                         mFunction,
+                         mDeviceId,
+                         mCalls,
+                         mTimedCalls,
+                         mErrors,
+                         getMeanNanos(),
+                         getP50Nanos(),
+                         getP99Nanos(),
+                         mMaxNanos);
+  }
+
+}
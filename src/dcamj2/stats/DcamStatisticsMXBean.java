@@ -0,0 +1,37 @@
+package dcamj2.stats;
+
+import java.util.List;
+
+/**
+ * JMX view of the driver call statistics
+ *
+ * @author royer
+ */
+public interface DcamStatisticsMXBean
+{
+  /**
+   * Returns the statistics of every function called so far, per device
+   *
+   * @return snapshots
+   */
+  List<DcamCallStatisticsSnapshot> getSnapshots();
+
+  /**
+   * Returns the total number of driver calls
+   *
+   * @return number of calls
+   */
+  long getTotalCalls();
+
+  /**
+   * Returns the total number of driver calls that did not succeed
+   *
+   * @return number of errors
+   */
+  long getTotalErrors();
+
+  /**
+   * Resets all statistics
+   */
+  void reset();
+}
@@ -0,0 +1,695 @@
+package dcamj2.stats;
+
+import static org.bridj.Pointer.getPeer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import dcamapi.DCAMAPI_INIT;
+import dcamapi.DCAMBUF_ATTACH;
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMDEV_OPEN;
+import dcamapi.DCAMDEV_STRING;
+import dcamapi.DCAMWAIT_OPEN;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DCAM_PROPERTYATTR;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+import dcamj2.backend.DcamBackend;
+import dcamj2.backend.DcamFunction;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend that forwards every call to another backend and keeps, per
+ * device and per driver function, a call and error count and a latency
+ * histogram. Recording is lock-free and does not allocate. Every call and
+ * every error is counted, and every call is timed except for the cheap calls
+ * made in tight loops (status, property value and transfer info reads): only
+ * one of those in {@link #cSamplingPeriod} per function is timed, the first
+ * one included. The two clock reads cost about 30 ns each on hosts without a
+ * TSC clock source, which would otherwise dominate the cost of these calls,
+ * while slow and rare calls (attach, start, wait...) keep all their outliers.
+ * For sampled functions, durations, means, percentiles and the max are
+ * estimated from the timed calls. The overhead measured by
+ * DcamStatisticsBenchmark on the status call is 15 to 30 ns per call.
+ * Statistics are available as snapshots and through JMX
+ * (dcamj2:type=DcamStatistics).
+ *
+ * @author royer
+ */
+public class StatisticsDcamBackend implements
+                                   DcamBackend,
+                                   DcamStatisticsMXBean
+{
+  /**
+   * JMX object name of the statistics
+   */
+  public static final String cObjectName = "dcamj2:type=DcamStatistics";
+
+  private static final int cNumberOfFunctions =
+                                              DcamFunction.values().length;
+
+  /**
+   * One call in this many is timed for the sampled functions, see
+   * {@link #isSampled(DcamFunction)}. Must be a power of two.
+   */
+  public static final int cSamplingPeriod = 16;
+
+  // Timing masks per function, 0 for functions that are always timed:
+  private static final int[] cSamplingMasks = new int[cNumberOfFunctions];
+  static
+  {
+    for (final DcamFunction lFunction : DcamFunction.values())
+      if (isSampled(lFunction))
+        cSamplingMasks[lFunction.ordinal()] = cSamplingPeriod - 1;
+  }
+
+  private static final long cNotTimed = Long.MIN_VALUE;
+
+  private final DcamBackend mDelegate;
+
+  // Per function call ticks that decide which calls are timed:
+  private final int[] mSamplingTicks = new int[cNumberOfFunctions];
+
+  private final DeviceStatistics mLibraryStatistics =
+                                                    new DeviceStatistics(-1);
+
+  // Copy-on-write tables: devices by id, and handles (camera and wait) to
+  // devices:
+  private volatile DeviceStatistics[] mDevices = new DeviceStatistics[0];
+  private volatile HandleTable mHandleTable =
+                                            new HandleTable(new long[0],
+                                                            new DeviceStatistics[0]);
+
+  /**
+   * Instantiates a statistics backend
+   *
+   * @param pDelegate
+   *          backend that actually executes the calls
+   */
+  public StatisticsDcamBackend(final DcamBackend pDelegate)
+  {
+    mDelegate = pDelegate;
+  }
+
+  /**
+   * Registers these statistics with the platform MBean server, replacing
+   * statistics registered before.
+   */
+  public void registerMXBean()
+  {
+    try
+    {
+      final MBeanServer lServer = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName lName = new ObjectName(cObjectName);
+      if (lServer.isRegistered(lName))
+        lServer.unregisterMBean(lName);
+      lServer.registerMBean(this, lName);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the backend being measured
+   *
+   * @return delegate backend
+   */
+  public DcamBackend getDelegate()
+  {
+    return mDelegate;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "statistics(" + mDelegate.getName() + ")";
+  }
+
+  /**
+   * Returns the statistics of a given function on a given device
+   *
+   * @param pDeviceId
+   *          device id (index), -1 for calls not made on a device
+   * @param pFunction
+   *          function
+   * @return snapshot
+   */
+  public DcamCallStatisticsSnapshot getSnapshot(final long pDeviceId,
+                                                final DcamFunction pFunction)
+  {
+    final DeviceStatistics lDevice = pDeviceId < 0 ? mLibraryStatistics
+                                                   : device(pDeviceId);
+    return lDevice.mFunctions[pFunction.ordinal()].snapshot();
+  }
+
+  @Override
+  public List<DcamCallStatisticsSnapshot> getSnapshots()
+  {
+    final ArrayList<DcamCallStatisticsSnapshot> lSnapshots =
+                                                           new ArrayList<>();
+    addSnapshots(mLibraryStatistics, lSnapshots);
+    for (final DeviceStatistics lDevice : mDevices)
+      addSnapshots(lDevice, lSnapshots);
+    return lSnapshots;
+  }
+
+  private static void addSnapshots(final DeviceStatistics pDevice,
+                                   final List<DcamCallStatisticsSnapshot> pSnapshots)
+  {
+    for (final DcamCallStatistics lStatistics : pDevice.mFunctions)
+    {
+      final DcamCallStatisticsSnapshot lSnapshot = lStatistics.snapshot();
+      if (lSnapshot.getCalls() > 0)
+        pSnapshots.add(lSnapshot);
+    }
+  }
+
+  @Override
+  public long getTotalCalls()
+  {
+    long lCalls = 0;
+    for (final DcamCallStatisticsSnapshot lSnapshot : getSnapshots())
+      lCalls += lSnapshot.getCalls();
+    return lCalls;
+  }
+
+  @Override
+  public long getTotalErrors()
+  {
+    long lErrors = 0;
+    for (final DcamCallStatisticsSnapshot lSnapshot : getSnapshots())
+      lErrors += lSnapshot.getErrors();
+    return lErrors;
+  }
+
+  @Override
+  public void reset()
+  {
+    mLibraryStatistics.reset();
+    for (final DeviceStatistics lDevice : mDevices)
+      lDevice.reset();
+  }
+
+  // Device and handle tables:
+
+  private synchronized DeviceStatistics device(final long pDeviceId)
+  {
+    for (final DeviceStatistics lDevice : mDevices)
+      if (lDevice.mDeviceId == pDeviceId)
+        return lDevice;
+
+    final DeviceStatistics lDevice = new DeviceStatistics(pDeviceId);
+    final DeviceStatistics[] lDevices = Arrays.copyOf(mDevices,
+                                                      mDevices.length + 1);
+    lDevices[lDevices.length - 1] = lDevice;
+    mDevices = lDevices;
+    return lDevice;
+  }
+
+  private synchronized void bind(final long pHandle,
+                                 final DeviceStatistics pDevice)
+  {
+    if (pHandle == 0)
+      return;
+    final HandleTable lTable = mHandleTable;
+    final long[] lHandles = Arrays.copyOf(lTable.mHandles,
+                                          lTable.mHandles.length + 1);
+    final DeviceStatistics[] lDevices = Arrays.copyOf(lTable.mDevices,
+                                                      lHandles.length);
+    lHandles[lHandles.length - 1] = pHandle;
+    lDevices[lDevices.length - 1] = pDevice;
+    mHandleTable = new HandleTable(lHandles, lDevices);
+  }
+
+  private synchronized void unbind(final long pHandle)
+  {
+    final HandleTable lTable = mHandleTable;
+    final int lLength = lTable.mHandles.length;
+    for (int i = 0; i < lLength; i++)
+      if (lTable.mHandles[i] == pHandle)
+      {
+        final long[] lHandles = new long[lLength - 1];
+        final DeviceStatistics[] lDevices =
+                                          new DeviceStatistics[lLength - 1];
+        System.arraycopy(lTable.mHandles, 0, lHandles, 0, i);
+        System.arraycopy(lTable.mHandles,
+                         i + 1,
+                         lHandles,
+                         i,
+                         lLength - i - 1);
+        System.arraycopy(lTable.mDevices, 0, lDevices, 0, i);
+        System.arraycopy(lTable.mDevices,
+                         i + 1,
+                         lDevices,
+                         i,
+                         lLength - i - 1);
+        mHandleTable = new HandleTable(lHandles, lDevices);
+        return;
+      }
+  }
+
+  private DeviceStatistics byHandle(final long pHandle)
+  {
+    final HandleTable lTable = mHandleTable;
+    final long[] lHandles = lTable.mHandles;
+    for (int i = 0; i < lHandles.length; i++)
+      if (lHandles[i] == pHandle)
+        return lTable.mDevices[i];
+    return mLibraryStatistics;
+  }
+
+  // Timing:
+
+  /**
+   * Tells whether only some of the calls to a function are timed: the cheap
+   * calls that are made in tight loops
+   *
+   * @param pFunction
+   *          function
+   * @return true: one call in {@link #cSamplingPeriod} is timed, false: all
+   *         calls are timed
+   */
+  public static boolean isSampled(final DcamFunction pFunction)
+  {
+    switch (pFunction)
+    {
+    case CAP_STATUS:
+    case CAP_TRANSFERINFO:
+    case PROP_GETVALUE:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private long start(final DcamFunction pFunction)
+  {
+    final int lOrdinal = pFunction.ordinal();
+    final int lMask = cSamplingMasks[lOrdinal];
+    if (lMask == 0)
+      return System.nanoTime();
+    // racy on purpose, a lost increment only shifts the next sample:
+    final int lTick = mSamplingTicks[lOrdinal]++;
+    return (lTick & lMask) == 0 ? System.nanoTime() : cNotTimed;
+  }
+
+  private IntValuedEnum<DCAMERR> record(final DeviceStatistics pDevice,
+                                        final DcamFunction pFunction,
+                                        final long pStartNanos,
+                                        final IntValuedEnum<DCAMERR> pError)
+  {
+    final DcamCallStatistics lStatistics =
+                                         pDevice.mFunctions[pFunction.ordinal()];
+    final boolean lError = pError != DCAMERR.DCAMERR_SUCCESS;
+    if (pStartNanos == cNotTimed)
+      lStatistics.count(lError);
+    else
+      lStatistics.record(System.nanoTime() - pStartNanos, lError);
+    return pError;
+  }
+
+  private IntValuedEnum<DCAMERR> record(final long pHandle,
+                                        final DcamFunction pFunction,
+                                        final long pStartNanos,
+                                        final IntValuedEnum<DCAMERR> pError)
+  {
+    return record(byHandle(pHandle), pFunction, pStartNanos, pError);
+  }
+
+  // Initialization:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiInit(final Pointer<DCAMAPI_INIT> param)
+  {
+    final long lStart = start(DcamFunction.API_INIT);
+    return record(mLibraryStatistics,
+                  DcamFunction.API_INIT,
+                  lStart,
+                  mDelegate.dcamapiInit(param));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiUninit()
+  {
+    final long lStart = start(DcamFunction.API_UNINIT);
+    return record(mLibraryStatistics,
+                  DcamFunction.API_UNINIT,
+                  lStart,
+                  mDelegate.dcamapiUninit());
+  }
+
+  // Device:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevOpen(final Pointer<DCAMDEV_OPEN> param)
+  {
+    final DeviceStatistics lDevice = device(param.get().index());
+    final long lStart = start(DcamFunction.DEV_OPEN);
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamdevOpen(param);
+    record(lDevice, DcamFunction.DEV_OPEN, lStart, lError);
+    if (lError == DCAMERR.DCAMERR_SUCCESS)
+      bind(getPeer(param.get().hdcam()), lDevice);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevClose(final Pointer<HDCAM_struct> h)
+  {
+    final long lHandle = getPeer(h);
+    final long lStart = start(DcamFunction.DEV_CLOSE);
+    final IntValuedEnum<DCAMERR> lError =
+                                        record(lHandle,
+                                               DcamFunction.DEV_CLOSE,
+                                               lStart,
+                                               mDelegate.dcamdevClose(h));
+    unbind(lHandle);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevShowpanel(final Pointer<HDCAM_struct> h,
+                                                 final long iKind)
+  {
+    final long lStart = start(DcamFunction.DEV_SHOWPANEL);
+    return record(getPeer(h),
+                  DcamFunction.DEV_SHOWPANEL,
+                  lStart,
+                  mDelegate.dcamdevShowpanel(h, iKind));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevGetstring(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAMDEV_STRING> param)
+  {
+    final long lStart = start(DcamFunction.DEV_GETSTRING);
+    return record(getPeer(h),
+                  DcamFunction.DEV_GETSTRING,
+                  lStart,
+                  mDelegate.dcamdevGetstring(h, param));
+  }
+
+  // Properties:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetattr(final Pointer<HDCAM_struct> h,
+                                                final Pointer<DCAM_PROPERTYATTR> param)
+  {
+    final long lStart = start(DcamFunction.PROP_GETATTR);
+    return record(getPeer(h),
+                  DcamFunction.PROP_GETATTR,
+                  lStart,
+                  mDelegate.dcampropGetattr(h, param));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final Pointer<Double> pValue)
+  {
+    final long lStart = start(DcamFunction.PROP_GETVALUE);
+    return record(getPeer(h),
+                  DcamFunction.PROP_GETVALUE,
+                  lStart,
+                  mDelegate.dcampropGetvalue(h, iProp, pValue));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final double fValue)
+  {
+    final long lStart = start(DcamFunction.PROP_SETVALUE);
+    return record(getPeer(h),
+                  DcamFunction.PROP_SETVALUE,
+                  lStart,
+                  mDelegate.dcampropSetvalue(h, iProp, fValue));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetgetvalue(final Pointer<HDCAM_struct> h,
+                                                    final long iProp,
+                                                    final Pointer<Double> pValue,
+                                                    final long option)
+  {
+    final long lStart = start(DcamFunction.PROP_SETGETVALUE);
+    return record(getPeer(h),
+                  DcamFunction.PROP_SETGETVALUE,
+                  lStart,
+                  mDelegate.dcampropSetgetvalue(h,
+                                                iProp,
+                                                pValue,
+                                                option));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropQueryvalue(final Pointer<HDCAM_struct> h,
+                                                   final long iProp,
+                                                   final Pointer<Double> pValue,
+                                                   final long option)
+  {
+    final long lStart = start(DcamFunction.PROP_QUERYVALUE);
+    return record(getPeer(h),
+                  DcamFunction.PROP_QUERYVALUE,
+                  lStart,
+                  mDelegate.dcampropQueryvalue(h,
+                                               iProp,
+                                               pValue,
+                                               option));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetnextid(final Pointer<HDCAM_struct> h,
+                                                  final Pointer<IntValuedEnum<DCAMIDPROP>> pProp,
+                                                  final long option)
+  {
+    final long lStart = start(DcamFunction.PROP_GETNEXTID);
+    return record(getPeer(h),
+                  DcamFunction.PROP_GETNEXTID,
+                  lStart,
+                  mDelegate.dcampropGetnextid(h, pProp, option));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetname(final Pointer<HDCAM_struct> h,
+                                                final long iProp,
+                                                final Pointer<Byte> text,
+                                                final long textbytes)
+  {
+    final long lStart = start(DcamFunction.PROP_GETNAME);
+    return record(getPeer(h),
+                  DcamFunction.PROP_GETNAME,
+                  lStart,
+                  mDelegate.dcampropGetname(h, iProp, text, textbytes));
+  }
+
+  // Buffers:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAlloc(final Pointer<HDCAM_struct> h,
+                                             final long framecount)
+  {
+    final long lStart = start(DcamFunction.BUF_ALLOC);
+    return record(getPeer(h),
+                  DcamFunction.BUF_ALLOC,
+                  lStart,
+                  mDelegate.dcambufAlloc(h, framecount));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAttach(final Pointer<HDCAM_struct> h,
+                                              final Pointer<DCAMBUF_ATTACH> param)
+  {
+    final long lStart = start(DcamFunction.BUF_ATTACH);
+    return record(getPeer(h),
+                  DcamFunction.BUF_ATTACH,
+                  lStart,
+                  mDelegate.dcambufAttach(h, param));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufRelease(final Pointer<HDCAM_struct> h,
+                                               final long iKind)
+  {
+    final long lStart = start(DcamFunction.BUF_RELEASE);
+    return record(getPeer(h),
+                  DcamFunction.BUF_RELEASE,
+                  lStart,
+                  mDelegate.dcambufRelease(h, iKind));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufLockframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    final long lStart = start(DcamFunction.BUF_LOCKFRAME);
+    return record(getPeer(h),
+                  DcamFunction.BUF_LOCKFRAME,
+                  lStart,
+                  mDelegate.dcambufLockframe(h, pFrame));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufCopyframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    final long lStart = start(DcamFunction.BUF_COPYFRAME);
+    return record(getPeer(h),
+                  DcamFunction.BUF_COPYFRAME,
+                  lStart,
+                  mDelegate.dcambufCopyframe(h, pFrame));
+  }
+
+  // Capture:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStart(final Pointer<HDCAM_struct> h,
+                                             final long mode)
+  {
+    final long lStart = start(DcamFunction.CAP_START);
+    return record(getPeer(h),
+                  DcamFunction.CAP_START,
+                  lStart,
+                  mDelegate.dcamcapStart(h, mode));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStop(final Pointer<HDCAM_struct> h)
+  {
+    final long lStart = start(DcamFunction.CAP_STOP);
+    return record(getPeer(h),
+                  DcamFunction.CAP_STOP,
+                  lStart,
+                  mDelegate.dcamcapStop(h));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStatus(final Pointer<HDCAM_struct> h,
+                                              final Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus)
+  {
+    final long lStart = start(DcamFunction.CAP_STATUS);
+    return record(getPeer(h),
+                  DcamFunction.CAP_STATUS,
+                  lStart,
+                  mDelegate.dcamcapStatus(h, pStatus));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapTransferinfo(final Pointer<HDCAM_struct> h,
+                                                    final Pointer<DCAMCAP_TRANSFERINFO> param)
+  {
+    final long lStart = start(DcamFunction.CAP_TRANSFERINFO);
+    return record(getPeer(h),
+                  DcamFunction.CAP_TRANSFERINFO,
+                  lStart,
+                  mDelegate.dcamcapTransferinfo(h, param));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapFiretrigger(final Pointer<HDCAM_struct> h,
+                                                   final long iKind)
+  {
+    final long lStart = start(DcamFunction.CAP_FIRETRIGGER);
+    return record(getPeer(h),
+                  DcamFunction.CAP_FIRETRIGGER,
+                  lStart,
+                  mDelegate.dcamcapFiretrigger(h, iKind));
+  }
+
+  // Wait:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitOpen(final Pointer<DCAMWAIT_OPEN> param)
+  {
+    final DeviceStatistics lDevice = byHandle(getPeer(param.get().hdcam()));
+    final long lStart = start(DcamFunction.WAIT_OPEN);
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamwaitOpen(param);
+    record(lDevice, DcamFunction.WAIT_OPEN, lStart, lError);
+    if (lError == DCAMERR.DCAMERR_SUCCESS)
+      bind(getPeer(param.get().hwait()), lDevice);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitClose(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    final long lHandle = getPeer(hWait);
+    final long lStart = start(DcamFunction.WAIT_CLOSE);
+    final IntValuedEnum<DCAMERR> lError =
+                                        record(lHandle,
+                                               DcamFunction.WAIT_CLOSE,
+                                               lStart,
+                                               mDelegate.dcamwaitClose(hWait));
+    unbind(lHandle);
+    return lError;
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitStart(final Pointer<HDCAMWAIT_struct> hWait,
+                                              final Pointer<DCAMWAIT_START> param)
+  {
+    final long lStart = start(DcamFunction.WAIT_START);
+    return record(getPeer(hWait),
+                  DcamFunction.WAIT_START,
+                  lStart,
+                  mDelegate.dcamwaitStart(hWait, param));
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitAbort(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    final long lStart = start(DcamFunction.WAIT_ABORT);
+    return record(getPeer(hWait),
+                  DcamFunction.WAIT_ABORT,
+                  lStart,
+                  mDelegate.dcamwaitAbort(hWait));
+  }
+
+  private static final class HandleTable
+  {
+    private final long[] mHandles;
+    private final DeviceStatistics[] mDevices;
+
+    HandleTable(final long[] pHandles, final DeviceStatistics[] pDevices)
+    {
+      mHandles = pHandles;
+      mDevices = pDevices;
+    }
+  }
+
+  private static final class DeviceStatistics
+  {
+    private final long mDeviceId;
+    private final DcamCallStatistics[] mFunctions =
+                                                  new DcamCallStatistics[cNumberOfFunctions];
+
+    DeviceStatistics(final long pDeviceId)
+    {
+      mDeviceId = pDeviceId;
+      for (final DcamFunction lFunction : DcamFunction.values())
+        mFunctions[lFunction.ordinal()] =
+                                        new DcamCallStatistics(lFunction,
+                                                               pDeviceId);
+    }
+
+    void reset()
+    {
+      for (final DcamCallStatistics lStatistics : mFunctions)
+        lStatistics.reset();
+    }
+  }
+
+}
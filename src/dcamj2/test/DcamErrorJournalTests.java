@@ -0,0 +1,147 @@
+package dcamj2.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamj2.DcamErrorJournal;
+import dcamj2.DcamErrorRecord;
+import dcamj2.backend.DcamFunction;
+
+import org.junit.Test;
+
+/**
+ * Error journal tests
+ *
+ * @author royer
+ */
+public class DcamErrorJournalTests
+{
+
+  /**
+   * Tests that successes are only counted and errors are kept with their
+   * context
+   */
+  @Test
+  public void testRecord()
+  {
+    final DcamErrorJournal lJournal = new DcamErrorJournal();
+
+    lJournal.record(DcamFunction.PROP_GETVALUE, 0, DCAMERR.DCAMERR_SUCCESS);
+    lJournal.record(DcamFunction.PROP_SETVALUE, 1, DCAMERR.DCAMERR_BUSY);
+    lJournal.record(null, -1, DCAMERR.DCAMERR_TIMEOUT);
+    lJournal.record(DcamFunction.CAP_START, 1, DCAMERR.DCAMERR_BUSY);
+
+    assertEquals(1, lJournal.getSuccessCount());
+    assertEquals(3, lJournal.getErrorCount());
+    assertEquals(Long.valueOf(2),
+                 lJournal.getErrorCounts().get(DCAMERR.DCAMERR_BUSY));
+    assertEquals(Long.valueOf(1),
+                 lJournal.getErrorCounts().get(DCAMERR.DCAMERR_TIMEOUT));
+
+    final List<DcamErrorRecord> lRecords = lJournal.getRecords();
+    assertEquals(3, lRecords.size());
+    assertSame(DCAMERR.DCAMERR_BUSY, lRecords.get(0).getError());
+    assertSame(DcamFunction.PROP_SETVALUE, lRecords.get(0).getFunction());
+    assertEquals(1, lRecords.get(0).getDeviceId());
+    assertEquals(Thread.currentThread().getId(),
+                 lRecords.get(0).getThreadId());
+    assertSame(null, lRecords.get(1).getFunction());
+    assertEquals(-1, lRecords.get(1).getDeviceId());
+    assertSame(DcamFunction.CAP_START, lRecords.get(2).getFunction());
+    assertTrue(lRecords.get(1).getNanoTime() <= lRecords.get(2)
+                                                        .getNanoTime());
+  }
+
+  /**
+   * Tests that only the most recent errors are kept, oldest first, while all
+   * are counted
+   */
+  @Test
+  public void testRing()
+  {
+    final DcamErrorJournal lJournal = new DcamErrorJournal(5);
+    assertEquals(8, lJournal.getCapacity());
+
+    for (int i = 0; i < 20; i++)
+      lJournal.record(null, i, DCAMERR.DCAMERR_BUSY);
+
+    final List<DcamErrorRecord> lRecords = lJournal.getRecords();
+    assertEquals(8, lRecords.size());
+    for (int i = 0; i < 8; i++)
+      assertEquals(12 + i, lRecords.get(i).getDeviceId());
+    assertEquals(20, lJournal.getErrorCount());
+  }
+
+  /**
+   * Tests that clearing empties the journal and resets the counters
+   */
+  @Test
+  public void testClear()
+  {
+    final DcamErrorJournal lJournal = new DcamErrorJournal(4);
+    for (int i = 0; i < 6; i++)
+      lJournal.record(null, i, DCAMERR.DCAMERR_BUSY);
+    lJournal.record(null, 0, DCAMERR.DCAMERR_SUCCESS);
+
+    lJournal.clear();
+    assertTrue(lJournal.getRecords().isEmpty());
+    assertEquals(0, lJournal.getSuccessCount());
+    assertEquals(0, lJournal.getErrorCount());
+    assertTrue(lJournal.getErrorCounts().isEmpty());
+
+    lJournal.record(null, 7, DCAMERR.DCAMERR_TIMEOUT);
+    assertEquals(1, lJournal.getRecords().size());
+    assertEquals(7, lJournal.getRecords().get(0).getDeviceId());
+  }
+
+  /**
+   * Tests that concurrent recording loses no count and leaves a full journal
+   * of well-formed records
+   *
+   * @throws InterruptedException
+   *           NA
+   */
+  @Test
+  public void testConcurrentRecord() throws InterruptedException
+  {
+    final DcamErrorJournal lJournal = new DcamErrorJournal(64);
+    final int lNumberOfThreads = 4;
+    final int lNumberOfCalls = 10000;
+
+    final Thread[] lThreads = new Thread[lNumberOfThreads];
+    for (int t = 0; t < lNumberOfThreads; t++)
+    {
+      final long lDeviceId = t;
+      lThreads[t] = new Thread(() -> {
+        for (int i = 0; i < lNumberOfCalls; i++)
+          lJournal.record(DcamFunction.WAIT_START,
+                          lDeviceId,
+                          i % 2 == 0 ? DCAMERR.DCAMERR_SUCCESS
+                                     : DCAMERR.DCAMERR_TIMEOUT);
+      });
+      lThreads[t].start();
+    }
+    for (Thread lThread : lThreads)
+      lThread.join();
+
+    assertEquals(lNumberOfThreads * lNumberOfCalls / 2,
+                 lJournal.getSuccessCount());
+    assertEquals(lNumberOfThreads * lNumberOfCalls / 2,
+                 lJournal.getErrorCount());
+
+    final List<DcamErrorRecord> lRecords = lJournal.getRecords();
+    assertEquals(64, lRecords.size());
+    for (DcamErrorRecord lRecord : lRecords)
+    {
+      assertSame(DCAMERR.DCAMERR_TIMEOUT, lRecord.getError());
+      assertSame(DcamFunction.WAIT_START, lRecord.getFunction());
+      assertTrue(lRecord.getDeviceId() >= 0
+                 && lRecord.getDeviceId() < lNumberOfThreads);
+    }
+  }
+
+}
@@ -0,0 +1,123 @@
+package dcamj2.trace;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import dcamj2.backend.DcamFunction;
+
+/**
+ * Binary trace format. A trace is a header followed by records until the end
+ * of the stream, a record cut short by the end of the stream is ignored:
+ *
+ * header: int magic, short version, long wall-clock start (ms since epoch)
+ *
+ * record: byte function, long start (ns), long duration (ns), long handle,
+ * long argument, long argument2, int return code, byte output count, outputs
+ * (longs), short text length, text (bytes)
+ *
+ * @author royer
+ */
+public final class DcamTraceFormat
+{
+  static final int cMagic = 0x44435452; // 'DCTR'
+  static final short cVersion = 1;
+
+  private DcamTraceFormat()
+  {
+  }
+
+  static void writeHeader(final DataOutputStream pOutput,
+                          final long pStartTimeMillis) throws IOException
+  {
+    pOutput.writeInt(cMagic);
+    pOutput.writeShort(cVersion);
+    pOutput.writeLong(pStartTimeMillis);
+  }
+
+  static void writeRecord(final DataOutputStream pOutput,
+                          final DcamTraceRecord pRecord) throws IOException
+  {
+    pOutput.writeByte(pRecord.mFunction.ordinal());
+    pOutput.writeLong(pRecord.mStartNanos);
+    pOutput.writeLong(pRecord.mDurationNanos);
+    pOutput.writeLong(pRecord.mHandle);
+    pOutput.writeLong(pRecord.mArgument);
+    pOutput.writeLong(pRecord.mArgument2);
+    pOutput.writeInt(pRecord.mReturnCode);
+    pOutput.writeByte(pRecord.mOutputs.length);
+    for (final long lOutput : pRecord.mOutputs)
+      pOutput.writeLong(lOutput);
+    pOutput.writeShort(pRecord.mText.length);
+    pOutput.write(pRecord.mText);
+  }
+
+  /**
+   * Reads a whole trace
+   *
+   * @param pInput
+   *          input stream positioned at the start of the trace
+   * @return trace records in the order they were written
+   * @throws IOException
+   *           if the stream cannot be read or is not a trace
+   */
+  public static ArrayList<DcamTraceRecord> read(final DataInputStream pInput) throws IOException
+  {
+    if (pInput.readInt() != cMagic)
+      throw new IOException("Not a Dcam trace");
+    final short lVersion = pInput.readShort();
+    if (lVersion != cVersion)
+      throw new IOException("Unsupported Dcam trace version: "
+                            + lVersion);
+    pInput.readLong();
+
+    final ArrayList<DcamTraceRecord> lRecords = new ArrayList<>();
+    while (true)
+    {
+      final int lFunction;
+      try
+      {
+        lFunction = pInput.readUnsignedByte();
+      }
+      catch (EOFException e)
+      {
+        break;
+      }
+
+      try
+      {
+        final long lStart = pInput.readLong();
+        final long lDuration = pInput.readLong();
+        final long lHandle = pInput.readLong();
+        final long lArgument = pInput.readLong();
+        final long lArgument2 = pInput.readLong();
+        final int lReturnCode = pInput.readInt();
+        final long[] lOutputs = new long[pInput.readUnsignedByte()];
+        for (int i = 0; i < lOutputs.length; i++)
+          lOutputs[i] = pInput.readLong();
+        final byte[] lText = new byte[pInput.readUnsignedShort()];
+        pInput.readFully(lText);
+
+        lRecords.add(new DcamTraceRecord(DcamFunction.fromOrdinal(lFunction),
+                                         lStart,
+                                         lDuration,
+                                         lHandle,
+                                         lArgument,
+                                         lArgument2,
+                                         lReturnCode,
+                                         lOutputs,
+                                         lText));
+      }
+      catch (EOFException e)
+      {
+        // the trace was cut short (process killed, disk full...) while this
+        // record was written, only this record is lost:
+        break;
+      }
+    }
+    return lRecords;
+  }
+
+}
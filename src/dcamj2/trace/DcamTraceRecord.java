@@ -0,0 +1,135 @@
+package dcamj2.trace;
+
+import java.util.Arrays;
+
+import dcamj2.backend.DcamFunction;
+
+/**
+ * One driver call of a trace: function, timing, handle, scalar arguments,
+ * return code, and the values the driver wrote back (outputs) so that the
+ * call can be replayed.
+ *
+ * @author royer
+ */
+public class DcamTraceRecord
+{
+  final DcamFunction mFunction;
+  final long mStartNanos;
+  final long mDurationNanos;
+  final long mHandle;
+  final long mArgument;
+  final long mArgument2;
+  final int mReturnCode;
+  final long[] mOutputs;
+  final byte[] mText;
+
+  // For waits: completion time relative to the capture start, set on replay
+  long mCaptureOffsetNanos = -1;
+
+  DcamTraceRecord(final DcamFunction pFunction,
+                  final long pStartNanos,
+                  final long pDurationNanos,
+                  final long pHandle,
+                  final long pArgument,
+                  final long pArgument2,
+                  final int pReturnCode,
+                  final long[] pOutputs,
+                  final byte[] pText)
+  {
+    mFunction = pFunction;
+    mStartNanos = pStartNanos;
+    mDurationNanos = pDurationNanos;
+    mHandle = pHandle;
+    mArgument = pArgument;
+    mArgument2 = pArgument2;
+    mReturnCode = pReturnCode;
+    mOutputs = pOutputs;
+    mText = pText;
+  }
+
+  /**
+   * Returns the traced function
+   *
+   * @return function
+   */
+  public DcamFunction getFunction()
+  {
+    return mFunction;
+  }
+
+  /**
+   * Returns the start time of the call relative to the start of the trace
+   *
+   * @return start time in nanoseconds
+   */
+  public long getStartNanos()
+  {
+    return mStartNanos;
+  }
+
+  /**
+   * Returns the wall-clock duration of the call
+   *
+   * @return duration in nanoseconds
+   */
+  public long getDurationNanos()
+  {
+    return mDurationNanos;
+  }
+
+  /**
+   * Returns the camera or wait handle the call was made on, 0 if none
+   *
+   * @return handle
+   */
+  public long getHandle()
+  {
+    return mHandle;
+  }
+
+  /**
+   * Returns the main scalar argument (property id, mode, event mask, ...)
+   *
+   * @return argument
+   */
+  public long getArgument()
+  {
+    return mArgument;
+  }
+
+  /**
+   * Returns the secondary scalar argument (option, or the raw bits of a
+   * double value)
+   *
+   * @return argument
+   */
+  public long getArgument2()
+  {
+    return mArgument2;
+  }
+
+  /**
+   * Returns the raw DCAMERR return code
+   *
+   * @return return code
+   */
+  public int getReturnCode()
+  {
+    return mReturnCode;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("DcamTraceRecord [%s, start=%d ns, duration=%d ns, handle=0x%x, arg=%d, arg2=%d, return=0x%x, outputs=%s]",
+                         mFunction.getNativeName(),
+                         mStartNanos,
+                         mDurationNanos,
+                         mHandle,
+                         mArgument,
+                         mArgument2,
+                         mReturnCode,
+                         Arrays.toString(mOutputs));
+  }
+
+}
@@ -0,0 +1,712 @@
+package dcamj2.trace;
+
+import static org.bridj.Pointer.getPeer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import dcamapi.DCAMAPI_INIT;
+import dcamapi.DCAMBUF_ATTACH;
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMDEV_OPEN;
+import dcamapi.DCAMDEV_STRING;
+import dcamapi.DCAMWAIT_OPEN;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DCAM_PROPERTYATTR;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.DcamapiLibrary.DCAMPROPATTRIBUTE;
+import dcamapi.DcamapiLibrary.DCAMPROPUNIT;
+import dcamapi.DcamapiLibrary.DCAM_PIXELTYPE;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+import dcamj2.backend.DcamBackend;
+import dcamj2.backend.DcamErrors;
+import dcamj2.backend.DcamFunction;
+
+import org.bridj.FlagSet;
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend that replays a trace recorded by {@link TracingDcamBackend},
+ * without hardware.
+ *
+ * Calls are matched to records by function, handle and main argument (for
+ * example the property id, or the event mask of a wait), in recorded order;
+ * once the records for a call are used up, the last one keeps being returned.
+ * Calls that match no record get the next unused record of the same function.
+ * Return codes and driver outputs (values, status, transfer info, events,
+ * handles) are those of the trace. Calls take their recorded duration, except
+ * waits, which complete at the same time after the capture start as they did
+ * in the recorded session, so that the camera timing is reproduced whatever
+ * the timing of the code under test. Image data is not recorded: attached
+ * buffers are left untouched and locked frames point to zeroed memory.
+ *
+ * @author royer
+ */
+public class ReplayDcamBackend implements DcamBackend
+{
+  private final ArrayList<DcamTraceRecord> mTrace;
+  private final HashMap<ReplayKey, ArrayDeque<DcamTraceRecord>> mRecords =
+                                                                          new HashMap<>();
+  private final HashMap<DcamFunction, ArrayDeque<DcamTraceRecord>> mRecordsByFunction =
+                                                                                      new HashMap<>();
+  private final ConcurrentHashMap<Long, Long> mWaitToCamera =
+                                                            new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Long> mCaptureStartNanos =
+                                                                 new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Pointer<Byte>> mFrameBuffers =
+                                                                     new ConcurrentHashMap<>();
+  private final AtomicLong mAbortCount = new AtomicLong();
+
+  private volatile double mTimeScale = 1;
+
+  /**
+   * Instantiates a replay backend from a trace file
+   *
+   * @param pTraceFile
+   *          trace file
+   * @throws IOException
+   *           if the trace cannot be read
+   */
+  public ReplayDcamBackend(final File pTraceFile) throws IOException
+  {
+    this(readTrace(pTraceFile));
+  }
+
+  /**
+   * Instantiates a replay backend from trace records
+   *
+   * @param pRecords
+   *          trace records
+   */
+  public ReplayDcamBackend(final List<DcamTraceRecord> pRecords)
+  {
+    super();
+    // Records are written when calls complete, we need them by start time:
+    mTrace = new ArrayList<>(pRecords);
+    mTrace.sort(Comparator.comparingLong(DcamTraceRecord::getStartNanos));
+    rewind();
+  }
+
+  private static ArrayList<DcamTraceRecord> readTrace(final File pTraceFile) throws IOException
+  {
+    try (DataInputStream lInput =
+                                new DataInputStream(new BufferedInputStream(new FileInputStream(pTraceFile))))
+    {
+      return DcamTraceFormat.read(lInput);
+    }
+  }
+
+  /**
+   * Rewinds the replay to the start of the trace, so that the same session
+   * can be replayed again, for example once per benchmark iteration. Must not
+   * be called while calls are being replayed.
+   */
+  public void rewind()
+  {
+    mRecords.clear();
+    mRecordsByFunction.clear();
+    mWaitToCamera.clear();
+    mCaptureStartNanos.clear();
+
+    final HashMap<Long, Long> lWaitToCamera = new HashMap<>();
+    final HashMap<Long, Long> lCaptureStart = new HashMap<>();
+    for (final DcamTraceRecord lRecord : mTrace)
+    {
+      switch (lRecord.mFunction)
+      {
+      case WAIT_OPEN:
+        lWaitToCamera.put(lRecord.mOutputs[0], lRecord.mHandle);
+        break;
+      case CAP_START:
+        lCaptureStart.put(lRecord.mHandle, lRecord.mStartNanos);
+        break;
+      case WAIT_START:
+        final Long lCamera = lWaitToCamera.get(lRecord.mHandle);
+        final Long lStart = lCamera == null ? null
+                                            : lCaptureStart.get(lCamera);
+        if (lStart != null)
+          lRecord.mCaptureOffsetNanos = lRecord.mStartNanos
+                                        + lRecord.mDurationNanos
+                                        - lStart;
+        break;
+      default:
+        break;
+      }
+
+      mRecords.computeIfAbsent(new ReplayKey(lRecord.mFunction,
+                                             lRecord.mHandle,
+                                             lRecord.mArgument),
+                               k -> new ArrayDeque<>())
+              .add(lRecord);
+      mRecordsByFunction.computeIfAbsent(lRecord.mFunction,
+                                         k -> new ArrayDeque<>())
+                        .add(lRecord);
+    }
+  }
+
+  /**
+   * Sets the time scale: 1 reproduces the recorded timing, 0.5 replays twice
+   * as fast, and 0 replays as fast as possible.
+   *
+   * @param pTimeScale
+   *          time scale
+   */
+  public void setTimeScale(final double pTimeScale)
+  {
+    mTimeScale = pTimeScale;
+  }
+
+  /**
+   * Returns the time scale
+   *
+   * @return time scale
+   */
+  public double getTimeScale()
+  {
+    return mTimeScale;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "replay";
+  }
+
+  private DcamTraceRecord next(final DcamFunction pFunction,
+                               final long pHandle,
+                               final long pArgument)
+  {
+    // A record is queued both by key and by function, and is taken off both
+    // queues when used:
+    synchronized (mRecords)
+    {
+      final ArrayDeque<DcamTraceRecord> lQueue =
+                                               mRecords.get(new ReplayKey(pFunction,
+                                                                          pHandle,
+                                                                          pArgument));
+      final ArrayDeque<DcamTraceRecord> lFunctionQueue =
+                                                       mRecordsByFunction.get(pFunction);
+      if (lQueue != null && !lQueue.isEmpty())
+        return take(lQueue, lFunctionQueue);
+      if (lFunctionQueue == null || lFunctionQueue.isEmpty())
+        return null;
+
+      final DcamTraceRecord lRecord = lFunctionQueue.peek();
+      return take(lFunctionQueue,
+                  mRecords.get(new ReplayKey(lRecord.mFunction,
+                                             lRecord.mHandle,
+                                             lRecord.mArgument)));
+    }
+  }
+
+  /**
+   * Takes the next record of a queue and removes it from the other queue it
+   * is in. The last record of a queue is never removed, so that it keeps
+   * being returned once the others are used up.
+   */
+  private static DcamTraceRecord take(final ArrayDeque<DcamTraceRecord> pQueue,
+                                      final ArrayDeque<DcamTraceRecord> pOtherQueue)
+  {
+    if (pQueue.size() == 1)
+      return pQueue.peek();
+    final DcamTraceRecord lRecord = pQueue.poll();
+    if (pOtherQueue.size() > 1)
+      pOtherQueue.removeFirstOccurrence(lRecord);
+    return lRecord;
+  }
+
+  /**
+   * Waits until the given deadline, returns false if aborted
+   */
+  private boolean sleepUntil(final long pDeadlineNanos,
+                             final long pAbortCount)
+  {
+    long lRemaining;
+    while ((lRemaining = pDeadlineNanos - System.nanoTime()) > 0)
+    {
+      if (mAbortCount.get() != pAbortCount)
+        return false;
+      LockSupport.parkNanos(Math.min(lRemaining, 1000000L));
+    }
+    return mAbortCount.get() == pAbortCount;
+  }
+
+  private void pace(final DcamTraceRecord pRecord, final long pStartNanos)
+  {
+    final double lTimeScale = mTimeScale;
+    if (lTimeScale > 0)
+      sleepUntil(pStartNanos + (long) (pRecord.mDurationNanos
+                                       * lTimeScale),
+                 mAbortCount.get());
+  }
+
+  private IntValuedEnum<DCAMERR> replay(final DcamFunction pFunction,
+                                        final long pHandle,
+                                        final long pArgument)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(pFunction, pHandle, pArgument);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  private static void setText(final Pointer<Byte> pText,
+                              final long pCapacity,
+                              final byte[] pBytes)
+  {
+    if (pText == null || pCapacity <= 0)
+      return;
+    final int lLength = (int) Math.min(pBytes.length, pCapacity - 1);
+    final byte[] lTerminated = new byte[lLength + 1];
+    System.arraycopy(pBytes, 0, lTerminated, 0, lLength);
+    pText.setBytes(lTerminated);
+  }
+
+  // Initialization:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiInit(final Pointer<DCAMAPI_INIT> param)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(DcamFunction.API_INIT, 0, 0);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    param.get().iDeviceCount(lRecord.mOutputs[0]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiUninit()
+  {
+    return replay(DcamFunction.API_UNINIT, 0, 0);
+  }
+
+  // Device:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevOpen(final Pointer<DCAMDEV_OPEN> param)
+  {
+    final long lStart = System.nanoTime();
+    final DCAMDEV_OPEN lOpen = param.get();
+    final DcamTraceRecord lRecord = next(DcamFunction.DEV_OPEN,
+                                         0,
+                                         lOpen.index());
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    @SuppressWarnings("deprecation")
+    final Pointer<HDCAM_struct> lHDCAM =
+                                       Pointer.pointerToAddress(lRecord.mOutputs[0],
+                                                                HDCAM_struct.class);
+    lOpen.hdcam(lHDCAM);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevClose(final Pointer<HDCAM_struct> h)
+  {
+    return replay(DcamFunction.DEV_CLOSE, getPeer(h), 0);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevShowpanel(final Pointer<HDCAM_struct> h,
+                                                 final long iKind)
+  {
+    return replay(DcamFunction.DEV_SHOWPANEL, getPeer(h), iKind);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevGetstring(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAMDEV_STRING> param)
+  {
+    final long lStart = System.nanoTime();
+    final DCAMDEV_STRING lString = param.get();
+    final DcamTraceRecord lRecord = next(DcamFunction.DEV_GETSTRING,
+                                         getPeer(h),
+                                         lString.iString());
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    setText(lString.text(), lString.textbytes(), lRecord.mText);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  // Properties:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetattr(final Pointer<HDCAM_struct> h,
+                                                final Pointer<DCAM_PROPERTYATTR> param)
+  {
+    final long lStart = System.nanoTime();
+    final DCAM_PROPERTYATTR lAttr = param.get();
+    final DcamTraceRecord lRecord = next(DcamFunction.PROP_GETATTR,
+                                         getPeer(h),
+                                         lAttr.iProp());
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+
+    final long[] lOutputs = lRecord.mOutputs;
+    lAttr.attribute(FlagSet.fromValue((int) lOutputs[0],
+                                      DCAMPROPATTRIBUTE.class));
+    lAttr.iGroup(lOutputs[1]);
+    lAttr.iUnit(FlagSet.fromValue((int) lOutputs[2], DCAMPROPUNIT.class));
+    lAttr.valuemin(Double.longBitsToDouble(lOutputs[3]));
+    lAttr.valuemax(Double.longBitsToDouble(lOutputs[4]));
+    lAttr.valuestep(Double.longBitsToDouble(lOutputs[5]));
+    lAttr.valuedefault(Double.longBitsToDouble(lOutputs[6]));
+    lAttr.nMaxChannel(lOutputs[7]);
+    lAttr.nMaxView(lOutputs[8]);
+    lAttr.iPropNumberOfElement(lOutputs[9]);
+    lAttr.iPropArrayBase(lOutputs[10]);
+    lAttr.iPropStepElement(lOutputs[11]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  private IntValuedEnum<DCAMERR> replayValue(final DcamFunction pFunction,
+                                             final Pointer<HDCAM_struct> h,
+                                             final long iProp,
+                                             final Pointer<Double> pValue,
+                                             final int pOutputIndex)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(pFunction, getPeer(h), iProp);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    pValue.setDouble(Double.longBitsToDouble(lRecord.mOutputs[pOutputIndex]));
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final Pointer<Double> pValue)
+  {
+    return replayValue(DcamFunction.PROP_GETVALUE, h, iProp, pValue, 0);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final double fValue)
+  {
+    return replay(DcamFunction.PROP_SETVALUE, getPeer(h), iProp);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetgetvalue(final Pointer<HDCAM_struct> h,
+                                                    final long iProp,
+                                                    final Pointer<Double> pValue,
+                                                    final long option)
+  {
+    return replayValue(DcamFunction.PROP_SETGETVALUE, h, iProp, pValue, 0);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropQueryvalue(final Pointer<HDCAM_struct> h,
+                                                   final long iProp,
+                                                   final Pointer<Double> pValue,
+                                                   final long option)
+  {
+    return replayValue(DcamFunction.PROP_QUERYVALUE, h, iProp, pValue, 1);
+  }
+
+  @SuppressWarnings(
+  { "unchecked", "rawtypes" })
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetnextid(final Pointer<HDCAM_struct> h,
+                                                  final Pointer<IntValuedEnum<DCAMIDPROP>> pProp,
+                                                  final long option)
+  {
+    final long lStart = System.nanoTime();
+    final Pointer lPointer = pProp;
+    final DcamTraceRecord lRecord = next(DcamFunction.PROP_GETNEXTID,
+                                         getPeer(h),
+                                         lPointer.getCLong());
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    lPointer.setCLong(lRecord.mOutputs[0]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetname(final Pointer<HDCAM_struct> h,
+                                                final long iProp,
+                                                final Pointer<Byte> text,
+                                                final long textbytes)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(DcamFunction.PROP_GETNAME,
+                                         getPeer(h),
+                                         iProp);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    setText(text, textbytes, lRecord.mText);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  // Buffers:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAlloc(final Pointer<HDCAM_struct> h,
+                                             final long framecount)
+  {
+    return replay(DcamFunction.BUF_ALLOC, getPeer(h), framecount);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAttach(final Pointer<HDCAM_struct> h,
+                                              final Pointer<DCAMBUF_ATTACH> param)
+  {
+    return replay(DcamFunction.BUF_ATTACH,
+                  getPeer(h),
+                  param.get().buffercount());
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufRelease(final Pointer<HDCAM_struct> h,
+                                               final long iKind)
+  {
+    return replay(DcamFunction.BUF_RELEASE, getPeer(h), iKind);
+  }
+
+  private IntValuedEnum<DCAMERR> replayFrame(final DcamFunction pFunction,
+                                             final Pointer<HDCAM_struct> h,
+                                             final Pointer<DCAM_FRAME> pFrame,
+                                             final boolean pLock)
+  {
+    final long lStart = System.nanoTime();
+    final DCAM_FRAME lFrame = pFrame.get();
+    final DcamTraceRecord lRecord = next(pFunction,
+                                         getPeer(h),
+                                         lFrame.iFrame());
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+
+    final long[] lOutputs = lRecord.mOutputs;
+    lFrame.iFrame(lOutputs[0]);
+    lFrame.rowbytes(lOutputs[1]);
+    lFrame.type(FlagSet.fromValue((int) lOutputs[2],
+                                  DCAM_PIXELTYPE.class));
+    lFrame.width(lOutputs[3]);
+    lFrame.height(lOutputs[4]);
+    lFrame.left(lOutputs[5]);
+    lFrame.top(lOutputs[6]);
+    lFrame.framestamp(lOutputs[7]);
+    if (pLock)
+    {
+      final long lLength = Math.max(1, lOutputs[1] * lOutputs[4]);
+      lFrame.buf(mFrameBuffers.computeIfAbsent(lLength,
+                                               Pointer::allocateBytes));
+    }
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufLockframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    return replayFrame(DcamFunction.BUF_LOCKFRAME, h, pFrame, true);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufCopyframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    return replayFrame(DcamFunction.BUF_COPYFRAME, h, pFrame, false);
+  }
+
+  // Capture:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStart(final Pointer<HDCAM_struct> h,
+                                             final long mode)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(DcamFunction.CAP_START,
+                                         getPeer(h),
+                                         mode);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    mCaptureStartNanos.put(getPeer(h), lStart);
+    pace(lRecord, lStart);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStop(final Pointer<HDCAM_struct> h)
+  {
+    return replay(DcamFunction.CAP_STOP, getPeer(h), 0);
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStatus(final Pointer<HDCAM_struct> h,
+                                              final Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(DcamFunction.CAP_STATUS,
+                                         getPeer(h),
+                                         0);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    ((Pointer) pStatus).setCLong(lRecord.mOutputs[0]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapTransferinfo(final Pointer<HDCAM_struct> h,
+                                                    final Pointer<DCAMCAP_TRANSFERINFO> param)
+  {
+    final long lStart = System.nanoTime();
+    final DcamTraceRecord lRecord = next(DcamFunction.CAP_TRANSFERINFO,
+                                         getPeer(h),
+                                         0);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    final DCAMCAP_TRANSFERINFO lTransferInfo = param.get();
+    lTransferInfo.nNewestFrameIndex(lRecord.mOutputs[0]);
+    lTransferInfo.nFrameCount(lRecord.mOutputs[1]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapFiretrigger(final Pointer<HDCAM_struct> h,
+                                                   final long iKind)
+  {
+    return replay(DcamFunction.CAP_FIRETRIGGER, getPeer(h), iKind);
+  }
+
+  // Wait:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitOpen(final Pointer<DCAMWAIT_OPEN> param)
+  {
+    final long lStart = System.nanoTime();
+    final DCAMWAIT_OPEN lOpen = param.get();
+    final long lCamera = getPeer(lOpen.hdcam());
+    final DcamTraceRecord lRecord = next(DcamFunction.WAIT_OPEN,
+                                         lCamera,
+                                         0);
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+    pace(lRecord, lStart);
+    mWaitToCamera.put(lRecord.mOutputs[0], lCamera);
+    @SuppressWarnings("deprecation")
+    final Pointer<HDCAMWAIT_struct> lHWait =
+                                           Pointer.pointerToAddress(lRecord.mOutputs[0],
+                                                                    HDCAMWAIT_struct.class);
+    lOpen.hwait(lHWait);
+    lOpen.supportevent(lRecord.mOutputs[1]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitClose(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    mAbortCount.incrementAndGet();
+    return replay(DcamFunction.WAIT_CLOSE, getPeer(hWait), 0);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitStart(final Pointer<HDCAMWAIT_struct> hWait,
+                                              final Pointer<DCAMWAIT_START> param)
+  {
+    final long lStart = System.nanoTime();
+    final long lAbortCount = mAbortCount.get();
+    final DCAMWAIT_START lWaitStart = param.get();
+    final long lWait = getPeer(hWait);
+    final DcamTraceRecord lRecord = next(DcamFunction.WAIT_START,
+                                         lWait,
+                                         lWaitStart.eventmask());
+    if (lRecord == null)
+      return DCAMERR.DCAMERR_NOTSUPPORT;
+
+    final double lTimeScale = mTimeScale;
+    if (lTimeScale > 0)
+    {
+      // Waits complete relative to the capture start, not to their call:
+      final Long lCamera = mWaitToCamera.get(lWait);
+      final Long lCaptureStart = lCamera == null ? null
+                                                 : mCaptureStartNanos.get(lCamera);
+      final long lDeadline;
+      if (lRecord.mCaptureOffsetNanos >= 0 && lCaptureStart != null)
+        lDeadline = lCaptureStart
+                    + (long) (lRecord.mCaptureOffsetNanos * lTimeScale);
+      else
+        lDeadline = lStart + (long) (lRecord.mDurationNanos * lTimeScale);
+
+      if (!sleepUntil(lDeadline, lAbortCount))
+        return DCAMERR.DCAMERR_ABORT;
+    }
+
+    lWaitStart.eventhappened(lRecord.mOutputs[0]);
+    return DcamErrors.fromCode(lRecord.mReturnCode);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitAbort(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    mAbortCount.incrementAndGet();
+    return replay(DcamFunction.WAIT_ABORT, getPeer(hWait), 0);
+  }
+
+  private static final class ReplayKey
+  {
+    private final DcamFunction mFunction;
+    private final long mHandle;
+    private final long mArgument;
+
+    ReplayKey(final DcamFunction pFunction,
+              final long pHandle,
+              final long pArgument)
+    {
+      mFunction = pFunction;
+      mHandle = pHandle;
+      mArgument = pArgument;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (31 * mFunction.hashCode() + Long.hashCode(mHandle))
+             + Long.hashCode(mArgument);
+    }
+
+    @Override
+    public boolean equals(final Object pObject)
+    {
+      if (!(pObject instanceof ReplayKey))
+        return false;
+      final ReplayKey lKey = (ReplayKey) pObject;
+      return mFunction == lKey.mFunction && mHandle == lKey.mHandle
+             && mArgument == lKey.mArgument;
+    }
+  }
+
+}
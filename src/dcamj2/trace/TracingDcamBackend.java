@@ -0,0 +1,666 @@
+package dcamj2.trace;
+
+import static org.bridj.Pointer.getPeer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import dcamapi.DCAMAPI_INIT;
+import dcamapi.DCAMBUF_ATTACH;
+import dcamapi.DCAMCAP_TRANSFERINFO;
+import dcamapi.DCAMDEV_OPEN;
+import dcamapi.DCAMDEV_STRING;
+import dcamapi.DCAMWAIT_OPEN;
+import dcamapi.DCAMWAIT_START;
+import dcamapi.DCAM_FRAME;
+import dcamapi.DCAM_PROPERTYATTR;
+import dcamapi.DcamapiLibrary.DCAMCAP_STATUS;
+import dcamapi.DcamapiLibrary.DCAMERR;
+import dcamapi.DcamapiLibrary.DCAMIDPROP;
+import dcamapi.HDCAMWAIT_struct;
+import dcamapi.HDCAM_struct;
+import dcamj2.backend.DcamBackend;
+import dcamj2.backend.DcamFunction;
+
+import org.bridj.IntValuedEnum;
+import org.bridj.Pointer;
+
+/**
+ * Dcam backend that forwards every call to another backend and records it,
+ * with its arguments, return code, outputs and wall-clock duration, to a
+ * binary trace (see {@link DcamTraceFormat}). The trace can be replayed
+ * without hardware by {@link ReplayDcamBackend}.
+ *
+ * @author royer
+ */
+public class TracingDcamBackend implements DcamBackend, Closeable
+{
+  private static final long[] cNoOutputs = new long[0];
+  private static final byte[] cNoText = new byte[0];
+
+  private final DcamBackend mDelegate;
+  private final DataOutputStream mOutput;
+  private final long mStartNanos;
+  private volatile boolean mFailed;
+
+  /**
+   * Instantiates a tracing backend
+   *
+   * @param pDelegate
+   *          backend that actually executes the calls
+   * @param pOutputStream
+   *          stream receiving the trace
+   * @throws IOException
+   *           if the trace header cannot be written
+   */
+  public TracingDcamBackend(final DcamBackend pDelegate,
+                            final OutputStream pOutputStream) throws IOException
+  {
+    mDelegate = pDelegate;
+    mOutput =
+            new DataOutputStream(new BufferedOutputStream(pOutputStream,
+                                                          1 << 16));
+    mStartNanos = System.nanoTime();
+    DcamTraceFormat.writeHeader(mOutput, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the backend being traced
+   *
+   * @return delegate backend
+   */
+  public DcamBackend getDelegate()
+  {
+    return mDelegate;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "trace(" + mDelegate.getName() + ")";
+  }
+
+  /**
+   * Flushes the trace
+   */
+  public void flush()
+  {
+    synchronized (mOutput)
+    {
+      try
+      {
+        mOutput.flush();
+      }
+      catch (IOException e)
+      {
+        fail(e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (mOutput)
+    {
+      mOutput.close();
+    }
+  }
+
+  private IntValuedEnum<DCAMERR> record(final DcamFunction pFunction,
+                                        final long pStartNanos,
+                                        final long pHandle,
+                                        final long pArgument,
+                                        final long pArgument2,
+                                        final IntValuedEnum<DCAMERR> pError,
+                                        final long[] pOutputs,
+                                        final byte[] pText)
+  {
+    final long lStopNanos = System.nanoTime();
+    if (mFailed)
+      return pError;
+
+    final DcamTraceRecord lRecord =
+                                  new DcamTraceRecord(pFunction,
+                                                      pStartNanos
+                                                                 - mStartNanos,
+                                                      lStopNanos
+                                                                     - pStartNanos,
+                                                      pHandle,
+                                                      pArgument,
+                                                      pArgument2,
+                                                      (int) pError.value(),
+                                                      pOutputs,
+                                                      pText);
+    synchronized (mOutput)
+    {
+      try
+      {
+        DcamTraceFormat.writeRecord(mOutput, lRecord);
+      }
+      catch (IOException e)
+      {
+        fail(e);
+      }
+    }
+    return pError;
+  }
+
+  private IntValuedEnum<DCAMERR> record(final DcamFunction pFunction,
+                                        final long pStartNanos,
+                                        final long pHandle,
+                                        final long pArgument,
+                                        final IntValuedEnum<DCAMERR> pError)
+  {
+    return record(pFunction,
+                  pStartNanos,
+                  pHandle,
+                  pArgument,
+                  0,
+                  pError,
+                  cNoOutputs,
+                  cNoText);
+  }
+
+  private void fail(final IOException pException)
+  {
+    // Tracing must never break an acquisition, we just stop recording:
+    mFailed = true;
+    System.err.println("DcamJ: trace could not be written, tracing stopped: "
+                       + pException);
+  }
+
+  private static byte[] text(final Pointer<Byte> pText)
+  {
+    if (pText == null)
+      return cNoText;
+    final byte[] lBytes = pText.getCString()
+                               .getBytes(StandardCharsets.UTF_8);
+    return lBytes.length <= Short.MAX_VALUE ? lBytes : cNoText;
+  }
+
+  // Initialization:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiInit(final Pointer<DCAMAPI_INIT> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamapiInit(param);
+    return record(DcamFunction.API_INIT,
+                  lStart,
+                  0,
+                  0,
+                  0,
+                  lError,
+                  new long[]
+                  { param.get().iDeviceCount() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamapiUninit()
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamapiUninit();
+    record(DcamFunction.API_UNINIT, lStart, 0, 0, lError);
+    flush();
+    return lError;
+  }
+
+  // Device:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevOpen(final Pointer<DCAMDEV_OPEN> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamdevOpen(param);
+    final DCAMDEV_OPEN lOpen = param.get();
+    return record(DcamFunction.DEV_OPEN,
+                  lStart,
+                  0,
+                  lOpen.index(),
+                  0,
+                  lError,
+                  new long[]
+                  { getPeer(lOpen.hdcam()) },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevClose(final Pointer<HDCAM_struct> h)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamdevClose(h);
+    return record(DcamFunction.DEV_CLOSE, lStart, getPeer(h), 0, lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevShowpanel(final Pointer<HDCAM_struct> h,
+                                                 final long iKind)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamdevShowpanel(h,
+                                                                     iKind);
+    return record(DcamFunction.DEV_SHOWPANEL,
+                  lStart,
+                  getPeer(h),
+                  iKind,
+                  lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamdevGetstring(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAMDEV_STRING> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamdevGetstring(h,
+                                                                     param);
+    final DCAMDEV_STRING lString = param.get();
+    return record(DcamFunction.DEV_GETSTRING,
+                  lStart,
+                  getPeer(h),
+                  lString.iString(),
+                  0,
+                  lError,
+                  cNoOutputs,
+                  text(lString.text()));
+  }
+
+  // Properties:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetattr(final Pointer<HDCAM_struct> h,
+                                                final Pointer<DCAM_PROPERTYATTR> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcampropGetattr(h,
+                                                                    param);
+    final DCAM_PROPERTYATTR lAttr = param.get();
+    return record(DcamFunction.PROP_GETATTR,
+                  lStart,
+                  getPeer(h),
+                  lAttr.iProp(),
+                  lAttr.option(),
+                  lError,
+                  new long[]
+                  { lAttr.attribute().value(),
+                    lAttr.iGroup(),
+                    lAttr.iUnit().value(),
+                    Double.doubleToRawLongBits(lAttr.valuemin()),
+                    Double.doubleToRawLongBits(lAttr.valuemax()),
+                    Double.doubleToRawLongBits(lAttr.valuestep()),
+                    Double.doubleToRawLongBits(lAttr.valuedefault()),
+                    lAttr.nMaxChannel(),
+                    lAttr.nMaxView(),
+                    lAttr.iPropNumberOfElement(),
+                    lAttr.iPropArrayBase(),
+                    lAttr.iPropStepElement() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final Pointer<Double> pValue)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcampropGetvalue(h,
+                                                                     iProp,
+                                                                     pValue);
+    return record(DcamFunction.PROP_GETVALUE,
+                  lStart,
+                  getPeer(h),
+                  iProp,
+                  0,
+                  lError,
+                  new long[]
+                  { Double.doubleToRawLongBits(pValue.getDouble()) },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetvalue(final Pointer<HDCAM_struct> h,
+                                                 final long iProp,
+                                                 final double fValue)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcampropSetvalue(h,
+                                                                     iProp,
+                                                                     fValue);
+    return record(DcamFunction.PROP_SETVALUE,
+                  lStart,
+                  getPeer(h),
+                  iProp,
+                  Double.doubleToRawLongBits(fValue),
+                  lError,
+                  cNoOutputs,
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropSetgetvalue(final Pointer<HDCAM_struct> h,
+                                                    final long iProp,
+                                                    final Pointer<Double> pValue,
+                                                    final long option)
+  {
+    final double lRequested = pValue.getDouble();
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError =
+                                        mDelegate.dcampropSetgetvalue(h,
+                                                                      iProp,
+                                                                      pValue,
+                                                                      option);
+    return record(DcamFunction.PROP_SETGETVALUE,
+                  lStart,
+                  getPeer(h),
+                  iProp,
+                  Double.doubleToRawLongBits(lRequested),
+                  lError,
+                  new long[]
+                  { Double.doubleToRawLongBits(pValue.getDouble()) },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropQueryvalue(final Pointer<HDCAM_struct> h,
+                                                   final long iProp,
+                                                   final Pointer<Double> pValue,
+                                                   final long option)
+  {
+    final double lRequested = pValue.getDouble();
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError =
+                                        mDelegate.dcampropQueryvalue(h,
+                                                                     iProp,
+                                                                     pValue,
+                                                                     option);
+    return record(DcamFunction.PROP_QUERYVALUE,
+                  lStart,
+                  getPeer(h),
+                  iProp,
+                  option,
+                  lError,
+                  new long[]
+                  { Double.doubleToRawLongBits(lRequested),
+                    Double.doubleToRawLongBits(pValue.getDouble()) },
+                  cNoText);
+  }
+
+  @SuppressWarnings(
+  { "unchecked", "rawtypes" })
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetnextid(final Pointer<HDCAM_struct> h,
+                                                  final Pointer<IntValuedEnum<DCAMIDPROP>> pProp,
+                                                  final long option)
+  {
+    final Pointer lPointer = pProp;
+    final long lCurrentId = lPointer.getCLong();
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcampropGetnextid(h,
+                                                                      pProp,
+                                                                      option);
+    return record(DcamFunction.PROP_GETNEXTID,
+                  lStart,
+                  getPeer(h),
+                  lCurrentId,
+                  option,
+                  lError,
+                  new long[]
+                  { lPointer.getCLong() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcampropGetname(final Pointer<HDCAM_struct> h,
+                                                final long iProp,
+                                                final Pointer<Byte> text,
+                                                final long textbytes)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcampropGetname(h,
+                                                                    iProp,
+                                                                    text,
+                                                                    textbytes);
+    return record(DcamFunction.PROP_GETNAME,
+                  lStart,
+                  getPeer(h),
+                  iProp,
+                  0,
+                  lError,
+                  cNoOutputs,
+                  text(text));
+  }
+
+  // Buffers:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAlloc(final Pointer<HDCAM_struct> h,
+                                             final long framecount)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcambufAlloc(h,
+                                                                 framecount);
+    return record(DcamFunction.BUF_ALLOC,
+                  lStart,
+                  getPeer(h),
+                  framecount,
+                  lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufAttach(final Pointer<HDCAM_struct> h,
+                                              final Pointer<DCAMBUF_ATTACH> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcambufAttach(h,
+                                                                  param);
+    return record(DcamFunction.BUF_ATTACH,
+                  lStart,
+                  getPeer(h),
+                  param.get().buffercount(),
+                  lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufRelease(final Pointer<HDCAM_struct> h,
+                                               final long iKind)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcambufRelease(h,
+                                                                   iKind);
+    return record(DcamFunction.BUF_RELEASE,
+                  lStart,
+                  getPeer(h),
+                  iKind,
+                  lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufLockframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    final long lFrameIndex = pFrame.get().iFrame();
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcambufLockframe(h,
+                                                                     pFrame);
+    return record(DcamFunction.BUF_LOCKFRAME,
+                  lStart,
+                  getPeer(h),
+                  lFrameIndex,
+                  0,
+                  lError,
+                  frameOutputs(pFrame.get()),
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcambufCopyframe(final Pointer<HDCAM_struct> h,
+                                                 final Pointer<DCAM_FRAME> pFrame)
+  {
+    final long lFrameIndex = pFrame.get().iFrame();
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcambufCopyframe(h,
+                                                                     pFrame);
+    return record(DcamFunction.BUF_COPYFRAME,
+                  lStart,
+                  getPeer(h),
+                  lFrameIndex,
+                  0,
+                  lError,
+                  frameOutputs(pFrame.get()),
+                  cNoText);
+  }
+
+  private static long[] frameOutputs(final DCAM_FRAME pFrame)
+  {
+    return new long[]
+    { pFrame.iFrame(),
+      pFrame.rowbytes(),
+      pFrame.type().value(),
+      pFrame.width(),
+      pFrame.height(),
+      pFrame.left(),
+      pFrame.top(),
+      pFrame.framestamp() };
+  }
+
+  // Capture:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStart(final Pointer<HDCAM_struct> h,
+                                             final long mode)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamcapStart(h, mode);
+    return record(DcamFunction.CAP_START, lStart, getPeer(h), mode, lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStop(final Pointer<HDCAM_struct> h)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamcapStop(h);
+    return record(DcamFunction.CAP_STOP, lStart, getPeer(h), 0, lError);
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapStatus(final Pointer<HDCAM_struct> h,
+                                              final Pointer<IntValuedEnum<DCAMCAP_STATUS>> pStatus)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamcapStatus(h,
+                                                                  pStatus);
+    return record(DcamFunction.CAP_STATUS,
+                  lStart,
+                  getPeer(h),
+                  0,
+                  0,
+                  lError,
+                  new long[]
+                  { ((Pointer) pStatus).getCLong() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapTransferinfo(final Pointer<HDCAM_struct> h,
+                                                    final Pointer<DCAMCAP_TRANSFERINFO> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError =
+                                        mDelegate.dcamcapTransferinfo(h,
+                                                                      param);
+    final DCAMCAP_TRANSFERINFO lTransferInfo = param.get();
+    return record(DcamFunction.CAP_TRANSFERINFO,
+                  lStart,
+                  getPeer(h),
+                  0,
+                  0,
+                  lError,
+                  new long[]
+                  { lTransferInfo.nNewestFrameIndex(),
+                    lTransferInfo.nFrameCount() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamcapFiretrigger(final Pointer<HDCAM_struct> h,
+                                                   final long iKind)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamcapFiretrigger(h,
+                                                                       iKind);
+    return record(DcamFunction.CAP_FIRETRIGGER,
+                  lStart,
+                  getPeer(h),
+                  iKind,
+                  lError);
+  }
+
+  // Wait:
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitOpen(final Pointer<DCAMWAIT_OPEN> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamwaitOpen(param);
+    final DCAMWAIT_OPEN lOpen = param.get();
+    return record(DcamFunction.WAIT_OPEN,
+                  lStart,
+                  getPeer(lOpen.hdcam()),
+                  0,
+                  0,
+                  lError,
+                  new long[]
+                  { getPeer(lOpen.hwait()), lOpen.supportevent() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitClose(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamwaitClose(hWait);
+    return record(DcamFunction.WAIT_CLOSE,
+                  lStart,
+                  getPeer(hWait),
+                  0,
+                  lError);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitStart(final Pointer<HDCAMWAIT_struct> hWait,
+                                              final Pointer<DCAMWAIT_START> param)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamwaitStart(hWait,
+                                                                  param);
+    final DCAMWAIT_START lWaitStart = param.get();
+    return record(DcamFunction.WAIT_START,
+                  lStart,
+                  getPeer(hWait),
+                  lWaitStart.eventmask(),
+                  lWaitStart.timeout(),
+                  lError,
+                  new long[]
+                  { lWaitStart.eventhappened() },
+                  cNoText);
+  }
+
+  @Override
+  public IntValuedEnum<DCAMERR> dcamwaitAbort(final Pointer<HDCAMWAIT_struct> hWait)
+  {
+    final long lStart = System.nanoTime();
+    final IntValuedEnum<DCAMERR> lError = mDelegate.dcamwaitAbort(hWait);
+    return record(DcamFunction.WAIT_ABORT,
+                  lStart,
+                  getPeer(hWait),
+                  0,
+                  lError);
+  }
+
+}